@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.benchmarks;
+
+import com.google.cloud.dataflow.sdk.coders.AvroCoder;
+import com.google.cloud.dataflow.sdk.coders.BigEndianLongCoder;
+import com.google.cloud.dataflow.sdk.coders.ByteArrayCoder;
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.IterableCoder;
+import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
+import com.google.cloud.dataflow.sdk.coders.VarLongCoder;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.values.KV;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks encoding and decoding a typical value with each of the standard
+ * coders, through {@link CoderUtils}.
+ *
+ * <p> Along with its throughput, each benchmark reports the bytes encoded or
+ * decoded per second as the {@code bytes} secondary result; run with
+ * {@code -prof gc} for allocation rates.
+ */
+@State(Scope.Thread)
+public class CoderBenchmark {
+  /** A record encoded with {@link AvroCoder}. */
+  public static class AvroRecord {
+    public String name;
+    public long count;
+    public double score;
+  }
+
+  /** Counts the encoded bytes, which JMH reports as a secondary result. */
+  @State(Scope.Thread)
+  @AuxCounters
+  public static class EncodedBytes {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytes = 0;
+    }
+  }
+
+  @Param({"StringUtf8Coder", "VarIntCoder", "VarLongCoder", "BigEndianLongCoder",
+      "ByteArrayCoder", "KvCoder", "IterableCoder", "AvroCoder"})
+  public String coder;
+
+  private Coder<Object> benchmarkedCoder;
+  private Object value;
+  private byte[] encoded;
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    switch (coder) {
+      case "StringUtf8Coder":
+        setUp(StringUtf8Coder.of(), "a string of about forty characters long!");
+        break;
+      case "VarIntCoder":
+        setUp(VarIntCoder.of(), 123456);
+        break;
+      case "VarLongCoder":
+        setUp(VarLongCoder.of(), 1234567890123L);
+        break;
+      case "BigEndianLongCoder":
+        setUp(BigEndianLongCoder.of(), 1234567890123L);
+        break;
+      case "ByteArrayCoder":
+        setUp(ByteArrayCoder.of(), new byte[100]);
+        break;
+      case "KvCoder":
+        setUp(KvCoder.of(StringUtf8Coder.of(), VarLongCoder.of()), KV.of("key", 42L));
+        break;
+      case "IterableCoder":
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+          strings.add("element " + i);
+        }
+        setUp(IterableCoder.of(StringUtf8Coder.of()), strings);
+        break;
+      case "AvroCoder":
+        AvroRecord record = new AvroRecord();
+        record.name = "a record";
+        record.count = 42;
+        record.score = 0.5;
+        setUp(AvroCoder.of(AvroRecord.class), record);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown coder: " + coder);
+    }
+    encoded = CoderUtils.encodeToByteArray(benchmarkedCoder, value);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> void setUp(Coder<T> coder, T value) {
+    this.benchmarkedCoder = (Coder<Object>) coder;
+    this.value = value;
+  }
+
+  @Benchmark
+  public byte[] encode(EncodedBytes counters) throws Exception {
+    byte[] result = CoderUtils.encodeToByteArray(benchmarkedCoder, value);
+    counters.bytes += result.length;
+    return result;
+  }
+
+  @Benchmark
+  public Object decode(EncodedBytes counters) throws Exception {
+    counters.bytes += encoded.length;
+    return CoderUtils.decodeFromByteArray(benchmarkedCoder, encoded);
+  }
+}
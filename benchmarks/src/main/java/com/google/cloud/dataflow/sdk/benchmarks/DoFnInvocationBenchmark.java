@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.benchmarks;
+
+import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
+import com.google.cloud.dataflow.sdk.transforms.DoFn;
+import com.google.cloud.dataflow.sdk.transforms.DoFnReflector;
+import com.google.cloud.dataflow.sdk.transforms.DoFnWithContext;
+import com.google.cloud.dataflow.sdk.util.DirectModeExecutionContext;
+import com.google.cloud.dataflow.sdk.util.DoFnRunner;
+import com.google.cloud.dataflow.sdk.util.PTuple;
+import com.google.cloud.dataflow.sdk.util.WindowedValue;
+import com.google.cloud.dataflow.sdk.util.WindowingStrategy;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+import com.google.cloud.dataflow.sdk.values.TupleTag;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+
+/**
+ * Benchmarks the per-element cost of running a trivial {@link DoFn} through
+ * a {@link DoFnRunner}, compared to the same function written as a
+ * {@link DoFnWithContext} and invoked through its {@link DoFnReflector}.
+ */
+@State(Scope.Thread)
+public class DoFnInvocationBenchmark {
+  @Param({"DoFn", "DoFnWithContext"})
+  public String fnType;
+
+  private DoFnRunner<Long, Long, Void> runner;
+  private WindowedValue<Long> element;
+  private Blackhole blackhole;
+
+  @Setup
+  public void setUp() {
+    DoFn<Long, Long> fn = fnType.equals("DoFn")
+        ? new IncrementDoFn()
+        : DoFnReflector.of(IncrementDoFnWithContext.class)
+            .toDoFn(new IncrementDoFnWithContext());
+    runner = DoFnRunner.create(
+        PipelineOptionsFactory.create(),
+        fn,
+        PTuple.empty(),
+        new DoFnRunner.OutputManager<Void>() {
+          @Override
+          public Void initialize(TupleTag<?> tag) {
+            return null;
+          }
+
+          @Override
+          public void output(Void receiver, WindowedValue<?> output) {
+            DoFnInvocationBenchmark.this.blackhole.consume(output);
+          }
+        },
+        new TupleTag<Long>(),
+        new ArrayList<TupleTag<?>>(),
+        new DirectModeExecutionContext().createStepContext("fn"),
+        new CounterSet().getAddCounterMutator(),
+        WindowingStrategy.globalDefault());
+    runner.startBundle();
+    element = WindowedValue.valueInGlobalWindow(42L);
+  }
+
+  @Benchmark
+  public void processElement(Blackhole blackhole) {
+    this.blackhole = blackhole;
+    runner.processElement(element);
+  }
+
+  static class IncrementDoFn extends DoFn<Long, Long> {
+    private static final long serialVersionUID = 0;
+
+    @Override
+    public void processElement(ProcessContext c) {
+      c.output(c.element() + 1);
+    }
+  }
+
+  static class IncrementDoFnWithContext extends DoFnWithContext<Long, Long> {
+    private static final long serialVersionUID = 0;
+
+    @ProcessElement
+    public void processElement(ProcessContext c) {
+      c.output(c.element() + 1);
+    }
+  }
+}
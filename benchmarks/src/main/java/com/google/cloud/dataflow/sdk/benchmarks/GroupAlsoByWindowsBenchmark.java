@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.benchmarks;
+
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
+import com.google.cloud.dataflow.sdk.transforms.windowing.FixedWindows;
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+import com.google.cloud.dataflow.sdk.util.DirectModeExecutionContext;
+import com.google.cloud.dataflow.sdk.util.DoFnRunner;
+import com.google.cloud.dataflow.sdk.util.GroupAlsoByWindowsDoFn;
+import com.google.cloud.dataflow.sdk.util.PTuple;
+import com.google.cloud.dataflow.sdk.util.WindowedValue;
+import com.google.cloud.dataflow.sdk.util.WindowingStrategy;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.cloud.dataflow.sdk.values.TupleTag;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks grouping the values of a key into fixed windows, which the
+ * batch worker does with {@code GroupAlsoByWindowsViaIteratorsDoFn}.
+ *
+ * <p> Each invocation groups {@link #ELEMENTS} timestamped values of a single
+ * key into windows of {@code windowMillis}, and iterates every resulting
+ * group, so the reported time is per input value.
+ */
+@State(Scope.Thread)
+public class GroupAlsoByWindowsBenchmark {
+  static final int ELEMENTS = 100_000;
+
+  @Param({"10", "1000", "100000"})
+  public long windowMillis;
+
+  private WindowingStrategy<Object, IntervalWindow> windowingStrategy;
+  private WindowedValue<KV<String, Iterable<WindowedValue<String>>>> input;
+
+  @Setup
+  public void setUp() {
+    windowingStrategy = WindowingStrategy.of(FixedWindows.of(Duration.millis(windowMillis)));
+    List<WindowedValue<String>> values = new ArrayList<>(ELEMENTS);
+    for (int i = 0; i < ELEMENTS; i++) {
+      // Shuffle delivers values sorted by timestamp.
+      values.add(WindowedValue.of("value" + i, new Instant(i), new IntervalWindow(
+          new Instant(i - i % windowMillis), new Instant(i - i % windowMillis + windowMillis))));
+    }
+    input = WindowedValue.valueInGlobalWindow(
+        KV.<String, Iterable<WindowedValue<String>>>of("key", values));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ELEMENTS)
+  public void groupAlsoByWindows(final Blackhole blackhole) {
+    GroupAlsoByWindowsDoFn<String, String, Iterable<String>, IntervalWindow> fn =
+        GroupAlsoByWindowsDoFn.createForIterable(windowingStrategy, StringUtf8Coder.of());
+    DoFnRunner<KV<String, Iterable<WindowedValue<String>>>, KV<String, Iterable<String>>, Void>
+        runner = DoFnRunner.create(
+            PipelineOptionsFactory.create(),
+            fn,
+            PTuple.empty(),
+            new DoFnRunner.OutputManager<Void>() {
+              @Override
+              public Void initialize(TupleTag<?> tag) {
+                return null;
+              }
+
+              @Override
+              public void output(Void receiver, WindowedValue<?> output) {
+                // Iterate each group, as the consuming operation would.
+                KV<?, ?> group = (KV<?, ?>) output.getValue();
+                for (Object value : (Iterable<?>) group.getValue()) {
+                  blackhole.consume(value);
+                }
+              }
+            },
+            new TupleTag<KV<String, Iterable<String>>>(),
+            new ArrayList<TupleTag<?>>(),
+            new DirectModeExecutionContext().createStepContext("gabw"),
+            new CounterSet().getAddCounterMutator(),
+            windowingStrategy);
+    runner.startBundle();
+    runner.processElement(input);
+    runner.finishBundle();
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.benchmarks;
+
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.BufferingGroupingTable;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.Combiner;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.CombiningGroupingTable;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.GroupingKeyCreator;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.PairInfo;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.SizeEstimator;
+import com.google.cloud.dataflow.sdk.util.common.worker.Receiver;
+import com.google.cloud.dataflow.sdk.values.KV;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks the grouping tables of the partial group-by-key operation,
+ * which buffer or combine every element before a shuffle.
+ *
+ * <p> Each invocation puts {@link #ELEMENTS} pairs over {@code keys} distinct
+ * keys into a table and flushes it, so the reported time is per element.
+ */
+@State(Scope.Thread)
+public class GroupingTableBenchmark {
+  static final int ELEMENTS = 100_000;
+
+  @Param({"10", "1000", "100000"})
+  public int keys;
+
+  private List<KV<String, Long>> pairs;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    pairs = new ArrayList<>(ELEMENTS);
+    for (int i = 0; i < ELEMENTS; i++) {
+      pairs.add(KV.of("key" + random.nextInt(keys), (long) i));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ELEMENTS)
+  public void buffering(Blackhole blackhole) throws Exception {
+    BufferingGroupingTable<String, Long> table = new BufferingGroupingTable<>(
+        100_000_000L, IDENTITY, KV_PAIR_INFO, STRING_SIZER, LONG_SIZER);
+    run(table, new BlackholeReceiver(blackhole));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ELEMENTS)
+  public void combining(Blackhole blackhole) throws Exception {
+    CombiningGroupingTable<String, Long, Long> table = new CombiningGroupingTable<>(
+        100_000_000L, IDENTITY, KV_PAIR_INFO, SUM, STRING_SIZER, LONG_SIZER);
+    run(table, new BlackholeReceiver(blackhole));
+  }
+
+  private void run(BufferingGroupingTable<String, Long> table, Receiver receiver)
+      throws Exception {
+    for (KV<String, Long> pair : pairs) {
+      table.put(pair, receiver);
+    }
+    table.flush(receiver);
+  }
+
+  private void run(CombiningGroupingTable<String, Long, Long> table, Receiver receiver)
+      throws Exception {
+    for (KV<String, Long> pair : pairs) {
+      table.put(pair, receiver);
+    }
+    table.flush(receiver);
+  }
+
+  private static class BlackholeReceiver implements Receiver {
+    private final Blackhole blackhole;
+
+    BlackholeReceiver(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void process(Object outputElem) {
+      blackhole.consume(outputElem);
+    }
+  }
+
+  private static final GroupingKeyCreator<String> IDENTITY = new GroupingKeyCreator<String>() {
+    @Override
+    public Object createGroupingKey(String key) {
+      return key;
+    }
+  };
+
+  private static final SizeEstimator<String> STRING_SIZER = new SizeEstimator<String>() {
+    @Override
+    public long estimateSize(String element) {
+      return 2 * element.length();
+    }
+  };
+
+  private static final SizeEstimator<Long> LONG_SIZER = new SizeEstimator<Long>() {
+    @Override
+    public long estimateSize(Long element) {
+      return 8;
+    }
+  };
+
+  private static final PairInfo KV_PAIR_INFO = new PairInfo() {
+    @Override
+    public Object getKeyFromInputPair(Object pair) {
+      return ((KV<?, ?>) pair).getKey();
+    }
+
+    @Override
+    public Object getValueFromInputPair(Object pair) {
+      return ((KV<?, ?>) pair).getValue();
+    }
+
+    @Override
+    public Object makeOutputPair(Object key, Object value) {
+      return KV.of(key, value);
+    }
+  };
+
+  private static final Combiner<String, Long, Long, Long> SUM =
+      new Combiner<String, Long, Long, Long>() {
+        @Override
+        public Long createAccumulator(String key) {
+          return 0L;
+        }
+
+        @Override
+        public Long add(String key, Long accumulator, Long value) {
+          return accumulator + value;
+        }
+
+        @Override
+        public Long merge(String key, Iterable<Long> accumulators) {
+          long sum = 0;
+          for (Long accumulator : accumulators) {
+            sum += accumulator;
+          }
+          return sum;
+        }
+
+        @Override
+        public Long extract(String key, Long accumulator) {
+          return accumulator;
+        }
+      };
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.benchmarks;
+
+import com.google.cloud.dataflow.sdk.runners.worker.OrderedCode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Benchmarks {@link OrderedCode}, which encodes the sortable keys and
+ * positions of shuffle entries, with a typical key of a byte string and
+ * two numbers.
+ */
+@State(Scope.Thread)
+public class OrderedCodeBenchmark {
+  private final byte[] bytes = "a shuffle key".getBytes(StandardCharsets.UTF_8);
+  private byte[] encoded;
+
+  @Setup
+  public void setUp() {
+    encoded = encode();
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    OrderedCode orderedCode = new OrderedCode();
+    orderedCode.writeBytes(bytes);
+    orderedCode.writeNumIncreasing(1234567890123L);
+    orderedCode.writeSignedNumIncreasing(-42L);
+    return orderedCode.getEncodedBytes();
+  }
+
+  @Benchmark
+  public long decode() {
+    OrderedCode orderedCode = new OrderedCode(encoded);
+    return orderedCode.readBytes().length
+        + orderedCode.readNumIncreasing()
+        + orderedCode.readSignedNumIncreasing();
+  }
+}
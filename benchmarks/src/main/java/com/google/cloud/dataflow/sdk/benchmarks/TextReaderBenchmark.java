@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.benchmarks;
+
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.io.TextIO;
+import com.google.cloud.dataflow.sdk.runners.worker.TextReader;
+import com.google.cloud.dataflow.sdk.util.common.worker.Reader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Benchmarks reading a local text file of {@link #LINES} lines with
+ * {@link TextReader}, uncompressed and gzipped. The reported time is per
+ * line.
+ */
+@State(Scope.Thread)
+public class TextReaderBenchmark {
+  static final int LINES = 100_000;
+
+  @Param({"UNCOMPRESSED", "GZIP"})
+  public TextIO.CompressionType compressionType;
+
+  private File file;
+
+  @Setup
+  public void setUp() throws Exception {
+    file = File.createTempFile("text-reader-benchmark", ".txt");
+    OutputStream out = new FileOutputStream(file);
+    if (compressionType == TextIO.CompressionType.GZIP) {
+      out = new GZIPOutputStream(out);
+    }
+    try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+      for (int i = 0; i < LINES; i++) {
+        writer.write("line " + i + " of a text file read by the benchmark\n");
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LINES)
+  public void read(Blackhole blackhole) throws Exception {
+    TextReader<String> reader = new TextReader<>(
+        file.getPath(), true, null, null, StringUtf8Coder.of(), compressionType);
+    try (Reader.ReaderIterator<String> iterator = reader.iterator()) {
+      while (iterator.hasNext()) {
+        blackhole.consume(iterator.next());
+      }
+    }
+  }
+}
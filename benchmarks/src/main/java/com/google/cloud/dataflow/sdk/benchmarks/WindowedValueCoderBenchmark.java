@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.benchmarks;
+
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.WindowedValue;
+import com.google.cloud.dataflow.sdk.util.WindowedValue.FullWindowedValueCoder;
+
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks {@link FullWindowedValueCoder}, which encodes every element
+ * shuffled or persisted by a worker, for values in the global window and in
+ * one or more interval windows.
+ */
+@State(Scope.Thread)
+public class WindowedValueCoderBenchmark {
+  @Param({"global", "1", "3"})
+  public String windows;
+
+  private FullWindowedValueCoder<String> coder;
+  private WindowedValue<String> value;
+  private byte[] encoded;
+
+  @Setup
+  public void setUp() throws Exception {
+    if (windows.equals("global")) {
+      coder = WindowedValue.getFullCoder(StringUtf8Coder.of(), GlobalWindow.Coder.INSTANCE);
+      value = WindowedValue.valueInGlobalWindow("a string of about forty characters long!");
+    } else {
+      coder = WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+      List<BoundedWindow> intervalWindows = new ArrayList<>();
+      for (int i = 0; i < Integer.parseInt(windows); i++) {
+        intervalWindows.add(
+            new IntervalWindow(new Instant(i * 1000L), new Instant(i * 1000L + 3000L)));
+      }
+      value = WindowedValue.of(
+          "a string of about forty characters long!", new Instant(2500L), intervalWindows);
+    }
+    encoded = CoderUtils.encodeToByteArray(coder, value);
+  }
+
+  @Benchmark
+  public byte[] encode() throws Exception {
+    return CoderUtils.encodeToByteArray(coder, value);
+  }
+
+  @Benchmark
+  public WindowedValue<String> decode() throws Exception {
+    return CoderUtils.decodeFromByteArray(coder, encoded);
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
+import com.google.cloud.dataflow.sdk.transforms.DoFn;
+import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.DefaultTrigger;
+import com.google.cloud.dataflow.sdk.transforms.windowing.FixedWindows;
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Sessions;
+import com.google.cloud.dataflow.sdk.transforms.windowing.WindowFn;
+import com.google.cloud.dataflow.sdk.util.WindowingStrategy.AccumulationMode;
+import com.google.cloud.dataflow.sdk.values.CodedTupleTag;
+import com.google.cloud.dataflow.sdk.values.CodedTupleTagMap;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.cloud.dataflow.sdk.values.TupleTag;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks the {@link TriggerExecutor} with the default trigger, which
+ * fires each window once the watermark passes its end, as used by streaming
+ * group-by-key.
+ *
+ * <p> Each invocation feeds {@link #ELEMENTS} elements, already assigned to
+ * fixed or session windows, to a fresh executor, advancing the watermark every
+ * 100 elements, so the reported time is per element. The executor and its
+ * in-memory state are created before the invocation. The benchmark is in the
+ * package of the executor to reach its package-private window sets.
+ */
+@State(Scope.Thread)
+public class TriggerExecutorBenchmark {
+  static final int ELEMENTS = 10_000;
+  static final long WINDOW_MILLIS = 10;
+
+  @Param({"fixed", "sessions"})
+  public String windowFn;
+
+  private WindowingStrategy<Object, IntervalWindow> strategy;
+  private AbstractWindowSet.Factory<String, Integer, Iterable<Integer>, IntervalWindow> factory;
+  private List<WindowedValue<Integer>> values;
+
+  private InMemoryState state;
+  private BatchTimerManager timerManager;
+  private TriggerExecutor<String, Integer, Iterable<Integer>, IntervalWindow> executor;
+
+  @Setup
+  public void setUp() {
+    boolean fixed = windowFn.equals("fixed");
+    WindowFn<Object, IntervalWindow> fn = fixed
+        ? FixedWindows.of(Duration.millis(WINDOW_MILLIS))
+        : Sessions.withGapDuration(Duration.millis(WINDOW_MILLIS));
+    strategy = WindowingStrategy.of(fn)
+        .withTrigger(DefaultTrigger.<IntervalWindow>of())
+        .withMode(AccumulationMode.DISCARDING_FIRED_PANES);
+    factory = AbstractWindowSet.<String, Integer, IntervalWindow>factoryFor(
+        strategy, VarIntCoder.of());
+
+    values = new ArrayList<>(ELEMENTS);
+    for (int i = 0; i < ELEMENTS; i++) {
+      long start = fixed ? i - i % WINDOW_MILLIS : i;
+      values.add(WindowedValue.of(i, new Instant(i),
+          new IntervalWindow(new Instant(start), new Instant(start + WINDOW_MILLIS))));
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void setUpExecutor() throws Exception {
+    state = new InMemoryState();
+    timerManager = new BatchTimerManager(new Instant(0));
+    executor = TriggerExecutor.create("key", strategy, timerManager, factory, state, state);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ELEMENTS)
+  public int defaultTrigger() throws Exception {
+    for (int i = 0; i < ELEMENTS; i++) {
+      executor.onElement(values.get(i));
+      if (i % 100 == 99) {
+        timerManager.advanceWatermark(executor, new Instant(i - 50));
+      }
+    }
+    executor.merge();
+    timerManager.advanceWatermark(executor, new Instant(Long.MAX_VALUE));
+    return state.outputs;
+  }
+
+  /**
+   * Keyed state and tag lists of a single key, kept in memory, which count
+   * the outputs of the executor.
+   */
+  private static class InMemoryState implements DoFn.KeyedState,
+      WindowingInternals<Object, KV<String, Iterable<Integer>>> {
+    private final Map<CodedTupleTag<?>, Object> tagValues = new HashMap<>();
+    private final Map<CodedTupleTag<?>, List<Object>> tagListValues = new HashMap<>();
+    private int outputs;
+
+    @Override
+    public void outputWindowedValue(KV<String, Iterable<Integer>> output, Instant timestamp,
+        Collection<? extends BoundedWindow> windows) {
+      outputs++;
+    }
+
+    @Override
+    public <T> void writeToTagList(CodedTupleTag<T> tag, T value) {
+      List<Object> values = tagListValues.get(tag);
+      if (values == null) {
+        values = new ArrayList<>();
+        tagListValues.put(tag, values);
+      }
+      values.add(value);
+    }
+
+    @Override
+    public <T> void deleteTagList(CodedTupleTag<T> tag) {
+      tagListValues.remove(tag);
+    }
+
+    @Override
+    public <T> Iterable<T> readTagList(CodedTupleTag<T> tag) {
+      @SuppressWarnings("unchecked")
+      List<T> values = (List<T>) tagListValues.get(tag);
+      return values == null ? Collections.<T>emptyList() : values;
+    }
+
+    @Override
+    public <T> Map<CodedTupleTag<T>, Iterable<T>> readTagList(List<CodedTupleTag<T>> tags) {
+      Map<CodedTupleTag<T>, Iterable<T>> result = new LinkedHashMap<>();
+      for (CodedTupleTag<T> tag : tags) {
+        result.put(tag, readTagList(tag));
+      }
+      return result;
+    }
+
+    @Override
+    public TimerManager getTimerManager() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<? extends BoundedWindow> windows() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> void store(CodedTupleTag<T> tag, T value) {
+      tagValues.put(tag, value);
+    }
+
+    @Override
+    public <T> void store(CodedTupleTag<T> tag, T value, Instant timestamp) {
+      tagValues.put(tag, value);
+    }
+
+    @Override
+    public <T> void remove(CodedTupleTag<T> tag) {
+      tagValues.remove(tag);
+    }
+
+    @Override
+    public <T> T lookup(CodedTupleTag<T> tag) {
+      @SuppressWarnings("unchecked")
+      T value = (T) tagValues.get(tag);
+      return value;
+    }
+
+    @Override
+    public CodedTupleTagMap lookup(Iterable<? extends CodedTupleTag<?>> tags) {
+      Map<CodedTupleTag<?>, Object> result = new LinkedHashMap<>();
+      for (CodedTupleTag<?> tag : tags) {
+        result.put(tag, tagValues.get(tag));
+      }
+      return CodedTupleTagMap.of(result);
+    }
+
+    @Override
+    public <T> void writePCollectionViewData(TupleTag<?> tag, Iterable<WindowedValue<T>> data,
+        Coder<T> elemCoder) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
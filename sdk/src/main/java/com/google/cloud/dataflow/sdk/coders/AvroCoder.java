@@ -171,6 +171,10 @@ public class AvroCoder<T> extends StandardCoder<T> {
   private final EncoderFactory encoderFactory = new EncoderFactory();
   private final DecoderFactory decoderFactory = new DecoderFactory();
 
+  // Each thread reuses its own direct encoder and decoder across values and coders.
+  private static final ThreadLocal<BinaryEncoder> ENCODER = new ThreadLocal<>();
+  private static final ThreadLocal<BinaryDecoder> DECODER = new ThreadLocal<>();
+
   protected AvroCoder(Class<T> type, Schema schema) {
     this.type = type;
     this.schema = schema;
@@ -190,15 +194,27 @@ public class AvroCoder<T> extends StandardCoder<T> {
   @Override
   public void encode(T value, OutputStream outStream, Context context)
       throws IOException {
-    BinaryEncoder encoder = encoderFactory.directBinaryEncoder(outStream, null);
-    writer.write(value, encoder);
-    encoder.flush();
+    // Take the thread's encoder for the duration of the write, so that a nested
+    // encode on the same thread does not reconfigure it.
+    BinaryEncoder encoder = encoderFactory.directBinaryEncoder(outStream, ENCODER.get());
+    ENCODER.set(null);
+    try {
+      writer.write(value, encoder);
+      encoder.flush();
+    } finally {
+      ENCODER.set(encoder);
+    }
   }
 
   @Override
   public T decode(InputStream inStream, Context context) throws IOException {
-    BinaryDecoder decoder = decoderFactory.directBinaryDecoder(inStream, null);
-    return reader.read(null, decoder);
+    BinaryDecoder decoder = decoderFactory.directBinaryDecoder(inStream, DECODER.get());
+    DECODER.set(null);
+    try {
+      return reader.read(null, decoder);
+    } finally {
+      DECODER.set(decoder);
+    }
   }
 
   @Override
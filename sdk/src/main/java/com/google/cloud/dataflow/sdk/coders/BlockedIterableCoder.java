@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import com.google.cloud.dataflow.sdk.util.PropertyNames;
+import com.google.cloud.dataflow.sdk.util.VarInt;
+import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@code BlockedIterableCoder} encodes any {@code Iterable} as a sequence of
+ * blocks of its elements, encoded according to the component coder.
+ *
+ * <p> Each block holds its element count and its length in bytes as VarInts,
+ * followed by its elements, and a count of zero ends the sequence. Unlike
+ * {@link IterableCoder}, the size of an iterable need not be known before it is
+ * encoded, and no byte is written before each element.
+ *
+ * <p> Decoding reads whole blocks without decoding their elements. The
+ * decoded {@code Iterable} knows its size, decodes its elements as they are
+ * iterated, and may be iterated any number of times. Encoding it again with an
+ * equal coder copies its blocks without decoding them. A failure to decode an
+ * element is thrown from the iterator, as a {@code RuntimeException} whose
+ * cause is the {@link CoderException}.
+ *
+ * <p> The encoding differs from that of {@link IterableCoder}, which the
+ * service understands, so this coder must be chosen explicitly.
+ *
+ * @param <T> the type of the elements of the Iterables being transcoded
+ */
+public class BlockedIterableCoder<T> extends StandardCoder<Iterable<T>> {
+  private static final long serialVersionUID = 0;
+
+  /** The number of bytes of elements after which a block is ended. */
+  static final int BLOCK_BYTES = 64 * 1024;
+
+  public static <T> BlockedIterableCoder<T> of(Coder<T> elemCoder) {
+    return new BlockedIterableCoder<>(elemCoder);
+  }
+
+  public Coder<T> getElemCoder() {
+    return elementCoder;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+  // Internal operations below here.
+
+  private final Coder<T> elementCoder;
+
+  @JsonCreator
+  public static BlockedIterableCoder<?> of(
+      @JsonProperty(PropertyNames.COMPONENT_ENCODINGS)
+      List<Coder<?>> components) {
+    Preconditions.checkArgument(components.size() == 1,
+        "Expecting 1 component, got " + components.size());
+    return of(components.get(0));
+  }
+
+  /**
+   * Returns the first element in this iterable if it is non-empty,
+   * otherwise returns {@code null}.
+   */
+  public static <T> List<Object> getInstanceComponents(Iterable<T> exampleValue) {
+    for (T value : exampleValue) {
+      return Arrays.<Object>asList(value);
+    }
+    return null;
+  }
+
+  protected BlockedIterableCoder(Coder<T> elementCoder) {
+    Preconditions.checkArgument(elementCoder != null,
+        "element Coder for BlockedIterableCoder must not be null");
+    this.elementCoder = elementCoder;
+  }
+
+  @Override
+  public void encode(Iterable<T> iterable, OutputStream outStream, Context context)
+      throws IOException, CoderException {
+    if (iterable == null) {
+      throw new CoderException("cannot encode a null Iterable");
+    }
+    BlockedIterable<T> decoded = asDecodedByThisCoder(iterable);
+    if (decoded != null) {
+      for (Block block : decoded.blocks) {
+        writeBlock(block.count, block.bytes.length, outStream);
+        outStream.write(block.bytes);
+      }
+    } else {
+      Context nestedContext = context.nested();
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      int count = 0;
+      for (T elem : iterable) {
+        elementCoder.encode(elem, buffer, nestedContext);
+        count++;
+        if (buffer.size() >= BLOCK_BYTES) {
+          writeBlock(count, buffer.size(), outStream);
+          buffer.writeTo(outStream);
+          buffer.reset();
+          count = 0;
+        }
+      }
+      if (count > 0) {
+        writeBlock(count, buffer.size(), outStream);
+        buffer.writeTo(outStream);
+      }
+    }
+    VarInt.encode(0, outStream);
+  }
+
+  @Override
+  public Iterable<T> decode(InputStream inStream, Context context)
+      throws IOException, CoderException {
+    List<Block> blocks = new ArrayList<>();
+    int size = 0;
+    int count;
+    while ((count = VarInt.decodeInt(inStream)) != 0) {
+      int length = VarInt.decodeInt(inStream);
+      if (count < 0 || length < 0) {
+        throw new CoderException("invalid block of " + count + " elements in "
+            + length + " bytes");
+      }
+      byte[] bytes = new byte[length];
+      ByteStreams.readFully(inStream, bytes);
+      blocks.add(new Block(count, bytes));
+      size += count;
+    }
+    return new BlockedIterable<>(elementCoder, blocks, size);
+  }
+
+  private static void writeBlock(int count, int length, OutputStream outStream)
+      throws IOException {
+    VarInt.encode(count, outStream);
+    VarInt.encode(length, outStream);
+  }
+
+  /**
+   * Returns {@code iterable} if it was decoded by a coder equal to this one, so
+   * that its blocks can be written as they are, or {@code null} otherwise.
+   */
+  private BlockedIterable<T> asDecodedByThisCoder(Iterable<T> iterable) {
+    if (iterable instanceof BlockedIterable
+        && ((BlockedIterable<T>) iterable).elementCoder.equals(elementCoder)) {
+      return (BlockedIterable<T>) iterable;
+    }
+    return null;
+  }
+
+  @Override
+  public List<? extends Coder<?>> getCoderArguments() {
+    return Arrays.asList(elementCoder);
+  }
+
+  /**
+   * Encoding is not deterministic for the general Iterable case, as it depends
+   * upon the type of iterable. This may allow two objects to compare as equal
+   * while the encoding differs.
+   */
+  @Override
+  public void verifyDeterministic() throws NonDeterministicException {
+    throw new NonDeterministicException(this,
+        "BlockedIterableCoder can not guarantee deterministic ordering.");
+  }
+
+  /**
+   * Returns whether the iterable was decoded by a coder equal to this one,
+   * in which case its encoded size is known.
+   */
+  @Override
+  public boolean isRegisterByteSizeObserverCheap(Iterable<T> iterable, Context context) {
+    return asDecodedByThisCoder(iterable) != null;
+  }
+
+  @Override
+  public void registerByteSizeObserver(
+      Iterable<T> iterable, ElementByteSizeObserver observer, Context context)
+      throws Exception {
+    BlockedIterable<T> decoded = iterable == null ? null : asDecodedByThisCoder(iterable);
+    if (decoded == null) {
+      super.registerByteSizeObserver(iterable, observer, context);
+      return;
+    }
+    long size = VarInt.getLength(0);
+    for (Block block : decoded.blocks) {
+      size += VarInt.getLength(block.count) + VarInt.getLength(block.bytes.length)
+          + block.bytes.length;
+    }
+    observer.update(size);
+  }
+
+  /** The encoded elements of a block, and their number. */
+  private static class Block {
+    final int count;
+    final byte[] bytes;
+
+    Block(int count, byte[] bytes) {
+      this.count = count;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * A decoded {@code Iterable}, which holds the encoded blocks of its elements
+   * and decodes the elements as they are iterated.
+   */
+  private static class BlockedIterable<T> extends AbstractCollection<T> {
+    private final Coder<T> elementCoder;
+    private final List<Block> blocks;
+    private final int size;
+
+    BlockedIterable(Coder<T> elementCoder, List<Block> blocks, int size) {
+      this.elementCoder = elementCoder;
+      this.blocks = blocks;
+      this.size = size;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      return new Iterator<T>() {
+        private final Iterator<Block> remainingBlocks = blocks.iterator();
+        private InputStream block;
+        private int remainingInBlock = 0;
+
+        @Override
+        public boolean hasNext() {
+          while (remainingInBlock == 0 && remainingBlocks.hasNext()) {
+            Block next = remainingBlocks.next();
+            block = new ByteArrayInputStream(next.bytes);
+            remainingInBlock = next.count;
+          }
+          return remainingInBlock > 0;
+        }
+
+        @Override
+        public T next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          remainingInBlock--;
+          try {
+            return elementCoder.decode(block, Context.NESTED);
+          } catch (IOException exn) {
+            throw new RuntimeException(exn);
+          }
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+}
@@ -20,8 +20,7 @@ import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObservableIterab
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 import com.google.common.base.Preconditions;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -86,53 +85,78 @@ public abstract class IterableLikeCoder<T, IterableT extends Iterable<T>>
       throw new CoderException("cannot encode a null Iterable");
     }
     Context nestedContext = context.nested();
-    DataOutputStream dataOutStream = new DataOutputStream(outStream);
+    // The size and sentinels are written directly to outStream, in the
+    // format of DataOutputStream, to avoid wrapping it for every iterable.
     if (iterable instanceof Collection) {
       // We can know the size of the Iterable.  Use an encoding with a
       // leading size field, followed by that many elements.
       Collection<T> collection = (Collection<T>) iterable;
-      dataOutStream.writeInt(collection.size());
+      writeInt(collection.size(), outStream);
       for (T elem : collection) {
-        elementCoder.encode(elem, dataOutStream, nestedContext);
+        elementCoder.encode(elem, outStream, nestedContext);
       }
     } else {
       // We don't know the size without traversing it.  So use a
       // "hasNext" sentinel before each element.
       // TODO: Don't use the sentinel if context.isWholeStream.
-      dataOutStream.writeInt(-1);
+      writeInt(-1, outStream);
       for (T elem : iterable) {
-        dataOutStream.writeBoolean(true);
-        elementCoder.encode(elem, dataOutStream, nestedContext);
+        outStream.write(1);
+        elementCoder.encode(elem, outStream, nestedContext);
       }
-      dataOutStream.writeBoolean(false);
+      outStream.write(0);
     }
-    // Make sure all our output gets pushed to the underlying outStream.
-    dataOutStream.flush();
   }
 
   @Override
   public IterableT decode(InputStream inStream, Context context)
       throws IOException, CoderException {
     Context nestedContext = context.nested();
-    DataInputStream dataInStream = new DataInputStream(inStream);
-    int size = dataInStream.readInt();
+    int size = readInt(inStream);
     if (size >= 0) {
       List<T> elements = new ArrayList<>(size);
       for (int i = 0; i < size; i++) {
-        elements.add(elementCoder.decode(dataInStream, nestedContext));
+        elements.add(elementCoder.decode(inStream, nestedContext));
       }
       return decodeToIterable(elements);
     } else {
       // We don't know the size a priori.  Check if we're done with
       // each element.
       List<T> elements = new ArrayList<>();
-      while (dataInStream.readBoolean()) {
-        elements.add(elementCoder.decode(dataInStream, nestedContext));
+      while (readBoolean(inStream)) {
+        elements.add(elementCoder.decode(inStream, nestedContext));
       }
       return decodeToIterable(elements);
     }
   }
 
+  private static void writeInt(int value, OutputStream outStream) throws IOException {
+    outStream.write(value >>> 24);
+    outStream.write(value >>> 16);
+    outStream.write(value >>> 8);
+    outStream.write(value);
+  }
+
+  private static int readInt(InputStream inStream) throws IOException {
+    int value = 0;
+    for (int i = 0; i < 4; i++) {
+      value = (value << 8) | readByte(inStream);
+    }
+    return value;
+  }
+
+  private static boolean readBoolean(InputStream inStream) throws IOException {
+    return readByte(inStream) != 0;
+  }
+
+  private static int readByte(InputStream inStream) throws IOException {
+    int b = inStream.read();
+    if (b < 0) {
+      throw new EOFException();
+    }
+    return b;
+  }
+
   @Override
   public List<? extends Coder<?>> getCoderArguments() {
     return Arrays.asList(elementCoder);
@@ -19,12 +19,10 @@ package com.google.cloud.dataflow.sdk.coders;
 import com.google.cloud.dataflow.sdk.util.ExposedByteArrayOutputStream;
 import com.google.cloud.dataflow.sdk.util.StreamUtils;
 import com.google.cloud.dataflow.sdk.util.VarInt;
+import com.google.common.io.ByteStreams;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -50,21 +48,21 @@ public class StringUtf8Coder extends AtomicCoder<String> {
   private static final StringUtf8Coder INSTANCE = new StringUtf8Coder();
 
   // Writes a string with VarInt size prefix, supporting large strings.
-  private static void writeString(String value, DataOutputStream dos)
+  private static void writeString(String value, OutputStream outStream)
       throws IOException {
     byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
-    VarInt.encode(bytes.length, dos);
-    dos.write(bytes);
+    VarInt.encode(bytes.length, outStream);
+    outStream.write(bytes);
   }
 
   // Reads a string with VarInt size prefix, supporting large strings.
-  private static String readString(DataInputStream dis) throws IOException {
-    int len = VarInt.decodeInt(dis);
+  private static String readString(InputStream inStream) throws IOException {
+    int len = VarInt.decodeInt(inStream);
     if (len < 0) {
       throw new CoderException("Invalid encoded string length: " + len);
     }
     byte[] bytes = new byte[len];
-    dis.readFully(bytes);
+    ByteStreams.readFully(inStream, bytes);
     return new String(bytes, StandardCharsets.UTF_8);
   }
 
@@ -84,7 +82,7 @@ public class StringUtf8Coder extends AtomicCoder<String> {
         outStream.write(bytes);
       }
     } else {
-      writeString(value, new DataOutputStream(outStream));
+      writeString(value, outStream);
     }
   }
 
@@ -96,7 +94,7 @@ public class StringUtf8Coder extends AtomicCoder<String> {
       return new String(bytes, StandardCharsets.UTF_8);
     } else {
       try {
-        return readString(new DataInputStream(inStream));
+        return readString(inStream);
       } catch (EOFException | UTFDataFormatException exn) {
         // These exceptions correspond to decoding problems, so change
         // what kind of exception they're branded as.
@@ -122,9 +120,8 @@ public class StringUtf8Coder extends AtomicCoder<String> {
     if (context.isWholeStream) {
       return value.getBytes(StandardCharsets.UTF_8).length;
     } else {
-      DataOutputStream stream = new DataOutputStream(new ByteArrayOutputStream());
-      writeString(value, stream);
-      return stream.size();
+      int length = value.getBytes(StandardCharsets.UTF_8).length;
+      return VarInt.getLength(length) + length;
     }
   }
 }
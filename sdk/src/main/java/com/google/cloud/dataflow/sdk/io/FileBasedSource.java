@@ -19,7 +19,12 @@ import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.util.ExecutionContext;
 import com.google.cloud.dataflow.sdk.util.IOChannelFactory;
 import com.google.cloud.dataflow.sdk.util.IOChannelUtils;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.joda.time.Instant;
 import org.slf4j.Logger;
@@ -32,7 +37,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 
 /**
  * A common base class for all file-based {@link Source}s. Extend this class to implement your own
@@ -58,6 +67,9 @@ public abstract class FileBasedSource<T> extends ByteOffsetBasedSource<T> {
   private static final long serialVersionUID = 0;
   private static final Logger LOG = LoggerFactory.getLogger(FileBasedSource.class);
 
+  /** The maximum number of files of a file pattern that are split concurrently. */
+  private static final int SPLIT_THREAD_POOL_SIZE = 32;
+
   private final String fileOrPatternSpec;
   private final Mode mode;
 
@@ -164,14 +176,13 @@ public abstract class FileBasedSource<T> extends ByteOffsetBasedSource<T> {
     // we perform the size estimation of files and file patterns using the interface provided by
     // IOChannelFactory.
 
-    IOChannelFactory factory = IOChannelUtils.getFactory(fileOrPatternSpec);
     if (mode == Mode.FILEPATTERN) {
-      // TODO Implement a more efficient parallel/batch size estimation mechanism for file patterns.
+      // The sizes are returned along with the matched files, so that file systems that list
+      // sizes do not need a request per file.
       long startTime = System.currentTimeMillis();
       long totalSize = 0;
-      Collection<String> inputs = factory.match(fileOrPatternSpec);
-      for (String input : inputs) {
-        totalSize += factory.getSizeBytes(input);
+      for (long size : IOChannelUtils.matchWithSizes(fileOrPatternSpec).values()) {
+        totalSize += size;
       }
       LOG.debug("Size estimation of file pattern " + fileOrPatternSpec + " took "
           + (System.currentTimeMillis() - startTime) + " ms");
@@ -184,8 +195,8 @@ public abstract class FileBasedSource<T> extends ByteOffsetBasedSource<T> {
   }
 
   @Override
-  public final List<? extends FileBasedSource<T>> splitIntoBundles(long desiredBundleSizeBytes,
-      PipelineOptions options) throws Exception {
+  public final List<? extends FileBasedSource<T>> splitIntoBundles(
+      final long desiredBundleSizeBytes, final PipelineOptions options) throws Exception {
     // This implementation of method splitIntoBundles is provided to simplify subclasses. Here we
     // split a FileBasedSource based on a file pattern to FileBasedSources based on full single
     // files. For files that can be efficiently seeked, we further split FileBasedSources based on
@@ -193,10 +204,40 @@ public abstract class FileBasedSource<T> extends ByteOffsetBasedSource<T> {
 
     if (mode == Mode.FILEPATTERN) {
       long startTime = System.currentTimeMillis();
+      Map<String, Long> files = IOChannelUtils.matchWithSizes(fileOrPatternSpec);
+      // Deciding whether a file is splittable may need a request to the file system, so files are
+      // split in parallel.
+      ListeningExecutorService service = MoreExecutors.listeningDecorator(
+          Executors.newFixedThreadPool(
+              Math.max(1, Math.min(files.size(), SPLIT_THREAD_POOL_SIZE)),
+              new ThreadFactoryBuilder()
+                  .setDaemon(true).setNameFormat("FileBasedSource-split-%d").build()));
       List<FileBasedSource<T>> splitResults = new ArrayList<>();
-      for (String file : FileBasedSource.expandFilePattern(fileOrPatternSpec)) {
-        splitResults.addAll(createForSubrangeOfFile(file, 0, Long.MAX_VALUE).splitIntoBundles(
-            desiredBundleSizeBytes, options));
+      try {
+        List<ListenableFuture<List<? extends FileBasedSource<T>>>> futures = new ArrayList<>();
+        for (final Map.Entry<String, Long> file : files.entrySet()) {
+          futures.add(service.submit(new Callable<List<? extends FileBasedSource<T>>>() {
+            @Override
+            public List<? extends FileBasedSource<T>> call() throws Exception {
+              // The size from the listing is used as the end offset, so that splitting does not
+              // look it up again. An empty file can not be given an empty range.
+              long endOffset = file.getValue() > 0 ? file.getValue() : Long.MAX_VALUE;
+              return createForSubrangeOfFile(file.getKey(), 0, endOffset).splitIntoBundles(
+                  desiredBundleSizeBytes, options);
+            }
+          }));
+        }
+        // Results are collected in the order of the matched files.
+        for (ListenableFuture<List<? extends FileBasedSource<T>>> future : futures) {
+          try {
+            splitResults.addAll(future.get());
+          } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), Exception.class);
+            throw e;
+          }
+        }
+      } finally {
+        service.shutdownNow();
       }
       LOG.debug("Splitting the source based on file pattern " + fileOrPatternSpec + " took "
           + (System.currentTimeMillis() - startTime) + " ms");
@@ -21,6 +21,7 @@ import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
 import com.google.cloud.dataflow.sdk.coders.VoidCoder;
 import com.google.cloud.dataflow.sdk.runners.DirectPipelineRunner;
+import com.google.cloud.dataflow.sdk.runners.DirectPipelineRunner.ValueWithMetadata;
 import com.google.cloud.dataflow.sdk.runners.worker.FileBasedReader;
 import com.google.cloud.dataflow.sdk.runners.worker.TextReader;
 import com.google.cloud.dataflow.sdk.runners.worker.TextSink;
@@ -33,6 +34,8 @@ import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.cloud.dataflow.sdk.values.PCollection.IsBounded;
 import com.google.cloud.dataflow.sdk.values.PDone;
 import com.google.cloud.dataflow.sdk.values.PInput;
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
 import com.google.common.primitives.Ints;
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
@@ -716,13 +719,28 @@ public class TextIO {
     TextReader<T> reader =
         new TextReader<>(transform.filepattern, true, null, null, transform.coder,
             transform.getCompressionType());
+    PCollection<T> output = context.getOutput(transform);
+    if (context.isFusable(output)) {
+      ReaderUtils.LazyReaderIterable<T> elems = ReaderUtils.readElemsLazilyFromReader(reader);
+      // Closes the file if the consumer stops reading early, e.g. because it failed.
+      context.closeAfterEvaluation(elems);
+      context.setFusedPCollectionValuesWithMetadata(output, Iterables.transform(elems,
+          new Function<T, ValueWithMetadata<T>>() {
+            @Override
+            public ValueWithMetadata<T> apply(T elem) {
+              return ValueWithMetadata.of(WindowedValue.valueInGlobalWindow(elem));
+            }
+          }));
+      return;
+    }
     List<T> elems = ReaderUtils.readElemsFromReader(reader);
-    context.setPCollection(context.getOutput(transform), elems);
+    context.setPCollection(output, elems);
   }
 
   private static <T> void evaluateWriteHelper(
       Write.Bound<T> transform, DirectPipelineRunner.EvaluationContext context) {
-    List<T> elems = context.getPCollection(context.getInput(transform));
+    Iterable<ValueWithMetadata<T>> elems =
+        context.iteratePCollectionValuesWithMetadata(context.getInput(transform));
     int numShards = transform.numShards;
     if (numShards < 1) {
       // System gets to choose.  For direct mode, choose 1.
@@ -732,8 +750,8 @@ public class TextIO {
         transform.filenamePrefix, transform.getShardNameTemplate(), transform.filenameSuffix,
         numShards, true, null, null, transform.coder);
     try (Sink.SinkWriter<WindowedValue<T>> sink = writer.writer()) {
-      for (T elem : elems) {
-        sink.add(WindowedValue.valueInGlobalWindow(elem));
+      for (ValueWithMetadata<T> elem : elems) {
+        sink.add(WindowedValue.valueInGlobalWindow(elem.getValue()));
       }
     } catch (IOException exn) {
       throw new RuntimeException(
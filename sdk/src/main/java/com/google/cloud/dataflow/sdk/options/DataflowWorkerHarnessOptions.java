@@ -37,4 +37,112 @@ public interface DataflowWorkerHarnessOptions extends DataflowPipelineOptions {
   @Description("The identity of the Dataflow job.")
   String getJobId();
   void setJobId(String value);
+
+  /**
+   * The number of bytes of memory a partial group-by-key operation may use to sort
+   * the entries evicted from its grouping table, or 0 to output evicted entries
+   * directly without sorting.
+   *
+   * <p> Sorting merges the entries evicted for the same key, so that each key is
+   * output at most once per bundle. Sorted entries that do not fit in memory are
+   * spilled to local disk.
+   */
+  @Description("The number of bytes of memory a partial group-by-key operation may use to sort "
+      + "the entries evicted from its grouping table, or 0 to output evicted entries directly.")
+  @Default.Long(0)
+  long getPartialGroupByKeySortBufferBytes();
+  void setPartialGroupByKeySortBufferBytes(long value);
+
+  /**
+   * Whether partial group-by-key operations store their grouping tables encoded,
+   * outside the Java heap.
+   *
+   * <p> This reduces garbage collection, and makes the grouping table's memory
+   * budget count the bytes allocated for keys and buffered values rather than
+   * an estimate, at the cost of encoding and decoding them. Combining keeps
+   * accumulators decoded, and estimates their size.
+   */
+  @Description("Whether partial group-by-key operations store their grouping tables encoded, "
+      + "outside the Java heap.")
+  boolean isPartialGroupByKeyOffHeap();
+  void setPartialGroupByKeyOffHeap(boolean value);
+
+  /**
+   * The number of bytes of committed keyed state a streaming worker may cache
+   * across work items, or 0 to fetch all state for every work item.
+   *
+   * <p> The worker cannot always tell when one of its keys has been processed
+   * by another worker in the minute before it returns, in which case cached
+   * state of that key is stale. Only enable the cache if keys do not move
+   * between workers.
+   */
+  @Description("The number of bytes of committed keyed state a streaming worker may cache "
+      + "across work items, or 0 to fetch all state for every work item. Cached state may be "
+      + "stale if keys move between workers, so only enable it if they do not.")
+  @Default.Long(0)
+  long getStreamingStateCacheBytes();
+  void setStreamingStateCacheBytes(long value);
+
+  /**
+   * The number of bytes of side inputs a batch worker keeps in memory while
+   * processing a work item. Beyond it, the least recently used side inputs are
+   * read again when they are next accessed.
+   */
+  @Description("The number of bytes of side inputs a batch worker keeps in memory while "
+      + "processing a work item. Beyond it, the least recently used side inputs are read again "
+      + "when they are next accessed.")
+  @Default.Long(256L * 1024 * 1024)
+  long getSideInputCacheBytes();
+  void setSideInputCacheBytes(long value);
+
+  /**
+   * The number of bytes of local files a batch worker uses to keep indexed map
+   * side inputs across work items. Beyond it, the least recently used ones that
+   * are not in use are deleted, and indexed again when they are next read.
+   */
+  @Description("The number of bytes of local files a batch worker uses to keep indexed map "
+      + "side inputs across work items. Beyond it, the least recently used ones that are not in "
+      + "use are deleted, and indexed again when they are next read.")
+  @Default.Long(1024L * 1024 * 1024)
+  long getIndexedSideInputCacheBytes();
+  void setIndexedSideInputCacheBytes(long value);
+
+  /**
+   * Whether linear chains of ParDo operations within a map task, each of which
+   * outputs only to the next, are executed as a single fused operation.
+   */
+  @Description("Whether linear chains of ParDo operations within a map task, each of which "
+      + "outputs only to the next, are executed as a single fused operation.")
+  @Default.Boolean(true)
+  boolean isFuseParDoOperations();
+  void setFuseParDoOperations(boolean value);
+
+  /**
+   * The number of elements a map task may read ahead of the element it is
+   * processing, on a separate thread, or 0 to read and process elements on the
+   * same thread.
+   *
+   * <p> Reading ahead overlaps the latency of reading from the source with
+   * processing, at the cost of buffering up to this many decoded elements.
+   */
+  @Description("The number of elements a map task may read ahead of the element it is "
+      + "processing, on a separate thread, or 0 to read and process elements on the same thread.")
+  @Default.Integer(0)
+  int getReadAheadElements();
+  void setReadAheadElements(int value);
+
+  /**
+   * The maximum number of work items a batch worker processes concurrently, or 0
+   * to always process as many as there are available processors.
+   *
+   * <p> When set, the worker starts with as many work items as processors, and
+   * adapts the number to its load: it processes more while its work items are
+   * waiting on input and its processors are idle, and fewer when its heap is
+   * nearly full.
+   */
+  @Description("The maximum number of work items a batch worker processes concurrently, "
+      + "adapted to its load, or 0 to always process as many as there are processors.")
+  @Default.Integer(0)
+  int getMaxConcurrentWorkItems();
+  void setMaxConcurrentWorkItems(int value);
 }
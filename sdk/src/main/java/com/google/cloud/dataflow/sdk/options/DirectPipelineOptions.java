@@ -25,4 +25,52 @@ public interface DirectPipelineOptions extends
     ApplicationNameOptions, BigQueryOptions, GcsOptions, GcpOptions,
     PipelineOptions, StreamingOptions {
 
+  /**
+   * Number of threads the {@link DirectPipeline} uses to evaluate bundles of a
+   * {@link com.google.cloud.dataflow.sdk.transforms.ParDo} in parallel.
+   *
+   * <p> Output of each transform is the concatenation of its bundles' output in
+   * input order, so results remain deterministic regardless of this setting.
+   */
+  @Description("Number of threads to use when evaluating ParDo transforms in the "
+      + "DirectPipelineRunner. A value of 1 evaluates every transform on the calling thread.")
+  @Default.Integer(1)
+  int getNumParallelThreads();
+  void setNumParallelThreads(int value);
+
+  /**
+   * Whether the {@link DirectPipeline} streams elements through chains of transforms
+   * instead of materializing every intermediate
+   * {@link com.google.cloud.dataflow.sdk.values.PCollection}.
+   *
+   * <p> A {@code PCollection} that is consumed by exactly one transform is fused into
+   * its consumer: its elements are produced as the consumer reads them and are not
+   * retained, so its contents cannot be retrieved from the
+   * {@link com.google.cloud.dataflow.sdk.runners.DirectPipelineRunner.EvaluationResults}
+   * and its element order is not randomized. Only a consumer that needs the whole
+   * {@code PCollection}, such as a {@code ParDo} evaluated in parallel bundles,
+   * materializes it.
+   */
+  @Description("Whether the DirectPipelineRunner streams elements through chains of "
+      + "transforms instead of materializing each intermediate PCollection. Fused "
+      + "PCollections are not available from the evaluation results.")
+  boolean isFusedEvaluation();
+  void setFusedEvaluation(boolean value);
+
+  /**
+   * The number of bytes of encoded keys and values a
+   * {@link com.google.cloud.dataflow.sdk.transforms.GroupByKey} buffers in memory
+   * before spilling sorted runs to local temporary files, or 0 to group entirely
+   * in memory.
+   *
+   * <p> Grouped values are produced one key at a time from the merged runs, so
+   * together with {@link #isFusedEvaluation} only the values of a single key are
+   * held in memory at once.
+   */
+  @Description("Number of bytes of encoded elements a GroupByKey buffers in memory before "
+      + "spilling sorted runs to local temporary files in the DirectPipelineRunner. "
+      + "0 groups entirely in memory.")
+  @Default.Long(0)
+  long getGroupByKeyMemoryLimitBytes();
+  void setGroupByKeyMemoryLimitBytes(long value);
 }
@@ -50,12 +50,15 @@ import com.google.cloud.dataflow.sdk.values.POutput;
 import com.google.cloud.dataflow.sdk.values.PValue;
 import com.google.cloud.dataflow.sdk.values.TypedPValue;
 import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 import org.joda.time.Instant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -64,6 +67,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Executes the operations in the pipeline directly, in this process, without
@@ -536,6 +541,25 @@ public class DirectPipelineRunner
      */
     <T> void setPCollection(PCollection<T> pc, List<T> elements);
 
+    /**
+     * Returns true if the value of the given PCollection may be set with
+     * {@link #setFusedPCollectionValuesWithMetadata}, which is the case when
+     * the pipeline is configured for fused evaluation and the PCollection has
+     * exactly one consumer.
+     *
+     * @see DirectPipelineOptions#isFusedEvaluation
+     */
+    boolean isFusable(PCollection<?> pc);
+
+    /**
+     * Sets the value of the given PCollection to elements that are computed as
+     * its consumer iterates over them. The elements may only be iterated once.
+     * Throws an exception if the PCollection's value has already been set, or
+     * if the PCollection is not {@link #isFusable fusable}.
+     */
+    <T> void setFusedPCollectionValuesWithMetadata(
+        PCollection<T> pc, Iterable<ValueWithMetadata<T>> elements);
+
     /**
      * Retrieves the value of the given PCollection, along with element metadata
      * such as timestamps and windows.
@@ -543,6 +567,16 @@ public class DirectPipelineRunner
      */
     <T> List<ValueWithMetadata<T>> getPCollectionValuesWithMetadata(PCollection<T> pc);
 
+    /**
+     * Retrieves the value of the given PCollection for a single pass over its
+     * elements, along with element metadata such as timestamps and windows.
+     * Unlike {@link #getPCollectionValuesWithMetadata}, this does not
+     * materialize a PCollection whose value was set with
+     * {@link #setFusedPCollectionValuesWithMetadata}.
+     * Throws an exception if the PCollection's value hasn't already been set.
+     */
+    <T> Iterable<ValueWithMetadata<T>> iteratePCollectionValuesWithMetadata(PCollection<T> pc);
+
     /**
      * Sets the value associated with the given {@link PCollectionView}.
      * Throws an exception if the {@link PCollectionView}'s value has already been set.
@@ -604,6 +638,23 @@ public class DirectPipelineRunner
      * Gets the step name for this transform.
      */
     public String getStepName(PTransform<?, ?> transform);
+
+    /**
+     * Returns the executor to use for evaluating bundles of a transform in
+     * parallel, or null if the pipeline is configured to evaluate every
+     * transform on the calling thread.
+     *
+     * @see DirectPipelineOptions#getNumParallelThreads
+     */
+    ExecutorService getBundleExecutor();
+
+    /**
+     * Registers a resource that holds the value of a PCollection, such as
+     * spilled local files, to be closed once the pipeline has been evaluated.
+     * The resource is closed even if the consumers of the value fail or stop
+     * iterating over it early.
+     */
+    void closeAfterEvaluation(Closeable resource);
   }
 
 
@@ -614,6 +665,14 @@ public class DirectPipelineRunner
     private final Map<PValue, Object> store = new HashMap<>();
     private final CounterSet counters = new CounterSet();
     private AppliedPTransform<?, ?, ?> currentTransform;
+    private ExecutorService bundleExecutor;
+    private final List<Closeable> resources = new ArrayList<>();
+
+    /**
+     * The number of primitive transforms consuming each PValue, if the
+     * pipeline is configured for fused evaluation, and null otherwise.
+     */
+    private Map<PValue, Integer> numConsumers;
 
     // Use a random number generator with a fixed seed, so execution
     // using this evaluator is deterministic.  (If the user-defined
@@ -623,7 +682,52 @@ public class DirectPipelineRunner
     public Evaluator() {}
 
     public void run(Pipeline pipeline) {
-      pipeline.traverseTopologically(this);
+      if (options.isFusedEvaluation()) {
+        numConsumers = countConsumers(pipeline);
+      }
+      try {
+        pipeline.traverseTopologically(this);
+      } finally {
+        if (bundleExecutor != null) {
+          bundleExecutor.shutdownNow();
+          bundleExecutor = null;
+        }
+        closeResources();
+      }
+    }
+
+    private void closeResources() {
+      for (Closeable resource : resources) {
+        try {
+          resource.close();
+        } catch (IOException exn) {
+          LOG.warn("Unable to close {}", resource, exn);
+        }
+      }
+      resources.clear();
+    }
+
+    private Map<PValue, Integer> countConsumers(Pipeline pipeline) {
+      final Map<PValue, Integer> counts = new HashMap<>();
+      pipeline.traverseTopologically(new PipelineVisitor() {
+        @Override
+        public void enterCompositeTransform(TransformTreeNode node) {}
+
+        @Override
+        public void leaveCompositeTransform(TransformTreeNode node) {}
+
+        @Override
+        public void visitTransform(TransformTreeNode node) {
+          for (PValue input : node.getInputs().keySet()) {
+            Integer count = counts.get(input);
+            counts.put(input, count == null ? 1 : count + 1);
+          }
+        }
+
+        @Override
+        public void visitValue(PValue value, TransformTreeNode producer) {}
+      });
+      return counts;
     }
 
     @Override
@@ -751,6 +855,33 @@ public class DirectPipelineRunner
       setPValue(pc, ensurePCollectionEncodable(pc, elements));
     }
 
+    @Override
+    public boolean isFusable(PCollection<?> pc) {
+      if (numConsumers == null) {
+        return false;
+      }
+      Integer count = numConsumers.get(pc);
+      return count != null && count == 1;
+    }
+
+    @Override
+    public <T> void setFusedPCollectionValuesWithMetadata(
+        final PCollection<T> pc, Iterable<ValueWithMetadata<T>> elements) {
+      checkArgument(isFusable(pc), "%s cannot be fused into its consumers", pc);
+      LOG.debug("Setting {} to be fused into its consumer", pc);
+      ensureCoderSerializable(pc.getCoder());
+      if (testEncodability) {
+        elements = Iterables.transform(elements,
+            new Function<ValueWithMetadata<T>, ValueWithMetadata<T>>() {
+              @Override
+              public ValueWithMetadata<T> apply(ValueWithMetadata<T> element) {
+                return element.withValue(ensureElementEncodable(pc, element.getValue()));
+              }
+            });
+      }
+      setPValue(pc, new FusedElements<>(pc, elements));
+    }
+
     @Override
     public <ElemT, T, WindowedT> void setPCollectionView(
         PCollectionView<T> view,
@@ -785,12 +916,30 @@ public class DirectPipelineRunner
 
     @Override
     public <T> List<ValueWithMetadata<T>> getPCollectionValuesWithMetadata(PCollection<T> pc) {
-      List<ValueWithMetadata<T>> elements = (List<ValueWithMetadata<T>>) getPValue(pc);
+      Object value = getPValue(pc);
+      if (value instanceof FusedElements) {
+        // The consumer needs all of the elements at once, so the PCollection
+        // is materialized after all.
+        value = Lists.newArrayList(((FusedElements<T>) value).consume());
+        store.put(pc, value);
+      }
+      List<ValueWithMetadata<T>> elements = (List<ValueWithMetadata<T>>) value;
       elements = randomizeIfUnordered(elements, false /* not inPlaceAllowed */);
       LOG.debug("Getting {} = {}", pc, elements);
       return elements;
     }
 
+    @Override
+    public <T> Iterable<ValueWithMetadata<T>> iteratePCollectionValuesWithMetadata(
+        PCollection<T> pc) {
+      Object value = getPValue(pc);
+      if (value instanceof FusedElements) {
+        LOG.debug("Streaming {}", pc);
+        return ((FusedElements<T>) value).consume();
+      }
+      return getPCollectionValuesWithMetadata(pc);
+    }
+
     @Override
     public <T> List<List<T>> getPCollectionList(PCollectionList<T> pcs) {
       List<List<T>> elementsList = new ArrayList<>();
@@ -889,6 +1038,23 @@ public class DirectPipelineRunner
       return stepName;
     }
 
+    @Override
+    public ExecutorService getBundleExecutor() {
+      int numThreads = options.getNumParallelThreads();
+      if (numThreads <= 1) {
+        return null;
+      }
+      if (bundleExecutor == null) {
+        bundleExecutor = new ForkJoinPool(numThreads);
+      }
+      return bundleExecutor;
+    }
+
+    @Override
+    public void closeAfterEvaluation(Closeable resource) {
+      resources.add(resource);
+    }
+
     /**
      * Returns the CounterSet generated during evaluation, which includes
      * user-defined Aggregators and may include system-defined counters.
@@ -909,6 +1075,31 @@ public class DirectPipelineRunner
   }
 
 
+  /**
+   * The value of a PCollection that has been fused into its only consumer.
+   * Its elements are computed as they are iterated, and may only be iterated
+   * once.
+   */
+  private static class FusedElements<T> {
+    private final PCollection<T> pc;
+    private Iterable<ValueWithMetadata<T>> elements;
+
+    FusedElements(PCollection<T> pc, Iterable<ValueWithMetadata<T>> elements) {
+      this.pc = pc;
+      this.elements = elements;
+    }
+
+    Iterable<ValueWithMetadata<T>> consume() {
+      if (elements == null) {
+        throw new IllegalStateException(
+            pc + " was fused into its consumer, so its value is no longer available");
+      }
+      Iterable<ValueWithMetadata<T>> result = elements;
+      elements = null;
+      return result;
+    }
+  }
+
   /////////////////////////////////////////////////////////////////////////////
 
   private final DirectPipelineOptions options;
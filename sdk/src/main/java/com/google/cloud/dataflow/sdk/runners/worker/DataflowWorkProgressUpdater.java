@@ -35,6 +35,9 @@ import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
@@ -59,7 +62,18 @@ public class DataflowWorkProgressUpdater extends WorkProgressUpdater {
 
   public DataflowWorkProgressUpdater(WorkItem workItem, WorkExecutor worker,
       DataflowWorker.WorkUnitClient workUnitClient, DataflowWorkerHarnessOptions options) {
-    super(worker);
+    this(workItem, worker, workUnitClient, options, null);
+  }
+
+  /**
+   * Creates an updater that schedules its updates on the given executor, which
+   * may be shared with the updaters of other work items, or on an executor of
+   * its own if {@code executor} is null.
+   */
+  public DataflowWorkProgressUpdater(WorkItem workItem, WorkExecutor worker,
+      DataflowWorker.WorkUnitClient workUnitClient, DataflowWorkerHarnessOptions options,
+      @Nullable ScheduledExecutorService executor) {
+    super(worker, executor);
     this.workItem = workItem;
     this.workUnitClient = workUnitClient;
     this.options = options;
@@ -32,7 +32,7 @@ import com.google.cloud.dataflow.sdk.runners.worker.logging.DataflowWorkerLoggin
 import com.google.cloud.dataflow.sdk.util.BatchModeExecutionContext;
 import com.google.cloud.dataflow.sdk.util.CloudCounterUtils;
 import com.google.cloud.dataflow.sdk.util.CloudMetricUtils;
-import com.google.cloud.dataflow.sdk.util.ExecutionContext;
+import com.google.cloud.dataflow.sdk.util.IndexedSideInputCache;
 import com.google.cloud.dataflow.sdk.util.UserCodeException;
 import com.google.cloud.dataflow.sdk.util.common.Counter;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
@@ -40,15 +40,18 @@ import com.google.cloud.dataflow.sdk.util.common.Metric;
 import com.google.cloud.dataflow.sdk.util.common.worker.Reader;
 import com.google.cloud.dataflow.sdk.util.common.worker.SourceFormat;
 import com.google.cloud.dataflow.sdk.util.common.worker.WorkExecutor;
+import com.google.cloud.dataflow.sdk.util.common.worker.WorkProgressUpdater;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.annotation.Nullable;
 
@@ -75,9 +78,24 @@ public class DataflowWorker {
    */
   private final DataflowWorkerHarnessOptions options;
 
+  /** Limits the number of work items processed concurrently. */
+  private final WorkAdmissionController admissionController;
+
+  /** Schedules the progress updates of all work items. */
+  private final ScheduledExecutorService progressUpdateExecutor;
+
+  /** The indexed map side inputs read by work items, kept for later work items. */
+  private final IndexedSideInputCache indexedSideInputCache;
+
   public DataflowWorker(WorkUnitClient workUnitClient, DataflowWorkerHarnessOptions options) {
     this.workUnitClient = workUnitClient;
     this.options = options;
+    this.admissionController = WorkAdmissionController.fromOptions(options);
+    this.progressUpdateExecutor =
+        WorkProgressUpdater.newExecutor(admissionController.getMaxLimit());
+    admissionController.start(progressUpdateExecutor);
+    this.indexedSideInputCache =
+        new IndexedSideInputCache(options.getIndexedSideInputCacheBytes());
   }
 
   /**
@@ -88,11 +106,21 @@ public class DataflowWorker {
    * WorkUnitClient.
    */
   public boolean getAndPerformWork() throws IOException {
-    WorkItem work = workUnitClient.getWorkItem();
-    if (work == null) {
-      return false;
+    try {
+      admissionController.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to lease work");
+    }
+    try {
+      WorkItem work = workUnitClient.getWorkItem();
+      if (work == null) {
+        return false;
+      }
+      return doWork(work);
+    } finally {
+      admissionController.release();
     }
-    return doWork(work);
   }
 
   /**
@@ -104,12 +132,12 @@ public class DataflowWorker {
     LOG.debug("Executing: {}", workItem);
 
     WorkExecutor worker = null;
+    BatchModeExecutionContext executionContext =
+        new BatchModeExecutionContext(options.getSideInputCacheBytes(), indexedSideInputCache);
     try {
       // Populate PipelineOptions with data from work unit.
       options.setProject(workItem.getProjectId());
 
-      ExecutionContext executionContext = new BatchModeExecutionContext();
-
       if (workItem.getMapTask() != null) {
         worker = MapTaskExecutorFactory.create(options, workItem.getMapTask(), executionContext);
 
@@ -121,12 +149,14 @@ public class DataflowWorker {
       }
 
       DataflowWorkProgressUpdater progressUpdater =
-          new DataflowWorkProgressUpdater(workItem, worker, workUnitClient, options);
+          new DataflowWorkProgressUpdater(
+              workItem, worker, workUnitClient, options, progressUpdateExecutor);
 
       executeWork(worker, progressUpdater);
 
       // Log all counter values for debugging purposes.
       CounterSet counters = worker.getOutputCounters();
+      admissionController.recordWorkItem(counters);
       for (Counter counter : counters) {
         LOG.trace("COUNTER {}.", counter);
       }
@@ -163,6 +193,11 @@ public class DataflowWorker {
           LOG.warn("Uncaught exception occurred during work unit shutdown:", exn);
         }
       }
+      try {
+        executionContext.close();
+      } catch (Exception exn) {
+        LOG.warn("Failed to release the side inputs of the work unit:", exn);
+      }
     }
   }
 
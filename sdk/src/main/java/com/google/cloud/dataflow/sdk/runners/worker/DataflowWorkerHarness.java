@@ -162,7 +162,9 @@ public class DataflowWorkerHarness {
   // Visible for testing.
   static void processWork(DataflowWorkerHarnessOptions pipelineOptions,
       final DataflowWorker worker, Sleeper sleeper) throws InterruptedException {
-    int numThreads = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+    // One thread per work item the worker may process at once; an adaptive
+    // worker may admit fewer work items, depending on its load.
+    int numThreads = WorkAdmissionController.getMaxConcurrentWorkItems(pipelineOptions);
     ExecutorService executor = pipelineOptions.getExecutorService();
     final List<Callable<Boolean>> tasks = new LinkedList<>();
 
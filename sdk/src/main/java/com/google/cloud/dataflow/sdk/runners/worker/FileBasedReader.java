@@ -121,7 +121,10 @@ public abstract class FileBasedReader<T> extends Reader<T> {
    * Abstract base class for file-based source iterators.
    */
   protected abstract class FileBasedIterator extends AbstractReaderIterator<T> {
+    // Null if the subclass does not read the file through a stream.
+    @Nullable
     protected final CopyableSeekableByteChannel seeker;
+    @Nullable
     protected final PushbackInputStream stream;
     protected final long startOffset;
     protected Long endOffset;
@@ -150,6 +153,20 @@ public abstract class FileBasedReader<T> extends Reader<T> {
       this.tracker = checkNotNull(tracker);
     }
 
+    /**
+     * Constructs an iterator without a {@link #seeker} or {@link #stream}, for
+     * subclasses that read the file by other means.
+     */
+    FileBasedIterator(long startOffset, long offset, @Nullable Long endOffset,
+        ProgressTracker<Integer> tracker) {
+      this.seeker = null;
+      this.stream = null;
+      this.startOffset = startOffset;
+      this.offset = offset;
+      this.endOffset = endOffset;
+      this.tracker = checkNotNull(tracker);
+    }
+
     /**
      * Reads the next element.
      *
@@ -253,7 +270,9 @@ public abstract class FileBasedReader<T> extends Reader<T> {
 
     @Override
     public void close() throws IOException {
-      stream.close();
+      if (stream != null) {
+        stream.close();
+      }
     }
 
     private void computeNextElement() throws IOException {
@@ -309,12 +328,20 @@ public abstract class FileBasedReader<T> extends Reader<T> {
       return TextIO.CompressionType.UNCOMPRESSED;
     }
 
-    @Override
-    public InputStream createInputStream(InputStream inputStream) throws IOException {
+    /**
+     * Returns the compression type of the file, determined from the filename if
+     * the compression mode is AUTO.
+     */
+    public TextIO.CompressionType getCompressionType() {
       if (compressionType == TextIO.CompressionType.AUTO) {
-        return getCompressionTypeForAuto().createInputStream(inputStream);
+        return getCompressionTypeForAuto();
       }
-      return compressionType.createInputStream(inputStream);
+      return compressionType;
+    }
+
+    @Override
+    public InputStream createInputStream(InputStream inputStream) throws IOException {
+      return getCompressionType().createInputStream(inputStream);
     }
   }
 }
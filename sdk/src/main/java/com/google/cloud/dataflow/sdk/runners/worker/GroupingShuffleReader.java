@@ -83,6 +83,15 @@ public class GroupingShuffleReader<K, V> extends Reader<WindowedValue<KV<K, Reit
         new ChunkingShuffleBatchReader(new ApplianceShuffleReader(shuffleReaderConfig))));
   }
 
+  /**
+   * Returns false: the values of each key are read from the same iterator as
+   * the keys, so the keys must not be read ahead of the values.
+   */
+  @Override
+  public boolean supportsReadAhead() {
+    return false;
+  }
+
   private void initCoder(Coder<WindowedValue<KV<K, Iterable<V>>>> coder) throws Exception {
     if (!(coder instanceof WindowedValueCoder)) {
       throw new Exception("unexpected kind of coder for WindowedValue: " + coder);
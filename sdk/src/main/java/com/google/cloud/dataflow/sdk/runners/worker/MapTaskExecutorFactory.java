@@ -29,9 +29,12 @@ import com.google.api.services.dataflow.model.ReadInstruction;
 import com.google.api.services.dataflow.model.WriteInstruction;
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.coders.ListCoder;
+import com.google.cloud.dataflow.sdk.options.DataflowWorkerHarnessOptions;
 import com.google.cloud.dataflow.sdk.options.PipelineOptions;
 import com.google.cloud.dataflow.sdk.transforms.Combine;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.util.BatchModeExecutionContext;
 import com.google.cloud.dataflow.sdk.util.CloudObject;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.ExecutionContext;
@@ -44,6 +47,7 @@ import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObservable;
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 import com.google.cloud.dataflow.sdk.util.common.worker.FlattenOperation;
+import com.google.cloud.dataflow.sdk.util.common.worker.FusedParDoOperation;
 import com.google.cloud.dataflow.sdk.util.common.worker.MapTaskExecutor;
 import com.google.cloud.dataflow.sdk.util.common.worker.Operation;
 import com.google.cloud.dataflow.sdk.util.common.worker.OutputReceiver;
@@ -61,8 +65,11 @@ import com.google.cloud.dataflow.sdk.values.KV;
 
 import org.joda.time.Instant;
 
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -81,6 +88,10 @@ public class MapTaskExecutorFactory {
     StateSampler stateSampler = new StateSampler(counterPrefix, counters.getAddCounterMutator());
     // Open-ended state.
     stateSampler.setState("other");
+    if (context instanceof BatchModeExecutionContext) {
+      ((BatchModeExecutionContext) context).addSideInputCacheCounters(
+          counterPrefix, counters.getAddCounterMutator());
+    }
 
     // Instantiate operations for each instruction in the graph.
     for (ParallelInstruction instruction : mapTask.getInstructions()) {
@@ -88,9 +99,62 @@ public class MapTaskExecutorFactory {
           counters.getAddCounterMutator(), stateSampler));
     }
 
+    if (options.as(DataflowWorkerHarnessOptions.class).isFuseParDoOperations()) {
+      operations = fuseParDoOperations(mapTask.getInstructions(), operations, counterPrefix,
+          counters.getAddCounterMutator(), stateSampler);
+    }
+
     return new MapTaskExecutor(operations, counters, stateSampler);
   }
 
+  /**
+   * Replaces each linear chain of ParDo operations, each of which outputs only
+   * to the next, with a single {@link FusedParDoOperation}. The fused operation
+   * takes the place of the first operation of its chain.
+   */
+  static List<Operation> fuseParDoOperations(List<ParallelInstruction> instructions,
+      List<Operation> operations, String counterPrefix,
+      CounterSet.AddCounterMutator addCounterMutator, StateSampler stateSampler) {
+    List<Operation> fusedOperations = new ArrayList<>();
+    Set<Operation> fusedSteps = new HashSet<>();
+    for (int i = 0; i < operations.size(); i++) {
+      Operation operation = operations.get(i);
+      if (fusedSteps.contains(operation)) {
+        continue;
+      }
+      if (!(operation instanceof ParDoOperation)) {
+        fusedOperations.add(operation);
+        continue;
+      }
+      List<ParDoOperation> chain = new ArrayList<>();
+      ParDoOperation step = (ParDoOperation) operation;
+      chain.add(step);
+      while (step.receivers.length == 1 && step.receivers[0] != null
+          && step.receivers[0].getReceiverCount() == 1
+          && step.receivers[0].getOnlyReceiver() instanceof ParDoOperation) {
+        step = (ParDoOperation) step.receivers[0].getOnlyReceiver();
+        chain.add(step);
+      }
+      if (chain.size() == 1) {
+        fusedOperations.add(operation);
+        continue;
+      }
+      FusedParDoOperation fused = new FusedParDoOperation(instructions.get(i).getSystemName(),
+          chain, counterPrefix, addCounterMutator, stateSampler);
+      // The first step's producer outputs to the fused operation instead.
+      for (Operation producer : operations) {
+        for (OutputReceiver receiver : producer.receivers) {
+          if (receiver != null) {
+            receiver.replaceOutput(chain.get(0), fused);
+          }
+        }
+      }
+      fusedSteps.addAll(chain);
+      fusedOperations.add(fused);
+    }
+    return fusedOperations;
+  }
+
   /**
    * Creates an Operation from the given ParallelInstruction definition.
    */
@@ -127,8 +191,11 @@ public class MapTaskExecutorFactory {
     OutputReceiver[] receivers =
         createOutputReceivers(instruction, counterPrefix, addCounterMutator, stateSampler, 1);
 
-    return new ReadOperation(instruction.getSystemName(), reader, receivers, counterPrefix,
-        addCounterMutator, stateSampler);
+    ReadOperation operation = new ReadOperation(instruction.getSystemName(), reader, receivers,
+        counterPrefix, addCounterMutator, stateSampler);
+    operation.setReadAheadElements(
+        options.as(DataflowWorkerHarnessOptions.class).getReadAheadElements());
+    return operation;
   }
 
   static WriteOperation createWriteOperation(PipelineOptions options,
@@ -203,11 +270,49 @@ public class MapTaskExecutorFactory {
         new CoderSizeEstimator(valueCoder), 0.001 /*sizeEstimatorSampleRate*/, valueCombiner,
         PairInfo.create(), receivers, counterPrefix, addCounterMutator, stateSampler);
 
+    DataflowWorkerHarnessOptions workerOptions = options.as(DataflowWorkerHarnessOptions.class);
+    long sortBufferBytes = workerOptions.getPartialGroupByKeySortBufferBytes();
+    boolean offHeap = workerOptions.isPartialGroupByKeyOffHeap();
+    if ((sortBufferBytes > 0 || offHeap) && isDeterministic(keyCoder)) {
+      Coder<?> windowedKeyCoder = ((WindowedValueCoder<?>) windowedCoder).withValueCoder(keyCoder);
+      Coder<?> accumulatorCoder;
+      if (valueCombiner == null) {
+        accumulatorCoder = ListCoder.of(valueCoder);
+      } else {
+        Coder<?> outputCoder = Serializer.deserialize(
+            instruction.getOutputs().get(0).getCodec(), Coder.class);
+        Coder<?> outputElemCoder = ((WindowedValueCoder<?>) outputCoder).getValueCoder();
+        accumulatorCoder = ((KvCoder<?, ?>) outputElemCoder).getValueCoder();
+      }
+      if (offHeap) {
+        // Buffered values are stored one by one; accumulators are kept decoded.
+        operation.enableOffHeapStorage(new WindowingCoderEntryCoder(
+            windowedKeyCoder, valueCombiner == null ? valueCoder : accumulatorCoder));
+      }
+      if (sortBufferBytes > 0) {
+        operation.enableSorting(
+            new WindowingCoderEntryCoder(windowedKeyCoder, accumulatorCoder), sortBufferBytes);
+      }
+    }
+
     attachInput(operation, pgbk.getInput(), priorOperations);
 
     return operation;
   }
 
+  /**
+   * Sorting and off-heap storage group keys by their encoding, which is only
+   * valid when equal keys have equal encodings.
+   */
+  private static boolean isDeterministic(Coder<?> keyCoder) {
+    try {
+      keyCoder.verifyDeterministic();
+      return true;
+    } catch (Coder.NonDeterministicException e) {
+      return false;
+    }
+  }
+
   static ValueCombiner createValueCombiner(PartialGroupByKeyInstruction pgbk) throws Exception {
     if (pgbk.getValueCombiningFn() == null) {
       return null;
@@ -306,6 +411,51 @@ public class MapTaskExecutorFactory {
     }
   }
 
+  /**
+   * Implements PGBKOp.EntryCoder via Coder.
+   */
+  public static class WindowingCoderEntryCoder implements PartialGroupByKeyOperation.EntryCoder {
+
+    private static final Instant ignored = BoundedWindow.TIMESTAMP_MIN_VALUE;
+
+    private final Coder windowedKeyCoder;
+    private final Coder valueCoder;
+
+    public WindowingCoderEntryCoder(Coder windowedKeyCoder, Coder valueCoder) {
+      this.windowedKeyCoder = windowedKeyCoder;
+      this.valueCoder = valueCoder;
+    }
+
+    @Override
+    public void encodeGroupingKey(Object key, OutputStream out) throws Exception {
+      WindowedValue<?> windowedKey = (WindowedValue<?>) key;
+      // Ignore timestamp for grouping purposes, as in WindowingCoderGroupingKeyCreator.
+      windowedKeyCoder.encode(
+          WindowedValue.of(windowedKey.getValue(), ignored, windowedKey.getWindows()),
+          out, Coder.Context.OUTER);
+    }
+
+    @Override
+    public byte[] encodeKey(Object key) throws Exception {
+      return CoderUtils.encodeToByteArray(windowedKeyCoder, key);
+    }
+
+    @Override
+    public Object decodeKey(byte[] encodedKey) throws Exception {
+      return CoderUtils.decodeFromByteArray(windowedKeyCoder, encodedKey);
+    }
+
+    @Override
+    public byte[] encodeValue(Object value) throws Exception {
+      return CoderUtils.encodeToByteArray(valueCoder, value);
+    }
+
+    @Override
+    public Object decodeValue(byte[] encodedValue) throws Exception {
+      return CoderUtils.decodeFromByteArray(valueCoder, encodedValue);
+    }
+  }
+
   /**
    * Implements PGBKOp.SizeEstimator via Coder.
    */
@@ -28,6 +28,7 @@ import com.google.cloud.dataflow.sdk.util.StateFetcher;
 import com.google.cloud.dataflow.sdk.util.StreamingModeExecutionContext;
 import com.google.cloud.dataflow.sdk.util.Transport;
 import com.google.cloud.dataflow.sdk.util.UserCodeException;
+import com.google.cloud.dataflow.sdk.util.WindmillStateCache;
 import com.google.cloud.dataflow.sdk.util.common.Counter;
 import com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind;
 import com.google.cloud.dataflow.sdk.util.common.Counter.CounterMean;
@@ -35,6 +36,7 @@ import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.worker.MapTaskExecutor;
 import com.google.cloud.dataflow.sdk.util.common.worker.ReadOperation;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
 
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
@@ -47,17 +49,26 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.Nullable;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -71,6 +82,13 @@ public class StreamingDataflowWorker {
   static final long THREAD_EXPIRATION_TIME_SEC = 60;
   static final int MAX_THREAD_POOL_QUEUE_SIZE = 100;
   static final long MAX_COMMIT_BYTES = 32 << 20;
+  // Number of commit batches that may be in flight at once. Commits for the
+  // same key may complete out of order; the state cache only keeps the state
+  // of the latest one.
+  static final int NUM_COMMIT_THREADS = 4;
+  // Bounds on the number of work items requested by a single GetWork call.
+  static final int MIN_GET_WORK_ITEMS = 1;
+  static final int MAX_GET_WORK_ITEMS = 100;
   static final int DEFAULT_STATUS_PORT = 8081;
   // Memory threshold over which no new work will be processed.
   // Set to a value >= 1 to disable pushback.
@@ -145,13 +163,25 @@ public class StreamingDataflowWorker {
   private BoundedQueueExecutor executor;
   private WindmillServerStub windmillServer;
   private Thread dispatchThread;
-  private Thread commitThread;
+  private List<Thread> commitThreads;
+  // Computation at which the next commit batch starts, so that each
+  // computation gets its turn at the front of a batch.
+  private AtomicInteger nextCommitComputation = new AtomicInteger();
+  private AtomicInteger activeCommits = new AtomicInteger();
+  private AtomicLong completedCommits = new AtomicLong();
+  private AtomicLong totalCommitMillis = new AtomicLong();
+  private AtomicLong maxCommitMillis = new AtomicLong();
+  private ExecutorService getWorkExecutor;
+  private MovingAverage getWorkMillis = new MovingAverage();
+  private ConcurrentMap<String, MovingAverage> processingMillis = new ConcurrentHashMap<>();
   private AtomicBoolean running;
   private StateFetcher stateFetcher;
+  @Nullable private WindmillStateCache stateCache;
   private DataflowWorkerHarnessOptions options;
   private long clientId;
   private Server statusServer;
   private AtomicReference<Throwable> lastException;
+  private long lastPushbackLog = 0;
 
   public StreamingDataflowWorker(
       List<MapTask> mapTasks, WindmillServerStub server, DataflowWorkerHarnessOptions options) {
@@ -176,6 +206,9 @@ public class StreamingDataflowWorker {
     this.windmillServer = server;
     this.running = new AtomicBoolean();
     this.stateFetcher = new StateFetcher(server);
+    if (options.getStreamingStateCacheBytes() > 0) {
+      this.stateCache = new WindmillStateCache(options.getStreamingStateCacheBytes());
+    }
     this.clientId = new Random().nextLong();
     this.lastException = new AtomicReference<>();
 
@@ -185,6 +218,14 @@ public class StreamingDataflowWorker {
 
   public void start() {
     running.set(true);
+    getWorkExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = threadFactory.newThread(r);
+          t.setName("GetWorkThread");
+          return t;
+        }
+      });
     dispatchThread = threadFactory.newThread(new Runnable() {
         @Override
         public void run() {
@@ -195,15 +236,19 @@ public class StreamingDataflowWorker {
     dispatchThread.setName("DispatchThread");
     dispatchThread.start();
 
-    commitThread = threadFactory.newThread(new Runnable() {
-        @Override
-        public void run() {
-          commitLoop();
-        }
-      });
-    commitThread.setPriority(Thread.MAX_PRIORITY);
-    commitThread.setName("CommitThread");
-    commitThread.start();
+    commitThreads = new ArrayList<>();
+    for (int i = 0; i < NUM_COMMIT_THREADS; i++) {
+      Thread commitThread = threadFactory.newThread(new Runnable() {
+          @Override
+          public void run() {
+            commitLoop();
+          }
+        });
+      commitThread.setPriority(Thread.MAX_PRIORITY);
+      commitThread.setName("CommitThread-" + i);
+      commitThread.start();
+      commitThreads.add(commitThread);
+    }
   }
 
   public void stop() {
@@ -213,6 +258,7 @@ public class StreamingDataflowWorker {
       }
       running.set(false);
       dispatchThread.join();
+      getWorkExecutor.shutdown();
       executor.shutdown();
       if (!executor.awaitTermination(5, TimeUnit.MINUTES)) {
         throw new RuntimeException("Process did not terminate within 5 minutes");
@@ -223,7 +269,14 @@ public class StreamingDataflowWorker {
           workerAndContext.getWorker().close();
         }
       }
-      commitThread.join();
+      for (Thread commitThread : commitThreads) {
+        commitThread.join();
+      }
+      // Commit the output of work that finished after the commit threads exited.
+      Windmill.CommitWorkRequest commitRequest;
+      while ((commitRequest = buildCommitRequest()).getRequestsCount() > 0) {
+        commitWork(commitRequest);
+      }
     } catch (Exception e) {
       LOG.warn("Exception while shutting down: ", e);
     }
@@ -263,57 +316,96 @@ public class StreamingDataflowWorker {
 
   private void dispatchLoop() {
     LOG.info("Dispatch starting");
-    Runtime rt = Runtime.getRuntime();
-    long lastPushbackLog = 0;
+    int backoff = 1;
+    Future<Windmill.GetWorkResponse> pendingWork = null;
     while (running.get()) {
-
-      // If free memory is less than a percentage of total memory, block
-      // until current work drains and memory is released.
-      // Also force a GC to try to get under the memory threshold if possible.
-      long currentMemorySize = rt.totalMemory();
-      long memoryUsed = currentMemorySize - rt.freeMemory();
-      long maxMemory = rt.maxMemory();
-
-      while (memoryUsed > maxMemory * PUSHBACK_THRESHOLD_RATIO) {
-        if (lastPushbackLog < (lastPushbackLog = System.currentTimeMillis()) - 60 * 1000) {
-          LOG.warn(
-              "In pushback, not accepting new work. Using {}MB / {}MB ({}MB currently used by JVM)",
-              memoryUsed >> 20, maxMemory >> 20, currentMemorySize >> 20);
-          System.gc();
-        }
-        sleep(10);
-      }
-
-      int backoff = 1;
       Windmill.GetWorkResponse workResponse;
-      do {
-        workResponse = getWork();
-        if (workResponse.getWorkCount() > 0) {
+      if (pendingWork != null) {
+        workResponse = Futures.getUnchecked(pendingWork);
+        pendingWork = null;
+      } else {
+        waitForMemory();
+        if (!running.get()) {
           break;
         }
+        workResponse = Futures.getUnchecked(getWorkAsync(0));
+      }
+      if (workResponse.getWorkCount() == 0) {
         sleep(backoff);
         backoff = Math.min(1000, backoff * 2);
-      } while (running.get());
-      for (final Windmill.ComputationWorkItems computationWork : workResponse.getWorkList()) {
-        final String computation = computationWork.getComputationId();
-        if (!instructionMap.containsKey(computation)) {
-          getConfig(computation);
+        continue;
+      }
+      backoff = 1;
+
+      // Keep one GetWork call in flight while this response is dispatched, so
+      // that the executor does not sit idle waiting for work. Under memory
+      // pushback no call is issued, and the next iteration waits for memory
+      // to be released before asking for more work.
+      if (running.get() && !isInMemoryPushback()) {
+        int numItems = 0;
+        for (Windmill.ComputationWorkItems computationWork : workResponse.getWorkList()) {
+          numItems += computationWork.getWorkCount();
         }
+        pendingWork = getWorkAsync(numItems);
+      }
+      dispatch(workResponse);
+    }
+    // Work in a prefetched response is already leased to this worker, so it
+    // is processed rather than dropped.
+    if (pendingWork != null) {
+      dispatch(Futures.getUnchecked(pendingWork));
+    }
+    LOG.info("Dispatch done");
+  }
+
+  /**
+   * Returns true if free memory is less than a percentage of total memory, in
+   * which case no new work should be requested.
+   */
+  boolean isInMemoryPushback() {
+    Runtime rt = Runtime.getRuntime();
+    return rt.totalMemory() - rt.freeMemory() > rt.maxMemory() * PUSHBACK_THRESHOLD_RATIO;
+  }
 
-        long watermarkMicros = computationWork.getInputDataWatermark();
-        final Instant inputDataWatermark = new Instant(watermarkMicros / 1000);
+  /**
+   * Blocks while in memory pushback, until current work drains and memory is
+   * released. Also forces a GC to try to get under the memory threshold if
+   * possible.
+   */
+  private void waitForMemory() {
+    while (running.get() && isInMemoryPushback()) {
+      if (lastPushbackLog < (lastPushbackLog = System.currentTimeMillis()) - 60 * 1000) {
+        Runtime rt = Runtime.getRuntime();
+        long currentMemorySize = rt.totalMemory();
+        LOG.warn(
+            "In pushback, not accepting new work. Using {}MB / {}MB ({}MB currently used by JVM)",
+            (currentMemorySize - rt.freeMemory()) >> 20, rt.maxMemory() >> 20,
+            currentMemorySize >> 20);
+        System.gc();
+      }
+      sleep(10);
+    }
+  }
 
-        for (final Windmill.WorkItem work : computationWork.getWorkList()) {
-          executor.execute(new Runnable() {
-              @Override
-              public void run() {
-                process(computation, inputDataWatermark, work);
-              }
-            });
-        }
+  private void dispatch(Windmill.GetWorkResponse workResponse) {
+    for (final Windmill.ComputationWorkItems computationWork : workResponse.getWorkList()) {
+      final String computation = computationWork.getComputationId();
+      if (!instructionMap.containsKey(computation)) {
+        getConfig(computation);
+      }
+
+      long watermarkMicros = computationWork.getInputDataWatermark();
+      final Instant inputDataWatermark = new Instant(watermarkMicros / 1000);
+
+      for (final Windmill.WorkItem work : computationWork.getWorkList()) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              process(computation, inputDataWatermark, work);
+            }
+          });
       }
     }
-    LOG.info("Dispatch done");
   }
 
   private void process(
@@ -329,6 +421,7 @@ public class StreamingDataflowWorker {
       return;
     }
 
+    long startMillis = System.currentTimeMillis();
     Windmill.WorkItemCommitRequest.Builder outputBuilder =
         Windmill.WorkItemCommitRequest.newBuilder()
         .setKey(work.getKey())
@@ -342,7 +435,7 @@ public class StreamingDataflowWorker {
           work.getKey().toStringUtf8() + "-" + Long.toString(work.getWorkToken()));
       WorkerAndContext workerAndContext = mapTaskExecutors.get(computation).poll();
       if (workerAndContext == null) {
-        context = new StreamingModeExecutionContext(computation, stateFetcher);
+        context = new StreamingModeExecutionContext(computation, stateFetcher, stateCache);
         worker = MapTaskExecutorFactory.create(options, mapTask, context);
         ReadOperation readOperation = worker.getReadOperation();
         // Disable progress updates since its results are unused for streaming
@@ -364,12 +457,15 @@ public class StreamingDataflowWorker {
 
       context.flushState();
 
+      Windmill.WorkItemCommitRequest output = outputBuilder.build();
+      context.stageCachedState(output);
+
       mapTaskExecutors.get(computation).offer(new WorkerAndContext(worker, context));
       worker = null;
       context = null;
 
-      Windmill.WorkItemCommitRequest output = outputBuilder.build();
       outputMap.get(computation).add(output);
+      recordProcessingMillis(computation, System.currentTimeMillis() - startMillis);
       LOG.debug("Processing done for work token: {}", work.getWorkToken());
     } catch (Throwable t) {
       if (worker != null) {
@@ -380,12 +476,17 @@ public class StreamingDataflowWorker {
         }
       }
 
+      if (stateCache != null) {
+        stateCache.invalidate(computation, work.getKey(), work.getWorkToken());
+      }
+
       t = t instanceof UserCodeException ? t.getCause() : t;
 
       if (t instanceof KeyTokenInvalidException) {
         LOG.debug("Execution of work for " + computation
             + " for key " + work.getKey().toStringUtf8()
             + " failed due to token expiration, will not retry locally.");
+        invalidateCachedState(computation);
       } else {
         LOG.error("Execution of work for {} for key {} failed, retrying.",
             computation, work.getKey().toStringUtf8());
@@ -405,6 +506,7 @@ public class StreamingDataflowWorker {
           // If we failed to report the error, the item is invalid and should
           // not be retried internally.  It will be retried at the higher level.
           LOG.debug("Aborting processing due to exception reporting failure");
+          invalidateCachedState(computation);
         }
       }
     } finally {
@@ -412,50 +514,176 @@ public class StreamingDataflowWorker {
     }
   }
 
+  /**
+   * Drops the cached state of a computation whose keys may have been
+   * processed by other workers.
+   */
+  private void invalidateCachedState(String computation) {
+    if (stateCache != null) {
+      stateCache.invalidateComputation(computation);
+    }
+  }
+
   private void commitLoop() {
     while (running.get()) {
-      Windmill.CommitWorkRequest.Builder commitRequestBuilder =
-          Windmill.CommitWorkRequest.newBuilder();
-      long remainingCommitBytes = MAX_COMMIT_BYTES;
-      for (Map.Entry<String, ConcurrentLinkedQueue<Windmill.WorkItemCommitRequest>> entry :
-               outputMap.entrySet()) {
-        Windmill.ComputationCommitWorkRequest.Builder computationRequestBuilder =
-            Windmill.ComputationCommitWorkRequest.newBuilder();
-        ConcurrentLinkedQueue<Windmill.WorkItemCommitRequest> queue = entry.getValue();
-        while (remainingCommitBytes > 0) {
-          Windmill.WorkItemCommitRequest request = queue.poll();
+      Windmill.CommitWorkRequest commitRequest = buildCommitRequest();
+      if (commitRequest.getRequestsCount() > 0) {
+        LOG.trace("Commit: {}", commitRequest);
+        activeCommits.incrementAndGet();
+        long startMillis = System.currentTimeMillis();
+        try {
+          commitWork(commitRequest);
+        } finally {
+          activeCommits.decrementAndGet();
+          recordCommitMillis(System.currentTimeMillis() - startMillis);
+        }
+      }
+      if (commitRequest.getSerializedSize() < MAX_COMMIT_BYTES) {
+        sleep(100);
+      }
+    }
+  }
+
+  /**
+   * Drains the commit queues into a batch of at most MAX_COMMIT_BYTES bytes.
+   * Each computation may first take an equal share of the batch, starting
+   * from a different computation each time; the rest of the batch is then
+   * filled from any computation.
+   */
+  private Windmill.CommitWorkRequest buildCommitRequest() {
+    List<Map.Entry<String, ConcurrentLinkedQueue<Windmill.WorkItemCommitRequest>>> queues =
+        new ArrayList<>(outputMap.entrySet());
+    if (queues.isEmpty()) {
+      return Windmill.CommitWorkRequest.getDefaultInstance();
+    }
+    Collections.rotate(queues, -(nextCommitComputation.getAndIncrement() % queues.size()));
+
+    Map<String, Windmill.ComputationCommitWorkRequest.Builder> computationRequests =
+        new LinkedHashMap<>();
+    long remainingCommitBytes = MAX_COMMIT_BYTES;
+    long fairShareBytes = MAX_COMMIT_BYTES / queues.size();
+    for (long shareBytes : new long[] {fairShareBytes, MAX_COMMIT_BYTES}) {
+      for (Map.Entry<String, ConcurrentLinkedQueue<Windmill.WorkItemCommitRequest>> entry
+               : queues) {
+        long computationBytes = 0;
+        while (remainingCommitBytes > 0 && computationBytes < shareBytes) {
+          Windmill.WorkItemCommitRequest request = entry.getValue().poll();
           if (request == null) {
             break;
           }
+          Windmill.ComputationCommitWorkRequest.Builder computationRequest =
+              computationRequests.get(entry.getKey());
+          if (computationRequest == null) {
+            computationRequest = Windmill.ComputationCommitWorkRequest.newBuilder()
+                .setComputationId(entry.getKey());
+            computationRequests.put(entry.getKey(), computationRequest);
+          }
+          computationRequest.addRequests(request);
+          computationBytes += request.getSerializedSize();
           remainingCommitBytes -= request.getSerializedSize();
-          computationRequestBuilder.addRequests(request);
-        }
-        if (computationRequestBuilder.getRequestsCount() > 0) {
-          computationRequestBuilder.setComputationId(entry.getKey());
-          commitRequestBuilder.addRequests(computationRequestBuilder);
         }
       }
-      if (commitRequestBuilder.getRequestsCount() > 0) {
-        Windmill.CommitWorkRequest commitRequest = commitRequestBuilder.build();
-        LOG.trace("Commit: {}", commitRequest);
-        commitWork(commitRequest);
-      }
-      if (remainingCommitBytes > 0) {
-        sleep(100);
-      }
     }
+
+    Windmill.CommitWorkRequest.Builder commitRequestBuilder =
+        Windmill.CommitWorkRequest.newBuilder();
+    for (Windmill.ComputationCommitWorkRequest.Builder computationRequest
+             : computationRequests.values()) {
+      commitRequestBuilder.addRequests(computationRequest);
+    }
+    return commitRequestBuilder.build();
+  }
+
+  private void recordProcessingMillis(String computation, long millis) {
+    MovingAverage average = processingMillis.get(computation);
+    if (average == null) {
+      processingMillis.putIfAbsent(computation, new MovingAverage());
+      average = processingMillis.get(computation);
+    }
+    average.add(millis);
   }
 
-  private Windmill.GetWorkResponse getWork() {
-    return windmillServer.getWork(
-        Windmill.GetWorkRequest.newBuilder()
-        .setClientId(clientId)
-        .setMaxItems(100)
-        .build());
+  private void recordCommitMillis(long millis) {
+    completedCommits.incrementAndGet();
+    totalCommitMillis.addAndGet(millis);
+    long max;
+    while ((max = maxCommitMillis.get()) < millis
+        && !maxCommitMillis.compareAndSet(max, millis)) {}
   }
 
-  private void commitWork(Windmill.CommitWorkRequest request) {
-    windmillServer.commitWork(request);
+  /**
+   * Issues a GetWork call on the GetWork thread, sized by {@link #getWorkBudget}
+   * given that {@code numPendingItems} items are about to be dispatched.
+   */
+  private Future<Windmill.GetWorkResponse> getWorkAsync(final int numPendingItems) {
+    return getWorkExecutor.submit(new Callable<Windmill.GetWorkResponse>() {
+        @Override
+        public Windmill.GetWorkResponse call() {
+          int maxItems = getWorkBudget(numPendingItems);
+          long startMillis = System.currentTimeMillis();
+          Windmill.GetWorkResponse response = windmillServer.getWork(
+              Windmill.GetWorkRequest.newBuilder()
+              .setClientId(clientId)
+              .setMaxItems(maxItems)
+              .build());
+          getWorkMillis.add(System.currentTimeMillis() - startMillis);
+          return response;
+        }
+      });
+  }
+
+  /**
+   * Returns the number of work items to request: enough to keep the worker
+   * threads busy for twice the observed GetWork latency, at the observed
+   * per-item processing time, but no more than the executor can queue. At
+   * least one item is always requested; dispatching blocks while the
+   * executor's queue is full.
+   */
+  private int getWorkBudget(int numPendingItems) {
+    int capacity = MAX_THREAD_POOL_QUEUE_SIZE - executor.getQueue().size() - numPendingItems;
+    double itemMillis = 0;
+    int numComputations = 0;
+    for (MovingAverage computationMillis : processingMillis.values()) {
+      itemMillis += computationMillis.get();
+      numComputations++;
+    }
+    int budget = MAX_GET_WORK_ITEMS;
+    if (numComputations > 0 && itemMillis > 0) {
+      itemMillis /= numComputations;
+      budget = (int) Math.min(MAX_GET_WORK_ITEMS,
+          Math.ceil(2 * getWorkMillis.get() * MAX_THREAD_POOL_SIZE / itemMillis));
+    }
+    return Math.max(MIN_GET_WORK_ITEMS, Math.min(capacity, budget));
+  }
+
+  /**
+   * Commits the given request to Windmill, then updates the state cache with
+   * the outcome of each of its work items.
+   */
+  void commitWork(Windmill.CommitWorkRequest request) {
+    if (stateCache == null) {
+      windmillServer.commitWork(request);
+      return;
+    }
+    try {
+      windmillServer.commitWork(request);
+    } catch (RuntimeException e) {
+      // The keys of the computations may have moved to other workers.
+      for (Windmill.ComputationCommitWorkRequest computationRequest : request.getRequestsList()) {
+        for (Windmill.WorkItemCommitRequest workRequest : computationRequest.getRequestsList()) {
+          stateCache.invalidate(computationRequest.getComputationId(),
+              workRequest.getKey(), workRequest.getWorkToken());
+        }
+        stateCache.invalidateComputation(computationRequest.getComputationId());
+      }
+      throw e;
+    }
+    for (Windmill.ComputationCommitWorkRequest computationRequest : request.getRequestsList()) {
+      for (Windmill.WorkItemCommitRequest workRequest : computationRequest.getRequestsList()) {
+        stateCache.commitSucceeded(computationRequest.getComputationId(),
+            workRequest.getKey(), workRequest.getWorkToken());
+      }
+    }
   }
 
   private void getConfig(String computation) {
@@ -555,6 +783,24 @@ public class StreamingDataflowWorker {
     return !response.getFailed();
   }
 
+  /**
+   * An exponentially weighted moving average, weighing recent samples the most.
+   */
+  private static class MovingAverage {
+    private static final double WEIGHT = 0.1;
+    private double average = 0;
+    private boolean empty = true;
+
+    public synchronized void add(double sample) {
+      average = empty ? sample : (1 - WEIGHT) * average + WEIGHT * sample;
+      empty = false;
+    }
+
+    public synchronized double get() {
+      return average;
+    }
+  }
+
   private static class WorkerAndContext {
     public MapTaskExecutor worker;
     public StreamingModeExecutionContext context;
@@ -626,6 +872,21 @@ public class StreamingDataflowWorker {
       response.println("</li>");
     }
     response.println("</ul>");
+    response.println("GetWork Latency: " + (long) getWorkMillis.get() + "ms<br>");
+    response.println("Processing Latency: <ul>");
+    for (Map.Entry<String, MovingAverage> entry : processingMillis.entrySet()) {
+      response.println("<li>" + entry.getKey() + ": " + (long) entry.getValue().get() + "ms</li>");
+    }
+    response.println("</ul>");
+    long commits = completedCommits.get();
+    response.println("Active Commits: " + activeCommits.get() + "/" + NUM_COMMIT_THREADS + "<br>");
+    response.println("Completed Commits: " + commits + ", average latency "
+        + (commits == 0 ? 0 : totalCommitMillis.get() / commits) + "ms, max latency "
+        + maxCommitMillis.get() + "ms<br>");
+    if (stateCache != null) {
+      response.println("State Cache: " + stateCache.getNumKeys() + " keys, "
+          + stateCache.getHits() + " hits, " + stateCache.getMisses() + " misses<br>");
+    }
   }
 
   private void printResources(PrintWriter response) {
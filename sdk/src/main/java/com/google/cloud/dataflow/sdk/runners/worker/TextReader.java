@@ -17,29 +17,41 @@
 package com.google.cloud.dataflow.sdk.runners.worker;
 
 import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
 import com.google.cloud.dataflow.sdk.io.TextIO;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.IOChannelFactory;
 import com.google.cloud.dataflow.sdk.util.common.worker.ProgressTracker;
 import com.google.cloud.dataflow.sdk.util.common.worker.ProgressTrackerGroup;
+import com.google.common.annotations.VisibleForTesting;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import javax.annotation.Nullable;
 
 /**
  * A source that reads text files.
  *
+ * <p> Uncompressed files that are opened as a {@link FileChannel}, such as
+ * local files, are memory-mapped and scanned in place, rather than copied
+ * through a stream.
+ *
  * @param <T> the type of the elements read from the source
  */
 public class TextReader<T> extends FileBasedReader<T> {
   final boolean stripTrailingNewlines;
   final TextIO.CompressionType compressionType;
+  private boolean memoryMapFiles = true;
 
   public TextReader(String filename, boolean stripTrailingNewlines, @Nullable Long startPosition,
       @Nullable Long endPosition, Coder<T> coder, TextIO.CompressionType compressionType) {
@@ -55,6 +67,15 @@ public class TextReader<T> extends FileBasedReader<T> {
     this.compressionType = compressionType;
   }
 
+  /**
+   * Sets whether uncompressed files that are opened as a {@link FileChannel}
+   * are memory-mapped, or read through a stream like other files.
+   */
+  @VisibleForTesting
+  void setMemoryMapFiles(boolean memoryMapFiles) {
+    this.memoryMapFiles = memoryMapFiles;
+  }
+
   @Override
   protected ReaderIterator<T> newReaderIteratorForRangeInFile(IOChannelFactory factory,
       String oneFile, long startPosition, @Nullable Long endPosition) throws IOException {
@@ -101,11 +122,25 @@ public class TextReader<T> extends FileBasedReader<T> {
       throw new UnsupportedOperationException("Unable to seek in stream for " + input);
     }
 
+    FileBasedReader.FilenameBasedStreamFactory compressionStreamFactory =
+        new FileBasedReader.FilenameBasedStreamFactory(input, compressionType);
+    if (memoryMapFiles
+        && reader instanceof FileChannel
+        && compressionStreamFactory.getCompressionType() == TextIO.CompressionType.UNCOMPRESSED
+        && ((FileChannel) reader).size() <= Integer.MAX_VALUE) {
+      // The mapping stays valid after the channel is closed.
+      ByteBuffer buffer;
+      try (FileChannel channel = (FileChannel) reader) {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      return new TextFileIterator(buffer, stripTrailingNewlines, startOffset, endOffset);
+    }
+
     SeekableByteChannel seeker = (SeekableByteChannel) reader;
 
     return new TextFileIterator(
         new CopyableSeekableByteChannel(seeker), stripTrailingNewlines, startOffset, endOffset,
-        new FileBasedReader.FilenameBasedStreamFactory(input, compressionType));
+        compressionStreamFactory);
   }
 
   class TextFileMultiIterator extends LazyMultiReaderIterator<T> {
@@ -128,6 +163,10 @@ public class TextReader<T> extends FileBasedReader<T> {
   class TextFileIterator extends FileBasedIterator {
     private final boolean stripTrailingNewlines;
     private ScanState state;
+    // Set instead of the stream and state when the file is memory-mapped.
+    @Nullable
+    private final MappedScanState mapped;
+    private boolean nextLineComputed = false;
 
     TextFileIterator(CopyableSeekableByteChannel seeker, boolean stripTrailingNewlines,
         long startOffset, @Nullable Long endOffset,
@@ -151,6 +190,29 @@ public class TextReader<T> extends FileBasedReader<T> {
 
       this.stripTrailingNewlines = stripTrailingNewlines;
       this.state = state;
+      this.mapped = null;
+    }
+
+    TextFileIterator(ByteBuffer buffer, boolean stripTrailingNewlines, long startOffset,
+        @Nullable Long endOffset) {
+      this(stripTrailingNewlines, startOffset, startOffset, endOffset,
+          new ProgressTrackerGroup<Integer>() {
+            @Override
+            protected void report(Integer lineLength) {
+              notifyElementRead(lineLength.longValue());
+            }
+          }.start(),
+          new MappedScanState(buffer, (int) startOffset, !stripTrailingNewlines), false);
+    }
+
+    private TextFileIterator(boolean stripTrailingNewlines, long startOffset, long offset,
+        @Nullable Long endOffset, ProgressTracker<Integer> tracker, MappedScanState mapped,
+        boolean nextLineComputed) {
+      super(startOffset, offset, endOffset, tracker);
+
+      this.stripTrailingNewlines = stripTrailingNewlines;
+      this.mapped = mapped;
+      this.nextLineComputed = nextLineComputed;
     }
 
     private TextFileIterator(TextFileIterator it) throws IOException {
@@ -163,9 +225,60 @@ public class TextReader<T> extends FileBasedReader<T> {
 
     @Override
     public ReaderIterator<T> copy() throws IOException {
+      if (mapped != null) {
+        return new TextFileIterator(stripTrailingNewlines, startOffset, offset, endOffset,
+            tracker.copy(), mapped.copy(), nextLineComputed);
+      }
       return new TextFileIterator(this);
     }
 
+    @Override
+    public boolean hasNext() throws IOException {
+      if (mapped == null) {
+        return super.hasNext();
+      }
+      computeNextLine();
+      return mapped.hasLine();
+    }
+
+    @Override
+    public T next() throws IOException {
+      if (mapped == null) {
+        return super.next();
+      }
+      advance();
+      return mapped.decodeLine(coder);
+    }
+
+    @Override
+    void advance() throws IOException {
+      if (mapped == null) {
+        super.advance();
+        return;
+      }
+      computeNextLine();
+      if (!mapped.hasLine()) {
+        throw new NoSuchElementException();
+      }
+      nextLineComputed = false;
+    }
+
+    private void computeNextLine() {
+      if (nextLineComputed) {
+        return;
+      }
+      if (endOffset == null || offset < endOffset) {
+        int consumed = mapped.readLine();
+        if (consumed > 0) {
+          offset += consumed;
+          tracker.saw(consumed);
+        }
+      } else {
+        mapped.clearLine();
+      }
+      nextLineComputed = true;
+    }
+
     /**
      * Reads a line of text. A line is considered to be terminated by any
      * one of a line feed ({@code '\n'}), a carriage return
@@ -213,6 +326,92 @@ public class TextReader<T> extends FileBasedReader<T> {
     }
   }
 
+  /**
+   * MappedScanState finds lines directly in a memory-mapped file, and decodes
+   * them without copying them into an intermediate buffer.
+   */
+  private static class MappedScanState {
+    private final ByteBuffer buffer;
+    private final boolean keepNewlines;
+    private int position; // Where the next line starts in the buffer
+    private int lineStart; // Bounds of the current line, or -1 if there is none
+    private int lineEnd;
+
+    public MappedScanState(ByteBuffer buffer, int position, boolean keepNewlines) {
+      this(buffer, keepNewlines, position, -1, -1);
+    }
+
+    private MappedScanState(
+        ByteBuffer buffer, boolean keepNewlines, int position, int lineStart, int lineEnd) {
+      this.buffer = buffer;
+      this.keepNewlines = keepNewlines;
+      this.position = position;
+      this.lineStart = lineStart;
+      this.lineEnd = lineEnd;
+    }
+
+    public MappedScanState copy() {
+      return new MappedScanState(buffer, keepNewlines, position, lineStart, lineEnd);
+    }
+
+    /**
+     * Finds the line starting at the current position, which is terminated
+     * as described in {@link TextFileIterator#readElement}.
+     *
+     * @return the number of bytes consumed, including any separator, or 0 if
+     *     the end of the buffer has been reached.
+     */
+    public int readLine() {
+      int limit = buffer.limit();
+      if (position >= limit) {
+        clearLine();
+        return 0;
+      }
+      int end = position;
+      while (end < limit && buffer.get(end) != '\n' && buffer.get(end) != '\r') {
+        end++;
+      }
+      int next = end;
+      if (next < limit) {
+        if (buffer.get(next) == '\r' && next + 1 < limit && buffer.get(next + 1) == '\n') {
+          next++;
+        }
+        next++;
+      }
+      lineStart = position;
+      lineEnd = keepNewlines ? next : end;
+      int consumed = next - position;
+      position = next;
+      return consumed;
+    }
+
+    public void clearLine() {
+      lineStart = -1;
+      lineEnd = -1;
+    }
+
+    public boolean hasLine() {
+      return lineStart != -1;
+    }
+
+    /**
+     * Decodes the current line. Strings are decoded straight from the buffer;
+     * other coders are given a copy of the line's bytes.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T decodeLine(Coder<T> coder) throws IOException {
+      ByteBuffer line = buffer.duplicate();
+      line.limit(lineEnd);
+      line.position(lineStart);
+      if (coder instanceof StringUtf8Coder) {
+        return (T) StandardCharsets.UTF_8.decode(line).toString();
+      }
+      byte[] bytes = new byte[lineEnd - lineStart];
+      line.get(bytes);
+      return CoderUtils.decodeFromByteArray(coder, bytes);
+    }
+  }
+
   /**
    * ScanState encapsulates the state for the current buffer of text
    * being scanned.
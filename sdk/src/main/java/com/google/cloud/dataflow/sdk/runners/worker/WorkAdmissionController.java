@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker;
+
+import com.google.cloud.dataflow.sdk.options.DataflowWorkerHarnessOptions;
+import com.google.cloud.dataflow.sdk.util.common.Counter;
+import com.google.common.base.Preconditions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Limits the number of work items a worker processes concurrently.
+ *
+ * <p> Unless {@link DataflowWorkerHarnessOptions#getMaxConcurrentWorkItems} is
+ * set, the limit is the number of available processors. Otherwise the limit
+ * starts there, bounded by the maximum, and is revised every
+ * {@link #SAMPLING_PERIOD_MILLIS}:
+ * <ul>
+ *   <li> it is halved when more than {@link #HIGH_HEAP_FRACTION} of the maximum
+ *   heap size is still in use after the last garbage collection;
+ *   <li> otherwise, while all admitted work items are in progress, it is
+ *   increased by one up to the number of processors, and beyond when the
+ *   processors are not saturated and work items have recently spent most of
+ *   their time reading, that is, waiting on input;
+ *   <li> it is decreased by one, down to the number of processors, when the
+ *   processors are oversubscribed.
+ * </ul>
+ *
+ * <p> Lowering the limit does not interrupt work items in progress; it only
+ * delays the leasing of new ones.
+ */
+@ThreadSafe
+class WorkAdmissionController {
+  private static final Logger LOG = LoggerFactory.getLogger(WorkAdmissionController.class);
+
+  static final long SAMPLING_PERIOD_MILLIS = 10 * 1000;
+
+  /** The fraction of the maximum heap size above which the limit is lowered. */
+  static final double HIGH_HEAP_FRACTION = 0.8;
+
+  /** The load average per processor below which the processors are not saturated. */
+  static final double LOW_CPU_LOAD = 0.7;
+
+  /** The load average per processor above which the processors are oversubscribed. */
+  static final double HIGH_CPU_LOAD = 1.5;
+
+  /** The fraction of time spent reading above which work items are bound by input. */
+  static final double INPUT_BOUND_READ_FRACTION = 0.5;
+
+  /** The weight of the latest work item in the moving average of the read fraction. */
+  private static final double READ_FRACTION_WEIGHT = 0.25;
+
+  private final int numProcessors;
+  private final int maxLimit;
+  private final boolean adaptive;
+
+  // Guarded by this.
+  private int limit;
+  private int admitted = 0;
+  private double readFraction = 0;
+
+  /**
+   * Creates a controller with a fixed limit, or an adaptive one if the
+   * options set a maximum number of concurrent work items.
+   */
+  static WorkAdmissionController fromOptions(DataflowWorkerHarnessOptions options) {
+    return new WorkAdmissionController(numProcessors(), getMaxConcurrentWorkItems(options),
+        options.getMaxConcurrentWorkItems() > 0);
+  }
+
+  /**
+   * Returns the maximum number of work items that a worker with the given
+   * options processes concurrently.
+   */
+  static int getMaxConcurrentWorkItems(DataflowWorkerHarnessOptions options) {
+    int maxConcurrentWorkItems = options.getMaxConcurrentWorkItems();
+    return maxConcurrentWorkItems > 0 ? maxConcurrentWorkItems : numProcessors();
+  }
+
+  WorkAdmissionController(int numProcessors, int maxLimit, boolean adaptive) {
+    Preconditions.checkArgument(numProcessors > 0, "numProcessors must be positive");
+    Preconditions.checkArgument(maxLimit > 0, "maxLimit must be positive");
+    this.numProcessors = numProcessors;
+    this.maxLimit = maxLimit;
+    this.adaptive = adaptive;
+    this.limit = Math.min(numProcessors, maxLimit);
+  }
+
+  /**
+   * Returns the maximum number of work items admitted at once.
+   */
+  int getMaxLimit() {
+    return maxLimit;
+  }
+
+  /**
+   * Returns the current number of work items admitted at once.
+   */
+  synchronized int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Returns true if the limit is revised from the observed load, rather than
+   * fixed at the number of processors.
+   */
+  boolean isAdaptive() {
+    return adaptive;
+  }
+
+  /**
+   * Periodically revises the limit from the observed load, using the given
+   * executor, if this controller is adaptive.
+   */
+  void start(ScheduledExecutorService executor) {
+    if (!isAdaptive()) {
+      return;
+    }
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          adjust(heapUsedFraction(), cpuLoad());
+        } catch (Throwable t) {
+          LOG.warn("Failed to revise the number of concurrent work items", t);
+        }
+      }
+    }, SAMPLING_PERIOD_MILLIS, SAMPLING_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Blocks until another work item may be processed.
+   */
+  synchronized void acquire() throws InterruptedException {
+    while (admitted >= limit) {
+      wait();
+    }
+    admitted++;
+  }
+
+  /**
+   * Records that a work item admitted by {@link #acquire} is done.
+   */
+  synchronized void release() {
+    admitted--;
+    notifyAll();
+  }
+
+  /**
+   * Records the fraction of time that a completed work item spent reading,
+   * as sampled into the given state counters.
+   */
+  void recordWorkItem(Iterable<Counter<?>> counters) {
+    long readMillis = 0;
+    long totalMillis = 0;
+    for (Counter<?> counter : counters) {
+      if (!counter.getName().endsWith("-msecs") || !(counter.getAggregate() instanceof Long)) {
+        continue;
+      }
+      long millis = (Long) counter.getAggregate();
+      totalMillis += millis;
+      if (counter.getName().endsWith("-read-msecs")) {
+        readMillis += millis;
+      }
+    }
+    if (totalMillis > 0) {
+      recordReadFraction((double) readMillis / totalMillis);
+    }
+  }
+
+  synchronized void recordReadFraction(double fraction) {
+    readFraction += READ_FRACTION_WEIGHT * (fraction - readFraction);
+  }
+
+  /**
+   * Revises the limit given the fraction of the maximum heap size in use, and
+   * the load average per processor, or a negative value if it is unknown.
+   */
+  synchronized void adjust(double heapUsedFraction, double cpuLoad) {
+    int previousLimit = limit;
+    if (heapUsedFraction > HIGH_HEAP_FRACTION) {
+      limit = Math.max(1, limit / 2);
+    } else if (admitted >= limit && limit < maxLimit
+        && (limit < numProcessors || (cpuLoad >= 0 && cpuLoad < LOW_CPU_LOAD
+            && readFraction > INPUT_BOUND_READ_FRACTION))) {
+      limit++;
+    } else if (cpuLoad > HIGH_CPU_LOAD && limit > numProcessors) {
+      limit--;
+    }
+    if (limit != previousLimit) {
+      LOG.info("Changed the number of concurrent work items from {} to {} "
+          + "(heap used: {}, cpu load: {}, read fraction: {})",
+          previousLimit, limit, heapUsedFraction, cpuLoad, readFraction);
+      notifyAll();
+    }
+  }
+
+  private static int numProcessors() {
+    return Math.max(Runtime.getRuntime().availableProcessors(), 1);
+  }
+
+  /**
+   * Returns the fraction of the maximum heap size that was in use after the
+   * last garbage collection, or currently in use if that is unknown.
+   */
+  private static double heapUsedFraction() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = 0;
+    boolean collected = false;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+      if (usage != null) {
+        used += usage.getUsed();
+        collected = true;
+      }
+    }
+    if (!collected) {
+      used = runtime.totalMemory() - runtime.freeMemory();
+    }
+    return (double) used / runtime.maxMemory();
+  }
+
+  /**
+   * Returns the system load average per processor, or a negative value if it
+   * is unavailable.
+   */
+  private static double cpuLoad() {
+    double loadAverage = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+    return loadAverage < 0 ? loadAverage : loadAverage / numProcessors();
+  }
+}
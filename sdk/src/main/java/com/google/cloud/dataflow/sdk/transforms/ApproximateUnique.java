@@ -16,29 +16,42 @@
 
 package com.google.cloud.dataflow.sdk.transforms;
 
+import com.google.cloud.dataflow.sdk.coders.ByteArrayCoder;
 import com.google.cloud.dataflow.sdk.coders.Coder;
-import com.google.cloud.dataflow.sdk.coders.Coder.Context;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.coders.CoderRegistry;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
 import com.google.cloud.dataflow.sdk.coders.SerializableCoder;
 import com.google.cloud.dataflow.sdk.transforms.Combine.CombineFn;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.HyperLogLogPlusPlus;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.common.base.Preconditions;
 import com.google.common.hash.Hashing;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.TreeSet;
 
 /**
  * {@code PTransform}s for estimating the number of distinct elements
  * in a {@code PCollection}, or the number of distinct values
  * associated with each key in a {@code PCollection} of {@code KV}s.
+ *
+ * <p> The transforms given a sample size extrapolate from a sample of the
+ * hashes of the elements. The transforms given an estimation error instead
+ * use a {@link HyperLogLogPlusPlus HyperLogLog++} sketch, which takes less
+ * memory and time for the same accuracy. Sketches can also be output as
+ * bytes, to be stored and merged later with sketches of other inputs; see
+ * {@link #sketchGlobally}.
  */
 public class ApproximateUnique {
 
@@ -87,6 +100,12 @@ public class ApproximateUnique {
    * Like {@link #globally(int)}, but specifies the desired maximum
    * estimation error instead of the sample size.
    *
+   * <p> The estimate is computed from a HyperLogLog++ sketch rather than a
+   * sample, with enough registers for a standard error of half the maximum
+   * estimation error; for example, a maximum error of {@code 0.01} uses
+   * 65536 one-byte registers. Inputs with fewer than a quarter as many
+   * distinct elements as registers are counted nearly exactly.
+   *
    * @param <T> the type of the elements in the input {@code PCollection}
    * @param maximumEstimationError the maximum estimation error, which
    *        should be in the range {@code [0.01, 0.5]}
@@ -135,6 +154,9 @@ public class ApproximateUnique {
    * Like {@link #perKey(int)}, but specifies the desired maximum
    * estimation error instead of the sample size.
    *
+   * <p> As in {@link #globally(double)}, the estimate for each key is
+   * computed from a HyperLogLog++ sketch.
+   *
    * @param <K> the type of the keys in the input and output
    *        {@code PCollection}s
    * @param <V> the type of the values in the input {@code PCollection}
@@ -147,6 +169,83 @@ public class ApproximateUnique {
     return new PerKey<>(maximumEstimationError);
   }
 
+  /**
+   * Returns a {@code PTransform} that takes a {@code PCollection<T>}
+   * and returns a {@code PCollection<byte[]>} containing a single
+   * serialized HyperLogLog++ sketch of the distinct elements of the input
+   * {@code PCollection}, with {@code 2^precision} registers.
+   *
+   * <p> The standard error of the estimates of a sketch is about
+   * {@code 1.04 / sqrt(2^precision)}. Sketches of the same precision, of
+   * this or other inputs, may be combined by {@link #mergeSketchesGlobally}
+   * and {@link #mergeSketchesPerKey}, and estimated by
+   * {@link #estimateFromSketch}.
+   *
+   * <p> Example of use:
+   * <pre> {@code
+   * PCollection<String> pc = ...;
+   * PCollection<byte[]> sketch =
+   *     pc.apply(ApproximateUnique.<String>sketchGlobally(14));
+   * } </pre>
+   *
+   * @param <T> the type of the elements in the input {@code PCollection}
+   * @param precision the number of bits of the hash that index a register,
+   *        between {@link HyperLogLogPlusPlus#MIN_PRECISION} and
+   *        {@link HyperLogLogPlusPlus#MAX_PRECISION}
+   * @throws IllegalArgumentException if the {@code precision} is out of range
+   */
+  public static <T> SketchGlobally<T> sketchGlobally(int precision) {
+    return new SketchGlobally<>(precision);
+  }
+
+  /**
+   * Returns a {@code PTransform} that takes a
+   * {@code PCollection<KV<K, V>>} and returns a
+   * {@code PCollection<KV<K, byte[]>>} that maps each distinct key in the
+   * input {@code PCollection} to a serialized HyperLogLog++ sketch of the
+   * distinct values associated with that key.
+   *
+   * <p> See {@link #sketchGlobally} for an explanation of sketches.
+   *
+   * @param <K> the type of the keys in the input and output
+   *        {@code PCollection}s
+   * @param <V> the type of the values in the input {@code PCollection}
+   * @param precision the number of bits of the hash that index a register
+   * @throws IllegalArgumentException if the {@code precision} is out of range
+   */
+  public static <K, V> SketchPerKey<K, V> sketchPerKey(int precision) {
+    return new SketchPerKey<>(precision);
+  }
+
+  /**
+   * Returns a {@code PTransform} that merges the serialized sketches of a
+   * {@code PCollection<byte[]>}, which must all have the given precision,
+   * into a single sketch of the union of their inputs.
+   */
+  public static Combine.Globally<byte[], byte[]> mergeSketchesGlobally(int precision) {
+    return Combine.globally(new MergeSketchesFn(precision));
+  }
+
+  /**
+   * Returns a {@code PTransform} that merges the serialized sketches
+   * associated with each key of a {@code PCollection<KV<K, byte[]>>}, which
+   * must all have the given precision, into a single sketch per key.
+   */
+  public static <K> Combine.PerKey<K, byte[], byte[]> mergeSketchesPerKey(int precision) {
+    return Combine.perKey(new MergeSketchesFn(precision).<K>asKeyedFn());
+  }
+
+  /**
+   * Returns the estimated number of distinct elements of a serialized
+   * sketch, as output by {@link #sketchGlobally} and the other sketch
+   * transforms.
+   *
+   * @throws IllegalArgumentException if the bytes are not a serialized sketch
+   */
+  public static long estimateFromSketch(byte[] sketch) {
+    return HyperLogLogPlusPlus.fromByteArray(sketch).estimate();
+  }
+
 
   /////////////////////////////////////////////////////////////////////////////
 
@@ -165,6 +264,12 @@ public class ApproximateUnique {
      */
     private final long sampleSize;
 
+    /**
+     * The precision of the sketch used instead of a sample, or 0 to use a
+     * sample.
+     */
+    private final int precision;
+
     /**
      * @see ApproximateUnique#globally(int)
      */
@@ -177,6 +282,7 @@ public class ApproximateUnique {
             + "error is about 2 / sqrt(sampleSize).");
       }
       this.sampleSize = sampleSize;
+      this.precision = 0;
     }
 
     /**
@@ -188,15 +294,20 @@ public class ApproximateUnique {
             "ApproximateUnique needs an "
             + "estimation error between 1% (0.01) and 50% (0.5).");
       }
-      this.sampleSize = sampleSizeFromEstimationError(maximumEstimationError);
+      this.sampleSize = 0;
+      this.precision = precisionFromEstimationError(maximumEstimationError);
     }
 
     @Override
     public PCollection<Long> apply(PCollection<T> input) {
       Coder<T> coder = input.getCoder();
-      return input.apply(
-          Combine.globally(
-              new ApproximateUniqueCombineFn<>(sampleSize, coder)));
+      CombineFn<T, ?, Long> fn;
+      if (precision > 0) {
+        fn = new HyperLogLogCombineFn<>(precision, coder);
+      } else {
+        fn = new ApproximateUniqueCombineFn<>(sampleSize, coder);
+      }
+      return input.apply(Combine.globally(fn));
     }
 
     @Override
@@ -218,6 +329,7 @@ public class ApproximateUnique {
       extends PTransform<PCollection<KV<K, V>>, PCollection<KV<K, Long>>> {
 
     private final long sampleSize;
+    private final int precision;
 
     /**
      * @see ApproximateUnique#perKey(int)
@@ -230,6 +342,7 @@ public class ApproximateUnique {
             + "the estimation error is about 2 / sqrt(sampleSize).");
       }
       this.sampleSize = sampleSize;
+      this.precision = 0;
     }
 
     /**
@@ -241,7 +354,8 @@ public class ApproximateUnique {
             "ApproximateUnique.PerKey needs an "
             + "estimation error between 1% (0.01) and 50% (0.5).");
       }
-      this.sampleSize = sampleSizeFromEstimationError(estimationError);
+      this.sampleSize = 0;
+      this.precision = precisionFromEstimationError(estimationError);
     }
 
     @Override
@@ -254,6 +368,10 @@ public class ApproximateUnique {
       @SuppressWarnings("unchecked")
       final Coder<V> coder = ((KvCoder<K, V>) inputCoder).getValueCoder();
 
+      if (precision > 0) {
+        return input.apply(
+            Combine.perKey(new HyperLogLogCombineFn<>(precision, coder).<K>asKeyedFn()));
+      }
       return input.apply(
           Combine.perKey(new ApproximateUniqueCombineFn<>(
               sampleSize, coder).<K>asKeyedFn()));
@@ -265,6 +383,75 @@ public class ApproximateUnique {
     }
   }
 
+  /**
+   * {@code PTransform} for computing a sketch of the distinct elements
+   * of a {@code PCollection}.
+   *
+   * @param <T> the type of the elements in the input {@code PCollection}
+   */
+  @SuppressWarnings("serial")
+  static class SketchGlobally<T> extends PTransform<PCollection<T>, PCollection<byte[]>> {
+    private final int precision;
+
+    /**
+     * @see ApproximateUnique#sketchGlobally(int)
+     */
+    public SketchGlobally(int precision) {
+      this.precision = checkPrecision(precision);
+    }
+
+    @Override
+    public PCollection<byte[]> apply(PCollection<T> input) {
+      return input.apply(
+          Combine.globally(new SketchCombineFn<>(precision, input.getCoder())));
+    }
+
+    @Override
+    protected String getKindString() {
+      return "ApproximateUnique.SketchGlobally";
+    }
+  }
+
+  /**
+   * {@code PTransform} for computing a sketch of the distinct values
+   * associated with each key in a {@code PCollection} of {@code KV}s.
+   *
+   * @param <K> the type of the keys in the input and output
+   *        {@code PCollection}s
+   * @param <V> the type of the values in the input {@code PCollection}
+   */
+  @SuppressWarnings("serial")
+  static class SketchPerKey<K, V>
+      extends PTransform<PCollection<KV<K, V>>, PCollection<KV<K, byte[]>>> {
+    private final int precision;
+
+    /**
+     * @see ApproximateUnique#sketchPerKey(int)
+     */
+    public SketchPerKey(int precision) {
+      this.precision = checkPrecision(precision);
+    }
+
+    @Override
+    public PCollection<KV<K, byte[]>> apply(PCollection<KV<K, V>> input) {
+      Coder<KV<K, V>> inputCoder = input.getCoder();
+      if (!(inputCoder instanceof KvCoder)) {
+        throw new IllegalStateException(
+            "ApproximateUnique.SketchPerKey requires its input to use KvCoder");
+      }
+      @SuppressWarnings("unchecked")
+      Coder<V> coder = ((KvCoder<K, V>) inputCoder).getValueCoder();
+
+      return input.apply(
+          Combine.perKey(new SketchCombineFn<>(precision, coder).<K>asKeyedFn()));
+    }
+
+    @Override
+    protected String getKindString() {
+      return "ApproximateUnique.SketchPerKey";
+    }
+  }
+
 
   /////////////////////////////////////////////////////////////////////////////
 
@@ -294,51 +481,68 @@ public class ApproximateUnique {
         Long.MAX_VALUE - (double) Long.MIN_VALUE;
 
     /**
-     * A heap utility class to efficiently track the largest added elements.
+     * A utility class to efficiently track the largest distinct added elements.
      */
     public static class LargestUnique implements Serializable {
-      private PriorityQueue<Long> heap = new PriorityQueue<>();
-      private final long sampleSize;
+      // The serialized form of the earlier PriorityQueue-based implementation
+      // is kept, so that accumulators serialized by it can still be read.
+      private static final long serialVersionUID = -6881477794029506118L;
+      private static final ObjectStreamField[] serialPersistentFields = {
+          new ObjectStreamField("heap", PriorityQueue.class),
+          new ObjectStreamField("sampleSize", Long.TYPE)
+      };
+
+      // A sorted set, so that both finding the smallest element and checking
+      // whether an element is already tracked take logarithmic time.
+      private transient TreeSet<Long> largest = new TreeSet<>();
+      private long sampleSize;
 
       /**
-       * Creates a heap to track the largest {@code sampleSize} elements.
+       * Creates a set to track the largest {@code sampleSize} elements.
        *
-       * @param sampleSize the size of the heap
+       * @param sampleSize the size of the set
        */
       public LargestUnique(long sampleSize) {
         this.sampleSize = sampleSize;
       }
 
       /**
-       * Adds a value to the heap, returning whether the value is (large enough
-       * to be) in the heap.
+       * Adds a value to the set, returning whether the value is (large enough
+       * to be) in the set.
        */
       public boolean add(Long value) {
-        if (heap.contains(value)) {
-          return true;
-        } else if (heap.size() < sampleSize) {
-          heap.add(value);
+        if (largest.size() < sampleSize) {
+          largest.add(value);
           return true;
-        } else if (value > heap.element()) {
-          heap.remove();
-          heap.add(value);
+        } else if (value > largest.first()) {
+          if (largest.add(value)) {
+            largest.pollFirst();
+          }
           return true;
         } else {
-          return false;
+          return value.equals(largest.first());
         }
       }
 
       /**
-       * Returns the values in the heap, ordered largest to smallest.
+       * Returns the values in the set, ordered largest to smallest.
        */
       public List<Long> extractOrderedList() {
-        // The only way to extract the order from the heap is element-by-element
-        // from smallest to largest.
-        Long[] array = new Long[heap.size()];
-        for (int i = heap.size() - 1; i >= 0; i--) {
-          array[i] = heap.remove();
-        }
-        return Arrays.asList(array);
+        return new ArrayList<>(largest.descendingSet());
+      }
+
+      private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("heap", new PriorityQueue<>(largest));
+        fields.put("sampleSize", sampleSize);
+        out.writeFields();
+      }
+
+      @SuppressWarnings("unchecked")
+      private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        largest = new TreeSet<>((PriorityQueue<Long>) fields.get("heap", null));
+        sampleSize = fields.get("sampleSize", 0L);
       }
     }
 
@@ -412,12 +616,162 @@ public class ApproximateUnique {
      */
     static <T> long hash(T element, Coder<T> coder)
         throws CoderException, IOException {
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      coder.encode(element, baos, Context.OUTER);
-      return Hashing.murmur3_128().hashBytes(baos.toByteArray()).asLong();
+      return Hashing.murmur3_128().hashBytes(CoderUtils.encodeToByteArray(coder, element)).asLong();
+    }
+  }
+
+  /**
+   * Base of the {@code CombineFn}s that combine their inputs into a
+   * {@link HyperLogLogPlusPlus} sketch of the given precision.
+   *
+   * @param <InputT> the type of the values being combined
+   * @param <OutputT> the type of the output of the combination
+   */
+  @SuppressWarnings("serial")
+  public abstract static class SketchingCombineFn<InputT, OutputT>
+      extends CombineFn<InputT, HyperLogLogPlusPlus, OutputT> {
+    protected final int precision;
+
+    protected SketchingCombineFn(int precision) {
+      this.precision = checkPrecision(precision);
+    }
+
+    @Override
+    public HyperLogLogPlusPlus createAccumulator() {
+      return new HyperLogLogPlusPlus(precision);
+    }
+
+    @Override
+    public HyperLogLogPlusPlus mergeAccumulators(Iterable<HyperLogLogPlusPlus> sketches) {
+      Iterator<HyperLogLogPlusPlus> iterator = sketches.iterator();
+      HyperLogLogPlusPlus sketch = iterator.next();
+      while (iterator.hasNext()) {
+        sketch.merge(iterator.next());
+      }
+      return sketch;
+    }
+
+    @Override
+    public Coder<HyperLogLogPlusPlus> getAccumulatorCoder(
+        CoderRegistry registry, Coder<InputT> inputCoder) {
+      return HyperLogLogPlusPlus.SketchCoder.of();
+    }
+  }
+
+  /**
+   * {@code CombineFn} that computes an estimate of the number of
+   * distinct values that were combined, from a HyperLogLog++ sketch of
+   * their hashes.
+   *
+   * <p> Used to implement
+   * {@link #globally(double) ApproximateUnique.globally(...)} and
+   * {@link #perKey(double) ApproximateUnique.perKey(...)}.
+   *
+   * @param <T> the type of the values being combined
+   */
+  @SuppressWarnings("serial")
+  public static class HyperLogLogCombineFn<T> extends SketchingCombineFn<T, Long> {
+    private final Coder<T> coder;
+
+    public HyperLogLogCombineFn(int precision, Coder<T> coder) {
+      super(precision);
+      this.coder = coder;
+    }
+
+    @Override
+    public HyperLogLogPlusPlus addInput(HyperLogLogPlusPlus sketch, T input) {
+      addHash(sketch, input, coder);
+      return sketch;
+    }
+
+    @Override
+    public Long extractOutput(HyperLogLogPlusPlus sketch) {
+      return sketch.estimate();
+    }
+  }
+
+  /**
+   * {@code CombineFn} that outputs a serialized HyperLogLog++ sketch of
+   * the hashes of the values that were combined.
+   *
+   * <p> Used to implement {@link #sketchGlobally} and {@link #sketchPerKey}.
+   *
+   * @param <T> the type of the values being combined
+   */
+  @SuppressWarnings("serial")
+  public static class SketchCombineFn<T> extends SketchingCombineFn<T, byte[]> {
+    private final Coder<T> coder;
+
+    public SketchCombineFn(int precision, Coder<T> coder) {
+      super(precision);
+      this.coder = coder;
+    }
+
+    @Override
+    public HyperLogLogPlusPlus addInput(HyperLogLogPlusPlus sketch, T input) {
+      addHash(sketch, input, coder);
+      return sketch;
+    }
+
+    @Override
+    public byte[] extractOutput(HyperLogLogPlusPlus sketch) {
+      return sketch.toByteArray();
+    }
+
+    @Override
+    public Coder<byte[]> getDefaultOutputCoder(CoderRegistry registry, Coder<T> inputCoder) {
+      return ByteArrayCoder.of();
     }
   }
 
+  /**
+   * {@code CombineFn} that merges serialized HyperLogLog++ sketches of the
+   * given precision into a sketch of the union of their inputs.
+   *
+   * <p> Used to implement {@link #mergeSketchesGlobally} and
+   * {@link #mergeSketchesPerKey}.
+   */
+  @SuppressWarnings("serial")
+  public static class MergeSketchesFn extends SketchingCombineFn<byte[], byte[]> {
+    public MergeSketchesFn(int precision) {
+      super(precision);
+    }
+
+    @Override
+    public HyperLogLogPlusPlus addInput(HyperLogLogPlusPlus sketch, byte[] input) {
+      sketch.merge(HyperLogLogPlusPlus.fromByteArray(input));
+      return sketch;
+    }
+
+    @Override
+    public byte[] extractOutput(HyperLogLogPlusPlus sketch) {
+      return sketch.toByteArray();
+    }
+
+    @Override
+    public Coder<byte[]> getDefaultOutputCoder(
+        CoderRegistry registry, Coder<byte[]> inputCoder) {
+      return ByteArrayCoder.of();
+    }
+  }
+
+  private static <T> void addHash(HyperLogLogPlusPlus sketch, T input, Coder<T> coder) {
+    try {
+      sketch.add(ApproximateUniqueCombineFn.hash(input, coder));
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static int checkPrecision(int precision) {
+    Preconditions.checkArgument(
+        precision >= HyperLogLogPlusPlus.MIN_PRECISION
+        && precision <= HyperLogLogPlusPlus.MAX_PRECISION,
+        "ApproximateUnique needs a sketch precision between %s and %s",
+        HyperLogLogPlusPlus.MIN_PRECISION, HyperLogLogPlusPlus.MAX_PRECISION);
+    return precision;
+  }
+
   /**
    * Computes the sampleSize based on the desired estimation error.
    *
@@ -427,4 +781,19 @@ public class ApproximateUnique {
   static long sampleSizeFromEstimationError(double estimationError) {
     return Math.round(Math.ceil(4.0 / Math.pow(estimationError, 2.0)));
   }
+
+  /**
+   * Computes the precision of a sketch based on the desired estimation
+   * error, taking the error to be about twice the standard error of the
+   * sketch, as for a sample.
+   *
+   * @param estimationError should be bounded by [0.01, 0.5]
+   * @return the sketch precision needed for the desired estimation error
+   */
+  static int precisionFromEstimationError(double estimationError) {
+    double registers = Math.pow(2 * 1.04 / estimationError, 2.0);
+    int precision = (int) Math.ceil(Math.log(registers) / Math.log(2));
+    return Math.max(HyperLogLogPlusPlus.MIN_PRECISION,
+        Math.min(HyperLogLogPlusPlus.MAX_PRECISION, precision));
+  }
 }
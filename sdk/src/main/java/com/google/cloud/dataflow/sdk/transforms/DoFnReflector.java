@@ -41,7 +41,10 @@ import org.joda.time.Instant;
 
 import java.io.IOException;
 import java.lang.annotation.Annotation;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
@@ -339,30 +342,85 @@ public abstract class DoFnReflector {
 
   /**
    * Implementation of {@link DoFnReflector} for the arbitrary {@link DoFnWithContext}.
+   *
+   * <p>Each annotated method is invoked through a {@link MethodHandle} that is built once per
+   * {@link DoFnWithContext} class, and computes the extra context arguments from the
+   * {@link ExtraContextFactory} itself. Invoking it does not allocate an argument array or go
+   * through {@link Method#invoke}.
    */
   private static class GenericDoFnReflector extends DoFnReflector {
 
-    private Method startBundle;
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /** The type of every invoker: {@code (fn, context, extraContextFactory) -> void}. */
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(void.class,
+        DoFnWithContext.class, DoFnWithContext.Context.class, ExtraContextFactory.class);
+
+    private static final MethodHandle CREATE_INSTANCE = findCreateInstance();
+
     private Method processElement;
-    private Method finishBundle;
-    private ExtraContextInfo[] processElementArgs;
-    private ExtraContextInfo[] startBundleArgs;
-    private ExtraContextInfo[] finishBundleArgs;
+    private MethodHandle startBundleInvoker;
+    private MethodHandle processElementInvoker;
+    private MethodHandle finishBundleInvoker;
 
     private GenericDoFnReflector(Class<?> fn) {
       // Locate the annotated methods
       this.processElement = findAnnotatedMethod(ProcessElement.class, fn, true);
-      this.startBundle = findAnnotatedMethod(StartBundle.class, fn, false);
-      this.finishBundle = findAnnotatedMethod(FinishBundle.class, fn, false);
+      Method startBundle = findAnnotatedMethod(StartBundle.class, fn, false);
+      Method finishBundle = findAnnotatedMethod(FinishBundle.class, fn, false);
 
       // Verify that their method arguments satisfy our conditions.
-      processElementArgs = verifyProcessMethodArguments(processElement);
+      processElementInvoker =
+          createInvoker(processElement, verifyProcessMethodArguments(processElement));
       if (startBundle != null) {
-        startBundleArgs = verifyBundleMethodArguments(startBundle);
+        startBundleInvoker =
+            createInvoker(startBundle, verifyBundleMethodArguments(startBundle));
       }
       if (finishBundle != null) {
-        finishBundleArgs = verifyBundleMethodArguments(finishBundle);
+        finishBundleInvoker =
+            createInvoker(finishBundle, verifyBundleMethodArguments(finishBundle));
+      }
+    }
+
+    private static MethodHandle findCreateInstance() {
+      try {
+        return LOOKUP.findVirtual(ExtraContextInfo.class, "createInstance",
+            MethodType.methodType(Object.class, ExtraContextFactory.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw Throwables.propagate(e);
+      }
+    }
+
+    /**
+     * Returns a handle of type {@link #INVOKER_TYPE} that invokes the given method, creating each
+     * of its extra context arguments from the {@link ExtraContextFactory} argument.
+     */
+    private static MethodHandle createInvoker(Method m, ExtraContextInfo[] extraArgs) {
+      MethodHandle handle;
+      try {
+        handle = LOOKUP.unreflect(m);
+      } catch (IllegalAccessException e) {
+        throw Throwables.propagate(e);
       }
+
+      // Replace each extra context argument with a call to its createInstance on the factory,
+      // then pass the single factory argument to all of them.
+      Class<?>[] parameterTypes = m.getParameterTypes();
+      MethodHandle[] extraArgFilters = new MethodHandle[extraArgs.length];
+      int[] reorder = new int[2 + extraArgs.length];
+      reorder[0] = 0;
+      reorder[1] = 1;
+      for (int i = 0; i < extraArgs.length; i++) {
+        extraArgFilters[i] = CREATE_INSTANCE.bindTo(extraArgs[i]).asType(
+            MethodType.methodType(parameterTypes[i + 1], ExtraContextFactory.class));
+        reorder[i + 2] = 2;
+      }
+      handle = MethodHandles.filterArguments(handle, 2, extraArgFilters);
+      handle = MethodHandles.permuteArguments(handle,
+          MethodType.methodType(
+              void.class, m.getDeclaringClass(), parameterTypes[0], ExtraContextFactory.class),
+          reorder);
+      return handle.asType(INVOKER_TYPE);
     }
 
     private static Collection<Method> declaredMethodsWithAnnotation(
@@ -461,7 +519,7 @@ public abstract class DoFnReflector {
         DoFnWithContext<InputT, OutputT> fn,
         DoFnWithContext<InputT, OutputT>.ProcessContext c,
         ExtraContextFactory<InputT, OutputT> extra) {
-      invoke(processElement, fn, c, extra, processElementArgs);
+      invoke(processElementInvoker, fn, c, extra);
     }
 
     @Override
@@ -469,8 +527,8 @@ public abstract class DoFnReflector {
         DoFnWithContext<InputT, OutputT> fn,
         DoFnWithContext<InputT, OutputT>.Context c,
         ExtraContextFactory<InputT, OutputT> extra) {
-      if (startBundle != null) {
-        invoke(startBundle, fn, c, extra, startBundleArgs);
+      if (startBundleInvoker != null) {
+        invoke(startBundleInvoker, fn, c, extra);
       }
     }
 
@@ -479,33 +537,24 @@ public abstract class DoFnReflector {
         DoFnWithContext<InputT, OutputT> fn,
         DoFnWithContext<InputT, OutputT>.Context c,
         ExtraContextFactory<InputT, OutputT> extra) {
-      if (finishBundle != null) {
-        invoke(finishBundle, fn, c, extra, finishBundleArgs);
+      if (finishBundleInvoker != null) {
+        invoke(finishBundleInvoker, fn, c, extra);
       }
     }
 
-    private <InputT, OutputT> void invoke(Method m,
+    private <InputT, OutputT> void invoke(MethodHandle invoker,
         DoFnWithContext<InputT, OutputT> on,
         DoFnWithContext<InputT, OutputT>.Context contextArg,
-        ExtraContextFactory<InputT, OutputT> extraArgFactory,
-        ExtraContextInfo[] extraArgs) {
-
-      Class<?>[] parameterTypes = m.getParameterTypes();
-      Object[] args = new Object[parameterTypes.length];
-      args[0] = contextArg;
-      for (int i = 1; i < args.length; i++) {
-        args[i] = extraArgs[i - 1].createInstance(extraArgFactory);
-      }
-
+        ExtraContextFactory<InputT, OutputT> extraArgFactory) {
       try {
-        m.invoke(on, args);
-      } catch (InvocationTargetException e) {
-        // Exception in user code.
-        Throwables.propagateIfInstanceOf(e.getCause(), UserCodeException.class);
-        throw new UserCodeException(e.getCause());
-      } catch (IllegalAccessException | IllegalArgumentException e) {
+        invoker.invokeExact(on, contextArg, extraArgFactory);
+      } catch (WrongMethodTypeException e) {
         // Exception in our code.
         throw Throwables.propagate(e);
+      } catch (Throwable t) {
+        // Exception in user code.
+        Throwables.propagateIfInstanceOf(t, UserCodeException.class);
+        throw new UserCodeException(t);
       }
     }
   }
@@ -653,6 +702,8 @@ public abstract class DoFnReflector {
 
     private transient DoFnReflector reflector;
     private DoFnWithContext<InputT, OutputT> fn;
+    // Reused for every element, pointing at the current element's context.
+    private transient ProcessContextAdapter<InputT, OutputT> processContextAdapter;
 
     private SimpleDoFnAdapter(DoFnReflector reflector, DoFnWithContext<InputT, OutputT> fn) {
       super(fn.aggregators);
@@ -674,8 +725,12 @@ public abstract class DoFnReflector {
 
     @Override
     public void processElement(DoFn<InputT, OutputT>.ProcessContext c) throws Exception {
-      ProcessContextAdapter<InputT, OutputT> adapter = new ProcessContextAdapter<>(fn, c);
-      reflector.invokeProcessElement(fn, adapter, adapter);
+      if (processContextAdapter == null) {
+        processContextAdapter = new ProcessContextAdapter<>(fn, c);
+      } else {
+        processContextAdapter.context = c;
+      }
+      reflector.invokeProcessElement(fn, processContextAdapter, processContextAdapter);
     }
 
     @Override
@@ -16,6 +16,7 @@
 
 package com.google.cloud.dataflow.sdk.transforms;
 
+import static com.google.cloud.dataflow.sdk.util.CoderUtils.decodeFromByteArray;
 import static com.google.cloud.dataflow.sdk.util.CoderUtils.encodeToByteArray;
 
 import com.google.cloud.dataflow.sdk.coders.Coder;
@@ -29,6 +30,7 @@ import com.google.cloud.dataflow.sdk.transforms.windowing.DefaultTrigger;
 import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindows;
 import com.google.cloud.dataflow.sdk.transforms.windowing.InvalidWindows;
 import com.google.cloud.dataflow.sdk.transforms.windowing.WindowFn;
+import com.google.cloud.dataflow.sdk.util.ExternalSorter;
 import com.google.cloud.dataflow.sdk.util.GroupAlsoByWindowsDoFn;
 import com.google.cloud.dataflow.sdk.util.ReifyTimestampAndWindowsDoFn;
 import com.google.cloud.dataflow.sdk.util.WindowedValue;
@@ -38,12 +40,18 @@ import com.google.cloud.dataflow.sdk.util.WindowingStrategy;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
 import com.google.cloud.dataflow.sdk.values.PCollection.IsBounded;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -467,8 +475,14 @@ public class GroupByKey<K, V>
       DirectPipelineRunner.EvaluationContext context) {
     PCollection<KV<K, V>> input = context.getInput(transform);
 
-    List<ValueWithMetadata<KV<K, V>>> inputElems =
-        context.getPCollectionValuesWithMetadata(input);
+    long memoryLimitBytes = context.getPipelineOptions().getGroupByKeyMemoryLimitBytes();
+    if (memoryLimitBytes > 0) {
+      evaluateWithSortingHelper(transform, context, memoryLimitBytes);
+      return;
+    }
+
+    Iterable<ValueWithMetadata<KV<K, V>>> inputElems =
+        context.iteratePCollectionValuesWithMetadata(input);
 
     Coder<K> keyCoder = GroupByKey.getKeyCoder(input.getCoder());
 
@@ -513,6 +527,120 @@ public class GroupByKey<K, V>
                                              outputElems);
   }
 
+  /**
+   * Groups by sorting the encoded elements with an {@link ExternalSorter}, which
+   * spills to local temporary files once {@code memoryLimitBytes} is exceeded.
+   * Groups are decoded from the sorted elements one key at a time.
+   */
+  private static <K, V> void evaluateWithSortingHelper(
+      final GroupByKeyOnly<K, V> transform,
+      final DirectPipelineRunner.EvaluationContext context,
+      long memoryLimitBytes) {
+    PCollection<KV<K, V>> input = context.getInput(transform);
+    final Coder<K> keyCoder = GroupByKey.getKeyCoder(input.getCoder());
+    final Coder<V> valueCoder = getSpillCoder(GroupByKey.getInputValueCoder(input.getCoder()));
+
+    final ExternalSorter sorter = new ExternalSorter(memoryLimitBytes);
+    // The spilled input is deleted once it has been read, and otherwise when
+    // the pipeline has been evaluated, e.g. if a fused consumer fails.
+    context.closeAfterEvaluation(sorter);
+    Iterator<KV<byte[], byte[]>> sortedElems = null;
+    try {
+      for (ValueWithMetadata<KV<K, V>> elem
+          : context.iteratePCollectionValuesWithMetadata(input)) {
+        K key = elem.getValue().getKey();
+        V value = elem.getValue().getValue();
+        byte[] encodedKey;
+        try {
+          encodedKey = encodeToByteArray(keyCoder, key);
+        } catch (CoderException exn) {
+          throw new IllegalArgumentException(
+              "unable to encode key " + key + " of input to " + transform +
+              " using " + keyCoder,
+              exn);
+        }
+        try {
+          sorter.add(encodedKey, encodeToByteArray(valueCoder, value));
+        } catch (IOException exn) {
+          throw new RuntimeException("unable to spill input of " + transform, exn);
+        }
+      }
+
+      try {
+        sortedElems = sorter.sortedIterator();
+      } catch (IOException exn) {
+        throw new RuntimeException("unable to merge spilled input of " + transform, exn);
+      }
+    } finally {
+      if (sortedElems == null) {
+        // The spilled input will not be read, so it is deleted right away.
+        closeSorter(sorter, transform);
+      }
+    }
+    final Iterator<KV<byte[], byte[]>> sorted = sortedElems;
+
+    Iterable<ValueWithMetadata<KV<K, Iterable<V>>>> outputElems =
+        new Iterable<ValueWithMetadata<KV<K, Iterable<V>>>>() {
+          @Override
+          public Iterator<ValueWithMetadata<KV<K, Iterable<V>>>> iterator() {
+            final PeekingIterator<KV<byte[], byte[]>> elems = Iterators.peekingIterator(sorted);
+            return new AbstractIterator<ValueWithMetadata<KV<K, Iterable<V>>>>() {
+              @Override
+              protected ValueWithMetadata<KV<K, Iterable<V>>> computeNext() {
+                if (!elems.hasNext()) {
+                  closeSorter(sorter, transform);
+                  return endOfData();
+                }
+                byte[] encodedKey = elems.peek().getKey();
+                List<V> values = new ArrayList<>();
+                try {
+                  while (elems.hasNext() && Arrays.equals(encodedKey, elems.peek().getKey())) {
+                    values.add(decodeFromByteArray(valueCoder, elems.next().getValue()));
+                  }
+                  K key = decodeFromByteArray(keyCoder, encodedKey);
+                  values = context.randomizeIfUnordered(values, true /* inPlaceAllowed */);
+                  return ValueWithMetadata
+                      .of(WindowedValue.valueInEmptyWindows(
+                          KV.<K, Iterable<V>>of(key, values)))
+                      .withKey(key);
+                } catch (CoderException exn) {
+                  closeSorter(sorter, transform);
+                  throw new RuntimeException(
+                      "unable to decode spilled input of " + transform, exn);
+                }
+              }
+            };
+          }
+        };
+
+    PCollection<KV<K, Iterable<V>>> output = context.getOutput(transform);
+    if (context.isFusable(output)) {
+      context.setFusedPCollectionValuesWithMetadata(output, outputElems);
+    } else {
+      context.setPCollectionValuesWithMetadata(output, Lists.newArrayList(outputElems));
+    }
+  }
+
+  private static void closeSorter(ExternalSorter sorter, PTransform<?, ?> transform) {
+    try {
+      sorter.close();
+    } catch (IOException exn) {
+      throw new RuntimeException("unable to delete spilled input of " + transform, exn);
+    }
+  }
+
+  /**
+   * Returns the coder to use for values that are only written to local spill
+   * files, which may use an encoding the service does not understand.
+   */
+  @SuppressWarnings("unchecked")
+  private static <V> Coder<V> getSpillCoder(Coder<V> valueCoder) {
+    if (valueCoder instanceof FullWindowedValueCoder) {
+      return (Coder<V>) ((FullWindowedValueCoder<?>) valueCoder).withCompactIntervalWindows();
+    }
+    return valueCoder;
+  }
+
   private static class GroupingKey<K> {
     private K key;
     private byte[] encodedKey;
@@ -36,12 +36,21 @@ import com.google.cloud.dataflow.sdk.values.PCollectionView;
 import com.google.cloud.dataflow.sdk.values.TupleTag;
 import com.google.cloud.dataflow.sdk.values.TupleTagList;
 import com.google.cloud.dataflow.sdk.values.TypedPValue;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * {@code ParDo} is the core element-wise transform in Google Cloud
@@ -1046,20 +1055,107 @@ public class ParDo {
       Bound<InputT, OutputT> transform,
       DirectPipelineRunner.EvaluationContext context) {
     TupleTag<OutputT> mainOutputTag = new TupleTag<>("out");
+    PCollection<OutputT> output = context.getOutput(transform);
+
+    if (context.isFusable(output)) {
+      context.setFusedPCollectionValuesWithMetadata(
+          output,
+          new FusedParDoElements<InputT, OutputT>(
+              context.ensureSerializable(transform.fn), context.getStepName(transform),
+              context.getInput(transform), sideInputValues(transform.sideInputs, context),
+              mainOutputTag, context));
+      return;
+    }
 
     DirectModeExecutionContext executionContext = new DirectModeExecutionContext();
 
-    DoFnRunner<InputT, OutputT, List> fnRunner =
-        evaluateHelper(transform.fn, context.getStepName(transform),
-            context.getInput(transform), transform.sideInputs,
-            mainOutputTag, new ArrayList<TupleTag<?>>(),
-            context, executionContext);
+    try {
+      evaluateHelper(transform.fn, context.getStepName(transform),
+              context.getInput(transform), transform.sideInputs,
+              mainOutputTag, new ArrayList<TupleTag<?>>(),
+              context, executionContext);
+    } finally {
+      closeSideInputs(executionContext);
+    }
 
     context.setPCollectionValuesWithMetadata(
-        context.getOutput(transform),
+        output,
         executionContext.getOutput(mainOutputTag));
   }
 
+  /**
+   * The output of a {@link Bound} that is fused into its consumer. Each input
+   * element is processed as the consumer asks for more output, so neither the
+   * input nor the output of the {@code DoFn} is materialized.
+   */
+  private static class FusedParDoElements<InputT, OutputT>
+      implements Iterable<DirectPipelineRunner.ValueWithMetadata<OutputT>> {
+    private final DoFn<InputT, OutputT> fn;
+    private final String name;
+    private final PCollection<? extends InputT> input;
+    private final Iterable<DirectPipelineRunner.ValueWithMetadata<InputT>> inputElems;
+    private final PTuple sideInputValues;
+    private final TupleTag<OutputT> mainOutputTag;
+    private final DirectPipelineRunner.EvaluationContext context;
+
+    FusedParDoElements(
+        DoFn<InputT, OutputT> fn,
+        String name,
+        PCollection<? extends InputT> input,
+        PTuple sideInputValues,
+        TupleTag<OutputT> mainOutputTag,
+        DirectPipelineRunner.EvaluationContext context) {
+      this.fn = fn;
+      this.name = name;
+      this.input = input;
+      this.inputElems = (Iterable) context.iteratePCollectionValuesWithMetadata(input);
+      this.sideInputValues = sideInputValues;
+      this.mainOutputTag = mainOutputTag;
+      this.context = context;
+    }
+
+    @Override
+    public Iterator<DirectPipelineRunner.ValueWithMetadata<OutputT>> iterator() {
+      final DirectModeExecutionContext executionContext = new DirectModeExecutionContext();
+      final DoFnRunner<InputT, OutputT, TupleTag<?>> fnRunner =
+          createRunner(fn, name, input, sideInputValues, mainOutputTag,
+              new ArrayList<TupleTag<?>>(), context, executionContext);
+      final Iterator<DirectPipelineRunner.ValueWithMetadata<InputT>> inputIterator =
+          inputElems.iterator();
+
+      return new AbstractIterator<DirectPipelineRunner.ValueWithMetadata<OutputT>>() {
+        private boolean started = false;
+        private boolean finished = false;
+        private Iterator<DirectPipelineRunner.ValueWithMetadata<OutputT>> pending =
+            Collections.emptyIterator();
+
+        @Override
+        protected DirectPipelineRunner.ValueWithMetadata<OutputT> computeNext() {
+          while (!pending.hasNext()) {
+            if (finished) {
+              return endOfData();
+            }
+            if (!started) {
+              fnRunner.startBundle();
+              started = true;
+            } else if (inputIterator.hasNext()) {
+              processElement(fnRunner, fn, name, inputIterator.next(), executionContext);
+            } else {
+              try {
+                fnRunner.finishBundle();
+              } finally {
+                closeSideInputs(executionContext);
+              }
+              finished = true;
+            }
+            pending = executionContext.takeOutput(mainOutputTag).iterator();
+          }
+          return pending.next();
+        }
+      };
+    }
+  }
+
   /////////////////////////////////////////////////////////////////////////////
 
   static {
@@ -1081,11 +1177,14 @@ public class ParDo {
 
     DirectModeExecutionContext executionContext = new DirectModeExecutionContext();
 
-    DoFnRunner<InputT, OutputT, List> fnRunner =
-        evaluateHelper(transform.fn, context.getStepName(transform),
-                       context.getInput(transform), transform.sideInputs,
-                       transform.mainOutputTag, transform.sideOutputTags.getAll(),
-                       context, executionContext);
+    try {
+      evaluateHelper(transform.fn, context.getStepName(transform),
+                     context.getInput(transform), transform.sideInputs,
+                     transform.mainOutputTag, transform.sideOutputTags.getAll(),
+                     context, executionContext);
+    } finally {
+      closeSideInputs(executionContext);
+    }
 
     for (Map.Entry<TupleTag<?>, PCollection<?>> entry
         : context.getOutput(transform).getAll().entrySet()) {
@@ -1101,55 +1200,172 @@ public class ParDo {
     }
   }
 
-  private static <InputT, OutputT> DoFnRunner<InputT, OutputT, List> evaluateHelper(
+  /**
+   * The number of bundles to create per evaluation thread, so that uneven
+   * per-element costs still keep every thread busy.
+   */
+  private static final int BUNDLES_PER_THREAD = 4;
+
+  private static <InputT, OutputT> void evaluateHelper(
       DoFn<InputT, OutputT> doFn,
-      String name,
-      PCollection<? extends InputT> input,
+      final String name,
+      final PCollection<? extends InputT> input,
       List<PCollectionView<?>> sideInputs,
-      TupleTag<OutputT> mainOutputTag,
-      List<TupleTag<?>> sideOutputTags,
-      DirectPipelineRunner.EvaluationContext context,
+      final TupleTag<OutputT> mainOutputTag,
+      final List<TupleTag<?>> sideOutputTags,
+      final DirectPipelineRunner.EvaluationContext context,
       DirectModeExecutionContext executionContext) {
-    // TODO: Run multiple shards?
     DoFn<InputT, OutputT> fn = context.ensureSerializable(doFn);
+    final PTuple sideInputValues = sideInputValues(sideInputs, context);
+
+    ExecutorService executor = context.getBundleExecutor();
+    if (executor == null || doFn instanceof DoFn.RequiresKeyedState) {
+      // Keyed state is held by the execution context, so a DoFn that requires
+      // it is always evaluated as a single bundle.
+      evaluateBundle(fn, name, input,
+          (Iterable) context.iteratePCollectionValuesWithMetadata(input), sideInputValues,
+          mainOutputTag, sideOutputTags, context, executionContext);
+      return;
+    }
 
+    List<DirectPipelineRunner.ValueWithMetadata<InputT>> elements =
+        (List) context.getPCollectionValuesWithMetadata(input);
+    int numBundles = context.getPipelineOptions().getNumParallelThreads() * BUNDLES_PER_THREAD;
+    int bundleSize = Math.max(1, (elements.size() + numBundles - 1) / numBundles);
+    List<Future<DirectModeExecutionContext>> bundleResults = new ArrayList<>();
+    for (final List<DirectPipelineRunner.ValueWithMetadata<InputT>> bundle
+             : Lists.partition(elements, bundleSize)) {
+      // Each bundle is processed by its own copy of the DoFn, as it would be
+      // on separate workers.
+      final DoFn<InputT, OutputT> bundleFn = SerializableUtils.clone(fn);
+      bundleResults.add(executor.submit(new Callable<DirectModeExecutionContext>() {
+        @Override
+        public DirectModeExecutionContext call() {
+          DirectModeExecutionContext bundleContext = new DirectModeExecutionContext();
+          try {
+            evaluateBundle(bundleFn, name, input, bundle, sideInputValues,
+                mainOutputTag, sideOutputTags, context, bundleContext);
+          } finally {
+            closeSideInputs(bundleContext);
+          }
+          return bundleContext;
+        }
+      }));
+    }
+
+    // Gather the outputs in bundle order, so the result does not depend on
+    // thread scheduling.
+    for (Future<DirectModeExecutionContext> bundleResult : bundleResults) {
+      try {
+        executionContext.addOutputsFrom(bundleResult.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Releases the side inputs read through the given context, such as the
+   * local files of indexed map side inputs. Its outputs remain available.
+   */
+  private static void closeSideInputs(DirectModeExecutionContext executionContext) {
+    try {
+      executionContext.close();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to release side inputs", e);
+    }
+  }
+
+  private static PTuple sideInputValues(
+      List<PCollectionView<?>> sideInputs, DirectPipelineRunner.EvaluationContext context) {
     PTuple sideInputValues = PTuple.empty();
     for (PCollectionView<?> view : sideInputs) {
       sideInputValues = sideInputValues.and(
           view.getTagInternal(),
           context.getPCollectionView(view));
     }
+    return sideInputValues;
+  }
 
-    DoFnRunner<InputT, OutputT, List> fnRunner =
-        DoFnRunner.createWithListOutputs(
-            context.getPipelineOptions(),
-            fn,
-            sideInputValues,
-            mainOutputTag,
-            sideOutputTags,
-            executionContext.getStepContext(name),
-            context.getAddCounterMutator(),
-            input.getWindowingStrategy());
+  private static <InputT, OutputT> void evaluateBundle(
+      DoFn<InputT, OutputT> fn,
+      String name,
+      PCollection<? extends InputT> input,
+      Iterable<DirectPipelineRunner.ValueWithMetadata<InputT>> elements,
+      PTuple sideInputValues,
+      TupleTag<OutputT> mainOutputTag,
+      List<TupleTag<?>> sideOutputTags,
+      DirectPipelineRunner.EvaluationContext context,
+      DirectModeExecutionContext executionContext) {
+    DoFnRunner<InputT, OutputT, TupleTag<?>> fnRunner =
+        createRunner(fn, name, input, sideInputValues, mainOutputTag, sideOutputTags,
+            context, executionContext);
 
     fnRunner.startBundle();
 
-    for (DirectPipelineRunner.ValueWithMetadata<? extends InputT> elem
-             : context.getPCollectionValuesWithMetadata(input)) {
-      if (doFn instanceof DoFn.RequiresKeyedState) {
-        // If the DoFn needs keyed state, set the implicit keys to the keys in the input elements.
-        if (!(elem.getValue() instanceof KV)) {
-          throw new IllegalStateException(
-              name + " marked as 'RequiresKeyedState' but input elements were not of type KV.");
-        }
-        executionContext.setKey(((KV) elem.getValue()).getKey());
-      } else {
-        executionContext.setKey(elem.getKey());
-      }
-      fnRunner.processElement((WindowedValue<InputT>) elem.getWindowedValue());
+    for (DirectPipelineRunner.ValueWithMetadata<InputT> elem : elements) {
+      processElement(fnRunner, fn, name, elem, executionContext);
     }
 
     fnRunner.finishBundle();
+  }
 
-    return fnRunner;
+  /**
+   * Outputs of a {@code DoFn} evaluated by the {@link DirectPipelineRunner}
+   * are recorded by its {@link DirectModeExecutionContext}, so the receivers
+   * of its {@link DoFnRunner} do not need to retain them.
+   */
+  private static final DoFnRunner.OutputManager<TupleTag<?>> DIRECT_OUTPUT_MANAGER =
+      new DoFnRunner.OutputManager<TupleTag<?>>() {
+        @Override
+        public TupleTag<?> initialize(TupleTag<?> tag) {
+          return tag;
+        }
+
+        @Override
+        public void output(TupleTag<?> receiver, WindowedValue<?> output) {}
+      };
+
+  private static <InputT, OutputT> DoFnRunner<InputT, OutputT, TupleTag<?>> createRunner(
+      DoFn<InputT, OutputT> fn,
+      String name,
+      PCollection<? extends InputT> input,
+      PTuple sideInputValues,
+      TupleTag<OutputT> mainOutputTag,
+      List<TupleTag<?>> sideOutputTags,
+      DirectPipelineRunner.EvaluationContext context,
+      DirectModeExecutionContext executionContext) {
+    return DoFnRunner.create(
+        context.getPipelineOptions(),
+        fn,
+        sideInputValues,
+        DIRECT_OUTPUT_MANAGER,
+        mainOutputTag,
+        sideOutputTags,
+        executionContext.getStepContext(name),
+        context.getAddCounterMutator(),
+        input.getWindowingStrategy());
+  }
+
+  private static <InputT, OutputT> void processElement(
+      DoFnRunner<InputT, OutputT, ?> fnRunner,
+      DoFn<InputT, OutputT> fn,
+      String name,
+      DirectPipelineRunner.ValueWithMetadata<InputT> elem,
+      DirectModeExecutionContext executionContext) {
+    if (fn instanceof DoFn.RequiresKeyedState) {
+      // If the DoFn needs keyed state, set the implicit keys to the keys in the input elements.
+      if (!(elem.getValue() instanceof KV)) {
+        throw new IllegalStateException(
+            name + " marked as 'RequiresKeyedState' but input elements were not of type KV.");
+      }
+      executionContext.setKey(((KV) elem.getValue()).getKey());
+    } else {
+      executionContext.setKey(elem.getKey());
+    }
+    fnRunner.processElement(elem.getWindowedValue());
   }
 }
@@ -18,14 +18,17 @@ package com.google.cloud.dataflow.sdk.transforms;
 
 import com.google.cloud.dataflow.sdk.Pipeline;
 import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.Coder.NonDeterministicException;
 import com.google.cloud.dataflow.sdk.coders.CoderRegistry;
 import com.google.cloud.dataflow.sdk.coders.IterableCoder;
+import com.google.cloud.dataflow.sdk.coders.KvCoder;
 import com.google.cloud.dataflow.sdk.coders.ListCoder;
 import com.google.cloud.dataflow.sdk.options.StreamingOptions;
 import com.google.cloud.dataflow.sdk.runners.DirectPipelineRunner;
 import com.google.cloud.dataflow.sdk.transforms.Combine.CombineFn;
 import com.google.cloud.dataflow.sdk.transforms.windowing.InvalidWindows;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.IndexedSideInputMap;
 import com.google.cloud.dataflow.sdk.util.StreamingPCollectionViewWriterFn;
 import com.google.cloud.dataflow.sdk.util.WindowedValue;
 import com.google.cloud.dataflow.sdk.util.WindowingStrategy;
@@ -48,6 +51,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
+import javax.annotation.Nullable;
+
 /**
  * Transforms for creating {@link PCollectionView}s from {@link PCollection}s,
  * for consuming the contents of those {@link PCollection}s as side inputs
@@ -150,10 +155,11 @@ public class View {
    * and produces a {@link PCollectionView} of the values to be consumed
    * as a {@code Map<K, Iterable<V>>} side input.
    *
-   * <p> Currently, the resulting map is required to fit into memory.
+   * <p> Currently, the resulting map is required to fit into memory, unless it
+   * is indexed with {@link AsMultimap#withIndexedLookups}.
    */
   public static <K, V> AsMultimap<K, V> asMap() {
-    return new AsMultimap<K, V>();
+    return new AsMultimap<K, V>(false);
   }
 
   /**
@@ -247,7 +253,22 @@ public class View {
       extends PTransform<PCollection<KV<K, V>>, PCollectionView<Map<K, Iterable<V>>>> {
     private static final long serialVersionUID = 0;
 
-    private AsMultimap() { }
+    private final boolean indexed;
+
+    private AsMultimap(boolean indexed) {
+      this.indexed = indexed;
+    }
+
+    /**
+     * Returns a PTransform creating a view whose map, when read by a batch
+     * worker, is kept in a local file sorted by key rather than in memory.
+     * Only the blocks of the file holding the keys that are looked up are
+     * read into memory, so this suits large maps of which few keys are used.
+     * Requires that the keys have a deterministic coder.
+     */
+    public AsMultimap<K, V> withIndexedLookups() {
+      return new AsMultimap<K, V>(true);
+    }
 
     /**
      * Returns a PTransform creating a view as a {@code Map<K, V>} rather than a
@@ -255,7 +276,7 @@ public class View {
      * one value per key.
      */
     public AsSingletonMap<K, V, V> withSingletonValues() {
-      return new AsSingletonMap<K, V, V>(null);
+      return new AsSingletonMap<K, V, V>(null, indexed);
     }
 
     /**
@@ -265,18 +286,21 @@ public class View {
      */
     public <OutputT> AsSingletonMap<K, V, OutputT>
         withCombiner(CombineFn<V, ?, OutputT> combineFn) {
-      return new AsSingletonMap<K, V, OutputT>(combineFn);
+      return new AsSingletonMap<K, V, OutputT>(combineFn, indexed);
     }
 
     @Override
     public PCollectionView<Map<K, Iterable<V>>> apply(PCollection<KV<K, V>> input) {
+      boolean streaming =
+          input.getPipeline().getOptions().as(StreamingOptions.class).isStreaming();
       MultimapPCollectionView<K, V> view = new MultimapPCollectionView<K, V>(
-          input.getPipeline(), input.getWindowingStrategy(), input.getCoder());
+          input.getPipeline(), input.getWindowingStrategy(), input.getCoder(),
+          indexed && !streaming ? getIndexedCoder(input.getCoder()) : null);
 
       CreatePCollectionView<KV<K, V>, Map<K, Iterable<V>>> createView =
           new CreatePCollectionView<>(view);
 
-      if (input.getPipeline().getOptions().as(StreamingOptions.class).isStreaming()) {
+      if (streaming) {
         return input
             .apply(Combine.globally(new Concatenate<KV<K, V>>()).withoutDefaults())
             .apply(ParDo.of(StreamingPCollectionViewWriterFn.create(view, input.getCoder())))
@@ -298,9 +322,22 @@ public class View {
     private static final long serialVersionUID = 0;
 
     private CombineFn<InputT, ?, OutputT> combineFn;
+    private final boolean indexed;
 
-    private AsSingletonMap(CombineFn<InputT, ?, OutputT> combineFn) {
+    private AsSingletonMap(CombineFn<InputT, ?, OutputT> combineFn, boolean indexed) {
       this.combineFn = combineFn;
+      this.indexed = indexed;
+    }
+
+    /**
+     * Returns a PTransform creating a view whose map, when read by a batch
+     * worker, is kept in a local file sorted by key rather than in memory.
+     * Only the blocks of the file holding the keys that are looked up are
+     * read into memory, so this suits large maps of which few keys are used.
+     * Requires that the keys have a deterministic coder.
+     */
+    public AsSingletonMap<K, InputT, OutputT> withIndexedLookups() {
+      return new AsSingletonMap<K, InputT, OutputT>(combineFn, true);
     }
 
     @Override
@@ -312,13 +349,16 @@ public class View {
         ? (PCollection) input
         : input.apply(Combine.perKey(combineFn.<K>asKeyedFn()));
 
+      boolean streaming =
+          combined.getPipeline().getOptions().as(StreamingOptions.class).isStreaming();
       MapPCollectionView<K, OutputT> view = new MapPCollectionView<K, OutputT>(
-          input.getPipeline(), combined.getWindowingStrategy(), combined.getCoder());
+          input.getPipeline(), combined.getWindowingStrategy(), combined.getCoder(),
+          indexed && !streaming ? getIndexedCoder(combined.getCoder()) : null);
 
       CreatePCollectionView<KV<K, OutputT>, Map<K, OutputT>> createView =
           new CreatePCollectionView<>(view);
 
-      if (combined.getPipeline().getOptions().as(StreamingOptions.class).isStreaming()) {
+      if (streaming) {
         return combined
             .apply(Combine.globally(new Concatenate<KV<K, OutputT>>()).withoutDefaults())
             .apply(ParDo.of(StreamingPCollectionViewWriterFn.create(view, combined.getCoder())))
@@ -332,6 +372,38 @@ public class View {
   ////////////////////////////////////////////////////////////////////////////
   // Internal details below
 
+  /**
+   * Returns the given coder of the entries of an indexed map view, checking
+   * that their keys can be indexed.
+   */
+  private static <K, V> KvCoder<K, V> getIndexedCoder(Coder<KV<K, V>> coder) {
+    if (!(coder instanceof KvCoder)) {
+      throw new IllegalStateException(
+          "the coder of a map view with indexed lookups must be a KvCoder, but got " + coder);
+    }
+    KvCoder<K, V> kvCoder = (KvCoder<K, V>) coder;
+    try {
+      kvCoder.getKeyCoder().verifyDeterministic();
+    } catch (NonDeterministicException e) {
+      throw new IllegalStateException(
+          "the keyCoder of a map view with indexed lookups must be deterministic", e);
+    }
+    return kvCoder;
+  }
+
+  /**
+   * Returns the values of the given side input contents.
+   */
+  private static <T> Iterable<T> values(Iterable<WindowedValue<?>> contents) {
+    return Iterables.transform(contents, new Function<WindowedValue<?>, T>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public T apply(WindowedValue<?> elem) {
+        return (T) elem.getValue();
+      }
+    });
+  }
+
   /**
    * Combiner that combines {@code T}s into a single {@code List<T>} containing
    * all inputs.
@@ -496,14 +568,27 @@ public class View {
       extends PCollectionViewBase<Map<K, Iterable<V>>> {
     private static final long serialVersionUID = 0;
 
+    /** The coder of the entries of the map, if it is indexed. */
+    @Nullable private KvCoder<K, V> indexedCoder;
+
     public MultimapPCollectionView(
-        Pipeline pipeline, WindowingStrategy<?, ?> windowingStrategy, Coder<KV<K, V>> valueCoder) {
+        Pipeline pipeline, WindowingStrategy<?, ?> windowingStrategy, Coder<KV<K, V>> valueCoder,
+        @Nullable KvCoder<K, V> indexedCoder) {
       super(pipeline, windowingStrategy, valueCoder);
+      this.indexedCoder = indexedCoder;
     }
 
     @Override
     @SuppressWarnings("unchecked")
     public Map<K, Iterable<V>> fromIterableInternal(Iterable<WindowedValue<?>> contents) {
+      if (indexedCoder != null) {
+        try {
+          return IndexedSideInputMap.create(View.<KV<K, V>>values(contents),
+              indexedCoder.getKeyCoder(), indexedCoder.getValueCoder(), false).asMultimap();
+        } catch (IOException e) {
+          throw new RuntimeException("Failed to index side input", e);
+        }
+      }
       Multimap<K, V> multimap = HashMultimap.create();
       for (WindowedValue<?> elem : contents) {
         KV<K, V> kv = (KV<K, V>) elem.getValue();
@@ -518,13 +603,26 @@ public class View {
       extends PCollectionViewBase<Map<K, V>> {
     private static final long serialVersionUID = 0;
 
+    /** The coder of the entries of the map, if it is indexed. */
+    @Nullable private KvCoder<K, V> indexedCoder;
+
     public MapPCollectionView(
-        Pipeline pipeline, WindowingStrategy<?, ?> windowingStrategy, Coder<KV<K, V>> valueCoder) {
+        Pipeline pipeline, WindowingStrategy<?, ?> windowingStrategy, Coder<KV<K, V>> valueCoder,
+        @Nullable KvCoder<K, V> indexedCoder) {
       super(pipeline, windowingStrategy, valueCoder);
+      this.indexedCoder = indexedCoder;
     }
 
     @Override
     public Map<K, V> fromIterableInternal(Iterable<WindowedValue<?>> contents) {
+      if (indexedCoder != null) {
+        try {
+          return IndexedSideInputMap.create(View.<KV<K, V>>values(contents),
+              indexedCoder.getKeyCoder(), indexedCoder.getValueCoder(), true).asSingletonMap();
+        } catch (IOException e) {
+          throw new RuntimeException("Failed to index side input", e);
+        }
+      }
       Map<K, V> map = new HashMap<>();
       for (WindowedValue<?> elem : contents) {
         @SuppressWarnings("unchecked")
@@ -25,6 +25,7 @@ import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
 import com.google.cloud.dataflow.sdk.coders.InstantCoder;
 import com.google.cloud.dataflow.sdk.util.CloudObject;
+import com.google.cloud.dataflow.sdk.util.IntervalWindowInterner;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -203,7 +204,7 @@ public class IntervalWindow extends BoundedWindow
         throws IOException, CoderException {
       Instant start = instantCoder.decode(inStream, context.nested());
       Instant end = instantCoder.decode(inStream, context.nested());
-      return new IntervalWindow(start, end);
+      return IntervalWindowInterner.intern(start.getMillis(), end.getMillis());
     }
   }
 
@@ -240,7 +241,8 @@ public class IntervalWindow extends BoundedWindow
     public IntervalWindow decode(InputStream inStream, Context context)
         throws IOException, CoderException {
       Instant start = instantCoder.decode(inStream, context);
-      return new IntervalWindow(start, size);
+      return IntervalWindowInterner.intern(
+          start.getMillis(), start.getMillis() + size.getMillis());
     }
 
     @Override
@@ -16,10 +16,19 @@
 
 package com.google.cloud.dataflow.sdk.util;
 
+import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.MAX;
+import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.SUM;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.IterableLikeCoder;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindows;
+import com.google.cloud.dataflow.sdk.util.common.Counter;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 import com.google.cloud.dataflow.sdk.values.CodedTupleTag;
 import com.google.cloud.dataflow.sdk.values.CodedTupleTagMap;
+import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollectionView;
 import com.google.cloud.dataflow.sdk.values.TupleTag;
 import com.google.common.base.Function;
@@ -33,15 +42,88 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 /**
  * {@link ExecutionContext} for use in batch mode.
  */
 public class BatchModeExecutionContext extends ExecutionContext {
+  // Rough per-entry overhead of a cached side input.
+  private static final int PER_ENTRY_OVERHEAD = 64;
+
   private Object key;
-  private final Map<TupleTag<?>, Map<BoundedWindow, Object>> sideInputCache = new HashMap<>();
+
+  /**
+   * The side inputs read by this context, by tag and window, in order of last access.
+   * Beyond {@link #maxSideInputCacheBytes}, the least recently used side inputs are evicted,
+   * and read again from their sources when they are next accessed.
+   */
+  private final LinkedHashMap<KV<TupleTag<?>, BoundedWindow>, CachedSideInput> sideInputCache =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private final long maxSideInputCacheBytes;
+  private long sideInputCacheBytes = 0;
+  /**
+   * The indexed map side inputs read by this context, by tag and window, including evicted
+   * ones. Their files are kept until this context is closed, as they may still be in use,
+   * and they are not rebuilt when read again.
+   */
+  private final Map<KV<TupleTag<?>, BoundedWindow>, Object> indexedSideInputs = new HashMap<>();
+  /**
+   * The indexed map side inputs shared with other contexts, which keeps those read by this
+   * context once it is closed, or null to delete their files then.
+   */
+  @Nullable private final IndexedSideInputCache sharedIndexedSideInputs;
+
+  @Nullable private String counterPrefix;
+  @Nullable private CounterSet.AddCounterMutator addCounterMutator;
+  @Nullable private Counter<Long> sideInputCacheHits;
+  @Nullable private Counter<Long> sideInputCacheMisses;
+  @Nullable private Counter<Long> sideInputCacheBytesCounter;
+
+  /**
+   * Creates a context that keeps every side input it reads.
+   */
+  public BatchModeExecutionContext() {
+    this(Long.MAX_VALUE);
+  }
+
+  /**
+   * Creates a context that keeps the side inputs it reads until they take up
+   * more than the given number of bytes, as estimated from the encoded size
+   * of the elements read to build them. The most recently read side input is
+   * always kept.
+   */
+  public BatchModeExecutionContext(long maxSideInputCacheBytes) {
+    this(maxSideInputCacheBytes, null);
+  }
+
+  /**
+   * Creates a context that keeps side inputs like
+   * {@link #BatchModeExecutionContext(long)}, and shares its indexed map side
+   * inputs with the other contexts using the given cache, so that they are
+   * not indexed again by later work items.
+   */
+  public BatchModeExecutionContext(
+      long maxSideInputCacheBytes, @Nullable IndexedSideInputCache sharedIndexedSideInputs) {
+    this.maxSideInputCacheBytes = maxSideInputCacheBytes;
+    this.sharedIndexedSideInputs = sharedIndexedSideInputs;
+  }
+
+  /**
+   * Reports the side input cache's hits, misses and maximum number of
+   * resident bytes to counters with the given prefix, once a side input is
+   * read.
+   */
+  public void addSideInputCacheCounters(
+      String counterPrefix, CounterSet.AddCounterMutator addCounterMutator) {
+    this.counterPrefix = counterPrefix;
+    this.addCounterMutator = addCounterMutator;
+  }
 
   /**
    * Create a new {@link ExecutionContext.StepContext}.
@@ -77,43 +159,207 @@ public class BatchModeExecutionContext extends ExecutionContext {
   public <T> T getSideInput(
       PCollectionView<T> view, BoundedWindow mainInputWindow, PTuple sideInputs) {
     TupleTag<Iterable<WindowedValue<?>>> tag = view.getTagInternal();
-    Map<BoundedWindow, Object> tagCache = sideInputCache.get(tag);
-    if (tagCache == null) {
-      if (!sideInputs.has(tag)) {
-        throw new IllegalArgumentException(
-            "calling sideInput() with unknown view; did you forget to pass the view in "
-            + "ParDo.withSideInputs()?");
-      }
-      tagCache = new HashMap<>();
-      sideInputCache.put(tag, tagCache);
+    if (!sideInputs.has(tag)) {
+      throw new IllegalArgumentException(
+          "calling sideInput() with unknown view; did you forget to pass the view in "
+          + "ParDo.withSideInputs()?");
     }
 
     final BoundedWindow sideInputWindow =
         view.getWindowingStrategyInternal().getWindowFn().getSideInputWindow(mainInputWindow);
 
-    // tagCache stores values in a type-safe way based on the TupleTag.
-    T result = (T) tagCache.get(sideInputWindow);
+    if (addCounterMutator != null && sideInputCacheHits == null) {
+      sideInputCacheHits = addCounterMutator.addCounter(
+          Counter.longs(counterPrefix + "SideInputCacheHits", SUM));
+      sideInputCacheMisses = addCounterMutator.addCounter(
+          Counter.longs(counterPrefix + "SideInputCacheMisses", SUM));
+      sideInputCacheBytesCounter = addCounterMutator.addCounter(
+          Counter.longs(counterPrefix + "SideInputCacheMaxByteCount", MAX));
+    }
 
-    // TODO: Consider partial prefetching like in CoGBK to reduce iteration cost.
-    if (result == null) {
+    KV<TupleTag<?>, BoundedWindow> cacheKey = KV.<TupleTag<?>, BoundedWindow>of(
+        tag, sideInputWindow);
+    CachedSideInput cached = sideInputCache.get(cacheKey);
+    if (cached != null) {
+      increment(sideInputCacheHits, 1);
+      // sideInputCache stores values in a type-safe way based on the TupleTag.
+      return (T) cached.value;
+    }
+    increment(sideInputCacheMisses, 1);
+
+    T result = (T) indexedSideInputs.get(cacheKey);
+    if (result == null && sharedIndexedSideInputs != null) {
+      result = (T) sharedIndexedSideInputs.acquire(cacheKey);
+      if (result != null) {
+        indexedSideInputs.put(cacheKey, result);
+      }
+    }
+    long weight;
+    if (result != null) {
+      weight = PER_ENTRY_OVERHEAD + IndexedSideInputMap.fromMap(result).getResidentBytes();
+    } else {
+      // TODO: Consider partial prefetching like in CoGBK to reduce iteration cost.
+      Iterable<WindowedValue<?>> contents;
       if (view.getWindowingStrategyInternal().getWindowFn() instanceof GlobalWindows) {
-        result = view.fromIterableInternal(sideInputs.get(tag));
+        contents = sideInputs.get(tag);
+      } else {
+        contents = Iterables.filter(sideInputs.get(tag),
+            new Predicate<WindowedValue<?>>() {
+              @Override
+              public boolean apply(WindowedValue<?> element) {
+                return element.getWindows().contains(sideInputWindow);
+              }
+            });
+      }
+      // Measure the elements as the view reads them, so the contents are only read once.
+      // Views that read their contents lazily thus only count for their overhead.
+      SizeMeasuringIterable measuredContents =
+          new SizeMeasuringIterable(contents, view.getCoderInternal());
+      result = view.fromIterableInternal(measuredContents);
+      measuredContents.stopMeasuring();
+
+      IndexedSideInputMap<?, ?> indexedSideInput = IndexedSideInputMap.fromMap(result);
+      if (indexedSideInput != null) {
+        if (sharedIndexedSideInputs != null) {
+          try {
+            result = (T) sharedIndexedSideInputs.add(cacheKey, result);
+          } catch (IOException e) {
+            throw new RuntimeException("Failed to delete duplicate side input", e);
+          }
+          indexedSideInput = IndexedSideInputMap.fromMap(result);
+        }
+        indexedSideInputs.put(cacheKey, result);
+        weight = PER_ENTRY_OVERHEAD + indexedSideInput.getResidentBytes();
       } else {
-        result = view.fromIterableInternal(
-            Iterables.filter(sideInputs.get(tag),
-                new Predicate<WindowedValue<?>>() {
-                  @Override
-                  public boolean apply(WindowedValue<?> element) {
-                    return element.getWindows().contains(sideInputWindow);
-                  }
-                }));
+        weight = PER_ENTRY_OVERHEAD + measuredContents.getMeasuredBytes();
       }
-      tagCache.put(sideInputWindow, result);
+    }
+    sideInputCache.put(cacheKey, new CachedSideInput(result, weight));
+    sideInputCacheBytes += weight;
+    Iterator<CachedSideInput> leastRecentlyUsed = sideInputCache.values().iterator();
+    while (sideInputCacheBytes > maxSideInputCacheBytes && sideInputCache.size() > 1) {
+      CachedSideInput evicted = leastRecentlyUsed.next();
+      sideInputCacheBytes -= evicted.weight;
+      leastRecentlyUsed.remove();
+      IndexedSideInputMap<?, ?> evictedIndexed = IndexedSideInputMap.fromMap(evicted.value);
+      if (evictedIndexed != null) {
+        // Its file is reopened if the map is still in use.
+        try {
+          evictedIndexed.release();
+        } catch (IOException e) {
+          throw new RuntimeException("Failed to release side input", e);
+        }
+      }
+    }
+    if (sideInputCacheBytesCounter != null) {
+      sideInputCacheBytesCounter.addValue(sideInputCacheBytes);
     }
 
     return result;
   }
 
+  /**
+   * Releases the side inputs read by this context, deleting the files holding
+   * any indexed map side inputs unless they are shared with other contexts.
+   */
+  public void close() throws IOException {
+    sideInputCache.clear();
+    sideInputCacheBytes = 0;
+    try {
+      for (Map.Entry<KV<TupleTag<?>, BoundedWindow>, Object> indexedSideInput
+          : indexedSideInputs.entrySet()) {
+        if (sharedIndexedSideInputs != null) {
+          sharedIndexedSideInputs.release(indexedSideInput.getKey());
+        } else {
+          IndexedSideInputMap.fromMap(indexedSideInput.getValue()).close();
+        }
+      }
+    } finally {
+      indexedSideInputs.clear();
+    }
+  }
+
+  private static void increment(@Nullable Counter<Long> counter, long value) {
+    if (counter != null) {
+      counter.addValue(value);
+    }
+  }
+
+  /**
+   * The contents of a side input, which sum up the encoded size of the
+   * elements read through them until told to stop.
+   */
+  private static class SizeMeasuringIterable implements Iterable<WindowedValue<?>> {
+    private final Iterable<WindowedValue<?>> contents;
+    @Nullable private final Coder<WindowedValue<?>> elementCoder;
+    private final Counter<Long> measuredBytes = Counter.longs("SideInputBytes", SUM);
+    private final ElementByteSizeObserver observer = new ElementByteSizeObserver(measuredBytes);
+    private boolean measuring = true;
+
+    @SuppressWarnings("unchecked")
+    public SizeMeasuringIterable(
+        Iterable<WindowedValue<?>> contents, Coder<Iterable<WindowedValue<?>>> coder) {
+      this.contents = contents;
+      this.elementCoder = coder instanceof IterableLikeCoder
+          ? ((IterableLikeCoder<WindowedValue<?>, ?>) coder).getElemCoder()
+          : null;
+    }
+
+    public void stopMeasuring() {
+      measuring = false;
+    }
+
+    public long getMeasuredBytes() {
+      return measuredBytes.getAggregate();
+    }
+
+    @Override
+    public Iterator<WindowedValue<?>> iterator() {
+      final Iterator<WindowedValue<?>> iterator = contents.iterator();
+      if (!measuring || elementCoder == null) {
+        return iterator;
+      }
+      return new Iterator<WindowedValue<?>>() {
+        @Override
+        public boolean hasNext() {
+          return iterator.hasNext();
+        }
+
+        @Override
+        public WindowedValue<?> next() {
+          WindowedValue<?> element = iterator.next();
+          if (measuring) {
+            try {
+              elementCoder.registerByteSizeObserver(element, observer, Coder.Context.NESTED);
+            } catch (Exception e) {
+              throw new RuntimeException("Unable to measure the size of a side input element", e);
+            }
+            observer.advance();
+          }
+          return element;
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+
+  /**
+   * A side input value in the cache, with its estimated size in bytes.
+   */
+  private static class CachedSideInput {
+    private final Object value;
+    private final long weight;
+
+    public CachedSideInput(Object value, long weight) {
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+
   /**
    * {@link ExecutionContext.StepContext} used in batch mode.
    */
@@ -61,13 +61,17 @@ public final class CoderUtils {
    */
   public static final String KIND_STREAM = "kind:stream";
 
+  /**
+   * A buffer for {@link #encodeToByteArray} to reuse, taken by each call for the
+   * duration of its encoding, so that nested calls on the same thread use
+   * buffers of their own.
+   */
   private static ThreadLocal<SoftReference<ExposedByteArrayOutputStream>> threadLocalOutputStream
       = new ThreadLocal<>();
 
   /**
    * Encodes the given value using the specified Coder, and returns
    * the encoded bytes.
-   * This function is non-reentrant due to the use of ThreadLocal.
    */
   public static <T> byte[] encodeToByteArray(Coder<T> coder, T value) throws CoderException{
     return encodeToByteArray(coder, value, Coder.Context.OUTER);
@@ -75,18 +79,22 @@ public final class CoderUtils {
 
   public static <T> byte[] encodeToByteArray(Coder<T> coder, T value, Coder.Context context)
       throws CoderException {
+    SoftReference<ExposedByteArrayOutputStream> refStream = threadLocalOutputStream.get();
+    ExposedByteArrayOutputStream stream = refStream == null ? null : refStream.get();
+    if (stream == null) {
+      stream = new ExposedByteArrayOutputStream();
+      refStream = new SoftReference<>(stream);
+    } else {
+      threadLocalOutputStream.set(null);
+    }
     try {
-      SoftReference<ExposedByteArrayOutputStream> refStream = threadLocalOutputStream.get();
-      ExposedByteArrayOutputStream stream = refStream == null ? null : refStream.get();
-      if (stream == null) {
-        stream = new ExposedByteArrayOutputStream();
-        threadLocalOutputStream.set(new SoftReference<>(stream));
-      }
       stream.reset();
       coder.encode(value, stream, context);
       return stream.toByteArray();
     } catch (IOException exn) {
       throw new RuntimeException("unexpected IOException", exn);
+    } finally {
+      threadLocalOutputStream.set(refStream);
     }
   }
 
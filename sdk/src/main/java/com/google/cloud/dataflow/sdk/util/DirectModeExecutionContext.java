@@ -54,10 +54,36 @@ public class DirectModeExecutionContext extends BatchModeExecutionContext {
                                 .withKey(getKey()));
   }
 
+  /**
+   * Appends the main and side outputs recorded by {@code other}, which
+   * evaluated a later bundle of the same step, to the outputs of this context.
+   */
+  public void addOutputsFrom(DirectModeExecutionContext other) {
+    output.addAll(other.output);
+    for (Map.Entry<TupleTag<?>, List<ValueWithMetadata>> entry : other.sideOutputs.entrySet()) {
+      List<ValueWithMetadata> sideOutput = sideOutputs.get(entry.getKey());
+      if (sideOutput == null) {
+        sideOutput = new ArrayList<>();
+        sideOutputs.put(entry.getKey(), sideOutput);
+      }
+      sideOutput.addAll(entry.getValue());
+    }
+  }
+
   public <T> List<ValueWithMetadata<T>> getOutput(TupleTag<T> tag) {
     return (List) output;
   }
 
+  /**
+   * Returns the main output recorded since the last call and stops retaining
+   * it, so that outputs can be passed downstream as they are produced.
+   */
+  public <T> List<ValueWithMetadata<T>> takeOutput(TupleTag<T> tag) {
+    List<ValueWithMetadata> taken = output;
+    output = new ArrayList<>();
+    return (List) taken;
+  }
+
   public <T> List<ValueWithMetadata<T>> getSideOutput(TupleTag<T> tag) {
     if (sideOutputs.containsKey(tag)) {
       return (List) sideOutputs.get(tag);
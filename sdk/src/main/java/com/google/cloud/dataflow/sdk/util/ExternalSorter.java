@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts encoded (key, value) pairs by key, using local temporary files when
+ * the pairs do not fit in a given memory budget.
+ *
+ * <p> Pairs are buffered in a single byte arena. Once the arena and its index
+ * exceed the memory budget, the buffered pairs are sorted and written to a
+ * temporary file as a sorted run. {@link #sortedIterator} merges all runs.
+ * Each run is deleted once it has been read, and {@link #close} deletes the
+ * runs that have not been read.
+ *
+ * <p> Keys are compared as unsigned byte strings. Pairs with equal keys are
+ * returned in the order in which they were added.
+ *
+ * <p> An {@code ExternalSorter} is not thread-safe.
+ */
+public class ExternalSorter implements Closeable {
+  private static final Comparator<byte[]> KEY_COMPARATOR =
+      UnsignedBytes.lexicographicalComparator();
+
+  /**
+   * Bytes of index used per buffered pair: its offset, key length and value
+   * length, and its reference and boxed {@code Integer} in the index that is
+   * sorted before the pairs are written.
+   */
+  private static final int INDEX_BYTES_PER_PAIR = 3 * 4 + 8 + 16;
+
+  private static final int INITIAL_CAPACITY = 1 << 10;
+
+  /** The largest array that can be allocated on common JVMs. */
+  private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+  private final long memoryLimitBytes;
+
+  private byte[] arena = new byte[INITIAL_CAPACITY];
+  private int arenaSize = 0;
+  private int[] offsets = new int[INITIAL_CAPACITY];
+  private int[] keyLengths = new int[INITIAL_CAPACITY];
+  private int[] valueLengths = new int[INITIAL_CAPACITY];
+  private int numPairs = 0;
+
+  private final List<File> runs = new ArrayList<>();
+  private final List<FileRunCursor> openRuns = new ArrayList<>();
+  private boolean sorted = false;
+
+  /**
+   * Creates an {@code ExternalSorter} that spills to disk once more than
+   * {@code memoryLimitBytes} bytes of pairs are buffered.
+   */
+  public ExternalSorter(long memoryLimitBytes) {
+    Preconditions.checkArgument(memoryLimitBytes > 0, "memoryLimitBytes must be positive");
+    this.memoryLimitBytes = memoryLimitBytes;
+  }
+
+  /**
+   * Adds a pair, spilling the buffered pairs to a sorted run if the memory
+   * budget is exceeded.
+   */
+  public void add(byte[] key, byte[] value) throws IOException {
+    Preconditions.checkState(!sorted, "cannot add to an ExternalSorter after sorting");
+    long pairBytes = (long) key.length + value.length;
+    Preconditions.checkArgument(pairBytes <= MAX_ARRAY_LENGTH,
+        "pair of %s bytes is too large to sort", pairBytes);
+    // The arena and the index are arrays, so they are spilled before they
+    // would grow past the largest array that can be allocated.
+    if (numPairs == MAX_ARRAY_LENGTH || arenaSize + pairBytes > MAX_ARRAY_LENGTH) {
+      spill();
+    }
+    ensureCapacity((int) pairBytes);
+    offsets[numPairs] = arenaSize;
+    keyLengths[numPairs] = key.length;
+    valueLengths[numPairs] = value.length;
+    System.arraycopy(key, 0, arena, arenaSize, key.length);
+    System.arraycopy(value, 0, arena, arenaSize + key.length, value.length);
+    arenaSize += key.length + value.length;
+    numPairs++;
+
+    if (getBufferedBytes() > memoryLimitBytes) {
+      spill();
+    }
+  }
+
+  /**
+   * Returns the number of bytes used by the pairs buffered in memory, including
+   * their index.
+   */
+  public long getBufferedBytes() {
+    return arenaSize + (long) numPairs * INDEX_BYTES_PER_PAIR;
+  }
+
+  /**
+   * Returns the number of sorted runs that have been written to disk.
+   */
+  public int getNumSpilledRuns() {
+    return runs.size();
+  }
+
+  /**
+   * Returns all added pairs, in key order. May only be called once, after
+   * which no more pairs may be added.
+   */
+  public Iterator<KV<byte[], byte[]>> sortedIterator() throws IOException {
+    Preconditions.checkState(!sorted, "an ExternalSorter may only be sorted once");
+    sorted = true;
+
+    final PriorityQueue<RunCursor> cursors = new PriorityQueue<>();
+    try {
+      for (int i = 0; i < runs.size(); i++) {
+        FileRunCursor cursor = new FileRunCursor(i, runs.get(i));
+        openRuns.add(cursor);
+        if (cursor.advance()) {
+          cursors.add(cursor);
+        }
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    // The pairs still in memory were added last, so they are ordered after
+    // every spilled run.
+    RunCursor memoryCursor = new MemoryRunCursor(runs.size(), sortedIndex());
+    if (memoryCursor.advance()) {
+      cursors.add(memoryCursor);
+    }
+
+    return new AbstractIterator<KV<byte[], byte[]>>() {
+      @Override
+      protected KV<byte[], byte[]> computeNext() {
+        RunCursor cursor = cursors.poll();
+        if (cursor == null) {
+          return endOfData();
+        }
+        KV<byte[], byte[]> next = KV.of(cursor.key, cursor.value);
+        try {
+          if (cursor.advance()) {
+            cursors.add(cursor);
+          }
+        } catch (IOException e) {
+          try {
+            close();
+          } catch (IOException suppressed) {
+            e.addSuppressed(suppressed);
+          }
+          throw new RuntimeException("Failed to read sorted run", e);
+        }
+        return next;
+      }
+    };
+  }
+
+  /**
+   * Deletes any temporary files holding sorted runs, including runs that are
+   * still being read by an iterator returned by {@link #sortedIterator}.
+   */
+  @Override
+  public void close() throws IOException {
+    for (FileRunCursor cursor : openRuns) {
+      cursor.close();
+    }
+    openRuns.clear();
+    for (File run : runs) {
+      run.delete();
+    }
+    runs.clear();
+  }
+
+  private void ensureCapacity(int pairBytes) {
+    if (numPairs == offsets.length) {
+      int newLength = (int) Math.min(offsets.length * 2L, MAX_ARRAY_LENGTH);
+      offsets = Arrays.copyOf(offsets, newLength);
+      keyLengths = Arrays.copyOf(keyLengths, newLength);
+      valueLengths = Arrays.copyOf(valueLengths, newLength);
+    }
+    if (arenaSize + pairBytes > arena.length) {
+      arena = Arrays.copyOf(arena,
+          (int) Math.min(Math.max(arena.length * 2L, arenaSize + pairBytes), MAX_ARRAY_LENGTH));
+    }
+  }
+
+  /**
+   * Returns the indices of the buffered pairs, in key order.
+   */
+  private Integer[] sortedIndex() {
+    Integer[] index = new Integer[numPairs];
+    for (int i = 0; i < numPairs; i++) {
+      index[i] = i;
+    }
+    // Arrays.sort on objects is stable, so equal keys keep their insertion order.
+    Arrays.sort(index, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return compareKeys(a, b);
+      }
+    });
+    return index;
+  }
+
+  private int compareKeys(int a, int b) {
+    int offsetA = offsets[a];
+    int offsetB = offsets[b];
+    int lengthA = keyLengths[a];
+    int lengthB = keyLengths[b];
+    int minLength = Math.min(lengthA, lengthB);
+    for (int i = 0; i < minLength; i++) {
+      int result = UnsignedBytes.compare(arena[offsetA + i], arena[offsetB + i]);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return lengthA - lengthB;
+  }
+
+  private void spill() throws IOException {
+    File run = File.createTempFile("dataflow-sort-run-", ".tmp");
+    run.deleteOnExit();
+    runs.add(run);
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(run))) {
+      for (int i : sortedIndex()) {
+        VarInt.encode(keyLengths[i], out);
+        out.write(arena, offsets[i], keyLengths[i]);
+        VarInt.encode(valueLengths[i], out);
+        out.write(arena, offsets[i] + keyLengths[i], valueLengths[i]);
+      }
+    }
+    arenaSize = 0;
+    numPairs = 0;
+  }
+
+  /**
+   * The current pair of a sorted run. Cursors order by their current key,
+   * and then by the order in which their runs were written.
+   */
+  private abstract static class RunCursor implements Comparable<RunCursor> {
+    private final int runIndex;
+    byte[] key;
+    byte[] value;
+
+    RunCursor(int runIndex) {
+      this.runIndex = runIndex;
+    }
+
+    /** Moves to the next pair, returning false if the run is exhausted. */
+    abstract boolean advance() throws IOException;
+
+    @Override
+    public int compareTo(RunCursor other) {
+      int result = KEY_COMPARATOR.compare(key, other.key);
+      return result != 0 ? result : Integer.compare(runIndex, other.runIndex);
+    }
+  }
+
+  private class MemoryRunCursor extends RunCursor {
+    private final Integer[] index;
+    private int position = 0;
+
+    MemoryRunCursor(int runIndex, Integer[] index) {
+      super(runIndex);
+      this.index = index;
+    }
+
+    @Override
+    boolean advance() {
+      if (position == index.length) {
+        return false;
+      }
+      int i = index[position++];
+      key = Arrays.copyOfRange(arena, offsets[i], offsets[i] + keyLengths[i]);
+      value = Arrays.copyOfRange(
+          arena, offsets[i] + keyLengths[i], offsets[i] + keyLengths[i] + valueLengths[i]);
+      return true;
+    }
+  }
+
+  private static class FileRunCursor extends RunCursor implements Closeable {
+    private final File run;
+    private final DataInputStream in;
+
+    FileRunCursor(int runIndex, File run) throws IOException {
+      super(runIndex);
+      this.run = run;
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+    }
+
+    @Override
+    boolean advance() throws IOException {
+      int keyLength;
+      try {
+        keyLength = VarInt.decodeInt(in);
+      } catch (EOFException e) {
+        // The run has been read completely, so it is not needed anymore.
+        close();
+        run.delete();
+        return false;
+      }
+      key = readFully(in, keyLength);
+      value = readFully(in, VarInt.decodeInt(in));
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+    private static byte[] readFully(DataInputStream in, int length) throws IOException {
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return bytes;
+    }
+  }
+}
@@ -33,8 +33,10 @@ import java.nio.file.Files;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 
 /**
@@ -47,6 +49,28 @@ public class FileIOChannelFactory implements IOChannelFactory {
   // The directory portion must exist as-is.
   @Override
   public Collection<String> match(String spec) throws IOException {
+    List<String> result = new LinkedList<>();
+    for (File match : matchFiles(spec)) {
+      result.add(match.getPath());
+    }
+    return result;
+  }
+
+  /**
+   * Matches a specification like {@link #match}, and returns the size in bytes of each matched
+   * file, in the order in which they were matched.
+   *
+   * <p>The sizes are read from the matched files.
+   */
+  public Map<String, Long> matchWithSizes(String spec) throws IOException {
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (File match : matchFiles(spec)) {
+      result.put(match.getPath(), match.length());
+    }
+    return result;
+  }
+
+  private File[] matchFiles(String spec) throws IOException {
     File file = new File(spec);
 
     File parent = file.getAbsoluteFile().getParentFile();
@@ -66,19 +90,12 @@ public class FileIOChannelFactory implements IOChannelFactory {
 
     final PathMatcher matcher =
         FileSystems.getDefault().getPathMatcher("glob:" + pathToMatch);
-    File[] files = parent.listFiles(new FileFilter() {
+    return parent.listFiles(new FileFilter() {
       @Override
       public boolean accept(File pathname) {
         return matcher.matches(pathname.toPath());
       }
     });
-
-    List<String> result = new LinkedList<>();
-    for (File match : files) {
-      result.add(match.getPath());
-    }
-
-    return result;
   }
 
   @Override
@@ -23,8 +23,10 @@ import java.io.IOException;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Implements IOChannelFactory for GCS.
@@ -51,6 +53,26 @@ public class GcsIOChannelFactory implements IOChannelFactory {
     return specs;
   }
 
+  /**
+   * Matches a specification like {@link #match}, and returns the size in bytes of each matched
+   * object, in the order in which they were matched.
+   *
+   * <p>The sizes are taken from the objects returned by the listing, so no
+   * request is made per object.
+   */
+  public Map<String, Long> matchWithSizes(String spec) throws IOException {
+    GcsPath path = GcsPath.fromUri(spec);
+    GcsUtil util = options.getGcsUtil();
+    Map<GcsPath, Long> matched = util.expandWithSizes(path);
+
+    Map<String, Long> specs = new LinkedHashMap<>();
+    for (Map.Entry<GcsPath, Long> match : matched.entrySet()) {
+      specs.put(match.getKey().toString(), match.getValue());
+    }
+
+    return specs;
+  }
+
   @Override
   public ReadableByteChannel open(String spec) throws IOException {
     GcsPath path = GcsPath.fromUri(spec);
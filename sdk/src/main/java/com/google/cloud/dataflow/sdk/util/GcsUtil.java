@@ -35,8 +35,10 @@ import java.io.IOException;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.NoSuchFileException;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -123,20 +125,51 @@ public class GcsUtil {
    */
   public List<GcsPath> expand(GcsPath gcsPattern) throws IOException {
     Preconditions.checkArgument(isGcsPatternSupported(gcsPattern.getObject()));
-    Matcher m = GLOB_PREFIX.matcher(gcsPattern.getObject());
-    Pattern p = null;
-    String prefix = null;
-    if (!m.matches()) {
+    if (!GLOB_PREFIX.matcher(gcsPattern.getObject()).matches()) {
       // Not a glob.
       // Results of GCS storage list feature is only eventually consistent so we should not use that
       // feature to check the existence of single files.
       return ImmutableList.of(gcsPattern);
-    } else {
-      // Part before the first wildcard character.
-      prefix = m.group("PREFIX");
-      p = Pattern.compile(globToRegexp(gcsPattern.getObject()));
     }
 
+    List<GcsPath> results = new LinkedList<>();
+    for (StorageObject o : listMatchingObjects(gcsPattern)) {
+      results.add(GcsPath.fromObject(o));
+    }
+    return results;
+  }
+
+  /**
+   * Expands a pattern into matched paths and their sizes, in the order in which they were listed.
+   * The sizes of files matched by a glob are taken from the listing, so no further requests are
+   * made for them. A pattern without globs is looked up directly, and {@link NoSuchFileException}
+   * is thrown if it does not exist.
+   */
+  public Map<GcsPath, Long> expandWithSizes(GcsPath gcsPattern) throws IOException {
+    Preconditions.checkArgument(isGcsPatternSupported(gcsPattern.getObject()));
+    Map<GcsPath, Long> results = new LinkedHashMap<>();
+    if (!GLOB_PREFIX.matcher(gcsPattern.getObject()).matches()) {
+      // Not a glob. See expand for why the listing is not used here.
+      results.put(gcsPattern, fileSize(gcsPattern));
+      return results;
+    }
+
+    for (StorageObject o : listMatchingObjects(gcsPattern)) {
+      results.put(GcsPath.fromObject(o), o.getSize().longValue());
+    }
+    return results;
+  }
+
+  /**
+   * Lists the objects matching a glob pattern, skipping directories.
+   */
+  private List<StorageObject> listMatchingObjects(GcsPath gcsPattern) throws IOException {
+    Matcher m = GLOB_PREFIX.matcher(gcsPattern.getObject());
+    Preconditions.checkArgument(m.matches());
+    // Part before the first wildcard character.
+    String prefix = m.group("PREFIX");
+    Pattern p = Pattern.compile(globToRegexp(gcsPattern.getObject()));
+
     LOG.debug("matching files in bucket {}, prefix {} against pattern {}", gcsPattern.getBucket(),
         prefix, p.toString());
 
@@ -146,7 +179,7 @@ public class GcsUtil {
     listObject.setPrefix(prefix);
 
     String pageToken = null;
-    List<GcsPath> results = new LinkedList<>();
+    List<StorageObject> results = new LinkedList<>();
     do {
       if (pageToken != null) {
         listObject.setPageToken(pageToken);
@@ -165,7 +198,7 @@ public class GcsUtil {
         // Skip directories, which end with a slash.
         if (p.matcher(name).matches() && !name.endsWith("/")) {
           LOG.debug("Matched object: {}", name);
-          results.add(GcsPath.fromObject(o));
+          results.add(o);
         }
       }
 
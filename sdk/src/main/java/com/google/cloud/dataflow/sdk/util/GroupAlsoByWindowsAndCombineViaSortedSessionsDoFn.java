@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.cloud.dataflow.sdk.transforms.Combine.KeyedCombineFn;
+import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Sessions;
+import com.google.cloud.dataflow.sdk.util.common.Reiterable;
+import com.google.cloud.dataflow.sdk.values.KV;
+
+import org.joda.time.Instant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * {@link GroupAlsoByWindowsDoFn} that merges {@link Sessions} with the default
+ * triggering strategy and combines their values as they arrive, sorted by
+ * timestamp.
+ *
+ * <p> The accumulators of the sessions of a key are kept in memory, indexed by
+ * session, until all of its values have arrived. Each value is added to the
+ * accumulator of the session its own session overlaps; when it overlaps
+ * several, their accumulators are merged.
+ *
+ * <p> A value whose timestamp was moved later after it was assigned to its
+ * session may arrive after values of later sessions. If the sessions of a key
+ * do not start in order, its values are merged by a window set instead, as long
+ * as they can be iterated again. Otherwise they keep being combined into the
+ * sessions they overlap.
+ */
+@SuppressWarnings("serial")
+class GroupAlsoByWindowsAndCombineViaSortedSessionsDoFn<
+        K, InputT, AccumT, OutputT, W extends BoundedWindow>
+    extends GroupAlsoByWindowsDoFn<K, InputT, OutputT, W> {
+
+  private final KeyedCombineFn<K, InputT, AccumT, OutputT> combineFn;
+  private final GroupAlsoByWindowsDoFn<K, InputT, OutputT, W> unsortedFn;
+
+  /**
+   * Creates a DoFn that merges the sessions of keys whose sessions do not start
+   * in timestamp order with the given {@code unsortedFn}.
+   */
+  public GroupAlsoByWindowsAndCombineViaSortedSessionsDoFn(
+      KeyedCombineFn<K, InputT, AccumT, OutputT> combineFn,
+      GroupAlsoByWindowsDoFn<K, InputT, OutputT, W> unsortedFn) {
+    this.combineFn = combineFn;
+    this.unsortedFn = unsortedFn;
+  }
+
+  @Override
+  public void processElement(ProcessContext c) throws Exception {
+    K key = c.element().getKey();
+    Iterable<WindowedValue<InputT>> values = c.element().getValue();
+    boolean reiterable = values instanceof Collection || values instanceof Reiterable;
+    // The sessions are disjoint, so ordering them by start also orders their ends.
+    NavigableMap<IntervalWindow, Session<AccumT>> sessions = new TreeMap<>();
+    Instant lastStart = null;
+
+    for (WindowedValue<InputT> e : values) {
+      IntervalWindow window = sessionOf(e);
+      if (lastStart != null && window.start().isBefore(lastStart) && reiterable) {
+        // The value may belong to a session that the window set would have closed.
+        unsortedFn.processElement(c);
+        return;
+      }
+      lastStart = window.start();
+
+      // Only the sessions that start before this one ends can overlap it, and of
+      // those, only the ones that end after it starts.
+      List<AccumT> overlapping = new ArrayList<>();
+      Instant earliest = e.getTimestamp();
+      Iterator<Map.Entry<IntervalWindow, Session<AccumT>>> iterator =
+          sessions.headMap(new IntervalWindow(window.end(), window.end()), false)
+          .descendingMap().entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<IntervalWindow, Session<AccumT>> entry = iterator.next();
+        if (!entry.getKey().intersects(window)) {
+          break;
+        }
+        window = window.span(entry.getKey());
+        overlapping.add(entry.getValue().accumulator);
+        if (entry.getValue().earliest.isBefore(earliest)) {
+          earliest = entry.getValue().earliest;
+        }
+        iterator.remove();
+      }
+
+      AccumT accumulator;
+      if (overlapping.isEmpty()) {
+        accumulator = combineFn.createAccumulator(key);
+      } else if (overlapping.size() == 1) {
+        accumulator = overlapping.get(0);
+      } else {
+        accumulator = combineFn.mergeAccumulators(key, overlapping);
+      }
+      accumulator = combineFn.addInput(key, accumulator, e.getValue());
+      sessions.put(window, new Session<>(accumulator, earliest));
+    }
+
+    for (Map.Entry<IntervalWindow, Session<AccumT>> session : sessions.entrySet()) {
+      output(c, key, session);
+    }
+  }
+
+  private void output(
+      ProcessContext c, K key, Map.Entry<IntervalWindow, Session<AccumT>> session) {
+    c.windowingInternals().outputWindowedValue(
+        KV.of(key, combineFn.extractOutput(key, session.getValue().accumulator)),
+        session.getValue().earliest,
+        Arrays.asList(session.getKey()));
+  }
+
+  private static IntervalWindow sessionOf(WindowedValue<?> e) {
+    Collection<? extends BoundedWindow> windows = e.getWindows();
+    BoundedWindow window = windows.size() == 1 ? windows.iterator().next() : null;
+    if (!(window instanceof IntervalWindow)) {
+      throw new IllegalStateException(
+          "Expected a single IntervalWindow, but got " + windows + " for value at "
+          + e.getTimestamp());
+    }
+    return (IntervalWindow) window;
+  }
+
+  /**
+   * The accumulator of a session, and the timestamp of its earliest value.
+   */
+  private static class Session<AccumT> {
+    private final AccumT accumulator;
+    private final Instant earliest;
+
+    public Session(AccumT accumulator, Instant earliest) {
+      this.accumulator = accumulator;
+      this.earliest = earliest;
+    }
+  }
+}
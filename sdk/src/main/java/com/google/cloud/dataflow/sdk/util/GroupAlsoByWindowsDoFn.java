@@ -22,6 +22,7 @@ import com.google.cloud.dataflow.sdk.transforms.DoFn;
 import com.google.cloud.dataflow.sdk.transforms.DoFn.RequiresKeyedState;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.DefaultTrigger;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Sessions;
 import com.google.cloud.dataflow.sdk.util.WindowingStrategy.AccumulationMode;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.common.base.Preconditions;
@@ -45,6 +46,8 @@ public abstract class GroupAlsoByWindowsDoFn<K, InputT, OutputT, W extends Bound
   /**
    * Create a {@link GroupAlsoByWindowsDoFn} without a combine function. Depending on the
    * {@code windowFn} this will either use iterators or window sets to implement the grouping.
+   * {@link Sessions} are merged in a single pass over the values, which must be sorted by
+   * timestamp, unless their sessions do not start in the same order.
    *
    * @param windowingStrategy The window function and trigger to use for grouping
    * @param inputCoder the input coder to use
@@ -57,12 +60,18 @@ public abstract class GroupAlsoByWindowsDoFn<K, InputT, OutputT, W extends Bound
       return new GroupAlsoByWindowsViaIteratorsDoFn<K, V, W>();
     }
 
-    return new GABWViaWindowSetDoFn<>(
+    GroupAlsoByWindowsDoFn<K, V, Iterable<V>, W> viaWindowSet = new GABWViaWindowSetDoFn<>(
         windowingStrategy, AbstractWindowSet.<K, V, W>factoryFor(windowingStrategy, inputCoder));
+    if (isDefaultSessions(windowingStrategy)) {
+      return new GroupAlsoByWindowsViaSortedSessionsDoFn<K, V, W>(viaWindowSet);
+    }
+    return viaWindowSet;
   }
 
   /**
    * Construct a {@link GroupAlsoByWindowsDoFn} using the {@code combineFn} if available.
+   * Values in {@link Sessions} are combined as they arrive, which requires them to be sorted by
+   * timestamp, unless their sessions do not start in the same order.
    */
   public static <K, InputT, AccumT, OutputT, W extends BoundedWindow>
       GroupAlsoByWindowsDoFn<K, InputT, OutputT, W>
@@ -72,9 +81,24 @@ public abstract class GroupAlsoByWindowsDoFn<K, InputT, OutputT, W extends Bound
       final Coder<K> keyCoder,
       final Coder<InputT> inputCoder) {
     Preconditions.checkNotNull(combineFn);
-    return new GABWViaWindowSetDoFn<>(
+    GroupAlsoByWindowsDoFn<K, InputT, OutputT, W> viaWindowSet = new GABWViaWindowSetDoFn<>(
         windowingStrategy, CombiningWindowSet.<K, InputT, AccumT, OutputT, W>factory(
             combineFn, keyCoder, inputCoder));
+    if (isDefaultSessions(windowingStrategy)) {
+      return new GroupAlsoByWindowsAndCombineViaSortedSessionsDoFn<
+          K, InputT, AccumT, OutputT, W>(combineFn, viaWindowSet);
+    }
+    return viaWindowSet;
+  }
+
+  /**
+   * Returns whether the given strategy merges {@link Sessions} with the default trigger,
+   * discarding fired panes.
+   */
+  private static boolean isDefaultSessions(WindowingStrategy<?, ?> windowingStrategy) {
+    return windowingStrategy.getWindowFn() instanceof Sessions
+        && windowingStrategy.getTrigger().getSpec() instanceof DefaultTrigger
+        && windowingStrategy.getMode() == AccumulationMode.DISCARDING_FIRED_PANES;
   }
 
   private static class GABWViaWindowSetDoFn<K, InputT, OutputT, W extends BoundedWindow>
@@ -200,7 +200,7 @@ class GroupAlsoByWindowsViaIteratorsDoFn<K, V, W extends BoundedWindow>
   /**
    * {@link Reiterator} that wraps a {@link List}.
    */
-  private static class ListReiterator<T> implements Reiterator<T> {
+  static class ListReiterator<T> implements Reiterator<T> {
     private List<T> list;
     private int index;
 
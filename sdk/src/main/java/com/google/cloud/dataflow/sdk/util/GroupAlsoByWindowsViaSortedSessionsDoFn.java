@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Sessions;
+import com.google.cloud.dataflow.sdk.util.GroupAlsoByWindowsViaIteratorsDoFn.ListReiterator;
+import com.google.cloud.dataflow.sdk.util.common.PeekingReiterator;
+import com.google.cloud.dataflow.sdk.util.common.Reiterable;
+import com.google.cloud.dataflow.sdk.util.common.Reiterator;
+import com.google.cloud.dataflow.sdk.values.KV;
+
+import org.joda.time.Instant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link GroupAlsoByWindowsDoFn} that merges {@link Sessions} with the default
+ * triggering strategy in a single pass over values sorted by timestamp.
+ *
+ * <p> Since each value's session starts at its timestamp, sorted values usually
+ * arrive in order of session start, and a session is closed as soon as a value
+ * starts at or after its end. Each closed session is emitted as a
+ * {@link Reiterable} view of its values in the input, so that no value of the
+ * key is held in memory. The values of each session are read twice: once to
+ * find where the sessions end, and once when the view is iterated.
+ *
+ * <p> A value whose timestamp was moved later after it was assigned to its
+ * session may arrive after values of later sessions. If the sessions of a key
+ * do not start in order, its values are merged by a window set instead.
+ */
+@SuppressWarnings("serial")
+class GroupAlsoByWindowsViaSortedSessionsDoFn<K, V, W extends BoundedWindow>
+    extends GroupAlsoByWindowsDoFn<K, V, Iterable<V>, W> {
+
+  private final GroupAlsoByWindowsDoFn<K, V, Iterable<V>, W> unsortedFn;
+
+  /**
+   * Creates a DoFn that merges the sessions of keys whose sessions do not start
+   * in timestamp order with the given {@code unsortedFn}.
+   */
+  public GroupAlsoByWindowsViaSortedSessionsDoFn(
+      GroupAlsoByWindowsDoFn<K, V, Iterable<V>, W> unsortedFn) {
+    this.unsortedFn = unsortedFn;
+  }
+
+  @Override
+  public void processElement(ProcessContext c) throws Exception {
+    K key = c.element().getKey();
+    Iterable<WindowedValue<V>> value = c.element().getValue();
+    PeekingReiterator<WindowedValue<V>> iterator;
+
+    if (value instanceof Collection) {
+      iterator = new PeekingReiterator<>(new ListReiterator<WindowedValue<V>>(
+          new ArrayList<WindowedValue<V>>((Collection<WindowedValue<V>>) value), 0));
+    } else if (value instanceof Reiterable) {
+      iterator = new PeekingReiterator<>(((Reiterable<WindowedValue<V>>) value).iterator());
+    } else {
+      throw new IllegalArgumentException(
+          "Input to GroupAlsoByWindowsDoFn must be a Collection or Reiterable");
+    }
+
+    // Find all the sessions before emitting any, in case they are not in order.
+    List<Session<V>> sessions = new ArrayList<>();
+    while (iterator.hasNext()) {
+      PeekingReiterator<WindowedValue<V>> sessionStart = iterator.copy();
+      WindowedValue<V> first = iterator.next();
+      IntervalWindow session = sessionOf(first);
+      long size = 1;
+
+      // Extend the session with every following value whose session overlaps it.
+      while (iterator.hasNext()) {
+        IntervalWindow next = sessionOf(iterator.peek());
+        if (next.start().isBefore(session.start())) {
+          // The value may belong to a session that was already closed.
+          unsortedFn.processElement(c);
+          return;
+        }
+        if (!next.intersects(session)) {
+          break;
+        }
+        session = session.span(next);
+        iterator.next();
+        size++;
+      }
+      sessions.add(new Session<V>(
+          new SessionReiterable<V>(sessionStart, size), first.getTimestamp(), session));
+    }
+
+    for (Session<V> session : sessions) {
+      c.windowingInternals().outputWindowedValue(
+          KV.of(key, (Iterable<V>) session.values),
+          session.timestamp,
+          Arrays.asList(session.window));
+    }
+  }
+
+  /**
+   * The values of a session, the timestamp of its first value, and its window.
+   */
+  private static class Session<V> {
+    private final SessionReiterable<V> values;
+    private final Instant timestamp;
+    private final IntervalWindow window;
+
+    public Session(SessionReiterable<V> values, Instant timestamp, IntervalWindow window) {
+      this.values = values;
+      this.timestamp = timestamp;
+      this.window = window;
+    }
+  }
+
+  private static IntervalWindow sessionOf(WindowedValue<?> e) {
+    Collection<? extends BoundedWindow> windows = e.getWindows();
+    BoundedWindow window = windows.size() == 1 ? windows.iterator().next() : null;
+    if (!(window instanceof IntervalWindow)) {
+      throw new IllegalStateException(
+          "Expected a single IntervalWindow, but got " + windows + " for value at "
+          + e.getTimestamp());
+    }
+    return (IntervalWindow) window;
+  }
+
+  /**
+   * {@link Reiterable} representing a view of a given number of values in a
+   * base {@link Reiterator}, starting at its current position.
+   */
+  private static class SessionReiterable<V> implements Reiterable<V> {
+    private final PeekingReiterator<WindowedValue<V>> baseIterator;
+    private final long size;
+
+    public SessionReiterable(PeekingReiterator<WindowedValue<V>> baseIterator, long size) {
+      this.baseIterator = baseIterator;
+      this.size = size;
+    }
+
+    @Override
+    public Reiterator<V> iterator() {
+      return new SessionReiterator<V>(baseIterator.copy(), size);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder result = new StringBuilder();
+      result.append("SR{");
+      for (V v : this) {
+        result.append(v.toString()).append(',');
+      }
+      result.append("}");
+      return result.toString();
+    }
+  }
+
+  /**
+   * The {@link Reiterator} used by {@link SessionReiterable}.
+   */
+  private static class SessionReiterator<V> implements Reiterator<V> {
+    private final PeekingReiterator<WindowedValue<V>> iterator;
+    private long remaining;
+
+    public SessionReiterator(PeekingReiterator<WindowedValue<V>> iterator, long remaining) {
+      this.iterator = iterator;
+      this.remaining = remaining;
+    }
+
+    @Override
+    public Reiterator<V> copy() {
+      return new SessionReiterator<V>(iterator.copy(), remaining);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    @Override
+    public V next() {
+      if (remaining <= 0) {
+        throw new NoSuchElementException("No next item in session");
+      }
+      remaining--;
+      return iterator.next().getValue();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
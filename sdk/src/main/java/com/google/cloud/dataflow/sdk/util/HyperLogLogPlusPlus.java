@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.cloud.dataflow.sdk.coders.AtomicCoder;
+import com.google.cloud.dataflow.sdk.coders.ByteArrayCoder;
+import com.google.cloud.dataflow.sdk.coders.CoderException;
+import com.google.common.base.Preconditions;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A HyperLogLog++ sketch of a set of 64-bit hashes, which estimates the
+ * number of distinct hashes added to it.
+ *
+ * <p> This is the algorithm of Heule, Nunkesser and Hall, "HyperLogLog in
+ * Practice" (EDBT 2013). A sketch of precision {@code p} has {@code 2^p}
+ * one-byte registers, and a standard error of about {@code 1.04 / sqrt(2^p)}.
+ * Until the registers would take less memory, a sketch instead keeps the
+ * distinct 25-bit prefixes of its hashes, whose estimates are nearly exact.
+ * Instead of the empirical bias correction of the paper, registers are
+ * estimated by the improved estimator of Ertl, "New cardinality estimation
+ * algorithms for HyperLogLog sketches" (2017), which needs no tables.
+ *
+ * <p> Sketches of the same precision may be merged, and are serialized to a
+ * compact byte array by {@link #toByteArray}.
+ *
+ * <p> A {@code HyperLogLogPlusPlus} is not thread-safe.
+ */
+public class HyperLogLogPlusPlus {
+  public static final int MIN_PRECISION = 4;
+  public static final int MAX_PRECISION = 18;
+
+  private static final int SPARSE_PRECISION = 25;
+  // A sparse entry holds a 25-bit index followed by a 6-bit number of leading zeros.
+  private static final int RHO_BITS = 6;
+  private static final int RHO_MASK = (1 << RHO_BITS) - 1;
+
+  private static final byte SPARSE_FORMAT = 1;
+  private static final byte DENSE_FORMAT = 2;
+
+  private final int precision;
+
+  // The sparse representation: sorted entries with distinct indices, and
+  // entries added since they were last sorted. Both are null once dense.
+  private int[] sparse;
+  private int sparseSize;
+  private int[] pending;
+  private int pendingSize;
+
+  // The dense representation, or null while sparse.
+  private byte[] registers;
+
+  /**
+   * Creates an empty sketch with {@code 2^precision} registers.
+   */
+  public HyperLogLogPlusPlus(int precision) {
+    Preconditions.checkArgument(precision >= MIN_PRECISION && precision <= MAX_PRECISION,
+        "precision must be between %s and %s", MIN_PRECISION, MAX_PRECISION);
+    this.precision = precision;
+    this.sparse = new int[0];
+    this.pending = new int[Math.max(1, maxSparseSize() / 4)];
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  /**
+   * Adds a uniformly distributed 64-bit hash to the sketch.
+   */
+  public void add(long hash) {
+    if (registers == null && pendingSize == pending.length) {
+      flushPending();
+    }
+    if (registers != null) {
+      int index = (int) (hash >>> (Long.SIZE - precision));
+      int rho = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+      updateRegister(index, rho);
+    } else {
+      int index = (int) (hash >>> (Long.SIZE - SPARSE_PRECISION));
+      int rho = Long.numberOfLeadingZeros(
+          (hash << SPARSE_PRECISION) | (1L << (SPARSE_PRECISION - 1))) + 1;
+      pending[pendingSize++] = (index << RHO_BITS) | rho;
+    }
+  }
+
+  /**
+   * Adds all hashes added to the given sketch, which must have the same
+   * precision, to this one.
+   */
+  public void merge(HyperLogLogPlusPlus other) {
+    Preconditions.checkArgument(other.precision == precision,
+        "cannot merge a sketch of precision %s into one of precision %s",
+        other.precision, precision);
+    flushPending();
+    other.flushPending();
+    if (registers == null && other.registers == null) {
+      sparse = mergeSparse(sparse, sparseSize, other.sparse, other.sparseSize);
+      sparseSize = sparse.length;
+      if (sparseSize > maxSparseSize()) {
+        convertToDense();
+      }
+      return;
+    }
+    convertToDense();
+    if (other.registers != null) {
+      for (int i = 0; i < registers.length; i++) {
+        updateRegister(i, other.registers[i]);
+      }
+    } else {
+      for (int i = 0; i < other.sparseSize; i++) {
+        addSparseEntryToRegisters(other.sparse[i]);
+      }
+    }
+  }
+
+  /**
+   * Returns the estimated number of distinct hashes added to this sketch.
+   */
+  public long estimate() {
+    flushPending();
+    if (registers == null) {
+      int m = 1 << SPARSE_PRECISION;
+      return Math.round(linearCounting(m, m - sparseSize));
+    }
+    int m = registers.length;
+    int maxRho = Long.SIZE - precision + 1;
+    int[] counts = new int[maxRho + 1];
+    for (byte register : registers) {
+      counts[register]++;
+    }
+    double z = m * tau(1 - (double) counts[maxRho] / m);
+    for (int k = maxRho - 1; k >= 1; k--) {
+      z = 0.5 * (z + counts[k]);
+    }
+    z += m * sigma((double) counts[0] / m);
+    return Math.round(m * m / (2 * Math.log(2) * z));
+  }
+
+  /**
+   * Returns the serialized form of this sketch, as read by
+   * {@link #fromByteArray}.
+   */
+  public byte[] toByteArray() {
+    flushPending();
+    if (registers != null) {
+      byte[] bytes = new byte[2 + registers.length];
+      bytes[0] = DENSE_FORMAT;
+      bytes[1] = (byte) precision;
+      System.arraycopy(registers, 0, bytes, 2, registers.length);
+      return bytes;
+    }
+    // Sparse entries are written as the differences between consecutive entries.
+    ByteArrayOutputStream out = new ByteArrayOutputStream(2 + 5 + 2 * sparseSize);
+    out.write(SPARSE_FORMAT);
+    out.write(precision);
+    try {
+      VarInt.encode(sparseSize, out);
+      int previous = 0;
+      for (int i = 0; i < sparseSize; i++) {
+        VarInt.encode(sparse[i] - previous, out);
+        previous = sparse[i];
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Returns the sketch serialized by {@link #toByteArray}.
+   *
+   * @throws IllegalArgumentException if the bytes are not a serialized sketch
+   */
+  public static HyperLogLogPlusPlus fromByteArray(byte[] bytes) {
+    Preconditions.checkArgument(bytes.length >= 2, "not a serialized sketch");
+    HyperLogLogPlusPlus sketch = new HyperLogLogPlusPlus(bytes[1]);
+    if (bytes[0] == DENSE_FORMAT) {
+      Preconditions.checkArgument(bytes.length == 2 + (1 << sketch.precision),
+          "a dense sketch of precision %s must have %s registers",
+          sketch.precision, 1 << sketch.precision);
+      sketch.sparse = null;
+      sketch.pending = null;
+      sketch.registers = Arrays.copyOfRange(bytes, 2, bytes.length);
+      return sketch;
+    }
+    Preconditions.checkArgument(bytes[0] == SPARSE_FORMAT, "unknown sketch format %s", bytes[0]);
+    try {
+      InputStream in = new ByteArrayInputStream(bytes, 2, bytes.length - 2);
+      int size = VarInt.decodeInt(in);
+      Preconditions.checkArgument(size >= 0, "invalid number of sparse entries %s", size);
+      int[] entries = new int[size];
+      int previous = 0;
+      for (int i = 0; i < size; i++) {
+        entries[i] = previous + VarInt.decodeInt(in);
+        Preconditions.checkArgument(i == 0 || (entries[i] >>> RHO_BITS) > (previous >>> RHO_BITS),
+            "sparse entries must have increasing indices");
+        previous = entries[i];
+      }
+      sketch.sparse = entries;
+      sketch.sparseSize = size;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("truncated sketch", e);
+    }
+    if (sketch.sparseSize > sketch.maxSparseSize()) {
+      sketch.convertToDense();
+    }
+    return sketch;
+  }
+
+  /**
+   * Returns true if this sketch still keeps the distinct prefixes of its
+   * hashes, rather than registers.
+   */
+  boolean isSparse() {
+    return registers == null;
+  }
+
+  /**
+   * The number of sparse entries above which the sketch switches to
+   * registers, chosen so that both representations use about as much memory.
+   */
+  private int maxSparseSize() {
+    return Math.max(1, (1 << precision) / 4);
+  }
+
+  private void updateRegister(int index, int rho) {
+    if (registers[index] < rho) {
+      registers[index] = (byte) rho;
+    }
+  }
+
+  /**
+   * Sorts the pending sparse entries into the sorted ones, switching to
+   * registers if there are then too many.
+   */
+  private void flushPending() {
+    if (registers != null || pendingSize == 0) {
+      return;
+    }
+    Arrays.sort(pending, 0, pendingSize);
+    sparse = mergeSparse(sparse, sparseSize, pending, pendingSize);
+    sparseSize = sparse.length;
+    pendingSize = 0;
+    if (sparseSize > maxSparseSize()) {
+      convertToDense();
+    }
+  }
+
+  /**
+   * Merges two sorted lists of sparse entries, keeping the entry with the
+   * most leading zeros of each index.
+   */
+  private static int[] mergeSparse(int[] a, int aSize, int[] b, int bSize) {
+    int[] merged = new int[aSize + bSize];
+    int size = 0;
+    int i = 0;
+    int j = 0;
+    while (i < aSize || j < bSize) {
+      int entry = (j == bSize || (i < aSize && a[i] <= b[j])) ? a[i++] : b[j++];
+      // Entries are ordered by index and then by number of leading zeros, so
+      // a later entry with the same index supersedes an earlier one.
+      if (size > 0 && (merged[size - 1] >>> RHO_BITS) == (entry >>> RHO_BITS)) {
+        merged[size - 1] = entry;
+      } else {
+        merged[size++] = entry;
+      }
+    }
+    return size == merged.length ? merged : Arrays.copyOf(merged, size);
+  }
+
+  private void convertToDense() {
+    if (registers != null) {
+      return;
+    }
+    flushPending();
+    if (registers != null) {
+      return;
+    }
+    registers = new byte[1 << precision];
+    for (int i = 0; i < sparseSize; i++) {
+      addSparseEntryToRegisters(sparse[i]);
+    }
+    sparse = null;
+    sparseSize = 0;
+    pending = null;
+    pendingSize = 0;
+  }
+
+  private void addSparseEntryToRegisters(int entry) {
+    int sparseIndex = entry >>> RHO_BITS;
+    int extraBits = SPARSE_PRECISION - precision;
+    int index = sparseIndex >>> extraBits;
+    int extraIndexBits = sparseIndex & ((1 << extraBits) - 1);
+    // The leading zeros after the first precision bits of the hash start
+    // within the rest of the sparse index, unless it is all zeros.
+    int rho = extraIndexBits != 0
+        ? Integer.numberOfLeadingZeros(extraIndexBits) - (Integer.SIZE - extraBits) + 1
+        : extraBits + (entry & RHO_MASK);
+    updateRegister(index, rho);
+  }
+
+  private static double linearCounting(int m, int zeros) {
+    return m * Math.log((double) m / zeros);
+  }
+
+  /**
+   * The series {@code x + sum(x^(2^k) * 2^(k-1))} of Ertl's estimator, which
+   * accounts for the registers that are still zero.
+   */
+  private static double sigma(double x) {
+    if (x == 1) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double y = 1;
+    double z = x;
+    double previous;
+    do {
+      x *= x;
+      previous = z;
+      z += x * y;
+      y += y;
+    } while (z != previous);
+    return z;
+  }
+
+  /**
+   * The series of Ertl's estimator that accounts for the registers that hold
+   * the largest possible value.
+   */
+  private static double tau(double x) {
+    if (x == 0 || x == 1) {
+      return 0;
+    }
+    double y = 1;
+    double z = 1 - x;
+    double previous;
+    do {
+      x = Math.sqrt(x);
+      previous = z;
+      y *= 0.5;
+      z -= Math.pow(1 - x, 2) * y;
+    } while (z != previous);
+    return z / 3;
+  }
+
+  /**
+   * A {@link com.google.cloud.dataflow.sdk.coders.Coder} of sketches, in
+   * their serialized form.
+   */
+  @SuppressWarnings("serial")
+  public static class SketchCoder extends AtomicCoder<HyperLogLogPlusPlus> {
+    @JsonCreator
+    public static SketchCoder of() {
+      return INSTANCE;
+    }
+
+    private static final SketchCoder INSTANCE = new SketchCoder();
+
+    private SketchCoder() {}
+
+    @Override
+    public void encode(HyperLogLogPlusPlus value, OutputStream outStream, Context context)
+        throws IOException, CoderException {
+      if (value == null) {
+        throw new CoderException("cannot encode a null sketch");
+      }
+      ByteArrayCoder.of().encode(value.toByteArray(), outStream, context);
+    }
+
+    @Override
+    public HyperLogLogPlusPlus decode(InputStream inStream, Context context)
+        throws IOException, CoderException {
+      byte[] bytes = ByteArrayCoder.of().decode(inStream, context);
+      try {
+        return fromByteArray(bytes);
+      } catch (IllegalArgumentException e) {
+        throw new CoderException(e);
+      }
+    }
+  }
+}
@@ -27,6 +27,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -117,6 +118,28 @@ public class IOChannelUtils {
     return getFactory(spec).getSizeBytes(spec);
   }
 
+  /**
+   * Matches a specification, which may contain globs, and returns the size in bytes of each
+   * matched resource, in the order in which they were matched.
+   *
+   * <p>The local file system and Google Cloud Storage return the sizes along with the listing used
+   * for matching. For other factories, the size of each matched resource is looked up with
+   * {@link IOChannelFactory#getSizeBytes}.
+   */
+  public static Map<String, Long> matchWithSizes(String spec) throws IOException {
+    IOChannelFactory factory = getFactory(spec);
+    if (factory instanceof FileIOChannelFactory) {
+      return ((FileIOChannelFactory) factory).matchWithSizes(spec);
+    } else if (factory instanceof GcsIOChannelFactory) {
+      return ((GcsIOChannelFactory) factory).matchWithSizes(spec);
+    }
+    Map<String, Long> sizes = new LinkedHashMap<>();
+    for (String match : factory.match(spec)) {
+      sizes.put(match, factory.getSizeBytes(match));
+    }
+    return sizes;
+  }
+
   /**
    * Constructs a fully qualified name from components.
    *
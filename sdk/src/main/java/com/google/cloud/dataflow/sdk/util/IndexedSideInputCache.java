@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.cloud.dataflow.sdk.values.TupleTag;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * The indexed map side inputs of a batch worker, by tag and window, kept
+ * across work items so that each side input is only indexed once.
+ *
+ * <p> Each {@link BatchModeExecutionContext} acquires the side inputs it
+ * reads, and releases them when it is closed. Beyond {@code maxFileBytes} of
+ * files, the least recently used side inputs that are no longer in use are
+ * deleted, and indexed again when they are next read.
+ */
+public class IndexedSideInputCache {
+  private final long maxFileBytes;
+
+  // Guarded by this, in order of last access.
+  private final LinkedHashMap<KV<TupleTag<?>, BoundedWindow>, Entry> entries =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private long fileBytes = 0;
+
+  /** A cached side input, and the number of work items using it. */
+  private static class Entry {
+    private final Object map;
+    private int users = 1;
+
+    Entry(Object map) {
+      this.map = map;
+    }
+  }
+
+  public IndexedSideInputCache(long maxFileBytes) {
+    this.maxFileBytes = maxFileBytes;
+  }
+
+  /**
+   * Returns the side input with the given tag and window, marking it as in use
+   * until it is {@link #release released}, or null if it is not cached.
+   */
+  @Nullable
+  public synchronized Object acquire(KV<TupleTag<?>, BoundedWindow> key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    entry.users++;
+    return entry.map;
+  }
+
+  /**
+   * Adds the given indexed side input, marking it as in use until it is
+   * {@link #release released}, and returns it. If another work item added the
+   * side input first, deletes the given one and returns the other one instead.
+   */
+  public synchronized Object add(KV<TupleTag<?>, BoundedWindow> key, Object map)
+      throws IOException {
+    IndexedSideInputMap<?, ?> indexed = IndexedSideInputMap.fromMap(map);
+    Preconditions.checkArgument(indexed != null, "%s is not an indexed side input", map);
+    Entry existing = entries.get(key);
+    if (existing != null) {
+      existing.users++;
+      indexed.close();
+      return existing.map;
+    }
+    entries.put(key, new Entry(map));
+    fileBytes += indexed.getFileBytes();
+    return map;
+  }
+
+  /**
+   * Marks the side input with the given tag and window as no longer in use by
+   * the caller, and deletes the least recently used side inputs that are not
+   * in use while the cache is too large.
+   */
+  public synchronized void release(KV<TupleTag<?>, BoundedWindow> key) throws IOException {
+    Entry released = entries.get(key);
+    Preconditions.checkState(released != null && released.users > 0,
+        "Side input %s is not in use", key);
+    released.users--;
+
+    Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+    while (fileBytes > maxFileBytes && leastRecentlyUsed.hasNext()) {
+      Entry entry = leastRecentlyUsed.next();
+      if (entry.users == 0) {
+        IndexedSideInputMap<?, ?> evicted = IndexedSideInputMap.fromMap(entry.map);
+        fileBytes -= evicted.getFileBytes();
+        leastRecentlyUsed.remove();
+        evicted.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * A map side input kept in a local file sorted by key, whose blocks are read
+ * as keys are looked up.
+ *
+ * <p> The file is a sequence of blocks of about {@link #BLOCK_BYTES} bytes,
+ * each holding varint length-prefixed (key, value) pairs encoded with the
+ * given coders. Only the first key and offset of each block are kept in
+ * memory, along with the {@link #CACHED_BLOCKS} most recently read blocks.
+ * Keys are compared by their encodings, so the key coder must be
+ * deterministic.
+ *
+ * <p> The map is sorted with an {@link ExternalSorter}, so building it reads
+ * the side input once, using a bounded amount of memory. The file is opened
+ * when a block is first read. {@link #release} closes it and drops the
+ * cached blocks until the next read; {@link #close} deletes the file, after
+ * which the map can no longer be read.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class IndexedSideInputMap<K, V> implements Closeable {
+  static final int BLOCK_BYTES = 64 * 1024;
+  static final int CACHED_BLOCKS = 16;
+
+  private static final long SORT_MEMORY_BYTES = 64 * 1024 * 1024;
+
+  private static final Comparator<byte[]> KEY_COMPARATOR =
+      UnsignedBytes.lexicographicalComparator();
+
+  private final Coder<K> keyCoder;
+  private final Coder<V> valueCoder;
+  private final File file;
+
+  /** The first key of each block. */
+  private final List<byte[]> firstKeys;
+
+  /** The offset of each block, followed by the length of the file. */
+  private final long[] blockOffsets;
+
+  private final int numKeys;
+
+  // Guarded by this.
+  private final LinkedHashMap<Integer, byte[]> cachedBlocks = new LinkedHashMap<>(16, 0.75f, true);
+  @Nullable private RandomAccessFile input;
+  private boolean closed = false;
+
+  /**
+   * Sorts the given pairs by key into a local file, and returns a map over it.
+   *
+   * @param uniqueKeys whether to fail if a key has more than one value;
+   *     otherwise, repeated values of a key are kept once, as in a
+   *     {@link com.google.common.collect.HashMultimap}, comparing values by
+   *     their encodings
+   */
+  public static <K, V> IndexedSideInputMap<K, V> create(Iterable<KV<K, V>> contents,
+      Coder<K> keyCoder, Coder<V> valueCoder, boolean uniqueKeys) throws IOException {
+    File file = File.createTempFile("dataflow-side-input-", ".tmp");
+    file.deleteOnExit();
+    List<byte[]> firstKeys = new ArrayList<>();
+    List<Long> blockOffsets = new ArrayList<>();
+    int numKeys = 0;
+
+    try (ExternalSorter sorter = new ExternalSorter(SORT_MEMORY_BYTES);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      for (KV<K, V> kv : contents) {
+        sorter.add(CoderUtils.encodeToByteArray(keyCoder, kv.getKey()),
+            CoderUtils.encodeToByteArray(valueCoder, kv.getValue()));
+      }
+
+      ByteArrayOutputStream block = new ByteArrayOutputStream(2 * BLOCK_BYTES);
+      long offset = 0;
+      byte[] previousKey = null;
+      Set<ByteBuffer> previousValues = new HashSet<>();
+      Iterator<KV<byte[], byte[]>> pairs = sorter.sortedIterator();
+      while (pairs.hasNext()) {
+        KV<byte[], byte[]> pair = pairs.next();
+        if (previousKey == null || !Arrays.equals(previousKey, pair.getKey())) {
+          numKeys++;
+          previousValues.clear();
+        } else if (uniqueKeys) {
+          throw new IllegalArgumentException(
+              "Duplicate values for " + CoderUtils.decodeFromByteArray(keyCoder, pair.getKey()));
+        }
+        previousKey = pair.getKey();
+        if (!uniqueKeys && !previousValues.add(ByteBuffer.wrap(pair.getValue()))) {
+          continue;
+        }
+
+        if (block.size() == 0) {
+          firstKeys.add(pair.getKey());
+          blockOffsets.add(offset);
+        }
+        writeBytes(pair.getKey(), block);
+        writeBytes(pair.getValue(), block);
+        if (block.size() >= BLOCK_BYTES) {
+          block.writeTo(out);
+          offset += block.size();
+          block.reset();
+        }
+      }
+      block.writeTo(out);
+      offset += block.size();
+      blockOffsets.add(offset);
+    } catch (IOException | RuntimeException e) {
+      file.delete();
+      throw e;
+    }
+
+    long[] offsets = new long[blockOffsets.size()];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = blockOffsets.get(i);
+    }
+    return new IndexedSideInputMap<>(
+        keyCoder, valueCoder, file, firstKeys, offsets, numKeys);
+  }
+
+  private IndexedSideInputMap(Coder<K> keyCoder, Coder<V> valueCoder, File file,
+      List<byte[]> firstKeys, long[] blockOffsets, int numKeys) {
+    this.keyCoder = keyCoder;
+    this.valueCoder = valueCoder;
+    this.file = file;
+    this.firstKeys = firstKeys;
+    this.blockOffsets = blockOffsets;
+    this.numKeys = numKeys;
+  }
+
+  /**
+   * Returns a view of this side input as a map from each key to its single
+   * value.
+   */
+  public Map<K, V> asSingletonMap() {
+    return new MapView<V>() {
+      @Override
+      V fromValues(List<byte[]> values) throws IOException {
+        return CoderUtils.decodeFromByteArray(valueCoder, values.get(0));
+      }
+    };
+  }
+
+  /**
+   * Returns a view of this side input as a map from each key to all of its
+   * values.
+   */
+  public Map<K, Iterable<V>> asMultimap() {
+    return new MapView<Iterable<V>>() {
+      @Override
+      Iterable<V> fromValues(List<byte[]> values) throws IOException {
+        List<V> result = new ArrayList<>(values.size());
+        for (byte[] value : values) {
+          result.add(CoderUtils.decodeFromByteArray(valueCoder, value));
+        }
+        return Collections.unmodifiableList(result);
+      }
+    };
+  }
+
+  /**
+   * Returns the indexed side input underlying the given map, if it was
+   * returned by {@link #asSingletonMap} or {@link #asMultimap}, or null.
+   */
+  @Nullable
+  static IndexedSideInputMap<?, ?> fromMap(Object map) {
+    return map instanceof IndexedSideInputMap.MapView
+        ? ((IndexedSideInputMap<?, ?>.MapView<?>) map).getIndexedSideInputMap()
+        : null;
+  }
+
+  /**
+   * Returns an estimate of the number of bytes of memory used by this map
+   * once its block cache is full.
+   */
+  public long getResidentBytes() {
+    long bytes = (long) CACHED_BLOCKS * BLOCK_BYTES + 8L * blockOffsets.length;
+    for (byte[] firstKey : firstKeys) {
+      bytes += 16 + firstKey.length;
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the number of bytes of the file holding this map.
+   */
+  public long getFileBytes() {
+    return blockOffsets[blockOffsets.length - 1];
+  }
+
+  /**
+   * Closes the file holding this map and drops its cached blocks, until the
+   * map is next read.
+   */
+  public synchronized void release() throws IOException {
+    cachedBlocks.clear();
+    if (input != null) {
+      RandomAccessFile toClose = input;
+      input = null;
+      toClose.close();
+    }
+  }
+
+  /**
+   * Deletes the file holding this map.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      try {
+        release();
+      } finally {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Returns the encoded values of the given encoded key, in the order in
+   * which they were added.
+   */
+  synchronized List<byte[]> lookup(byte[] key) throws IOException {
+    List<byte[]> values = new ArrayList<>();
+    // The values of the key start in the last block whose first key is
+    // smaller, and may continue in the following blocks.
+    int block = 0;
+    int low = 1;
+    int high = firstKeys.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (KEY_COMPARATOR.compare(firstKeys.get(mid), key) < 0) {
+        block = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    for (; block < firstKeys.size(); block++) {
+      InputStream in = new ByteArrayInputStream(readCachedBlock(block));
+      while (in.available() > 0) {
+        int comparison = KEY_COMPARATOR.compare(readBytes(in), key);
+        if (comparison > 0) {
+          return values;
+        }
+        byte[] value = readBytes(in);
+        if (comparison == 0) {
+          values.add(value);
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Returns all encoded pairs, in key order.
+   */
+  Iterator<KV<byte[], byte[]>> pairs() {
+    return new AbstractIterator<KV<byte[], byte[]>>() {
+      private int nextBlock = 0;
+      private InputStream in = new ByteArrayInputStream(new byte[0]);
+
+      @Override
+      protected KV<byte[], byte[]> computeNext() {
+        try {
+          while (in.available() == 0) {
+            if (nextBlock == firstKeys.size()) {
+              return endOfData();
+            }
+            // Scans bypass the cache, so that they do not evict the blocks
+            // used by lookups.
+            in = new ByteArrayInputStream(readBlock(nextBlock++));
+          }
+          return KV.of(readBytes(in), readBytes(in));
+        } catch (IOException e) {
+          throw new RuntimeException("Failed to read side input", e);
+        }
+      }
+    };
+  }
+
+  private synchronized byte[] readCachedBlock(int block) throws IOException {
+    byte[] bytes = cachedBlocks.get(block);
+    if (bytes == null) {
+      bytes = readBlock(block);
+      cachedBlocks.put(block, bytes);
+      if (cachedBlocks.size() > CACHED_BLOCKS) {
+        Iterator<Integer> leastRecentlyUsed = cachedBlocks.keySet().iterator();
+        leastRecentlyUsed.next();
+        leastRecentlyUsed.remove();
+      }
+    }
+    return bytes;
+  }
+
+  private synchronized byte[] readBlock(int block) throws IOException {
+    Preconditions.checkState(!closed, "side input has been closed");
+    if (input == null) {
+      input = new RandomAccessFile(file, "r");
+    }
+    byte[] bytes = new byte[(int) (blockOffsets[block + 1] - blockOffsets[block])];
+    input.seek(blockOffsets[block]);
+    input.readFully(bytes);
+    return bytes;
+  }
+
+  private static void writeBytes(byte[] bytes, OutputStream out) throws IOException {
+    VarInt.encode(bytes.length, out);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(InputStream in) throws IOException {
+    byte[] bytes = new byte[VarInt.decodeInt(in)];
+    ByteStreams.readFully(in, bytes);
+    return bytes;
+  }
+
+  /**
+   * A read-only {@link Map} over the keys of this side input.
+   */
+  abstract class MapView<T> extends AbstractMap<K, T> {
+    /**
+     * Returns the value of a key given its encoded values.
+     */
+    abstract T fromValues(List<byte[]> values) throws IOException;
+
+    IndexedSideInputMap<K, V> getIndexedSideInputMap() {
+      return IndexedSideInputMap.this;
+    }
+
+    @Override
+    public T get(Object key) {
+      try {
+        List<byte[]> values = lookupValues(key);
+        return values.isEmpty() ? null : fromValues(values);
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to read side input", e);
+      }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      try {
+        return !lookupValues(key).isEmpty();
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to read side input", e);
+      }
+    }
+
+    @Override
+    public int size() {
+      return numKeys;
+    }
+
+    @Override
+    public Set<Map.Entry<K, T>> entrySet() {
+      return new AbstractSet<Map.Entry<K, T>>() {
+        @Override
+        public Iterator<Map.Entry<K, T>> iterator() {
+          final PeekingIterator<KV<byte[], byte[]>> pairs = Iterators.peekingIterator(pairs());
+          return new AbstractIterator<Map.Entry<K, T>>() {
+            @Override
+            protected Map.Entry<K, T> computeNext() {
+              if (!pairs.hasNext()) {
+                return endOfData();
+              }
+              KV<byte[], byte[]> first = pairs.next();
+              List<byte[]> values = new ArrayList<>();
+              values.add(first.getValue());
+              while (pairs.hasNext() && Arrays.equals(pairs.peek().getKey(), first.getKey())) {
+                values.add(pairs.next().getValue());
+              }
+              try {
+                return new AbstractMap.SimpleImmutableEntry<>(
+                    CoderUtils.decodeFromByteArray(keyCoder, first.getKey()), fromValues(values));
+              } catch (IOException e) {
+                throw new RuntimeException("Failed to read side input", e);
+              }
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return numKeys;
+        }
+      };
+    }
+
+    private List<byte[]> lookupValues(Object key) throws IOException {
+      @SuppressWarnings("unchecked")
+      K typedKey = (K) key;
+      return lookup(CoderUtils.encodeToByteArray(keyCoder, typedKey));
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+
+import org.joda.time.Instant;
+
+/**
+ * Interns the {@link IntervalWindow IntervalWindows} created by decoders.
+ *
+ * <p> The elements of a bundle are typically assigned to only a handful of
+ * distinct windows, so decoding each element's windows into new objects
+ * wastes allocations, and memory wherever elements are buffered. Each thread
+ * caches the windows it most recently interned in a small direct-mapped
+ * table, so that equal windows decoded in a row share one instance.
+ */
+public final class IntervalWindowInterner {
+  private IntervalWindowInterner() {}  // Non-instantiable.
+
+  private static final int CACHE_BITS = 8;
+
+  private static final ThreadLocal<IntervalWindow[]> CACHE = new ThreadLocal<IntervalWindow[]>() {
+    @Override
+    protected IntervalWindow[] initialValue() {
+      return new IntervalWindow[1 << CACHE_BITS];
+    }
+  };
+
+  /**
+   * Returns an {@link IntervalWindow} for the interval [start, end), reusing
+   * a recently interned instance if there is one.
+   */
+  public static IntervalWindow intern(long startMillis, long endMillis) {
+    IntervalWindow[] cache = CACHE.get();
+    // Window bounds tend to be arithmetic sequences, so use multiplicative
+    // hashing, which spreads those across the high bits.
+    long hash = (startMillis * 31 + endMillis) * 0x9E3779B97F4A7C15L;
+    int slot = (int) (hash >>> (64 - CACHE_BITS));
+    IntervalWindow window = cache[slot];
+    if (window == null
+        || window.start().getMillis() != startMillis
+        || window.end().getMillis() != endMillis) {
+      window = new IntervalWindow(new Instant(startMillis), new Instant(endMillis));
+      cache[slot] = window;
+    }
+    return window;
+  }
+}
@@ -29,6 +29,7 @@ public class PropertyNames {
   public static final String BIGQUERY_WRITE_DISPOSITION = "write_disposition";
   public static final String CO_GBK_RESULT_SCHEMA = "co_gbk_result_schema";
   public static final String COMBINE_FN = "combine_fn";
+  public static final String COMPACT_INTERVAL_WINDOWS = "compact_interval_windows";
   public static final String COMPONENT_ENCODINGS = "component_encodings";
   public static final String COMPRESSION_TYPE = "compression_type";
   public static final String CUSTOM_SOURCE_FORMAT = "custom_source";
@@ -16,10 +16,15 @@
 package com.google.cloud.dataflow.sdk.util;
 
 import com.google.cloud.dataflow.sdk.util.common.worker.Reader;
+import com.google.common.collect.AbstractIterator;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Utilities for working with {@link com.google.cloud.dataflow.sdk.util.common.worker.Reader}
@@ -41,4 +46,77 @@ public class ReaderUtils {
     }
     return elems;
   }
+
+  /**
+   * Returns an {@link Iterable} that reads the elements of the given
+   * {@link com.google.cloud.dataflow.sdk.util.common.worker.Reader} as they are
+   * iterated, rather than all at once. Each underlying reader iterator is
+   * closed once it has been exhausted or has failed; closing the returned
+   * {@link LazyReaderIterable} closes those that were abandoned before then.
+   */
+  public static <T> LazyReaderIterable<T> readElemsLazilyFromReader(Reader<T> reader) {
+    return new LazyReaderIterable<>(reader);
+  }
+
+  /**
+   * An {@link Iterable} over the elements of a
+   * {@link com.google.cloud.dataflow.sdk.util.common.worker.Reader}, which
+   * must be closed if its iterators may not be exhausted.
+   *
+   * @see ReaderUtils#readElemsLazilyFromReader
+   */
+  public static class LazyReaderIterable<T> implements Iterable<T>, Closeable {
+    private final Reader<T> reader;
+    private final Set<Reader.ReaderIterator<T>> openIterators = new LinkedHashSet<>();
+
+    private LazyReaderIterable(Reader<T> reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      final Reader.ReaderIterator<T> it;
+      try {
+        it = reader.iterator();
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to read from reader: " + reader, e);
+      }
+      openIterators.add(it);
+      return new AbstractIterator<T>() {
+        @Override
+        protected T computeNext() {
+          try {
+            if (it.hasNext()) {
+              return it.next();
+            }
+            closeIterator(it);
+          } catch (IOException e) {
+            try {
+              closeIterator(it);
+            } catch (IOException closeException) {
+              e.addSuppressed(closeException);
+            }
+            throw new RuntimeException("Failed to read from reader: " + reader, e);
+          }
+          return endOfData();
+        }
+      };
+    }
+
+    /**
+     * Closes the reader iterators that have not been exhausted.
+     */
+    @Override
+    public void close() throws IOException {
+      for (Reader.ReaderIterator<T> it : new ArrayList<>(openIterators)) {
+        closeIterator(it);
+      }
+    }
+
+    private void closeIterator(Reader.ReaderIterator<T> it) throws IOException {
+      if (openIterators.remove(it)) {
+        it.close();
+      }
+    }
+  }
 }
@@ -45,6 +45,8 @@ import java.util.Objects;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
+
 /**
  * Class responsible for fetching state from the windmill server.
  */
@@ -77,6 +79,17 @@ public class StateFetcher {
   public Map<CodedTupleTag<?>, Optional<?>> fetch(
       String computation, ByteString key, long workToken, String prefix,
       Iterable<? extends CodedTupleTag<?>> tags) throws CoderException, IOException {
+    return fetch(computation, key, workToken, prefix, tags, null);
+  }
+
+  /**
+   * Fetches the given tags, reading them from and recording them in the given
+   * state cache, if any.
+   */
+  public Map<CodedTupleTag<?>, Optional<?>> fetch(
+      String computation, ByteString key, long workToken, String prefix,
+      Iterable<? extends CodedTupleTag<?>> tags, @Nullable WindmillStateCache.ForKey cache)
+      throws CoderException, IOException {
     if (Iterables.isEmpty(tags)) {
       return Collections.emptyMap();
     }
@@ -85,26 +98,29 @@ public class StateFetcher {
         .setKey(key)
         .setWorkToken(workToken);
 
-
+    Map<CodedTupleTag<?>, Optional<?>> resultMap = new HashMap<>();
     Map<ByteString, CodedTupleTag<?>> tagMap = new HashMap<>();
     for (CodedTupleTag<?> tag : tags) {
       ByteString tagString = ByteString.copyFromUtf8(prefix + tag.getId());
-      if (tagMap.put(tagString, tag) == null) {
+      Windmill.Value cached = cache == null ? null : cache.getValue(tagString);
+      if (cached != null) {
+        resultMap.put(tag, decodeValue(tag, cached));
+      } else if (tagMap.put(tagString, tag) == null) {
         requestBuilder.addValuesToFetch(Windmill.TagValue.newBuilder().setTag(tagString).build());
       }
     }
+    if (tagMap.isEmpty()) {
+      return resultMap;
+    }
 
-    Map<CodedTupleTag<?>, Optional<?>> resultMap = new HashMap<>();
     Windmill.KeyedGetDataResponse keyResponse = getResponse(computation, key, requestBuilder);
 
     for (Windmill.TagValue tv : keyResponse.getValuesList()) {
       CodedTupleTag<?> tag = tagMap.get(tv.getTag());
       if (tag != null) {
-        if (tv.getValue().hasData() && !tv.getValue().getData().isEmpty()) {
-          Object v = tag.getCoder().decode(tv.getValue().getData().newInput(), Coder.Context.OUTER);
-          resultMap.put(tag, Optional.of(v));
-        } else {
-          resultMap.put(tag, Optional.absent());
+        resultMap.put(tag, decodeValue(tag, tv.getValue()));
+        if (cache != null) {
+          cache.putValue(tv.getTag(), tv.getValue());
         }
       }
     }
@@ -118,10 +134,30 @@ public class StateFetcher {
     return resultMap;
   }
 
+  private Optional<?> decodeValue(CodedTupleTag<?> tag, Windmill.Value value)
+      throws CoderException, IOException {
+    if (value.hasData() && !value.getData().isEmpty()) {
+      return Optional.of(tag.getCoder().decode(value.getData().newInput(), Coder.Context.OUTER));
+    } else {
+      return Optional.absent();
+    }
+  }
+
   public Map<CodedTupleTag<?>, List<?>> fetchList(
       String computation, ByteString key, long workToken, String prefix,
       Iterable<? extends CodedTupleTag<?>> tags)
       throws IOException {
+    return fetchList(computation, key, workToken, prefix, tags, null);
+  }
+
+  /**
+   * Fetches the given tag lists, reading them from and recording them in the
+   * given state cache, if any.
+   */
+  public Map<CodedTupleTag<?>, List<?>> fetchList(
+      String computation, ByteString key, long workToken, String prefix,
+      Iterable<? extends CodedTupleTag<?>> tags, @Nullable WindmillStateCache.ForKey cache)
+      throws IOException {
     if (Iterables.isEmpty(tags)) {
       return Collections.emptyMap();
     }
@@ -130,10 +166,14 @@ public class StateFetcher {
         .setKey(key)
         .setWorkToken(workToken);
 
+    Map<CodedTupleTag<?>, List<?>> resultMap = new HashMap<>();
     Map<ByteString, CodedTupleTag<?>> tagMap = new HashMap<>();
     for (CodedTupleTag<?> tag : tags) {
       ByteString tagString = ByteString.copyFromUtf8(prefix + tag.getId());
-      if (tagMap.put(tagString, tag) == null) {
+      List<Windmill.Value> cached = cache == null ? null : cache.getList(tagString);
+      if (cached != null) {
+        resultMap.put(tag, decodeTagList(tag, cached));
+      } else if (tagMap.put(tagString, tag) == null) {
         requestBuilder.addListsToFetch(Windmill.TagList.newBuilder()
             .setTag(tagString)
             .setEndTimestamp(Long.MAX_VALUE)
@@ -141,11 +181,20 @@ public class StateFetcher {
       }
     }
 
-    Map<CodedTupleTag<?>, List<?>> resultMap = new HashMap<>();
+    if (tagMap.isEmpty()) {
+      return resultMap;
+    }
+
     Windmill.KeyedGetDataResponse keyResponse = getResponse(computation, key, requestBuilder);
     for (Windmill.TagList tagList : keyResponse.getListsList()) {
       CodedTupleTag<?> tag = tagMap.get(tagList.getTag());
-      resultMap.put(tag, decodeTagList(tag, tagList));
+      if (tag == null) {
+        throw new IOException("Unexpected tag list for tag: " + tagList.getTag());
+      }
+      resultMap.put(tag, decodeTagList(tag, tagList.getValuesList()));
+      if (cache != null) {
+        cache.putList(tagList.getTag(), tagList.getValuesList());
+      }
     }
 
     return resultMap;
@@ -181,14 +230,10 @@ public class StateFetcher {
     return keyResponse;
   }
 
-  private <T> List<T> decodeTagList(CodedTupleTag<T> tag, Windmill.TagList tagList)
+  private <T> List<T> decodeTagList(CodedTupleTag<T> tag, List<Windmill.Value> values)
       throws IOException {
-    if (tag == null) {
-      throw new IOException("Unexpected tag list for tag: " + tagList.getTag());
-    }
-
     List<T> valueList = new ArrayList<>();
-    for (Windmill.Value value : tagList.getValuesList()) {
+    for (Windmill.Value value : values) {
       if (value.hasData() && !value.getData().isEmpty()) {
         valueList.add(
           // Drop the first byte of the data; it's the zero byte we prepended to avoid writing
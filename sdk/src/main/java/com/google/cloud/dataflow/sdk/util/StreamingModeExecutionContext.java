@@ -39,6 +39,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
+
 /**
  * {@link ExecutionContext} for use in streaming mode.
  */
@@ -47,12 +49,24 @@ public class StreamingModeExecutionContext extends ExecutionContext {
   private Instant inputDataWatermark;
   private Windmill.WorkItem work;
   private StateFetcher stateFetcher;
+  @Nullable private WindmillStateCache stateCache;
+  @Nullable private WindmillStateCache.ForKey stateCacheForKey;
   private Windmill.WorkItemCommitRequest.Builder outputBuilder;
   private Map<TupleTag<?>, Map<BoundedWindow, Object>> sideInputCache;
 
   public StreamingModeExecutionContext(String computation, StateFetcher stateFetcher) {
+    this(computation, stateFetcher, null);
+  }
+
+  /**
+   * Creates a context whose keyed state reads go through the given
+   * worker-wide state cache, if any.
+   */
+  public StreamingModeExecutionContext(
+      String computation, StateFetcher stateFetcher, @Nullable WindmillStateCache stateCache) {
     this.computation = computation;
     this.stateFetcher = stateFetcher;
+    this.stateCache = stateCache;
     this.sideInputCache = new HashMap<>();
   }
 
@@ -64,6 +78,9 @@ public class StreamingModeExecutionContext extends ExecutionContext {
     this.outputBuilder = outputBuilder;
     this.sideInputCache.clear();
     this.inputDataWatermark = inputDataWatermark;
+    this.stateCacheForKey = stateCache == null
+        ? null
+        : stateCache.forKey(computation, work.getKey(), work.getWorkToken());
   }
 
   @Override
@@ -241,6 +258,17 @@ public class StreamingModeExecutionContext extends ExecutionContext {
     }
   }
 
+  /**
+   * Stages the state written by the given commit request of the current work
+   * item in the state cache, if any, until the commit succeeds.
+   */
+  public void stageCachedState(Windmill.WorkItemCommitRequest commit) {
+    if (stateCacheForKey != null) {
+      stateCacheForKey.stage(commit);
+      stateCacheForKey = null;
+    }
+  }
+
   private class TagLoader extends CacheLoader<CodedTupleTag<?>, Optional<?>> {
 
     private final String mangledPrefix;
@@ -258,7 +286,7 @@ public class StreamingModeExecutionContext extends ExecutionContext {
     public Map<CodedTupleTag<?>, Optional<?>> loadAll(
         Iterable<? extends CodedTupleTag<?>> keys) throws Exception {
       return  stateFetcher.fetch(
-          computation, getSerializedKey(), getWorkToken(), mangledPrefix, keys);
+          computation, getSerializedKey(), getWorkToken(), mangledPrefix, keys, stateCacheForKey);
     }
   }
 
@@ -279,7 +307,7 @@ public class StreamingModeExecutionContext extends ExecutionContext {
     public Map<CodedTupleTag<?>, List<?>> loadAll(
         Iterable<? extends CodedTupleTag<?>> keys) throws Exception {
       return stateFetcher.fetchList(
-          computation, getSerializedKey(), getWorkToken(), mangledPrefix, keys);
+          computation, getSerializedKey(), getWorkToken(), mangledPrefix, keys, stateCacheForKey);
     }
   }
 
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import com.google.cloud.dataflow.sdk.runners.worker.windmill.Windmill;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.ByteString;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * A worker-wide cache of the committed tag and tag list state of each
+ * computation and key, shared across work items.
+ *
+ * <p> State is cached as the encoded {@link Windmill.Value Windmill values}
+ * that were fetched or committed, so that every work item decodes its own
+ * copy. A work item reads through a {@link ForKey} view. Its state changes
+ * are staged when its commit request is built, and only become visible to
+ * later work items once the commit is known to have succeeded; any failure
+ * for a key invalidates its cached state.
+ *
+ * <p> Windmill may hand out the next work item for a key as soon as it has
+ * applied a commit, before the worker sees the commit succeed. So a key has
+ * no cached state from the time a commit is staged until every commit staged
+ * for it has completed, and the state of a commit is only cached if no later
+ * commit was staged for the key in the meantime. Cached state is tagged with
+ * the work token that wrote it and is never served to a work item with an
+ * older or equal token.
+ *
+ * <p> Windmill does not tell the worker when a key has been processed by
+ * another worker. All cached state of a computation is dropped when the
+ * worker sees a sign that its keys may have moved: a failed commit, an
+ * invalid work token, or a failure Windmill no longer accepts reports of. A
+ * key may still move and return without any such sign, in which case its
+ * state would be stale, so cached state also expires a minute after it was
+ * last committed, and the cache is off unless configured.
+ */
+public class WindmillStateCache {
+  // Rough per-entry overhead of the maps holding a key's state.
+  private static final int PER_ENTRY_OVERHEAD = 64;
+
+  private final Cache<StateId, KeyState> committed;
+  // Staged state, and the keys with commits in flight; guarded by this.
+  private final Map<StagedId, KeyState> staged = new HashMap<>();
+  private final Map<StateId, PendingCommits> pending = new HashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public WindmillStateCache(long maxWeightBytes) {
+    this.committed = CacheBuilder
+        .newBuilder()
+        .maximumWeight(maxWeightBytes)
+        .expireAfterWrite(1, TimeUnit.MINUTES)
+        .weigher(new Weigher<StateId, KeyState>() {
+              @Override
+              public int weigh(StateId id, KeyState state) {
+                return state.weight;
+              }
+            })
+        .build();
+  }
+
+  /**
+   * Returns a view of the committed state of the given key, for use by the
+   * work item with the given work token.
+   */
+  public synchronized ForKey forKey(String computation, ByteString key, long workToken) {
+    StateId id = new StateId(computation, key);
+    KeyState state = committed.getIfPresent(id);
+    if (pending.containsKey(id)) {
+      // A commit for the key is in flight, so Windmill may already hold newer state.
+      state = null;
+    } else if (state != null && state.workToken >= workToken) {
+      // Work tokens of a key increase, so this state was not written before this work item.
+      committed.invalidate(id);
+      state = null;
+    }
+    return new ForKey(id, workToken, state == null ? KeyState.EMPTY : state);
+  }
+
+  /**
+   * Makes the state staged by the given work item visible to later work
+   * items, once its commit has succeeded, unless a later work item for the
+   * same key has staged state since.
+   */
+  public synchronized void commitSucceeded(
+      String computation, ByteString key, long workToken) {
+    StateId id = new StateId(computation, key);
+    KeyState state = staged.remove(new StagedId(id, workToken));
+    if (state == null) {
+      return;
+    }
+    PendingCommits commits = pending.get(id);
+    if (commits.latestWorkToken == workToken) {
+      committed.put(id, state);
+    }
+    if (--commits.count == 0) {
+      pending.remove(id);
+    }
+  }
+
+  /**
+   * Drops all cached state for the given key, including any state staged by
+   * the given work item.
+   */
+  public synchronized void invalidate(String computation, ByteString key, long workToken) {
+    StateId id = new StateId(computation, key);
+    if (staged.remove(new StagedId(id, workToken)) != null) {
+      PendingCommits commits = pending.get(id);
+      if (commits.latestWorkToken == workToken) {
+        // The failed commit may have been the last to update the key.
+        commits.latestWorkToken = Long.MIN_VALUE;
+      }
+      if (--commits.count == 0) {
+        pending.remove(id);
+      }
+    }
+    committed.invalidate(id);
+  }
+
+  /**
+   * Drops all committed state cached for the given computation, whose keys
+   * may have been processed by other workers. State staged by work items in
+   * flight is cached or dropped as their commits succeed or fail.
+   */
+  public synchronized void invalidateComputation(String computation) {
+    Iterator<StateId> ids = committed.asMap().keySet().iterator();
+    while (ids.hasNext()) {
+      if (ids.next().computation.equals(computation)) {
+        ids.remove();
+      }
+    }
+  }
+
+  /**
+   * Stages the given state of a key until the commit of the work item with
+   * the given work token succeeds. The key has no cached state meanwhile.
+   */
+  private synchronized void stageState(StateId id, long workToken, KeyState state) {
+    committed.invalidate(id);
+    if (staged.put(new StagedId(id, workToken), state) != null) {
+      // Staged twice by the same work item; only its latest state is kept.
+      return;
+    }
+    PendingCommits commits = pending.get(id);
+    if (commits == null) {
+      commits = new PendingCommits();
+      pending.put(id, commits);
+    }
+    commits.count++;
+    commits.latestWorkToken = workToken;
+  }
+
+  /**
+   * Returns the number of tag and tag list reads served from this cache.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of tag and tag list reads that had to be fetched.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the number of keys with cached state.
+   */
+  public long getNumKeys() {
+    return committed.size();
+  }
+
+  /**
+   * The state of a single work item's key, as read and written by that work
+   * item. Not thread-safe.
+   */
+  public class ForKey {
+    private final StateId id;
+    private final long workToken;
+    private final KeyState base;
+    private final Map<ByteString, Windmill.Value> values = new HashMap<>();
+    private final Map<ByteString, List<Windmill.Value>> lists = new HashMap<>();
+
+    private ForKey(StateId id, long workToken, KeyState base) {
+      this.id = id;
+      this.workToken = workToken;
+      this.base = base;
+    }
+
+    /**
+     * Returns the cached value of the given tag, or null if it is not cached.
+     * A value with no data means the tag has no value.
+     */
+    @Nullable
+    public Windmill.Value getValue(ByteString tag) {
+      Windmill.Value value = values.containsKey(tag) ? values.get(tag) : base.values.get(tag);
+      (value == null ? misses : hits).incrementAndGet();
+      return value;
+    }
+
+    /**
+     * Returns the cached contents of the given tag list, or null if it is not
+     * cached.
+     */
+    @Nullable
+    public List<Windmill.Value> getList(ByteString tag) {
+      List<Windmill.Value> list = lists.containsKey(tag) ? lists.get(tag) : base.lists.get(tag);
+      (list == null ? misses : hits).incrementAndGet();
+      return list;
+    }
+
+    /**
+     * Records the value of the given tag, as fetched from Windmill.
+     */
+    public void putValue(ByteString tag, Windmill.Value value) {
+      values.put(tag, value);
+    }
+
+    /**
+     * Records the contents of the given tag list, as fetched from Windmill.
+     */
+    public void putList(ByteString tag, List<Windmill.Value> list) {
+      lists.put(tag, list);
+    }
+
+    /**
+     * Applies the state updates of this work item's commit request, and
+     * stages the resulting state until the commit succeeds.
+     */
+    public void stage(Windmill.WorkItemCommitRequest commit) {
+      for (Windmill.TagValue update : commit.getValueUpdatesList()) {
+        values.put(update.getTag(), update.getValue());
+      }
+      for (Windmill.TagList update : commit.getListUpdatesList()) {
+        ByteString tag = update.getTag();
+        if (update.hasEndTimestamp()) {
+          // Deletes the whole list.
+          lists.put(tag, ImmutableList.<Windmill.Value>of());
+        }
+        if (update.getValuesCount() > 0) {
+          List<Windmill.Value> list = lists.containsKey(tag) ? lists.get(tag) : base.lists.get(tag);
+          if (list == null) {
+            // The rest of the list is unknown.
+            continue;
+          }
+          lists.put(tag, ImmutableList.<Windmill.Value>builder()
+              .addAll(list).addAll(update.getValuesList()).build());
+        }
+      }
+      stageState(id, workToken, base.updatedWith(workToken, values, lists));
+    }
+  }
+
+  /**
+   * An immutable snapshot of the cached state of a key.
+   */
+  private static class KeyState {
+    static final KeyState EMPTY = new KeyState(
+        Long.MIN_VALUE,
+        ImmutableMap.<ByteString, Windmill.Value>of(),
+        ImmutableMap.<ByteString, List<Windmill.Value>>of());
+
+    // The work token of the work item that wrote this state.
+    final long workToken;
+    final Map<ByteString, Windmill.Value> values;
+    final Map<ByteString, List<Windmill.Value>> lists;
+    final int weight;
+
+    KeyState(
+        long workToken,
+        Map<ByteString, Windmill.Value> values,
+        Map<ByteString, List<Windmill.Value>> lists) {
+      this.workToken = workToken;
+      this.values = values;
+      this.lists = lists;
+      long weight = 0;
+      for (Map.Entry<ByteString, Windmill.Value> entry : values.entrySet()) {
+        weight += PER_ENTRY_OVERHEAD + entry.getKey().size()
+            + entry.getValue().getSerializedSize();
+      }
+      for (Map.Entry<ByteString, List<Windmill.Value>> entry : lists.entrySet()) {
+        weight += PER_ENTRY_OVERHEAD + entry.getKey().size();
+        for (Windmill.Value value : entry.getValue()) {
+          weight += value.getSerializedSize();
+        }
+      }
+      this.weight = (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    KeyState updatedWith(
+        long newWorkToken,
+        Map<ByteString, Windmill.Value> newValues,
+        Map<ByteString, List<Windmill.Value>> newLists) {
+      Map<ByteString, Windmill.Value> mergedValues = new HashMap<>(values);
+      mergedValues.putAll(newValues);
+      Map<ByteString, List<Windmill.Value>> mergedLists = new HashMap<>(lists);
+      mergedLists.putAll(newLists);
+      return new KeyState(newWorkToken, mergedValues, mergedLists);
+    }
+  }
+
+  /**
+   * The commits of a key that have been staged but have not completed yet.
+   */
+  private static class PendingCommits {
+    int count;
+    // The work token of the last work item to stage state for the key.
+    long latestWorkToken;
+  }
+
+  private static class StateId {
+    private final String computation;
+    private final ByteString key;
+
+    StateId(String computation, ByteString key) {
+      this.computation = computation;
+      this.key = key;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other instanceof StateId) {
+        StateId otherId = (StateId) other;
+        return computation.equals(otherId.computation) && key.equals(otherId.key);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(computation, key);
+    }
+  }
+
+  private static class StagedId {
+    private final StateId id;
+    private final long workToken;
+
+    StagedId(StateId id, long workToken) {
+      this.id = id;
+      this.workToken = workToken;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other instanceof StagedId) {
+        StagedId otherId = (StagedId) other;
+        return id.equals(otherId.id) && workToken == otherId.workToken;
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(id, workToken);
+    }
+  }
+}
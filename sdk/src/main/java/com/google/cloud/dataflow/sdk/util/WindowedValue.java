@@ -27,6 +27,7 @@ import com.google.cloud.dataflow.sdk.coders.InstantCoder;
 import com.google.cloud.dataflow.sdk.coders.StandardCoder;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
 import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
 import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
@@ -37,6 +38,7 @@ import org.joda.time.Instant;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -144,6 +146,15 @@ public abstract class WindowedValue<V> {
   private static final Collection<? extends BoundedWindow> GLOBAL_WINDOWS =
       Collections.singletonList(GlobalWindow.INSTANCE);
 
+  /**
+   * Returns the decoded form of the given object if it is a lazily decoded
+   * {@code WindowedValue}, so that it compares equal to the eagerly decoded
+   * representations.
+   */
+  private static Object unwrapLazy(Object o) {
+    return o instanceof LazyWindowedValue ? ((LazyWindowedValue<?>) o).decoded() : o;
+  }
+
   /**
    * The abstract superclass of WindowedValue representations where
    * timestamp == MIN.
@@ -182,6 +193,7 @@ public abstract class WindowedValue<V> {
 
     @Override
     public boolean equals(Object o) {
+      o = unwrapLazy(o);
       if (o instanceof ValueInGlobalWindow) {
         ValueInGlobalWindow<?> that = (ValueInGlobalWindow) o;
         return Objects.equals(that.value, this.value);
@@ -223,6 +235,7 @@ public abstract class WindowedValue<V> {
 
     @Override
     public boolean equals(Object o) {
+      o = unwrapLazy(o);
       if (o instanceof ValueInEmptyWindows) {
         ValueInEmptyWindows<?> that = (ValueInEmptyWindows) o;
         return Objects.equals(that.value, this.value);
@@ -285,6 +298,7 @@ public abstract class WindowedValue<V> {
 
     @Override
     public boolean equals(Object o) {
+      o = unwrapLazy(o);
       if (o instanceof TimestampedValueInGlobalWindow) {
         TimestampedValueInGlobalWindow<?> that =
             (TimestampedValueInGlobalWindow) o;
@@ -334,6 +348,7 @@ public abstract class WindowedValue<V> {
 
     @Override
     public boolean equals(Object o) {
+      o = unwrapLazy(o);
       if (o instanceof TimestampedValueInSingleWindow) {
         TimestampedValueInSingleWindow<?> that =
             (TimestampedValueInSingleWindow) o;
@@ -386,6 +401,7 @@ public abstract class WindowedValue<V> {
 
     @Override
     public boolean equals(Object o) {
+      o = unwrapLazy(o);
       if (o instanceof TimestampedValueInMultipleWindows) {
         TimestampedValueInMultipleWindows<?> that =
             (TimestampedValueInMultipleWindows) o;
@@ -419,6 +435,119 @@ public abstract class WindowedValue<V> {
     }
   }
 
+  /**
+   * The representation of a WindowedValue decoded by a
+   * {@link FullWindowedValueCoder#withLazyDecoding lazily decoding}
+   * {@link FullWindowedValueCoder} from a whole stream, which holds on to
+   * the encoded bytes and only decodes them when one of its components is
+   * first accessed, then drops them. Since the value is encoded first,
+   * accessing any component decodes all of them. Until then, encoding it with
+   * an equal coder copies the original bytes.
+   */
+  private static class LazyWindowedValue<V> extends WindowedValue<V> {
+    private final FullWindowedValueCoder<V> coder;
+    // Released once decoded, so that buffered values are not held twice.
+    // Set to null only after decoded is set.
+    private volatile byte[] encoded;
+    // Decoding is idempotent, so racing threads may each decode it.
+    private volatile WindowedValue<V> decoded;
+
+    public LazyWindowedValue(FullWindowedValueCoder<V> coder, byte[] encoded) {
+      super(null);
+      this.coder = coder;
+      this.encoded = encoded;
+    }
+
+    /**
+     * Returns the decoded value, throwing any failure to decode it as a
+     * {@code RuntimeException} whose cause is the {@link CoderException}.
+     */
+    WindowedValue<V> decoded() {
+      try {
+        return decodedOrThrow();
+      } catch (CoderException exn) {
+        throw new RuntimeException(exn);
+      }
+    }
+
+    /**
+     * Returns the decoded value, decoding it first if needed.
+     */
+    WindowedValue<V> decodedOrThrow() throws CoderException {
+      WindowedValue<V> result = decoded;
+      if (result == null) {
+        byte[] bytes = encoded;
+        if (bytes == null) {
+          // Another thread has just decoded it.
+          return decoded;
+        }
+        try (InputStream inStream = new ExposedByteArrayInputStream(bytes)) {
+          result = coder.decodeEagerly(inStream);
+          if (inStream.available() != 0) {
+            throw new CoderException(
+                inStream.available() + " unexpected extra bytes after decoding " + result);
+          }
+        } catch (CoderException exn) {
+          throw exn;
+        } catch (IOException exn) {
+          throw new CoderException("unable to decode a lazily decoded WindowedValue", exn);
+        }
+        decoded = result;
+        encoded = null;
+      }
+      return result;
+    }
+
+    /**
+     * Returns the bytes this value was decoded from if none of its components
+     * has been accessed, and it is being encoded with a coder equal to the
+     * one that decoded it; otherwise returns null.
+     */
+    byte[] getUntouchedEncoding(FullWindowedValueCoder<?> encodingCoder) {
+      byte[] bytes = encoded;
+      if (bytes != null && decoded == null
+          && (coder == encodingCoder || coder.equals(encodingCoder))) {
+        return bytes;
+      }
+      return null;
+    }
+
+    @Override
+    public <V> WindowedValue<V> withValue(V value) {
+      return decoded().withValue(value);
+    }
+
+    @Override
+    public V getValue() {
+      return decoded().getValue();
+    }
+
+    @Override
+    public Instant getTimestamp() {
+      return decoded().getTimestamp();
+    }
+
+    @Override
+    public Collection<? extends BoundedWindow> getWindows() {
+      return decoded().getWindows();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return decoded().equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+      return decoded().hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return decoded().toString();
+    }
+  }
+
 
   /////////////////////////////////////////////////////////////////////////////
 
@@ -475,6 +604,10 @@ public abstract class WindowedValue<V> {
     private final Coder<? extends BoundedWindow> windowCoder;
     // Precompute and cache the coder for a list of windows.
     private final Coder<Collection<? extends BoundedWindow>> windowsCoder;
+    // Whether the windows are IntervalWindows, and are encoded compactly.
+    private final boolean compactIntervalWindows;
+    // Whether values decoded from a whole stream are only decoded when accessed.
+    private final boolean lazyDecoding;
 
     public static <T> FullWindowedValueCoder<T> of(
         Coder<T> valueCoder,
@@ -482,20 +615,34 @@ public abstract class WindowedValue<V> {
       return new FullWindowedValueCoder<>(valueCoder, windowCoder);
     }
 
+    public static FullWindowedValueCoder<?> of(List<Coder<?>> components) {
+      return of(components, null);
+    }
+
     @JsonCreator
     public static FullWindowedValueCoder<?> of(
         @JsonProperty(PropertyNames.COMPONENT_ENCODINGS)
-        List<Coder<?>> components) {
+        List<Coder<?>> components,
+        @JsonProperty(PropertyNames.COMPACT_INTERVAL_WINDOWS)
+        Boolean compactIntervalWindows) {
       checkArgument(components.size() == 2,
                     "Expecting 2 components, got " + components.size());
       @SuppressWarnings("unchecked")
       Coder<? extends BoundedWindow> window = (Coder<? extends BoundedWindow>) components.get(1);
-      return of(components.get(0), window);
+      return new FullWindowedValueCoder<>(components.get(0), window,
+          compactIntervalWindows != null && compactIntervalWindows, false);
     }
 
-    @SuppressWarnings("unchecked")
     FullWindowedValueCoder(Coder<T> valueCoder,
                            Coder<? extends BoundedWindow> windowCoder) {
+      this(valueCoder, windowCoder, false, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private FullWindowedValueCoder(Coder<T> valueCoder,
+                                   Coder<? extends BoundedWindow> windowCoder,
+                                   boolean compactIntervalWindows,
+                                   boolean lazyDecoding) {
       super(valueCoder);
       this.windowCoder = checkNotNull(windowCoder);
       // It's not possible to statically type-check correct use of the
@@ -504,6 +651,43 @@ public abstract class WindowedValue<V> {
       // windowsCoder in a way that makes encode() and decode() work
       // right, and cast the window type away here.
       this.windowsCoder = (Coder) CollectionCoder.of(this.windowCoder);
+      this.compactIntervalWindows =
+          compactIntervalWindows && this.windowCoder.equals(IntervalWindow.getCoder());
+      this.lazyDecoding = lazyDecoding;
+    }
+
+    /**
+     * Returns a copy of this coder that encodes {@link IntervalWindow
+     * IntervalWindows} relative to the timestamp of their element, in a few
+     * bytes each instead of 16. This encoding is not understood by the
+     * Dataflow service or by earlier versions of this coder, so the returned
+     * coder may only be used for data that is read back by workers of this
+     * version, such as local spill files. Its cloud representation is not
+     * marked as a windowed value wrapper, so the service treats its encoding
+     * as opaque.
+     *
+     * <p> Returns an equivalent coder if the windows are not IntervalWindows.
+     */
+    public FullWindowedValueCoder<T> withCompactIntervalWindows() {
+      return new FullWindowedValueCoder<>(valueCoder, windowCoder, true, lazyDecoding);
+    }
+
+    /**
+     * Returns a copy of this coder that, when decoding a whole stream, returns
+     * a value that holds on to the encoded bytes and is only decoded when one
+     * of its components is first accessed. Until then, encoding it with an
+     * equal coder copies the original bytes.
+     *
+     * <p> This only pays off where values are forwarded without being
+     * accessed; a value that is accessed is copied once more than if it were
+     * decoded eagerly. A failure to decode a value is then thrown by
+     * {@link #encode} as a {@link CoderException}, or by the value's accessors
+     * as a {@code RuntimeException} whose cause is the {@code CoderException}.
+     *
+     * <p> The encoding is unchanged, so the returned coder is equal to this one.
+     */
+    public FullWindowedValueCoder<T> withLazyDecoding() {
+      return new FullWindowedValueCoder<>(valueCoder, windowCoder, compactIntervalWindows, true);
     }
 
     public Coder<? extends BoundedWindow> getWindowCoder() {
@@ -516,7 +700,8 @@ public abstract class WindowedValue<V> {
 
     @Override
     public <V> WindowedValueCoder<V> withValueCoder(Coder<V> valueCoder) {
-      return new FullWindowedValueCoder<>(valueCoder, windowCoder);
+      return new FullWindowedValueCoder<>(
+          valueCoder, windowCoder, compactIntervalWindows, lazyDecoding);
     }
 
     @Override
@@ -524,21 +709,122 @@ public abstract class WindowedValue<V> {
                        OutputStream outStream,
                        Context context)
         throws CoderException, IOException {
+      // Every component is encoded in a nested context, so the encoding does
+      // not depend on the context, and a lazily decoded value that has not
+      // been accessed can be copied as is.
+      if (windowedElem instanceof LazyWindowedValue) {
+        LazyWindowedValue<T> lazyElem = (LazyWindowedValue<T>) windowedElem;
+        byte[] encoded = lazyElem.getUntouchedEncoding(this);
+        if (encoded != null) {
+          if (context.isWholeStream && outStream instanceof ExposedByteArrayOutputStream) {
+            ((ExposedByteArrayOutputStream) outStream).writeAndOwn(encoded);
+          } else {
+            outStream.write(encoded);
+          }
+          return;
+        }
+        windowedElem = lazyElem.decodedOrThrow();
+      }
       Context nestedContext = context.nested();
       valueCoder.encode(windowedElem.getValue(), outStream, nestedContext);
       InstantCoder.of().encode(
           windowedElem.getTimestamp(), outStream, nestedContext);
-      windowsCoder.encode(windowedElem.getWindows(), outStream, nestedContext);
+      if (compactIntervalWindows) {
+        encodeIntervalWindows(windowedElem.getTimestamp(), windowedElem.getWindows(), outStream);
+      } else {
+        windowsCoder.encode(windowedElem.getWindows(), outStream, nestedContext);
+      }
+    }
+
+    /**
+     * Encodes interval windows relative to the timestamp of their element:
+     * the number of windows, then for each window the offset of its start
+     * from the timestamp and the difference between its size and the size of
+     * the previous window, as zigzag-encoded {@link VarInt VarInts}. The
+     * windows an element is assigned to are usually near its timestamp and
+     * of the same size, so each typically takes a few bytes instead of 16.
+     */
+    private static void encodeIntervalWindows(
+        Instant timestamp, Collection<? extends BoundedWindow> windows, OutputStream outStream)
+        throws IOException {
+      VarInt.encode(windows.size(), outStream);
+      long previousSize = 0;
+      for (BoundedWindow window : windows) {
+        IntervalWindow intervalWindow = (IntervalWindow) window;
+        long start = intervalWindow.start().getMillis();
+        long size = intervalWindow.end().getMillis() - start;
+        VarInt.encode(zigzag(timestamp.getMillis() - start), outStream);
+        VarInt.encode(zigzag(size - previousSize), outStream);
+        previousSize = size;
+      }
+    }
+
+    private static long getEncodedIntervalWindowsSize(
+        Instant timestamp, Collection<? extends BoundedWindow> windows) {
+      long bytes = VarInt.getLength(windows.size());
+      long previousSize = 0;
+      for (BoundedWindow window : windows) {
+        IntervalWindow intervalWindow = (IntervalWindow) window;
+        long start = intervalWindow.start().getMillis();
+        long size = intervalWindow.end().getMillis() - start;
+        bytes += VarInt.getLength(zigzag(timestamp.getMillis() - start));
+        bytes += VarInt.getLength(zigzag(size - previousSize));
+        previousSize = size;
+      }
+      return bytes;
+    }
+
+    private static Collection<? extends BoundedWindow> decodeIntervalWindows(
+        Instant timestamp, InputStream inStream) throws IOException {
+      int count = VarInt.decodeInt(inStream);
+      if (count == 1) {
+        long start = timestamp.getMillis() - unzigzag(VarInt.decodeLong(inStream));
+        long size = unzigzag(VarInt.decodeLong(inStream));
+        return Collections.singletonList(IntervalWindowInterner.intern(start, start + size));
+      }
+      List<IntervalWindow> windows = new ArrayList<>(count);
+      long size = 0;
+      for (int i = 0; i < count; i++) {
+        long start = timestamp.getMillis() - unzigzag(VarInt.decodeLong(inStream));
+        size += unzigzag(VarInt.decodeLong(inStream));
+        windows.add(IntervalWindowInterner.intern(start, start + size));
+      }
+      return windows;
+    }
+
+    private static long zigzag(long value) {
+      return (value << 1) ^ (value >> 63);
     }
 
+    private static long unzigzag(long value) {
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p> If this coder {@link #withLazyDecoding decodes lazily}, a value
+     * decoded from a whole stream is only decoded when it is first accessed.
+     */
     @Override
     public WindowedValue<T> decode(InputStream inStream, Context context)
         throws CoderException, IOException {
-      Context nestedContext = context.nested();
+      if (lazyDecoding && context.isWholeStream) {
+        return new LazyWindowedValue<>(this, StreamUtils.getBytes(inStream));
+      }
+      return decodeEagerly(inStream);
+    }
+
+    WindowedValue<T> decodeEagerly(InputStream inStream) throws CoderException, IOException {
+      Context nestedContext = Context.NESTED;
       T value = valueCoder.decode(inStream, nestedContext);
       Instant timestamp = InstantCoder.of().decode(inStream, nestedContext);
-      Collection<? extends BoundedWindow> windows =
-          windowsCoder.decode(inStream, nestedContext);
+      Collection<? extends BoundedWindow> windows;
+      if (compactIntervalWindows) {
+        windows = decodeIntervalWindows(timestamp, inStream);
+      } else {
+        windows = windowsCoder.decode(inStream, nestedContext);
+      }
       return WindowedValue.of(value, timestamp, windows);
     }
 
@@ -556,15 +842,32 @@ public abstract class WindowedValue<V> {
     public void registerByteSizeObserver(WindowedValue<T> value,
                                          ElementByteSizeObserver observer,
                                          Context context) throws Exception {
+      if (value instanceof LazyWindowedValue) {
+        LazyWindowedValue<T> lazyValue = (LazyWindowedValue<T>) value;
+        byte[] encoded = lazyValue.getUntouchedEncoding(this);
+        if (encoded != null) {
+          observer.update((long) encoded.length);
+          return;
+        }
+        value = lazyValue.decodedOrThrow();
+      }
       valueCoder.registerByteSizeObserver(value.getValue(), observer, context);
       InstantCoder.of().registerByteSizeObserver(value.getTimestamp(), observer, context);
-      windowsCoder.registerByteSizeObserver(value.getWindows(), observer, context);
+      if (compactIntervalWindows) {
+        observer.update(getEncodedIntervalWindowsSize(value.getTimestamp(), value.getWindows()));
+      } else {
+        windowsCoder.registerByteSizeObserver(value.getWindows(), observer, context);
+      }
     }
 
     @Override
     public CloudObject asCloudObject() {
       CloudObject result = super.asCloudObject();
-      addBoolean(result, PropertyNames.IS_WRAPPER, true);
+      if (compactIntervalWindows) {
+        addBoolean(result, PropertyNames.COMPACT_INTERVAL_WINDOWS, true);
+      } else {
+        addBoolean(result, PropertyNames.IS_WRAPPER, true);
+      }
       return result;
     }
 
@@ -577,6 +880,17 @@ public abstract class WindowedValue<V> {
     public List<? extends Coder<?>> getComponents() {
       return Arrays.<Coder<?>>asList(valueCoder, windowCoder);
     }
+
+    @Override
+    public boolean equals(Object o) {
+      return super.equals(o)
+          && compactIntervalWindows == ((FullWindowedValueCoder<?>) o).compactIntervalWindows;
+    }
+
+    @Override
+    public int hashCode() {
+      return super.hashCode() * 31 + (compactIntervalWindows ? 1 : 0);
+    }
   }
 
   /**
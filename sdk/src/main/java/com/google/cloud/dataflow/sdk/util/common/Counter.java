@@ -19,14 +19,17 @@ package com.google.cloud.dataflow.sdk.util.common;
 import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.AND;
 import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.MEAN;
 import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.OR;
+import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.SUM;
 
 import com.google.cloud.dataflow.sdk.values.TypeDescriptor;
+import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.AtomicDouble;
 
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
@@ -175,6 +178,15 @@ public abstract class Counter<T> {
    */
   public abstract Counter<T> addValue(T value);
 
+  /**
+   * Adds a new {@code long} value to the aggregation stream, without boxing
+   * it. Supported by counters of numeric values. Returns this (to allow method
+   * chaining).
+   */
+  public Counter<T> addValue(long value) {
+    throw illegalArgumentException();
+  }
+
   /**
    * Resets the aggregation stream to this new value. This aggregator must not
    * be a MEAN aggregator. Returns this (to allow method chaining).
@@ -354,10 +366,14 @@ public abstract class Counter<T> {
     private final AtomicLong deltaAggregate;
     private final AtomicReference<LongCounterMean> mean;
     private final AtomicReference<LongCounterMean> deltaMean;
+    // For SUM, the values added since they were last folded into aggregate and
+    // deltaAggregate, which happens whenever the counter is read.
+    private final StripedLongSum pendingSum;
 
     /** Initializes a new {@link Counter} for {@link Long} values. */
     private LongCounter(String name, AggregationKind kind) {
       super(name, kind);
+      pendingSum = kind == SUM ? new StripedLongSum() : null;
       switch (kind) {
         case MEAN:
           mean = new AtomicReference<>();
@@ -382,10 +398,14 @@ public abstract class Counter<T> {
 
     @Override
     public LongCounter addValue(Long value) {
+      return addValue(value.longValue());
+    }
+
+    @Override
+    public LongCounter addValue(long value) {
       switch (kind) {
         case SUM:
-          aggregate.addAndGet(value);
-          deltaAggregate.addAndGet(value);
+          pendingSum.add(value);
           break;
         case MEAN:
           addToMeanAndSet(value, mean);
@@ -405,7 +425,15 @@ public abstract class Counter<T> {
       return this;
     }
 
-    private void minAndSet(Long value, AtomicLong target) {
+    private void foldPendingSum() {
+      long sum = pendingSum.sumThenReset();
+      if (sum != 0) {
+        aggregate.addAndGet(sum);
+        deltaAggregate.addAndGet(sum);
+      }
+    }
+
+    private void minAndSet(long value, AtomicLong target) {
       long current;
       long update;
       do {
@@ -414,7 +442,7 @@ public abstract class Counter<T> {
       } while (update < current && !target.compareAndSet(current, update));
     }
 
-    private void maxAndSet(Long value, AtomicLong target) {
+    private void maxAndSet(long value, AtomicLong target) {
       long current;
       long update;
       do {
@@ -423,7 +451,7 @@ public abstract class Counter<T> {
       } while (update > current && !target.compareAndSet(current, update));
     }
 
-    private void addToMeanAndSet(Long value, AtomicReference<LongCounterMean> target) {
+    private void addToMeanAndSet(long value, AtomicReference<LongCounterMean> target) {
       LongCounterMean current;
       LongCounterMean update;
       do {
@@ -434,6 +462,9 @@ public abstract class Counter<T> {
 
     @Override
     public Long getAggregate() {
+      if (kind == SUM) {
+        foldPendingSum();
+      }
       if (kind != MEAN) {
         return aggregate.get();
       } else {
@@ -445,6 +476,7 @@ public abstract class Counter<T> {
     public Long getAndResetDelta() {
       switch (kind) {
         case SUM:
+          foldPendingSum();
           return deltaAggregate.getAndSet(0L);
         case MAX:
           return deltaAggregate.getAndSet(Long.MIN_VALUE);
@@ -460,6 +492,10 @@ public abstract class Counter<T> {
       if (kind == MEAN) {
         throw illegalArgumentException();
       }
+      if (kind == SUM) {
+        // Values added before the reset are discarded.
+        pendingSum.sumThenReset();
+      }
       aggregate.set(value);
       deltaAggregate.set(value);
       return this;
@@ -522,6 +558,59 @@ public abstract class Counter<T> {
     }
   }
 
+  /**
+   * A sum of {@code long} values that is spread over several cells when
+   * threads contend to update it, in the manner of Java 8's
+   * {@code LongAdder}, and that is read and reset at once.
+   */
+  private static final class StripedLongSum {
+    private static final int NUM_CELLS =
+        Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), 64) * 2 - 1);
+    // Cells are spaced a cache line apart, so that threads updating different
+    // cells do not contend.
+    private static final int CELL_SPACING = 8;
+
+    private final AtomicLong base = new AtomicLong();
+    // Allocated the first time an update to base fails due to contention.
+    private volatile AtomicLongArray cells;
+
+    void add(long value) {
+      AtomicLongArray currentCells = cells;
+      if (currentCells == null) {
+        long current = base.get();
+        if (base.compareAndSet(current, current + value)) {
+          return;
+        }
+        currentCells = inflate();
+      }
+      currentCells.getAndAdd(cellIndex(), value);
+    }
+
+    long sumThenReset() {
+      long sum = base.getAndSet(0L);
+      AtomicLongArray currentCells = cells;
+      if (currentCells != null) {
+        for (int i = 0; i < currentCells.length(); i += CELL_SPACING) {
+          sum += currentCells.getAndSet(i, 0L);
+        }
+      }
+      return sum;
+    }
+
+    private synchronized AtomicLongArray inflate() {
+      if (cells == null) {
+        cells = new AtomicLongArray(NUM_CELLS * CELL_SPACING);
+      }
+      return cells;
+    }
+
+    private static int cellIndex() {
+      long id = Thread.currentThread().getId();
+      int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+      return ((hash >>> 16) & (NUM_CELLS - 1)) * CELL_SPACING;
+    }
+  }
+
   /**
    * Implements a {@link Counter} for {@link Double} values.
    */
@@ -556,6 +645,11 @@ public abstract class Counter<T> {
       }
     }
 
+    @Override
+    public DoubleCounter addValue(long value) {
+      return addValue((double) value);
+    }
+
     @Override
     public DoubleCounter addValue(Double value) {
       switch (kind) {
@@ -871,6 +965,11 @@ public abstract class Counter<T> {
       }
     }
 
+    @Override
+    public IntegerCounter addValue(long value) {
+      return addValue(Integer.valueOf(Ints.checkedCast(value)));
+    }
+
     @Override
     public IntegerCounter addValue(Integer value) {
       switch (kind) {
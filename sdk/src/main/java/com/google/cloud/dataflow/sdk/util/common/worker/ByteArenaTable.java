@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util.common.worker;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * An open-addressing hash table from encoded grouping keys to an encoded key
+ * and a list of encoded values, whose bytes are stored outside the Java heap.
+ *
+ * <p> Keys and values are appended to direct {@link ByteBuffer} slabs, so the
+ * garbage collector only sees the slabs and a handful of primitive arrays,
+ * regardless of the number of entries. Entries are numbered densely in
+ * insertion order. Bytes are never reclaimed individually; {@link #clear}
+ * empties the table and keeps its slabs to be reused, rather than allocating
+ * direct buffers again. Only as many slabs as the table last used are kept, up
+ * to a given number of bytes, and slabs larger than the slab size are released.
+ *
+ * <p> {@link #getBytes} is the number of bytes allocated for the slabs in use
+ * and the index, whether or not they are used by records yet. Slabs kept for
+ * reuse are counted by {@link #getRetainedBytes} instead.
+ *
+ * <p> A {@code ByteArenaTable} is not thread-safe.
+ */
+class ByteArenaTable {
+  static final int DEFAULT_SLAB_BYTES = 1 << 20;
+
+  private static final int INITIAL_CAPACITY = 1 << 8;
+  private static final long NO_VALUE = -1;
+
+  // Key record: grouping key length, key length, grouping key bytes, key bytes.
+  private static final int KEY_HEADER_BYTES = 4 + 4;
+  // Value record: address of the next value record, value length, value bytes.
+  private static final int VALUE_HEADER_BYTES = 8 + 4;
+
+  private final int slabBytes;
+  private final long maxRetainedBytes;
+  private final List<ByteBuffer> slabs = new ArrayList<>();
+  private int currentSlab = -1;
+  private long slabCapacityBytes = 0;
+  // Cleared slabs of slabBytes each, to be reused before allocating new ones.
+  private final Deque<ByteBuffer> freeSlabs = new ArrayDeque<>();
+
+  // Maps hash slots to entry numbers, or -1 for an empty slot.
+  private int[] slots;
+  // Per-entry index, by entry number.
+  private int[] hashes;
+  private long[] keyAddresses;
+  private long[] firstValues;
+  private long[] lastValues;
+  private int[] numValues;
+  private int numEntries = 0;
+
+  ByteArenaTable(int slabBytes) {
+    this(slabBytes, Long.MAX_VALUE);
+  }
+
+  /**
+   * Creates a table with slabs of {@code slabBytes} each, which keeps at most
+   * {@code maxRetainedBytes} of slabs for reuse when it is cleared.
+   */
+  ByteArenaTable(int slabBytes, long maxRetainedBytes) {
+    Preconditions.checkArgument(slabBytes > 0, "slabBytes must be positive");
+    Preconditions.checkArgument(maxRetainedBytes >= 0, "maxRetainedBytes must not be negative");
+    this.slabBytes = slabBytes;
+    this.maxRetainedBytes = maxRetainedBytes;
+    allocateIndex(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Returns the number of entries in this table.
+   */
+  int size() {
+    return numEntries;
+  }
+
+  /**
+   * Returns the number of bytes allocated for this table's slabs in use and its
+   * index.
+   */
+  long getBytes() {
+    return slabCapacityBytes
+        + 4L * slots.length
+        + (4L + 8L + 8L + 8L + 4L) * hashes.length;
+  }
+
+  /**
+   * Returns the number of bytes of the slabs kept for reuse, which are not in use.
+   */
+  long getRetainedBytes() {
+    return (long) slabBytes * freeSlabs.size();
+  }
+
+  /**
+   * Returns the number of the entry with the given grouping key, or -1 if
+   * there is none.
+   */
+  int find(byte[] groupingKey) {
+    return find(groupingKey, groupingKey.length);
+  }
+
+  /**
+   * Returns the number of the entry whose grouping key is the first
+   * {@code length} bytes of the given array, or -1 if there is none.
+   */
+  int find(byte[] groupingKey, int length) {
+    int hash = hash(groupingKey, length);
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    while (slots[slot] != -1) {
+      int entry = slots[slot];
+      if (hashes[entry] == hash && groupingKeyEquals(entry, groupingKey, length)) {
+        return entry;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Adds an entry with no values for the given grouping key, which must not
+   * already be in this table, and returns its number.
+   */
+  int insert(byte[] groupingKey, byte[] key) {
+    return insert(groupingKey, groupingKey.length, key);
+  }
+
+  /**
+   * Adds an entry with no values whose grouping key is the first
+   * {@code length} bytes of the given array, which must not already be in
+   * this table, and returns its number.
+   */
+  int insert(byte[] groupingKey, int length, byte[] key) {
+    if (numEntries == hashes.length) {
+      grow();
+    }
+    int entry = numEntries++;
+    int hash = hash(groupingKey, length);
+    hashes[entry] = hash;
+    long address = allocate(KEY_HEADER_BYTES + length + key.length);
+    ByteBuffer slab = slab(address);
+    int offset = offset(address);
+    slab.putInt(offset, length);
+    slab.putInt(offset + 4, key.length);
+    put(slab, offset + KEY_HEADER_BYTES, groupingKey, length);
+    put(slab, offset + KEY_HEADER_BYTES + length, key, key.length);
+    keyAddresses[entry] = address;
+    firstValues[entry] = NO_VALUE;
+    lastValues[entry] = NO_VALUE;
+    numValues[entry] = 0;
+    addToSlots(entry);
+    return entry;
+  }
+
+  /**
+   * Appends a value to the given entry.
+   */
+  void appendValue(int entry, byte[] value) {
+    long address = allocate(VALUE_HEADER_BYTES + value.length);
+    ByteBuffer slab = slab(address);
+    int offset = offset(address);
+    slab.putLong(offset, NO_VALUE);
+    slab.putInt(offset + 8, value.length);
+    put(slab, offset + VALUE_HEADER_BYTES, value, value.length);
+    if (lastValues[entry] == NO_VALUE) {
+      firstValues[entry] = address;
+    } else {
+      slab(lastValues[entry]).putLong(offset(lastValues[entry]), address);
+    }
+    lastValues[entry] = address;
+    numValues[entry]++;
+  }
+
+  /**
+   * Returns the number of values of the given entry.
+   */
+  int getNumValues(int entry) {
+    return numValues[entry];
+  }
+
+  /**
+   * Returns the key of the given entry.
+   */
+  byte[] getKey(int entry) {
+    ByteBuffer slab = slab(keyAddresses[entry]);
+    int offset = offset(keyAddresses[entry]);
+    int groupingKeyLength = slab.getInt(offset);
+    int keyLength = slab.getInt(offset + 4);
+    return get(slab, offset + KEY_HEADER_BYTES + groupingKeyLength, keyLength);
+  }
+
+  /**
+   * Returns the values of the given entry, in the order they were appended.
+   */
+  List<byte[]> getValues(int entry) {
+    List<byte[]> values = new ArrayList<>(numValues[entry]);
+    for (long address = firstValues[entry]; address != NO_VALUE; ) {
+      ByteBuffer slab = slab(address);
+      int offset = offset(address);
+      values.add(get(slab, offset + VALUE_HEADER_BYTES, slab.getInt(offset + 8)));
+      address = slab.getLong(offset);
+    }
+    return values;
+  }
+
+  /**
+   * Removes all entries and shrinks the index to its initial capacity. The
+   * slabs that were in use are kept for reuse, up to the maximum number of
+   * retained bytes; the others are released, and their memory is freed once
+   * they are garbage collected.
+   */
+  void clear() {
+    // Slabs kept from before that were not needed since are released, so that
+    // no more slabs are kept than the table last used.
+    freeSlabs.clear();
+    long retainedBytes = 0;
+    for (ByteBuffer slab : slabs) {
+      if (slab.capacity() == slabBytes && retainedBytes + slabBytes <= maxRetainedBytes) {
+        slab.clear();
+        freeSlabs.add(slab);
+        retainedBytes += slabBytes;
+      }
+    }
+    slabs.clear();
+    currentSlab = -1;
+    slabCapacityBytes = 0;
+    numEntries = 0;
+    if (hashes.length > INITIAL_CAPACITY) {
+      allocateIndex(INITIAL_CAPACITY);
+    } else {
+      Arrays.fill(slots, -1);
+    }
+  }
+
+  private static int hash(byte[] groupingKey, int length) {
+    // The same as Arrays.hashCode, over the first length bytes.
+    int hash = 1;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + groupingKey[i];
+    }
+    // Spread the bits, since slots are chosen by the low bits of the hash.
+    hash ^= (hash >>> 16);
+    hash *= 0x85ebca6b;
+    hash ^= (hash >>> 13);
+    return hash;
+  }
+
+  private boolean groupingKeyEquals(int entry, byte[] groupingKey, int length) {
+    ByteBuffer slab = slab(keyAddresses[entry]);
+    int offset = offset(keyAddresses[entry]);
+    if (slab.getInt(offset) != length) {
+      return false;
+    }
+    offset += KEY_HEADER_BYTES;
+    for (int i = 0; i < length; i++) {
+      if (slab.get(offset + i) != groupingKey[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void addToSlots(int entry) {
+    int mask = slots.length - 1;
+    int slot = hashes[entry] & mask;
+    while (slots[slot] != -1) {
+      slot = (slot + 1) & mask;
+    }
+    slots[slot] = entry;
+  }
+
+  private void allocateIndex(int capacity) {
+    // Keep the load factor of the open-addressing slots at or below 1/2.
+    slots = new int[2 * capacity];
+    Arrays.fill(slots, -1);
+    hashes = new int[capacity];
+    keyAddresses = new long[capacity];
+    firstValues = new long[capacity];
+    lastValues = new long[capacity];
+    numValues = new int[capacity];
+  }
+
+  private void grow() {
+    int capacity = 2 * hashes.length;
+    slots = new int[2 * capacity];
+    Arrays.fill(slots, -1);
+    hashes = Arrays.copyOf(hashes, capacity);
+    keyAddresses = Arrays.copyOf(keyAddresses, capacity);
+    firstValues = Arrays.copyOf(firstValues, capacity);
+    lastValues = Arrays.copyOf(lastValues, capacity);
+    numValues = Arrays.copyOf(numValues, capacity);
+    for (int entry = 0; entry < numEntries; entry++) {
+      addToSlots(entry);
+    }
+  }
+
+  /**
+   * Reserves the given number of bytes in a slab, returning their address.
+   * Records never span slabs; a record larger than a slab gets its own slab.
+   */
+  private long allocate(int bytes) {
+    if (currentSlab == -1 || slabs.get(currentSlab).remaining() < bytes) {
+      ByteBuffer slab = bytes <= slabBytes && !freeSlabs.isEmpty()
+          ? freeSlabs.poll()
+          : ByteBuffer.allocateDirect(Math.max(slabBytes, bytes));
+      slabs.add(slab);
+      currentSlab = slabs.size() - 1;
+      slabCapacityBytes += slab.capacity();
+    }
+    ByteBuffer slab = slabs.get(currentSlab);
+    int offset = slab.position();
+    slab.position(offset + bytes);
+    return ((long) currentSlab << 32) | offset;
+  }
+
+  private ByteBuffer slab(long address) {
+    return slabs.get((int) (address >>> 32));
+  }
+
+  private static int offset(long address) {
+    return (int) address;
+  }
+
+  private static void put(ByteBuffer slab, int offset, byte[] bytes, int length) {
+    ByteBuffer target = slab.duplicate();
+    target.position(offset);
+    target.put(bytes, 0, length);
+  }
+
+  private static byte[] get(ByteBuffer slab, int offset, int length) {
+    byte[] bytes = new byte[length];
+    ByteBuffer source = slab.duplicate();
+    source.position(offset);
+    source.get(bytes);
+    return bytes;
+  }
+}
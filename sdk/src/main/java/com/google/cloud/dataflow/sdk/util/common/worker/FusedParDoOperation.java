@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util.common.worker;
+
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A linear chain of ParDo operations, each of which has a single output
+ * consumed only by the next, executed as a single operation.
+ *
+ * <p> Each element output by a step is passed straight to the next step's
+ * {@link ParDoFn}, skipping the next operation's bookkeeping; the state
+ * sampler still attributes time to each step. The element counts of the
+ * outputs between steps are added to their counters in batches, and are
+ * exact once the operation is finished.
+ */
+public class FusedParDoOperation extends ReceivingOperation {
+  /** Elements are added to the counters between steps in batches of this size. */
+  static final int ELEMENT_COUNT_BATCH_SIZE = 1000;
+
+  private final List<ParDoOperation> steps;
+  private final ParDoOperation first;
+
+  /**
+   * Fuses the given chain of ParDo operations, which must not have been
+   * started yet. The fused operation takes on the state names of the
+   * given operation name, which should be the name of the first step.
+   */
+  public FusedParDoOperation(String operationName,
+                             List<ParDoOperation> steps,
+                             String counterPrefix,
+                             CounterSet.AddCounterMutator addCounterMutator,
+                             StateSampler stateSampler) {
+    super(operationName, steps.get(steps.size() - 1).receivers,
+          counterPrefix, addCounterMutator, stateSampler);
+    Preconditions.checkArgument(steps.size() >= 2, "a fused chain needs at least two steps");
+    this.steps = ImmutableList.copyOf(steps);
+    this.first = steps.get(0);
+    for (int i = 0; i < steps.size() - 1; i++) {
+      ParDoOperation step = steps.get(i);
+      ParDoOperation next = steps.get(i + 1);
+      Preconditions.checkArgument(isFusible(step, next),
+          "step %s does not output only to the next step", i);
+      step.checkUnstarted();
+      OutputReceiver output = step.receivers[0];
+      output.replaceOutput(next, new FusedStep(next));
+      output.setElementCountBatchSize(ELEMENT_COUNT_BATCH_SIZE);
+    }
+  }
+
+  /**
+   * Returns true if the only consumer of the given operation's output is
+   * the given next operation, so that the two may be fused.
+   */
+  public static boolean isFusible(ParDoOperation operation, ParDoOperation next) {
+    return operation.receivers.length == 1
+        && operation.receivers[0] != null
+        && operation.receivers[0].getReceiverCount() == 1
+        && operation.receivers[0].getOnlyReceiver() == next;
+  }
+
+  /**
+   * Returns the fused ParDo operations, in execution order.
+   */
+  public List<ParDoOperation> getSteps() {
+    return steps;
+  }
+
+  @Override
+  public void start() throws Exception {
+    super.start();
+    // Start consumers before their producers.
+    for (int i = steps.size() - 1; i >= 0; i--) {
+      steps.get(i).start();
+    }
+  }
+
+  @Override
+  public void process(Object elem) throws Exception {
+    checkStarted();
+    int previousState = stateSampler.setState(first.processState);
+    try {
+      first.fn.processElement(elem);
+    } finally {
+      stateSampler.setState(previousState);
+    }
+  }
+
+  @Override
+  public void finish() throws Exception {
+    checkStarted();
+    // Finish producers before their consumers.
+    for (int i = 0; i < steps.size(); i++) {
+      steps.get(i).finish();
+      if (i < steps.size() - 1) {
+        steps.get(i).receivers[0].flushElementCount();
+      }
+    }
+    super.finish();
+  }
+
+  @Override
+  public boolean supportsRestart() {
+    return true;
+  }
+
+  /**
+   * Passes the elements output by one step to the {@link ParDoFn} of the
+   * next.
+   */
+  private class FusedStep implements Receiver {
+    private final ParDoOperation step;
+
+    FusedStep(ParDoOperation step) {
+      this.step = step;
+    }
+
+    @Override
+    public void process(Object elem) throws Exception {
+      int previousState = stateSampler.setState(step.processState);
+      try {
+        step.fn.processElement(elem);
+      } finally {
+        stateSampler.setState(previousState);
+      }
+    }
+  }
+}
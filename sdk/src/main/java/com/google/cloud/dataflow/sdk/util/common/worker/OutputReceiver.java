@@ -48,6 +48,9 @@ public class OutputReceiver implements Receiver {
   private int samplingToken = 0;
   private final int samplingTokenUpperBound = 1000000;  // Lowest sampling probability: 0.001%.
   private final int samplingCutoff = 10;
+  // Elements are added to elementCount in batches of this size.
+  private int elementCountBatchSize = 1;
+  private long unreportedElementCount = 0;
 
   public OutputReceiver(String outputName,
                         String counterPrefix,
@@ -103,10 +106,47 @@ public class OutputReceiver implements Receiver {
     outputs.add(receiver);
   }
 
+  /**
+   * Replaces a receiver that this OutputReceiver forwards to with another.
+   *
+   * @return true if {@code oldReceiver} was a receiver of this OutputReceiver
+   */
+  public boolean replaceOutput(Receiver oldReceiver, Receiver newReceiver) {
+    int index = outputs.indexOf(oldReceiver);
+    if (index == -1) {
+      return false;
+    }
+    outputs.set(index, newReceiver);
+    return true;
+  }
+
+  /**
+   * Adds elements to the element counter in batches of the given size
+   * rather than one at a time. The counter then lags behind by fewer than
+   * {@code batchSize} elements until {@link #flushElementCount} is called.
+   */
+  void setElementCountBatchSize(int batchSize) {
+    flushElementCount();
+    elementCountBatchSize = batchSize;
+  }
+
+  /**
+   * Adds any elements not yet added to the element counter.
+   */
+  void flushElementCount() {
+    if (unreportedElementCount > 0) {
+      elementCount.addValue(unreportedElementCount);
+      unreportedElementCount = 0;
+    }
+  }
+
   @Override
   public void process(Object elem) throws Exception {
     // Increment element counter.
-    elementCount.addValue(1L);
+    if (++unreportedElementCount >= elementCountBatchSize) {
+      elementCount.addValue(unreportedElementCount);
+      unreportedElementCount = 0;
+    }
 
     // Increment byte counter.
     boolean advanceByteCountObserver = false;
@@ -191,12 +231,10 @@ public class OutputReceiver implements Receiver {
     return randomGenerator.nextInt(samplingToken) < samplingCutoff;
   }
 
-  /** Invoked by tests only. */
   public int getReceiverCount() {
     return outputs.size();
   }
 
-  /** Invoked by tests only. */
   public Receiver getOnlyReceiver() {
     if (outputs.size() != 1) {
       throw new AssertionError("only one receiver expected");
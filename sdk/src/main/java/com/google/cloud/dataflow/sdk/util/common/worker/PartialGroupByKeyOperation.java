@@ -16,8 +16,17 @@
 
 package com.google.cloud.dataflow.sdk.util.common.worker;
 
+import com.google.cloud.dataflow.sdk.util.ExternalSorter;
+import com.google.cloud.dataflow.sdk.util.VarInt;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
-
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -64,6 +73,32 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
     public OutputT extract(K key, AccumT accumulator);
   }
 
+  /**
+   * Provides client-specific operations for encoding the keys and values of
+   * grouping table entries, so that the entries can be sorted and spilled.
+   */
+  public interface EntryCoder<K, V> {
+    /**
+     * Writes the encoding of the part of the key that is used for grouping.
+     * Keys that group together must have equal encodings.
+     */
+    public void encodeGroupingKey(K key, OutputStream out) throws Exception;
+    public byte[] encodeKey(K key) throws Exception;
+    public K decodeKey(byte[] encodedKey) throws Exception;
+    public byte[] encodeValue(V value) throws Exception;
+    public V decodeValue(byte[] encodedValue) throws Exception;
+  }
+
+  /**
+   * A reusable buffer for encoded grouping keys, whose contents can be read
+   * without copying them.
+   */
+  private static class GroupingKeyBuffer extends ByteArrayOutputStream {
+    byte[] array() {
+      return buf;
+    }
+  }
+
   /**
    * A wrapper around a byte[] that uses structural, value-based
    * equality rather than byte[]'s normal object identity.
@@ -211,6 +246,33 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
         stateSampler);
   }
 
+  /**
+   * Makes the grouping table sort the entries it evicts, rather than
+   * outputting them immediately, and merge entries with equal keys when the
+   * operation finishes, so that each key is output at most once per bundle.
+   * Evicted entries are encoded with the given {@link EntryCoder} and buffered
+   * in up to {@code sortBufferBytes} bytes of memory before being spilled to
+   * local temporary files.
+   */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public void enableSorting(EntryCoder entryCoder, long sortBufferBytes) {
+    groupingTable.enableSorting(entryCoder, sortBufferBytes);
+  }
+
+  /**
+   * Makes the grouping table store its keys, and its values when grouping,
+   * encoded outside the Java heap instead of as Java objects. The given
+   * {@link EntryCoder} encodes the keys and the input values. When combining,
+   * the accumulators stay decoded, so that adding a value does not re-encode
+   * its accumulator. The table's size is then the number of bytes allocated
+   * outside the heap, plus the estimated size of any accumulators, and the
+   * whole table is flushed when it is full.
+   */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public void enableOffHeapStorage(EntryCoder storageCoder) {
+    groupingTable.enableOffHeapStorage(storageCoder);
+  }
+
   @Override
   public void process(Object elem) throws Exception {
     try (StateSampler.ScopedState process =
@@ -282,6 +344,18 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
     private long size = 0;
     private Map<Object, GroupingTableEntry<K, InputT, AccumT>> table;
 
+    // If sorting is enabled, evicted entries are sorted by encoded grouping
+    // key and merged when the table is flushed.
+    private EntryCoder<K, AccumT> entryCoder;
+    private long sortBufferBytes;
+    private ExternalSorter sorter;
+
+    // If off-heap storage is enabled, entries are stored in the arena rather
+    // than in the table.
+    EntryCoder<K, ?> storageCoder;
+    private ByteArenaTable arena;
+    private final GroupingKeyBuffer groupingKeyBuffer = new GroupingKeyBuffer();
+
     public GroupingTable(long maxSize,
                           GroupingKeyCreator<? super K> groupingKeyCreator,
                           PairInfo pairInfo) {
@@ -300,6 +374,53 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
 
     public abstract GroupingTableEntry<K, InputT, AccumT> createTableEntry(K key) throws Exception;
 
+    /**
+     * Merges the values of entries that were evicted separately for the same key.
+     */
+    public abstract AccumT mergeValues(K key, List<AccumT> values) throws Exception;
+
+    public void enableSorting(EntryCoder<K, AccumT> entryCoder, long sortBufferBytes) {
+      this.entryCoder = entryCoder;
+      this.sortBufferBytes = sortBufferBytes;
+    }
+
+    public void enableOffHeapStorage(EntryCoder<K, ?> storageCoder) {
+      this.storageCoder = storageCoder;
+      // The whole capacity of a slab counts toward the table's size, so slabs
+      // are kept to a small fraction of its maximum size. The slabs kept for
+      // reuse once the arena is flushed were all in use before, so they stay
+      // within the same maximum size.
+      this.arena = new ByteArenaTable(
+          (int) Math.max(1, Math.min(ByteArenaTable.DEFAULT_SLAB_BYTES, maxSize / 16)),
+          maxSize);
+      this.size = arena.getBytes();
+    }
+
+    /**
+     * Adds a value to the given arena entry, which has the given key.
+     */
+    abstract void addToArena(ByteArenaTable arena, int entry, K key, InputT value)
+        throws Exception;
+
+    /**
+     * Returns the value of the given arena entry.
+     */
+    abstract AccumT getArenaValue(ByteArenaTable arena, int entry) throws Exception;
+
+    /**
+     * Returns the estimated number of bytes held on the heap for the entries
+     * of the arena.
+     */
+    long getArenaHeapBytes() {
+      return 0;
+    }
+
+    /**
+     * Releases anything held on the heap for the entries of the arena, after
+     * it has been cleared.
+     */
+    void arenaCleared() {}
+
     /**
      * Adds a pair to this table, possibly flushing some entries to output
      * if the table is full.
@@ -316,6 +437,10 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
      * to output if the table is full.
      */
     public void put(K key, InputT value, Receiver receiver) throws Exception {
+      if (arena != null) {
+        putEncoded(key, value, receiver);
+        return;
+      }
       Object groupingKey = groupingKeyCreator.createGroupingKey(key);
       GroupingTableEntry<K, InputT, AccumT> entry = table.get(groupingKey);
       if (entry == null) {
@@ -341,29 +466,117 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
           GroupingTableEntry<K, InputT, AccumT> toFlush = entries.next();
           entries.remove();
           size -= toFlush.getSize() + PER_KEY_OVERHEAD;
-          output(toFlush, receiver);
+          output(toFlush.getKey(), toFlush.getValue(), receiver);
         }
       }
     }
 
     /**
-     * Output the given entry. Does not actually remove it from the table or
-     * update this table's size.
+     * Adds the key and value to the arena, flushing the whole arena if it is
+     * full. Since the arena's bytes are only reclaimed when it is cleared,
+     * there is no partial eviction.
      */
-    private void output(GroupingTableEntry<K, InputT, AccumT> entry, Receiver receiver)
-        throws Exception {
-      receiver.process(pairInfo.makeOutputPair(entry.getKey(), entry.getValue()));
+    private void putEncoded(K key, InputT value, Receiver receiver) throws Exception {
+      // The grouping key is encoded into a reused buffer, so that looking up
+      // an existing key does not allocate.
+      groupingKeyBuffer.reset();
+      storageCoder.encodeGroupingKey(key, groupingKeyBuffer);
+      byte[] groupingKey = groupingKeyBuffer.array();
+      int length = groupingKeyBuffer.size();
+      int entry = arena.find(groupingKey, length);
+      if (entry == -1) {
+        entry = arena.insert(groupingKey, length, storageCoder.encodeKey(key));
+      }
+      addToArena(arena, entry, key, value);
+      size = arena.getBytes() + getArenaHeapBytes();
+      if (size >= maxSize) {
+        flushEncoded(receiver);
+      }
+    }
+
+    private void flushEncoded(Receiver receiver) throws Exception {
+      for (int entry = 0; entry < arena.size(); entry++) {
+        output(storageCoder.decodeKey(arena.getKey(entry)), getArenaValue(arena, entry),
+            receiver);
+      }
+      arena.clear();
+      arenaCleared();
+      size = arena.getBytes();
+    }
+
+    /**
+     * Output the given entry, or add it to the sorter if sorting is enabled.
+     * Does not actually remove it from the table or update this table's size.
+     */
+    private void output(K key, AccumT value, Receiver receiver) throws Exception {
+      if (entryCoder == null) {
+        receiver.process(pairInfo.makeOutputPair(key, value));
+        return;
+      }
+      if (sorter == null) {
+        sorter = new ExternalSorter(sortBufferBytes);
+      }
+      // The grouping key is the sort key; the full key (which may carry
+      // information, such as a timestamp, that is not used for grouping) is
+      // kept with the value.
+      byte[] encodedKey = entryCoder.encodeKey(key);
+      byte[] encodedValue = entryCoder.encodeValue(value);
+      ByteArrayOutputStream keyAndValue =
+          new ByteArrayOutputStream(VarInt.getLength(encodedKey.length)
+              + encodedKey.length + encodedValue.length);
+      VarInt.encode(encodedKey.length, keyAndValue);
+      keyAndValue.write(encodedKey);
+      keyAndValue.write(encodedValue);
+      ByteArrayOutputStream groupingKey = new ByteArrayOutputStream();
+      entryCoder.encodeGroupingKey(key, groupingKey);
+      sorter.add(groupingKey.toByteArray(), keyAndValue.toByteArray());
     }
 
     /**
      * Flushes all entries in this table to output.
      */
     public void flush(Receiver output) throws Exception {
+      if (arena != null) {
+        flushEncoded(output);
+      }
       for (GroupingTableEntry<K, InputT, AccumT> entry : table.values()) {
-        output(entry, output);
+        output(entry.getKey(), entry.getValue(), output);
       }
       table.clear();
-      size = 0;
+      size = arena == null ? 0 : arena.getBytes();
+      if (sorter != null) {
+        try {
+          mergeSorted(sorter.sortedIterator(), output);
+        } finally {
+          sorter.close();
+          sorter = null;
+        }
+      }
+    }
+
+    /**
+     * Outputs one pair per grouping key, merging the values of consecutive
+     * sorted entries with equal grouping keys.
+     */
+    private void mergeSorted(Iterator<KV<byte[], byte[]>> sorted, Receiver output)
+        throws Exception {
+      PeekingIterator<KV<byte[], byte[]>> entries = Iterators.peekingIterator(sorted);
+      while (entries.hasNext()) {
+        byte[] groupingKey = entries.peek().getKey();
+        K key = null;
+        List<AccumT> values = new ArrayList<>();
+        while (entries.hasNext() && Arrays.equals(groupingKey, entries.peek().getKey())) {
+          ByteArrayInputStream keyAndValue = new ByteArrayInputStream(entries.next().getValue());
+          byte[] encodedKey = new byte[VarInt.decodeInt(keyAndValue)];
+          ByteStreams.readFully(keyAndValue, encodedKey);
+          if (key == null) {
+            key = entryCoder.decodeKey(encodedKey);
+          }
+          values.add(entryCoder.decodeValue(ByteStreams.toByteArray(keyAndValue)));
+        }
+        AccumT value = values.size() == 1 ? values.get(0) : mergeValues(key, values);
+        output.process(pairInfo.makeOutputPair(key, value));
+      }
     }
 
   }
@@ -406,6 +619,33 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
         }
       };
     }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    void addToArena(ByteArenaTable arena, int entry, K key, V value) throws Exception {
+      // Values are appended without decoding the values already in the entry.
+      arena.appendValue(entry, ((EntryCoder<K, V>) storageCoder).encodeValue(value));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    List<V> getArenaValue(ByteArenaTable arena, int entry) throws Exception {
+      EntryCoder<K, V> valueCoder = (EntryCoder<K, V>) storageCoder;
+      List<V> values = new ArrayList<>(arena.getNumValues(entry));
+      for (byte[] value : arena.getValues(entry)) {
+        values.add(valueCoder.decodeValue(value));
+      }
+      return values;
+    }
+
+    @Override
+    public List<V> mergeValues(K key, List<List<V>> values) {
+      List<V> merged = new ArrayList<>();
+      for (List<V> value : values) {
+        merged.addAll(value);
+      }
+      return merged;
+    }
   }
 
   /**
@@ -414,10 +654,18 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
   public static class CombiningGroupingTable<K, InputT, AccumT>
       extends GroupingTable<K, InputT, AccumT> {
 
+    private static final int INITIAL_ARENA_ACCUMULATORS = 1 << 8;
+
     private final Combiner<? super K, InputT, AccumT, ?> combiner;
     private final SizeEstimator<? super K> keySizer;
     private final SizeEstimator<? super AccumT> accumulatorSizer;
 
+    // The accumulators of the arena entries, by entry number, and their sizes.
+    private Object[] arenaAccumulators = new Object[0];
+    private long[] arenaAccumulatorSizes = new long[0];
+    private int numArenaAccumulators = 0;
+    private long arenaAccumulatorBytes = 0;
+
     public CombiningGroupingTable(long maxSize,
                                   GroupingKeyCreator<? super K> groupingKeyCreator,
                                   PairInfo pairInfo,
@@ -451,6 +699,50 @@ public class PartialGroupByKeyOperation extends ReceivingOperation {
         }
       };
     }
+
+    @Override
+    void addToArena(ByteArenaTable arena, int entry, K key, InputT value) throws Exception {
+      // Only the key is stored in the arena. The accumulator is kept decoded,
+      // by entry number, so that it is only encoded if it is sorted on output.
+      if (entry == numArenaAccumulators) {
+        if (entry == arenaAccumulators.length) {
+          int capacity = Math.max(2 * arenaAccumulators.length, INITIAL_ARENA_ACCUMULATORS);
+          arenaAccumulators = Arrays.copyOf(arenaAccumulators, capacity);
+          arenaAccumulatorSizes = Arrays.copyOf(arenaAccumulatorSizes, capacity);
+        }
+        arenaAccumulators[entry] = combiner.createAccumulator(key);
+        numArenaAccumulators++;
+      }
+      AccumT accumulator = combiner.add(key, getArenaValue(arena, entry), value);
+      arenaAccumulators[entry] = accumulator;
+      long accumulatorSize = accumulatorSizer.estimateSize(accumulator);
+      arenaAccumulatorBytes += accumulatorSize - arenaAccumulatorSizes[entry];
+      arenaAccumulatorSizes[entry] = accumulatorSize;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    AccumT getArenaValue(ByteArenaTable arena, int entry) throws Exception {
+      return (AccumT) arenaAccumulators[entry];
+    }
+
+    @Override
+    long getArenaHeapBytes() {
+      return arenaAccumulatorBytes + (long) (BYTES_PER_JVM_WORD + 8) * arenaAccumulators.length;
+    }
+
+    @Override
+    void arenaCleared() {
+      arenaAccumulators = new Object[0];
+      arenaAccumulatorSizes = new long[0];
+      numArenaAccumulators = 0;
+      arenaAccumulatorBytes = 0;
+    }
+
+    @Override
+    public AccumT mergeValues(K key, List<AccumT> accumulators) {
+      return combiner.merge(key, accumulators);
+    }
   }
 
 
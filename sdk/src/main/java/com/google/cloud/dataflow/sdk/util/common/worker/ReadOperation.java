@@ -21,12 +21,15 @@ import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.
 import com.google.cloud.dataflow.sdk.util.common.Counter;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -36,6 +39,10 @@ import java.util.concurrent.atomic.AtomicReference;
  * <p>
  * Its start() method iterates through all elements of the source
  * and emits them on its output.
+ * <p>
+ * Optionally, the source is read ahead on a separate thread into a bounded
+ * buffer, so that reading overlaps with processing the elements already read;
+ * see {@link #setReadAheadElements}.
  */
 public class ReadOperation extends Operation {
   private static final Logger LOG = LoggerFactory.getLogger(ReadOperation.class);
@@ -77,6 +84,11 @@ public class ReadOperation extends Operation {
    */
   private AtomicBoolean isProgressUpdateRequested = new AtomicBoolean(true);
 
+  /**
+   * The number of elements that may be read ahead of the element being processed,
+   * or 0 to read and process elements on the same thread.
+   */
+  private int readAheadElements = 0;
 
   public ReadOperation(String operationName, Reader<?> reader, OutputReceiver[] receivers,
       String counterPrefix, CounterSet.AddCounterMutator addCounterMutator,
@@ -105,6 +117,17 @@ public class ReadOperation extends Operation {
     progressUpdatePeriodMs = millis;
   }
 
+  /**
+   * Controls how many elements may be read ahead of the element being processed,
+   * by a separate thread. A value of zero means elements are read by the thread
+   * processing them, as they are for readers that do not
+   * {@link Reader#supportsReadAhead support read-ahead}. Ignored after starting.
+   */
+  public void setReadAheadElements(int elements) {
+    Preconditions.checkArgument(elements >= 0, "elements must not be negative");
+    readAheadElements = elements;
+  }
+
   protected String bytesCounterName(String counterPrefix, String operationName) {
     return operationName + "-ByteCount";
   }
@@ -164,24 +187,28 @@ public class ReadOperation extends Operation {
         synchronized (sourceIteratorLock) {
           setProgressFromIterator();
         }
-        while (true) {
-          Object value;
-          // Stop position update request comes concurrently.
-          // Accesses to iterator need to be synchronized.
-          try (StateSampler.ScopedState read = stateSampler.scopedState(readState)) {
-            assert read != null;
-            synchronized (sourceIteratorLock) {
-              if (!readerIterator.hasNext()) {
-                break;
-              }
-              value = readerIterator.next();
+        if (readAheadElements > 0 && reader.supportsReadAhead()) {
+          runReadAheadLoop(receiver);
+        } else {
+          while (true) {
+            Object value;
+            // Stop position update request comes concurrently.
+            // Accesses to iterator need to be synchronized.
+            try (StateSampler.ScopedState read = stateSampler.scopedState(readState)) {
+              assert read != null;
+              synchronized (sourceIteratorLock) {
+                if (!readerIterator.hasNext()) {
+                  break;
+                }
+                value = readerIterator.next();
 
-              if (isProgressUpdateRequested.getAndSet(false) || progressUpdatePeriodMs == 0) {
-                setProgressFromIterator();
+                if (isProgressUpdateRequested.getAndSet(false) || progressUpdatePeriodMs == 0) {
+                  setProgressFromIterator();
+                }
               }
             }
+            receiver.process(value);
           }
-          receiver.process(value);
         }
         synchronized (sourceIteratorLock) {
           setProgressFromIterator();
@@ -198,6 +225,49 @@ public class ReadOperation extends Operation {
     }
   }
 
+  /**
+   * Processes the elements read by a {@link ReadAhead} thread.
+   *
+   * <p> Progress is taken by the reading thread together with the element it
+   * was taken after, and only published once that element is processed, so it
+   * never runs ahead of processing. Dynamic splits remain correct because the
+   * iterator refuses to split before the elements it has already returned, all
+   * of which will be processed.
+   */
+  private void runReadAheadLoop(Receiver receiver) throws Exception {
+    ReadAhead readAhead = new ReadAhead(new ArrayBlockingQueue<ReadAheadEntry>(readAheadElements));
+    Thread readAheadThread = new Thread(readAhead, "ReadOperation-read-ahead");
+    readAheadThread.setDaemon(true);
+    readAheadThread.start();
+    try {
+      while (true) {
+        ReadAheadEntry entry;
+        try (StateSampler.ScopedState read = stateSampler.scopedState(readState)) {
+          assert read != null;
+          entry = readAhead.buffer.take();
+        }
+        if (entry == END_OF_INPUT) {
+          break;
+        }
+        if (entry.failure != null) {
+          Throwables.propagateIfPossible(entry.failure, Exception.class);
+          throw new RuntimeException(entry.failure);
+        }
+        if (entry.hasProgress) {
+          progress.set(entry.progress);
+        }
+        receiver.process(entry.value);
+      }
+    } finally {
+      // Stop the reading thread, if it is still running, making room for the
+      // element it may be blocked on adding.
+      readAhead.cancelled = true;
+      readAhead.buffer.clear();
+      readAheadThread.interrupt();
+      readAheadThread.join();
+    }
+  }
+
   private void setProgressFromIterator() {
     try {
       progress.set(readerIterator.getProgress());
@@ -209,6 +279,84 @@ public class ReadOperation extends Operation {
     }
   }
 
+  /**
+   * An element read ahead of processing, along with the progress of the
+   * iterator just after reading it, if requested, or a failure to read.
+   */
+  private static class ReadAheadEntry {
+    final Object value;
+    final boolean hasProgress;
+    final Reader.Progress progress;
+    final Throwable failure;
+
+    ReadAheadEntry(Object value, boolean hasProgress, Reader.Progress progress,
+        Throwable failure) {
+      this.value = value;
+      this.hasProgress = hasProgress;
+      this.progress = progress;
+      this.failure = failure;
+    }
+  }
+
+  private static final ReadAheadEntry END_OF_INPUT = new ReadAheadEntry(null, false, null, null);
+
+  /**
+   * Reads the elements of the reader iterator into a bounded buffer, followed by
+   * {@link #END_OF_INPUT} or a failure.
+   */
+  private class ReadAhead implements Runnable {
+    final BlockingQueue<ReadAheadEntry> buffer;
+    volatile boolean cancelled = false;
+
+    ReadAhead(BlockingQueue<ReadAheadEntry> buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void run() {
+      ReadAheadEntry last;
+      try {
+        while (!cancelled) {
+          Object value;
+          boolean hasProgress = false;
+          Reader.Progress valueProgress = null;
+          synchronized (sourceIteratorLock) {
+            if (!readerIterator.hasNext()) {
+              break;
+            }
+            value = readerIterator.next();
+
+            if (isProgressUpdateRequested.getAndSet(false) || progressUpdatePeriodMs == 0) {
+              try {
+                valueProgress = readerIterator.getProgress();
+                hasProgress = true;
+              } catch (UnsupportedOperationException e) {
+                // Ignore: same semantics as null.
+              } catch (Exception e) {
+                // This is not a normal situation, but should not kill the task.
+                LOG.warn("Progress estimation failed", e);
+              }
+            }
+          }
+          buffer.put(new ReadAheadEntry(value, hasProgress, valueProgress, null));
+        }
+        last = END_OF_INPUT;
+      } catch (InterruptedException e) {
+        // Cancelled by the processing thread.
+        return;
+      } catch (Throwable t) {
+        last = new ReadAheadEntry(null, false, null, t);
+      }
+      if (!cancelled) {
+        try {
+          buffer.put(last);
+        } catch (InterruptedException e) {
+          // Cancelled by the processing thread.
+        }
+      }
+    }
+  }
+
   /**
    * Returns a (possibly slightly stale) value of the progress of the task.
    * Guaranteed to not block indefinitely.
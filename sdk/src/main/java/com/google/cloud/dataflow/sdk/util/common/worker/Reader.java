@@ -203,4 +203,13 @@ public abstract class Reader<T> extends Observable {
   public boolean supportsRestart() {
     return false;
   }
+
+  /**
+   * Returns whether the elements of this Reader may be read ahead of their
+   * processing, by another thread. Readers whose elements are views over the
+   * state of their iterator, such as GroupingShuffleReader, return false.
+   */
+  public boolean supportsReadAhead() {
+    return true;
+  }
 }
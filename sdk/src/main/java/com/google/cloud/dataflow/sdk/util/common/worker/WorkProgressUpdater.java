@@ -21,10 +21,12 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
@@ -40,6 +42,10 @@ import javax.annotation.concurrent.NotThreadSafe;
  * and monitoring staleness, the interval between two consecutive
  * updates is also bound by {@link #DEFAULT_MIN_REPORTING_INTERVAL_MILLIS} and
  * {@link #DEFAULT_MAX_REPORTING_INTERVAL_MILLIS}.
+ *
+ * <p> Updates are scheduled on an executor that may be shared by the
+ * updaters of all work items of a worker; an updater only creates and
+ * shuts down its own executor if none is given.
  */
 @NotThreadSafe
 public abstract class WorkProgressUpdater {
@@ -69,6 +75,20 @@ public abstract class WorkProgressUpdater {
   /** Executor used to schedule work progress updates. */
   private final ScheduledExecutorService executor;
 
+  /** Whether the executor was created by, and is shut down by, this updater. */
+  private final boolean ownsExecutor;
+
+  /**
+   * Guards {@link #stopped} and {@link #nextUpdate}, and is held while
+   * reporting progress, so that reporting does not stop midway.
+   */
+  private final Object lock = new Object();
+
+  private boolean stopped = false;
+
+  /** The next scheduled work progress update, if any. */
+  private ScheduledFuture<?> nextUpdate;
+
   /** The lease duration to request from the external worker service. */
   protected long requestedLeaseDurationMs;
 
@@ -83,9 +103,31 @@ public abstract class WorkProgressUpdater {
   protected Reader.DynamicSplitResult dynamicSplitResultToReport;
 
   public WorkProgressUpdater(WorkExecutor worker) {
+    this(worker, null);
+  }
+
+  /**
+   * Creates an updater that schedules its updates on the given executor,
+   * which it does not shut down, or on an executor of its own if
+   * {@code executor} is null.
+   */
+  public WorkProgressUpdater(WorkExecutor worker, @Nullable ScheduledExecutorService executor) {
     this.worker = worker;
-    this.executor = Executors.newSingleThreadScheduledExecutor(
+    this.ownsExecutor = executor == null;
+    this.executor = ownsExecutor ? newExecutor(1) : executor;
+  }
+
+  /**
+   * Returns a new executor with the given number of daemon threads, suitable
+   * for scheduling the progress updates of several work items.
+   */
+  public static ScheduledExecutorService newExecutor(int numThreads) {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(numThreads,
         new ThreadFactoryBuilder().setDaemon(true).setNameFormat("WorkProgressUpdater-%d").build());
+    // Drop the updates of stopped updaters right away, rather than holding on
+    // to their work executors until the updates were due.
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
   }
 
   /**
@@ -113,8 +155,15 @@ public abstract class WorkProgressUpdater {
     // thread with a sleeper.  Also unify with success/failure reporting.
 
     // Wait until there are no more progress updates in progress, then
-    // shut down.
-    synchronized (executor) {
+    // cancel the next one.
+    synchronized (lock) {
+      stopped = true;
+      if (nextUpdate != null) {
+        nextUpdate.cancel(false);
+        nextUpdate = null;
+      }
+    }
+    if (ownsExecutor) {
       executor.shutdownNow();
     }
 
@@ -158,22 +207,24 @@ public abstract class WorkProgressUpdater {
    * Schedules the next work progress update.
    */
   private void scheduleNextUpdate() {
-    if (executor.isShutdown()) {
-      return;
-    }
-    executor.schedule(new Runnable() {
-      @Override
-      public void run() {
-        // Don't shut down while reporting progress.
-        synchronized (executor) {
-          if (executor.isShutdown()) {
-            return;
+    synchronized (lock) {
+      if (stopped) {
+        return;
+      }
+      nextUpdate = executor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          // Don't stop while reporting progress.
+          synchronized (lock) {
+            if (stopped) {
+              return;
+            }
+            reportProgress();
           }
-          reportProgress();
         }
-      }
-    },
-        progressReportIntervalMs, TimeUnit.MILLISECONDS);
+      },
+          progressReportIntervalMs, TimeUnit.MILLISECONDS);
+    }
     LOG.debug("Next work progress update for work item {} scheduled to occur in {} ms.",
         workString(), progressReportIntervalMs);
   }
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.coders;
+
+import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.SUM;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.VarInt;
+import com.google.cloud.dataflow.sdk.util.common.Counter;
+import com.google.cloud.dataflow.sdk.util.common.ElementByteSizeObserver;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/** Unit tests for {@link BlockedIterableCoder}. */
+@RunWith(JUnit4.class)
+public class BlockedIterableCoderTest {
+
+  private static final List<Iterable<Integer>> TEST_VALUES = Arrays.<Iterable<Integer>>asList(
+      Collections.<Integer>emptyList(),
+      Collections.<Integer>singletonList(13),
+      Arrays.<Integer>asList(1, 2, 3, 4),
+      new LinkedList<Integer>(Arrays.asList(7, 6, 5)),
+      Iterables.unmodifiableIterable(Arrays.asList(7, 6, 5)));
+
+  /** A coder of integers that fails to decode them. */
+  private static class UndecodableCoder extends AtomicCoder<Integer> {
+    private static final long serialVersionUID = 0;
+
+    @Override
+    public void encode(Integer value, OutputStream outStream, Context context)
+        throws IOException {
+      VarIntCoder.of().encode(value, outStream, context);
+    }
+
+    @Override
+    public Integer decode(InputStream inStream, Context context) throws IOException {
+      throw new CoderException("decoded an element");
+    }
+  }
+
+  @Test
+  public void testDecodeEncodeContentsInSameOrder() throws Exception {
+    Coder<Iterable<Integer>> coder = BlockedIterableCoder.of(VarIntCoder.of());
+    for (Iterable<Integer> value : TEST_VALUES) {
+      CoderProperties.<Integer, Iterable<Integer>>coderDecodeEncodeContentsInSameOrder(
+          coder, value);
+    }
+  }
+
+  @Test
+  public void testEncodeInBlocks() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    VarInt.encode(3, out);
+    VarInt.encode(3, out);
+    for (int i : Arrays.asList(7, 6, 5)) {
+      VarInt.encode(i, out);
+    }
+    VarInt.encode(0, out);
+
+    Coder<Iterable<Integer>> coder = BlockedIterableCoder.of(VarIntCoder.of());
+    Iterable<Integer> iterable = Iterables.unmodifiableIterable(Arrays.asList(7, 6, 5));
+    assertArrayEquals(out.toByteArray(), CoderUtils.encodeToByteArray(coder, iterable));
+    assertEquals(Arrays.asList(7, 6, 5),
+        Lists.newArrayList(CoderUtils.decodeFromByteArray(coder, out.toByteArray())));
+  }
+
+  @Test
+  public void testEncodeLargeIterableNested() throws Exception {
+    List<byte[]> values = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      byte[] value = new byte[BlockedIterableCoder.BLOCK_BYTES / 3];
+      Arrays.fill(value, (byte) i);
+      values.add(value);
+    }
+    BlockedIterableCoder<byte[]> coder = BlockedIterableCoder.of(ByteArrayCoder.of());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    coder.encode(Iterables.unmodifiableIterable(values), out, Coder.Context.NESTED);
+    VarIntCoder.of().encode(42, out, Coder.Context.NESTED);
+
+    InputStream in = new ByteArrayInputStream(out.toByteArray());
+    Iterable<byte[]> decoded = coder.decode(in, Coder.Context.NESTED);
+    assertEquals(42, (int) VarIntCoder.of().decode(in, Coder.Context.NESTED));
+
+    assertEquals(10, ((Collection<byte[]>) decoded).size());
+    // The iterable can be iterated more than once.
+    for (int pass = 0; pass < 2; pass++) {
+      List<byte[]> actual = Lists.newArrayList(decoded);
+      assertEquals(values.size(), actual.size());
+      for (int i = 0; i < values.size(); i++) {
+        assertArrayEquals(values.get(i), actual.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testSizeAndEncodingDoNotDecodeElements() throws Exception {
+    byte[] encoded = CoderUtils.encodeToByteArray(
+        BlockedIterableCoder.of(VarIntCoder.of()), Arrays.asList(1, 2, 3));
+
+    BlockedIterableCoder<Integer> coder = BlockedIterableCoder.of(new UndecodableCoder());
+    Iterable<Integer> decoded = CoderUtils.decodeFromByteArray(coder, encoded);
+    assertEquals(3, ((Collection<Integer>) decoded).size());
+    assertArrayEquals(encoded, CoderUtils.encodeToByteArray(coder, decoded));
+
+    assertTrue(coder.isRegisterByteSizeObserverCheap(decoded, Coder.Context.OUTER));
+    Counter<Long> bytes = Counter.longs("bytes", SUM);
+    ElementByteSizeObserver observer = new ElementByteSizeObserver(bytes);
+    coder.registerByteSizeObserver(decoded, observer, Coder.Context.OUTER);
+    observer.advance();
+    assertEquals(encoded.length, (long) bytes.getAggregate());
+
+    try {
+      decoded.iterator().next();
+      fail("Expected the element to be decoded while iterating");
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause() instanceof CoderException);
+    }
+  }
+
+  @Test
+  public void testCoderSerializable() throws Exception {
+    CoderProperties.coderSerializable(BlockedIterableCoder.of(VarIntCoder.of()));
+  }
+
+  @Test
+  public void testGetInstanceComponents() {
+    assertEquals(Arrays.<Object>asList(2),
+        BlockedIterableCoder.getInstanceComponents(Arrays.asList(2, 58, 99, 5)));
+    assertEquals(null,
+        BlockedIterableCoder.getInstanceComponents(Collections.<Integer>emptyList()));
+  }
+}
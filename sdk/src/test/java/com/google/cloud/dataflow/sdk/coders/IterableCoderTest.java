@@ -16,15 +16,21 @@
 
 package com.google.cloud.dataflow.sdk.coders;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
 import com.google.cloud.dataflow.sdk.testing.CoderProperties;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.VarInt;
+import com.google.common.collect.Iterables;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -49,6 +55,25 @@ public class IterableCoderTest {
     }
   }
 
+  @Test
+  public void testEncodeUnknownSizeIterableWithSentinels() throws Exception {
+    // The service and other workers decode this encoding, so it must not change.
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream dataOut = new DataOutputStream(out);
+    dataOut.writeInt(-1);
+    for (int i : Arrays.asList(7, 6, 5)) {
+      dataOut.writeBoolean(true);
+      VarInt.encode(i, dataOut);
+    }
+    dataOut.writeBoolean(false);
+
+    Coder<Iterable<Integer>> coder = IterableCoder.of(VarIntCoder.of());
+    Iterable<Integer> iterable = Iterables.unmodifiableIterable(Arrays.asList(7, 6, 5));
+    assertArrayEquals(out.toByteArray(), CoderUtils.encodeToByteArray(coder, iterable));
+    assertEquals(Arrays.asList(7, 6, 5),
+        CoderUtils.decodeFromByteArray(coder, out.toByteArray()));
+  }
+
   @Test
   public void testGetInstanceComponentsNonempty() {
     Iterable<Integer> iterable = Arrays.asList(2, 58, 99, 5);
@@ -426,6 +426,30 @@ public class FileBasedSourceTest {
     assertThat(expectedResults, containsInAnyOrder(readFromSource(source).toArray()));
   }
 
+  @Test
+  public void testSplitFilePatternLooksUpEachSizeOnce() throws Exception {
+    IOChannelFactory mockIOFactory = Mockito.mock(IOChannelFactory.class);
+    String pattern = "sized://test*";
+    when(mockIOFactory.match(pattern)).thenReturn(
+        ImmutableList.of("sized://test1", "sized://test2"));
+    when(mockIOFactory.getSizeBytes("sized://test1")).thenReturn(100L);
+    when(mockIOFactory.getSizeBytes("sized://test2")).thenReturn(200L);
+    when(mockIOFactory.isReadSeekEfficient(Mockito.anyString())).thenReturn(true);
+    IOChannelUtils.setIOFactory("sized", mockIOFactory);
+
+    TestFileBasedSource source = new TestFileBasedSource(pattern, 1, null);
+    List<? extends FileBasedSource<String>> sources = source.splitIntoBundles(1024, null);
+
+    assertEquals(2, sources.size());
+    assertEquals("sized://test1", sources.get(0).getFileOrPatternSpec());
+    assertEquals(100, sources.get(0).getEndOffset());
+    assertEquals("sized://test2", sources.get(1).getFileOrPatternSpec());
+    assertEquals(200, sources.get(1).getEndOffset());
+    // The sizes returned with the matched files are used for splitting.
+    Mockito.verify(mockIOFactory, Mockito.times(1)).getSizeBytes("sized://test1");
+    Mockito.verify(mockIOFactory, Mockito.times(1)).getSizeBytes("sized://test2");
+  }
+
   @Test
   public void testReadRangeAtStart() throws IOException {
     List<String> data = createStringDataset(3, 50);
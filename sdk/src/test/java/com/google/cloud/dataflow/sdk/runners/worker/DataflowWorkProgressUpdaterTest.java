@@ -31,6 +31,7 @@ import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.
 import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.MIN;
 import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.SUM;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.argThat;
@@ -57,6 +58,7 @@ import com.google.cloud.dataflow.sdk.util.common.worker.MapTaskExecutor;
 import com.google.cloud.dataflow.sdk.util.common.worker.Operation;
 import com.google.cloud.dataflow.sdk.util.common.worker.Reader;
 import com.google.cloud.dataflow.sdk.util.common.worker.StateSampler;
+import com.google.cloud.dataflow.sdk.util.common.worker.WorkProgressUpdater;
 
 import org.hamcrest.Description;
 import org.joda.time.Duration;
@@ -75,6 +77,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.annotation.Nullable;
 
@@ -297,6 +300,35 @@ public class DataflowWorkProgressUpdaterTest {
             new ExpectedDataflowWorkItemStatus().withDynamicSplitAtPosition(positionAtIndex(2L))));
   }
 
+  // Verifies that updaters sharing an executor report progress on it, and leave it running.
+  @Test(timeout = 2000)
+  public void workProgressUpdaterUsesSharedExecutor() throws Exception {
+    when(workUnitClient.reportWorkItemStatus(any(WorkItemStatus.class)))
+        .thenReturn(generateServiceState(nowMillis + 2000, 1000, null, 2L));
+    setUpProgress(approximateProgressAtIndex(1L));
+    ScheduledExecutorService executor = WorkProgressUpdater.newExecutor(1);
+    progressUpdater = new DataflowWorkProgressUpdater(
+        workItem, worker, workUnitClient, options, executor) {
+      @Override
+      protected long getMinReportingInterval() {
+        return 100;
+      }
+
+      @Override
+      protected long getLeaseRenewalLatencyMargin() {
+        return 100;
+      }
+    };
+    progressUpdater.startReportingProgress();
+    verify(workUnitClient, timeout(1000))
+        .reportWorkItemStatus(argThat(
+            new ExpectedDataflowWorkItemStatus().withProgress(approximateProgressAtIndex(1L))));
+    progressUpdater.stopReportingProgress();
+
+    assertFalse(executor.isShutdown());
+    executor.shutdown();
+  }
+
   private void setUpCounters(int n) {
     counters.clear();
     for (int i = 0; i < n; i++) {
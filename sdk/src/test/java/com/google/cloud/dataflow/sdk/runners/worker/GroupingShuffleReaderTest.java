@@ -42,11 +42,16 @@ import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
 import com.google.cloud.dataflow.sdk.util.BatchModeExecutionContext;
 import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.WindowedValue;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.Reiterable;
 import com.google.cloud.dataflow.sdk.util.common.worker.ExecutorTestUtils;
+import com.google.cloud.dataflow.sdk.util.common.worker.OutputReceiver;
+import com.google.cloud.dataflow.sdk.util.common.worker.ReadOperation;
 import com.google.cloud.dataflow.sdk.util.common.worker.Reader;
+import com.google.cloud.dataflow.sdk.util.common.worker.Receiver;
 import com.google.cloud.dataflow.sdk.util.common.worker.ShuffleEntry;
 import com.google.cloud.dataflow.sdk.util.common.worker.Sink;
+import com.google.cloud.dataflow.sdk.util.common.worker.StateSampler;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.common.collect.Lists;
 
@@ -57,6 +62,7 @@ import org.junit.runners.JUnit4;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -256,6 +262,71 @@ public class GroupingShuffleReaderTest {
     runTestReadFromShuffle(KVS, ValuesToRead.SKIP_VALUES);
   }
 
+  @Test
+  public void testReadOperationWithReadAheadReadsAllValues() throws Exception {
+    Coder<WindowedValue<KV<Integer, String>>> sinkElemCoder = WindowedValue.getFullCoder(
+        KvCoder.of(BigEndianIntegerCoder.of(), StringUtf8Coder.of()), IntervalWindow.getCoder());
+    ShuffleSink<KV<Integer, String>> shuffleSink = new ShuffleSink<>(
+        PipelineOptionsFactory.create(), null, ShuffleSink.ShuffleKind.GROUP_KEYS, sinkElemCoder);
+    TestShuffleWriter shuffleWriter = new TestShuffleWriter();
+    try (Sink.SinkWriter<WindowedValue<KV<Integer, String>>> shuffleSinkWriter =
+        shuffleSink.writer(shuffleWriter)) {
+      for (KV<Integer, List<String>> kvs : KVS) {
+        for (String value : kvs.getValue()) {
+          shuffleSinkWriter.add(
+              WindowedValue.of(KV.of(kvs.getKey(), value), timestamp, Lists.newArrayList(window)));
+        }
+      }
+    }
+    final TestShuffleReader shuffleReader = new TestShuffleReader();
+    for (ShuffleEntry record : shuffleWriter.getRecords()) {
+      shuffleReader.addEntry(record);
+    }
+
+    final BatchModeExecutionContext context = new BatchModeExecutionContext();
+    GroupingShuffleReader<Integer, String> groupingShuffleReader =
+        new GroupingShuffleReader<Integer, String>(
+            PipelineOptionsFactory.create(), null, null, null,
+            WindowedValue.getFullCoder(
+                KvCoder.of(BigEndianIntegerCoder.of(), IterableCoder.of(StringUtf8Coder.of())),
+                IntervalWindow.getCoder()),
+            context) {
+          @Override
+          public ReaderIterator<WindowedValue<KV<Integer, Reiterable<String>>>> iterator()
+              throws IOException {
+            return iterator(shuffleReader);
+          }
+        };
+
+    // The values of each key are iterated while processing the key, which
+    // must not race with reading the following keys.
+    final List<KV<Integer, List<String>>> actual = new ArrayList<>();
+    final List<Object> contextKeys = new ArrayList<>();
+    CounterSet counterSet = new CounterSet();
+    OutputReceiver receiver = new OutputReceiver("out", "test-", counterSet.getAddCounterMutator());
+    receiver.addOutput(new Receiver() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public void process(Object elem) {
+          KV<Integer, Reiterable<String>> kv =
+              ((WindowedValue<KV<Integer, Reiterable<String>>>) elem).getValue();
+          List<String> values = Lists.newArrayList(kv.getValue());
+          actual.add(KV.of(kv.getKey(), values));
+          contextKeys.add(context.getKey());
+        }
+      });
+    ReadOperation readOperation = new ReadOperation("ReadOperation", groupingShuffleReader,
+        new OutputReceiver[] {receiver}, "test-", counterSet.getAddCounterMutator(),
+        new StateSampler("test-", counterSet.getAddCounterMutator()));
+    readOperation.setReadAheadElements(2);
+
+    readOperation.start();
+    readOperation.finish();
+
+    assertEquals(KVS, actual);
+    assertEquals(Arrays.<Object>asList(1, 2, 3, 4, 5), contextKeys);
+  }
+
   static byte[] fabricatePosition(int shard, @Nullable byte[] key) throws Exception {
     ByteArrayOutputStream os = new ByteArrayOutputStream();
     DataOutputStream dos = new DataOutputStream(os);
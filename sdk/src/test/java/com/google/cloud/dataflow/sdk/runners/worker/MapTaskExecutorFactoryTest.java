@@ -56,6 +56,7 @@ import com.google.cloud.dataflow.sdk.util.common.Counter;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.util.common.worker.ExecutorTestUtils.TestOperation;
 import com.google.cloud.dataflow.sdk.util.common.worker.FlattenOperation;
+import com.google.cloud.dataflow.sdk.util.common.worker.FusedParDoOperation;
 import com.google.cloud.dataflow.sdk.util.common.worker.MapTaskExecutor;
 import com.google.cloud.dataflow.sdk.util.common.worker.Operation;
 import com.google.cloud.dataflow.sdk.util.common.worker.ParDoOperation;
@@ -139,6 +140,31 @@ public class MapTaskExecutorFactoryTest {
         counterSet);
   }
 
+  @Test
+  public void testFuseParDoOperations() throws Exception {
+    List<ParallelInstruction> instructions = Arrays.asList(createReadInstruction("Read"),
+        createParDoInstruction(0, 0, "DoFn1"), createParDoInstruction(1, 0, "DoFn2"),
+        createParDoInstruction(2, 0, "DoFn3"), createWriteInstruction(3, 0, "Write"));
+
+    MapTask mapTask = new MapTask();
+    mapTask.setStageName("test");
+    mapTask.setInstructions(instructions);
+
+    try (
+        MapTaskExecutor executor = MapTaskExecutorFactory.create(
+            PipelineOptionsFactory.create(), mapTask, new BatchModeExecutionContext())) {
+      assertEquals(3, executor.operations.size());
+      assertThat(executor.operations.get(0), instanceOf(ReadOperation.class));
+      assertThat(executor.operations.get(1), instanceOf(FusedParDoOperation.class));
+      assertThat(executor.operations.get(2), instanceOf(WriteOperation.class));
+
+      FusedParDoOperation fused = (FusedParDoOperation) executor.operations.get(1);
+      assertEquals(3, fused.getSteps().size());
+      assertSame(fused, executor.operations.get(0).receivers[0].getOnlyReceiver());
+      assertSame(executor.operations.get(2), fused.receivers[0].getOnlyReceiver());
+    }
+  }
+
   @Test
   public void testExecutionContextPlumbing() throws Exception {
     List<ParallelInstruction> instructions =
@@ -56,6 +56,7 @@ import com.google.cloud.dataflow.sdk.util.WindowingStrategy;
 import com.google.cloud.dataflow.sdk.values.CodedTupleTag;
 import com.google.cloud.dataflow.sdk.values.CodedTupleTagMap;
 import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.TextFormat;
 
@@ -69,14 +70,17 @@ import org.junit.runners.JUnit4;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /** Unit tests for {@link StreamingDataflowWorker}. */
@@ -611,6 +615,236 @@ public class StreamingDataflowWorkerTest {
         stripProcessingTimeCounters(result.get(1L)));
   }
 
+  private Windmill.GetDataResponse makeStateData(String state) throws Exception {
+    return buildData(
+        "data {" +
+        "  computation_id: \"computation\"" +
+        "  data {" +
+        "    key: \"key0\"" +
+        "    values {" +
+        "      tag: \"5:parDostate\"" +
+        "      value {" +
+        "        timestamp: 0" +
+        "        data: \"" + state + "\"" +
+        "      }" +
+        "    }" +
+        "  }" +
+        "}");
+  }
+
+  /**
+   * Returns the state of key0 as Windmill would return it to {@link TestStateFn},
+   * with a value for each tag it reads, so that the state can be cached.
+   */
+  private Windmill.GetDataResponse makeCompleteStateData(String state) throws Exception {
+    return buildData(
+        "data {" +
+        "  computation_id: \"computation\"" +
+        "  data {" +
+        "    key: \"key0\"" +
+        "    values {" +
+        "      tag: \"5:parDostate\"" +
+        "      value {" +
+        "        timestamp: 0" +
+        "        data: \"" + state + "\"" +
+        "      }" +
+        "    }" +
+        "    values {" +
+        "      tag: \"5:parDoother_state\"" +
+        "      value {" +
+        "        timestamp: 0" +
+        "        data: \"\"" +
+        "      }" +
+        "    }" +
+        "  }" +
+        "}");
+  }
+
+  private Windmill.GetWorkResponse makeStateInput(int index) throws Exception {
+    return buildInput(
+        "work {" +
+        "  computation_id: \"computation\"" +
+        "  work {" +
+        "    key: \"key0\"" +
+        "    work_token: " + index +
+        "    message_bundles {" +
+        "      source_computation_id: \"upstream\"" +
+        "      messages {" +
+        "        timestamp: " + index +
+        "        data: \"" + index + "\"" +
+        "      }" +
+        "    }" +
+        "  }" +
+        "}",
+        CoderUtils.encodeToByteArray(CollectionCoder.of(IntervalWindow.getCoder()),
+                                     Arrays.asList(DEFAULT_WINDOW)));
+  }
+
+  @Test public void testParallelCommitsForOneKey() throws Exception {
+    KvCoder<String, String> kvCoder = KvCoder.of(StringUtf8Coder.of(), StringUtf8Coder.of());
+
+    List<ParallelInstruction> instructions = Arrays.asList(
+        makeSourceInstruction(kvCoder),
+        makeDoFnInstruction(new TestStateFn(), 0, kvCoder),
+        makeSinkInstruction(kvCoder, 1));
+
+    // Holds up the commit RPC of work item 0 after Windmill has applied it.
+    final CountDownLatch releaseFirstCommit = new CountDownLatch(1);
+    FakeWindmillServer server = new FakeWindmillServer() {
+        @Override
+        public Windmill.CommitWorkResponse commitWork(Windmill.CommitWorkRequest request) {
+          Windmill.CommitWorkResponse response = super.commitWork(request);
+          for (Windmill.ComputationCommitWorkRequest computationRequest
+                   : request.getRequestsList()) {
+            for (Windmill.WorkItemCommitRequest commit : computationRequest.getRequestsList()) {
+              if (commit.getWorkToken() == 0) {
+                Uninterruptibles.awaitUninterruptibly(releaseFirstCommit);
+              }
+            }
+          }
+          return response;
+        }
+      };
+    // Records the work items whose commits the worker has finished handling,
+    // including updating its state cache, in order.
+    final List<Long> finishedCommits = Collections.synchronizedList(new ArrayList<Long>());
+    final CountDownLatch firstCommitFinished = new CountDownLatch(1);
+    final CountDownLatch secondCommitFinished = new CountDownLatch(1);
+    DataflowWorkerHarnessOptions options = createTestingPipelineOptions();
+    options.setStreamingStateCacheBytes(1 << 20);
+    StreamingDataflowWorker worker = new StreamingDataflowWorker(
+        Arrays.asList(makeMapTask(instructions)), server, options) {
+        @Override
+        void commitWork(Windmill.CommitWorkRequest request) {
+          super.commitWork(request);
+          for (Windmill.ComputationCommitWorkRequest computationRequest
+                   : request.getRequestsList()) {
+            for (Windmill.WorkItemCommitRequest commit : computationRequest.getRequestsList()) {
+              finishedCommits.add(commit.getWorkToken());
+              (commit.getWorkToken() == 0 ? firstCommitFinished : secondCommitFinished)
+                  .countDown();
+            }
+          }
+        }
+      };
+    worker.start();
+
+    server.addDataToOffer(makeCompleteStateData("key0"));
+    server.addWorkToOffer(makeStateInput(0));
+    server.waitForAndGetCommits(1);
+
+    // Work item 1 is processed and committed on another commit thread while
+    // the commit of work item 0 is still in flight.
+    server.addDataToOffer(makeCompleteStateData("key0-0"));
+    server.addWorkToOffer(makeStateInput(1));
+    server.waitForAndGetCommits(1);
+    Assert.assertTrue(secondCommitFinished.await(30, TimeUnit.SECONDS));
+    Assert.assertEquals(1, firstCommitFinished.getCount());
+
+    // The commit of work item 0 finishes last, and must not replace the state
+    // cached for work item 1.
+    releaseFirstCommit.countDown();
+    Assert.assertTrue(firstCommitFinished.await(30, TimeUnit.SECONDS));
+    Assert.assertEquals(Arrays.asList(1L, 0L), finishedCommits);
+
+    // Work item 2 must read the state written by work item 1 from the cache,
+    // since Windmill has no state to offer it.
+    server.addWorkToOffer(makeStateInput(2));
+    Map<Long, Windmill.WorkItemCommitRequest> result = server.waitForAndGetCommits(1);
+    worker.stop();
+
+    Assert.assertEquals(ByteString.copyFromUtf8("key0-0-1-2"),
+        result.get(2L).getValueUpdates(0).getValue().getData());
+  }
+
+  @Test public void testNoWorkPrefetchedInMemoryPushback() throws Exception {
+    List<ParallelInstruction> instructions = Arrays.asList(
+        makeSourceInstruction(StringUtf8Coder.of()),
+        makeSinkInstruction(StringUtf8Coder.of(), 0));
+
+    // Memory pushback starts as soon as the first work item has been received.
+    final AtomicBoolean inPushback = new AtomicBoolean();
+    final AtomicInteger getWorkCalls = new AtomicInteger();
+    FakeWindmillServer server = new FakeWindmillServer() {
+        @Override
+        public Windmill.GetWorkResponse getWork(Windmill.GetWorkRequest request) {
+          Windmill.GetWorkResponse response = super.getWork(request);
+          if (getWorkCalls.incrementAndGet() == 1) {
+            inPushback.set(true);
+          }
+          return response;
+        }
+      };
+    StreamingDataflowWorker worker = new StreamingDataflowWorker(
+        Arrays.asList(makeMapTask(instructions)), server, createTestingPipelineOptions()) {
+        @Override
+        boolean isInMemoryPushback() {
+          return inPushback.get();
+        }
+      };
+    server.addWorkToOffer(makeInput(0, 0));
+    server.addWorkToOffer(makeInput(1, 0));
+    worker.start();
+
+    server.waitForAndGetCommits(1);
+    Assert.assertEquals(1, getWorkCalls.get());
+
+    inPushback.set(false);
+    Map<Long, Windmill.WorkItemCommitRequest> result = server.waitForAndGetCommits(1);
+    worker.stop();
+
+    Assert.assertEquals(makeExpectedOutput(1, 0, "key"), stripCounters(result.get(1L)));
+  }
+
+  @Test public void testPrefetchedWorkIsProcessedOnStop() throws Exception {
+    List<ParallelInstruction> instructions = Arrays.asList(
+        makeSourceInstruction(StringUtf8Coder.of()),
+        makeSinkInstruction(StringUtf8Coder.of(), 0));
+
+    // Holds up the dispatch of the first response, for an unknown computation,
+    // after the next response has been prefetched.
+    final CountDownLatch configRequested = new CountDownLatch(1);
+    final CountDownLatch releaseConfig = new CountDownLatch(1);
+    FakeWindmillServer server = new FakeWindmillServer() {
+        @Override
+        public Windmill.GetConfigResponse getConfig(Windmill.GetConfigRequest request) {
+          configRequested.countDown();
+          Uninterruptibles.awaitUninterruptibly(releaseConfig);
+          return super.getConfig(request);
+        }
+      };
+    final StreamingDataflowWorker worker = new StreamingDataflowWorker(
+        Arrays.asList(makeMapTask(instructions)), server, createTestingPipelineOptions());
+    server.addWorkToOffer(buildTimerInput(
+        "work {" +
+        "  computation_id: \"unknown\"" +
+        "  work {" +
+        "    key: \"key\"" +
+        "    work_token: 100" +
+        "  }" +
+        "}"));
+    server.addWorkToOffer(makeInput(1, 0));
+    worker.start();
+    configRequested.await();
+
+    Thread stopThread = new Thread() {
+        @Override
+        public void run() {
+          worker.stop();
+        }
+      };
+    stopThread.start();
+    // stop() waits for the dispatch thread once the worker is no longer running.
+    while (stopThread.getState() != Thread.State.WAITING) {
+      Thread.sleep(10);
+    }
+    releaseConfig.countDown();
+    stopThread.join();
+
+    Map<Long, Windmill.WorkItemCommitRequest> result = server.waitForAndGetCommits(1);
+    Assert.assertEquals(makeExpectedOutput(1, 0, "key"), stripCounters(result.get(1L)));
+  }
+
   static class TestExceptionFn extends DoFn<String, String> {
     private static final long serialVersionUID = 0;
 
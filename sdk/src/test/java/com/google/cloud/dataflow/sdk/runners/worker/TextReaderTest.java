@@ -33,6 +33,7 @@ import static org.junit.Assert.fail;
 import com.google.api.services.dataflow.model.ApproximateProgress;
 import com.google.api.services.dataflow.model.Position;
 import com.google.cloud.dataflow.sdk.TestUtils;
+import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
 import com.google.cloud.dataflow.sdk.coders.TextualIntegerCoder;
 import com.google.cloud.dataflow.sdk.io.TextIO;
@@ -49,7 +50,9 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
-import org.junit.runners.JUnit4;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -64,10 +67,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.zip.GZIPOutputStream;
 
+import javax.annotation.Nullable;
+
 /**
- * Tests for TextReader.
+ * Tests for TextReader, reading local files both through a memory mapping
+ * and through a stream, as other files are read.
  */
-@RunWith(JUnit4.class)
+@RunWith(Parameterized.class)
 public class TextReaderTest {
   private static final String[] fileContent = {"First line\n", "Second line\r\n", "Third line"};
   private static final long TOTAL_BYTES_COUNT;
@@ -81,11 +87,28 @@ public class TextReaderTest {
     TOTAL_BYTES_COUNT = sumLen;
   }
 
+  @Parameters(name = "memoryMapFiles={0}")
+  public static Iterable<Object[]> data() {
+    return Arrays.asList(new Object[][] {{true}, {false}});
+  }
+
+  @Parameter
+  public boolean memoryMapFiles;
+
   @Rule
   public TemporaryFolder tmpFolder = new TemporaryFolder();
   @Rule
   public ExpectedException expectedException = ExpectedException.none();
 
+  private <T> TextReader<T> newTextReader(String filename, boolean stripTrailingNewlines,
+      @Nullable Long startPosition, @Nullable Long endPosition, Coder<T> coder,
+      CompressionType compressionType) {
+    TextReader<T> textReader = new TextReader<>(filename, stripTrailingNewlines, startPosition,
+        endPosition, coder, compressionType);
+    textReader.setMemoryMapFiles(memoryMapFiles);
+    return textReader;
+  }
+
   private File initTestFile() throws IOException {
     File tmpFile = tmpFolder.newFile();
     FileOutputStream output = new FileOutputStream(tmpFile);
@@ -99,7 +122,7 @@ public class TextReaderTest {
 
   @Test
   public void testReadEmptyFile() throws Exception {
-    TextReader<String> textReader = new TextReader<>(tmpFolder.newFile().getPath(), true, null,
+    TextReader<String> textReader = newTextReader(tmpFolder.newFile().getPath(), true, null,
         null, StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
     try (Reader.ReaderIterator<String> iterator = textReader.iterator()) {
       assertFalse(iterator.hasNext());
@@ -151,7 +174,7 @@ public class TextReaderTest {
     File tmpFile = initTestFile();
 
     {
-      TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), false, 11L, null,
+      TextReader<String> textReader = newTextReader(tmpFile.getPath(), false, 11L, null,
           StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
       ExecutorTestUtils.TestReaderObserver observer =
           new ExecutorTestUtils.TestReaderObserver(textReader);
@@ -167,7 +190,7 @@ public class TextReaderTest {
     }
 
     {
-      TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), false, 20L, null,
+      TextReader<String> textReader = newTextReader(tmpFile.getPath(), false, 20L, null,
           StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
       ExecutorTestUtils.TestReaderObserver observer =
           new ExecutorTestUtils.TestReaderObserver(textReader);
@@ -182,7 +205,7 @@ public class TextReaderTest {
     }
 
     {
-      TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), true, 0L, 20L,
+      TextReader<String> textReader = newTextReader(tmpFile.getPath(), true, 0L, 20L,
           StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
       ExecutorTestUtils.TestReaderObserver observer =
           new ExecutorTestUtils.TestReaderObserver(textReader);
@@ -196,7 +219,7 @@ public class TextReaderTest {
     }
 
     {
-      TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), true, 1L, 20L,
+      TextReader<String> textReader = newTextReader(tmpFile.getPath(), true, 1L, 20L,
           StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
       ExecutorTestUtils.TestReaderObserver observer =
           new ExecutorTestUtils.TestReaderObserver(textReader);
@@ -225,7 +248,7 @@ public class TextReaderTest {
       // 3L is after the first line if counting codepoints, but within
       // the first line if counting chars.  So correct behavior is to return
       // just one line, since offsets are in chars, not codepoints.
-      TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), true, 0L, 3L,
+      TextReader<String> textReader = newTextReader(tmpFile.getPath(), true, 0L, 3L,
           StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
       ExecutorTestUtils.TestReaderObserver observer =
           new ExecutorTestUtils.TestReaderObserver(textReader);
@@ -240,7 +263,7 @@ public class TextReaderTest {
     {
       // Starting location is mid-way into a codepoint.
       // Ensures we don't fail when skipping over an incomplete codepoint.
-      TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), true, 2L, null,
+      TextReader<String> textReader = newTextReader(tmpFile.getPath(), true, 2L, null,
           StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
       ExecutorTestUtils.TestReaderObserver observer =
           new ExecutorTestUtils.TestReaderObserver(textReader);
@@ -267,7 +290,7 @@ public class TextReaderTest {
     }
     writer.close();
 
-    TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), stripNewlines, null, null,
+    TextReader<String> textReader = newTextReader(tmpFile.getPath(), stripNewlines, null, null,
         StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
     ExecutorTestUtils.TestReaderObserver observer =
         new ExecutorTestUtils.TestReaderObserver(textReader);
@@ -304,7 +327,7 @@ public class TextReaderTest {
     }
     writer.close();
 
-    TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), stripNewlines, null, null,
+    TextReader<String> textReader = newTextReader(tmpFile.getPath(), stripNewlines, null, null,
         StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
     List<String> actual = new ArrayList<>();
     try (Reader.ReaderIterator<String> iterator = textReader.iterator()) {
@@ -331,7 +354,7 @@ public class TextReaderTest {
     writer.close();
     Long fileSize = tmpFile.length();
 
-    TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), stripNewlines, null,
+    TextReader<String> textReader = newTextReader(tmpFile.getPath(), stripNewlines, null,
         fileSize, StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
 
     List<String> actual = new ArrayList<>();
@@ -343,6 +366,25 @@ public class TextReaderTest {
     assertEquals(expected, actual);
   }
 
+  @Test
+  public void testCopyIteratorOfLocalFile() throws Exception {
+    File tmpFile = initTestFile();
+    TextReader<String> textReader = newTextReader(tmpFile.getPath(), false, null, null,
+        StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
+
+    try (Reader.ReaderIterator<String> iterator = textReader.iterator()) {
+      assertEquals(fileContent[0], iterator.next());
+      try (Reader.ReaderIterator<String> copy = iterator.copy()) {
+        assertEquals(fileContent[1], copy.next());
+        assertEquals(fileContent[2], copy.next());
+        assertFalse(copy.hasNext());
+      }
+      assertEquals(fileContent[1], iterator.next());
+      assertEquals(fileContent[2], iterator.next());
+      assertFalse(iterator.hasNext());
+    }
+  }
+
   @Test
   public void testNonStringCoders() throws Exception {
     File tmpFile = tmpFolder.newFile();
@@ -357,7 +399,7 @@ public class TextReaderTest {
     }
     writer.close();
 
-    TextReader<Integer> textReader = new TextReader<>(tmpFile.getPath(), true, null, null,
+    TextReader<Integer> textReader = newTextReader(tmpFile.getPath(), true, null, null,
         TextualIntegerCoder.of(), TextIO.CompressionType.UNCOMPRESSED);
     ExecutorTestUtils.TestReaderObserver observer =
         new ExecutorTestUtils.TestReaderObserver(textReader);
@@ -376,7 +418,7 @@ public class TextReaderTest {
   @Test
   public void testGetProgressNoEndOffset() throws Exception {
     File tmpFile = initTestFile();
-    TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), false, 0L, null,
+    TextReader<String> textReader = newTextReader(tmpFile.getPath(), false, 0L, null,
         StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
 
     try (Reader.ReaderIterator<String> iterator = textReader.iterator()) {
@@ -401,7 +443,7 @@ public class TextReaderTest {
   @Test
   public void testGetProgressWithEndOffset() throws Exception {
     File tmpFile = initTestFile();
-    TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), false, 0L, 40L,
+    TextReader<String> textReader = newTextReader(tmpFile.getPath(), false, 0L, 40L,
         StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
 
     try (Reader.ReaderIterator<String> iterator = textReader.iterator()) {
@@ -425,7 +467,7 @@ public class TextReaderTest {
 
     // Illegal proposed stop position, no update.
     {
-      TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), false, null, null,
+      TextReader<String> textReader = newTextReader(tmpFile.getPath(), false, null, null,
           StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
 
       try (TextReader<String>.TextFileIterator iterator =
@@ -436,7 +478,7 @@ public class TextReaderTest {
 
     // Successful update.
     {
-      TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), false, null, null,
+      TextReader<String> textReader = newTextReader(tmpFile.getPath(), false, null, null,
           StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
       ExecutorTestUtils.TestReaderObserver observer =
           new ExecutorTestUtils.TestReaderObserver(textReader);
@@ -460,7 +502,7 @@ public class TextReaderTest {
 
     // Proposed stop position is before the current position, no update.
     {
-      TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), false, null, null,
+      TextReader<String> textReader = newTextReader(tmpFile.getPath(), false, null, null,
           StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
       ExecutorTestUtils.TestReaderObserver observer =
           new ExecutorTestUtils.TestReaderObserver(textReader);
@@ -485,7 +527,7 @@ public class TextReaderTest {
 
     // Proposed stop position is after the current stop (end) position, no update.
     {
-      TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), false, null, end,
+      TextReader<String> textReader = newTextReader(tmpFile.getPath(), false, null, end,
           StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
       ExecutorTestUtils.TestReaderObserver observer =
           new ExecutorTestUtils.TestReaderObserver(textReader);
@@ -529,7 +571,7 @@ public class TextReaderTest {
     StringBuilder accumulatedRead = new StringBuilder();
 
     // Read from source without split attempts.
-    TextReader<String> textReader = new TextReader<>(tmpFile.getPath(), false, startOffset,
+    TextReader<String> textReader = newTextReader(tmpFile.getPath(), false, startOffset,
         endOffset, StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
 
     try (TextReader<String>.TextFileIterator iterator =
@@ -541,7 +583,7 @@ public class TextReaderTest {
     }
 
     // Read the first half of the split.
-    textReader = new TextReader<>(tmpFile.getPath(), false, startOffset, stopOffset,
+    textReader = newTextReader(tmpFile.getPath(), false, startOffset, stopOffset,
         StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
     accumulatedRead = new StringBuilder();
 
@@ -554,7 +596,7 @@ public class TextReaderTest {
     }
 
     // Read the second half of the split.
-    textReader = new TextReader<>(tmpFile.getPath(), false, stopOffset, endOffset,
+    textReader = newTextReader(tmpFile.getPath(), false, stopOffset, endOffset,
         StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
     accumulatedRead = new StringBuilder();
 
@@ -607,7 +649,7 @@ public class TextReaderTest {
       expected.add(line);
     }
 
-    TextReader<String> textReader = new TextReader<>(
+    TextReader<String> textReader = newTextReader(
         tmpFile.getPath(), true, null, null, StringUtf8Coder.of(), inputCompressionType);
 
     List<String> actual = new ArrayList<>();
@@ -658,7 +700,7 @@ public class TextReaderTest {
     String path = tmpFolder.getRoot().getPath() + System.getProperty("file.separator") + "*";
 
     TextReader<String> textReader =
-        new TextReader<>(path, true, null, null, StringUtf8Coder.of(), CompressionType.AUTO);
+        newTextReader(path, true, null, null, StringUtf8Coder.of(), CompressionType.AUTO);
 
     List<String> actual = new ArrayList<>();
     try (Reader.ReaderIterator<String> iterator = textReader.iterator()) {
@@ -675,7 +717,7 @@ public class TextReaderTest {
   @Test
   public void testErrorOnFileNotFound() throws Exception {
     expectedException.expect(FileNotFoundException.class);
-    TextReader<String> textReader = new TextReader<>(
+    TextReader<String> textReader = newTextReader(
         "file-not-found", true, 0L, 100L,
         StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
     textReader.iterator();
@@ -687,7 +729,7 @@ public class TextReaderTest {
     File file2 = tmpFolder.newFile("foo2.avro");
     Channels.newOutputStream(IOChannelUtils.create(file1.getPath(), MimeTypes.BINARY)).close();
     Channels.newOutputStream(IOChannelUtils.create(file2.getPath(), MimeTypes.BINARY)).close();
-    TextReader<String> textReader = new TextReader<>(
+    TextReader<String> textReader = newTextReader(
         new File(tmpFolder.getRoot(), "*").getPath(), true, 0L, 100L,
         StringUtf8Coder.of(), TextIO.CompressionType.UNCOMPRESSED);
     expectedException.expect(IllegalArgumentException.class);
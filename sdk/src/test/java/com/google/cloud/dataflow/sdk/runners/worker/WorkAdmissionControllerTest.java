@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.runners.worker;
+
+import static com.google.cloud.dataflow.sdk.util.common.Counter.AggregationKind.SUM;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.options.DataflowWorkerHarnessOptions;
+import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
+import com.google.cloud.dataflow.sdk.util.common.Counter;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link WorkAdmissionController}. */
+@RunWith(JUnit4.class)
+public class WorkAdmissionControllerTest {
+  private static final double LOW_HEAP = 0.2;
+  private static final double HIGH_HEAP = 0.9;
+  private static final double IDLE_CPU = 0.1;
+  private static final double BUSY_CPU = 2.0;
+
+  @Test
+  public void testFixedUnlessMaxConcurrentWorkItemsIsSet() {
+    DataflowWorkerHarnessOptions options =
+        PipelineOptionsFactory.as(DataflowWorkerHarnessOptions.class);
+    int numProcessors = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+    assertFalse(WorkAdmissionController.fromOptions(options).isAdaptive());
+    assertEquals(numProcessors, WorkAdmissionController.getMaxConcurrentWorkItems(options));
+
+    options.setMaxConcurrentWorkItems(numProcessors + 3);
+    WorkAdmissionController controller = WorkAdmissionController.fromOptions(options);
+    assertTrue(controller.isAdaptive());
+    assertEquals(numProcessors, controller.getLimit());
+    assertEquals(numProcessors + 3, WorkAdmissionController.getMaxConcurrentWorkItems(options));
+  }
+
+  @Test
+  public void testGrowsWhileInputBound() throws Exception {
+    WorkAdmissionController controller = new WorkAdmissionController(2, 4, true);
+    acquire(controller, 2);
+    for (int i = 0; i < 10; i++) {
+      controller.recordReadFraction(0.9);
+    }
+
+    controller.adjust(LOW_HEAP, BUSY_CPU);
+    assertEquals(2, controller.getLimit());
+    controller.adjust(LOW_HEAP, IDLE_CPU);
+    assertEquals(3, controller.getLimit());
+    // Only grows while all admitted work items are in progress.
+    controller.adjust(LOW_HEAP, IDLE_CPU);
+    assertEquals(3, controller.getLimit());
+
+    acquire(controller, 1);
+    controller.adjust(LOW_HEAP, IDLE_CPU);
+    acquire(controller, 1);
+    controller.adjust(LOW_HEAP, IDLE_CPU);
+    assertEquals(4, controller.getLimit());
+
+    // Shrinks back to the number of processors when they are oversubscribed.
+    controller.adjust(LOW_HEAP, BUSY_CPU);
+    controller.adjust(LOW_HEAP, BUSY_CPU);
+    controller.adjust(LOW_HEAP, BUSY_CPU);
+    assertEquals(2, controller.getLimit());
+  }
+
+  @Test
+  public void testDoesNotGrowWhileProcessing() throws Exception {
+    WorkAdmissionController controller = new WorkAdmissionController(2, 4, true);
+    acquire(controller, 2);
+    CounterSet counters = new CounterSet(
+        Counter.longs("s1-read-msecs", SUM).resetToValue(100L),
+        Counter.longs("s2-process-msecs", SUM).resetToValue(900L));
+    for (int i = 0; i < 10; i++) {
+      controller.recordWorkItem(counters);
+    }
+
+    controller.adjust(LOW_HEAP, IDLE_CPU);
+    assertEquals(2, controller.getLimit());
+  }
+
+  @Test
+  public void testShrinksWhenHeapIsFull() throws Exception {
+    WorkAdmissionController controller = new WorkAdmissionController(8, 8, true);
+    controller.adjust(HIGH_HEAP, IDLE_CPU);
+    assertEquals(4, controller.getLimit());
+    controller.adjust(HIGH_HEAP, IDLE_CPU);
+    controller.adjust(HIGH_HEAP, IDLE_CPU);
+    controller.adjust(HIGH_HEAP, IDLE_CPU);
+    assertEquals(1, controller.getLimit());
+
+    // Recovers up to the number of processors once the heap has room.
+    acquire(controller, 1);
+    controller.adjust(LOW_HEAP, BUSY_CPU);
+    assertEquals(2, controller.getLimit());
+  }
+
+  @Test(timeout = 5000)
+  public void testAcquireBlocksAtLimit() throws Exception {
+    final WorkAdmissionController controller = new WorkAdmissionController(1, 1, true);
+    controller.acquire();
+    final CountDownLatch acquired = new CountDownLatch(1);
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          controller.acquire();
+          acquired.countDown();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    thread.start();
+    assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+    controller.release();
+    acquired.await();
+    thread.join();
+  }
+
+  private static void acquire(WorkAdmissionController controller, int n) throws Exception {
+    for (int i = 0; i < n; i++) {
+      controller.acquire();
+    }
+  }
+}
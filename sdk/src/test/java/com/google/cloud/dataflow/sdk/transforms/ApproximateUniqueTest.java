@@ -22,15 +22,21 @@ import static org.junit.Assert.fail;
 
 import com.google.cloud.dataflow.sdk.Pipeline;
 import com.google.cloud.dataflow.sdk.TestUtils;
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.SerializableCoder;
 import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.testing.RunnableOnService;
 import com.google.cloud.dataflow.sdk.testing.TestPipeline;
+import com.google.cloud.dataflow.sdk.transforms.ApproximateUnique.ApproximateUniqueCombineFn.LargestUnique;
 import com.google.cloud.dataflow.sdk.transforms.Combine.CombineFn;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
+import com.google.cloud.dataflow.sdk.values.PCollectionList;
 import com.google.cloud.dataflow.sdk.values.PCollectionView;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
 
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -63,6 +69,87 @@ public class ApproximateUniqueTest implements Serializable {
     assertEquals(16, ApproximateUnique.sampleSizeFromEstimationError(0.5));
   }
 
+  @Test
+  public void testEstimationErrorToPrecision() {
+    assertEquals(16, ApproximateUnique.precisionFromEstimationError(0.01));
+    assertEquals(14, ApproximateUnique.precisionFromEstimationError(0.02));
+    assertEquals(11, ApproximateUnique.precisionFromEstimationError(0.05));
+    assertEquals(9, ApproximateUnique.precisionFromEstimationError(0.1));
+    assertEquals(5, ApproximateUnique.precisionFromEstimationError(0.5));
+  }
+
+  @Test
+  public void testLargestUniqueSerializedForm() throws Exception {
+    // A LargestUnique of sample size 3 after adding 10, 20, 30, 40 and 50, as
+    // serialized by the earlier PriorityQueue-based implementation.
+    byte[] serialized = BaseEncoding.base64().decode(
+      "rO0ABXNyAGNjb20uZ29vZ2xlLmNsb3VkLmRhdGFmbG93LnNkay50cmFuc2Zvcm1zLkFwcHJv"
+      + "eGltYXRlVW5pcXVlJEFwcHJveGltYXRlVW5pcXVlQ29tYmluZUZuJExhcmdlc3RVbmlxdWWg"
+      + "gBRn7SHxugIAAkoACnNhbXBsZVNpemVMAARoZWFwdAAZTGphdmEvdXRpbC9Qcmlvcml0eVF1"
+      + "ZXVlO3hwAAAAAAAAAANzcgAXamF2YS51dGlsLlByaW9yaXR5UXVldWWU2jC0+z+CsQMAAkkA"
+      + "BHNpemVMAApjb21wYXJhdG9ydAAWTGphdmEvdXRpbC9Db21wYXJhdG9yO3hwAAAAA3B3BAAA"
+      + "AARzcgAOamF2YS5sYW5nLkxvbmc7i+SQzI8j3wIAAUoABXZhbHVleHIAEGphdmEubGFuZy5O"
+      + "dW1iZXKGrJUdC5TgiwIAAHhwAAAAAAAAAB5zcQB+AAYAAAAAAAAAKHNxAH4ABgAAAAAAAAAy"
+      + "eA==");
+    Coder<LargestUnique> coder = SerializableCoder.of(LargestUnique.class);
+
+    LargestUnique decoded = CoderUtils.decodeFromByteArray(coder, serialized);
+    assertEquals(Arrays.asList(50L, 40L, 30L), decoded.extractOrderedList());
+    assertTrue(decoded.add(60L));
+    assertEquals(Arrays.asList(60L, 50L, 40L), decoded.extractOrderedList());
+
+    LargestUnique reencoded =
+        CoderUtils.decodeFromByteArray(coder, CoderUtils.encodeToByteArray(coder, decoded));
+    assertEquals(Arrays.asList(60L, 50L, 40L), reencoded.extractOrderedList());
+  }
+
+  @Test
+  public void testApproximateUniqueWithEstimationError() {
+    List<Integer> elements = Lists.newArrayList();
+    for (int i = 0; i < 30000; i++) {
+      elements.add(i % 10000);
+    }
+
+    Pipeline p = TestPipeline.create();
+    PCollection<Integer> input = p.apply(Create.of(elements));
+    PCollection<Long> estimate = input.apply(ApproximateUnique.<Integer>globally(0.05));
+
+    // The maximum estimation error of 0.05 is that of a sample of 1600.
+    DataflowAssert.thatSingleton(estimate).satisfies(new VerifyEstimateFn(10000, 1600));
+
+    p.run();
+  }
+
+  @Test
+  public void testMergeSketches() {
+    List<Integer> first = Lists.newArrayList();
+    List<Integer> second = Lists.newArrayList();
+    for (int i = 0; i < 6000; i++) {
+      first.add(i);
+      second.add(i + 3000);
+    }
+
+    Pipeline p = TestPipeline.create();
+    PCollection<byte[]> firstSketch = p.apply(Create.of(first).withName("First"))
+        .apply(ApproximateUnique.<Integer>sketchGlobally(12).withName("SketchFirst"));
+    PCollection<byte[]> secondSketch = p.apply(Create.of(second).withName("Second"))
+        .apply(ApproximateUnique.<Integer>sketchGlobally(12).withName("SketchSecond"));
+    PCollection<Long> estimate = PCollectionList.of(firstSketch).and(secondSketch)
+        .apply(Flatten.<byte[]>pCollections())
+        .apply(ApproximateUnique.mergeSketchesGlobally(12))
+        .apply(ParDo.of(new DoFn<byte[], Long>() {
+              @Override
+              public void processElement(ProcessContext c) {
+                c.output(ApproximateUnique.estimateFromSketch(c.element()));
+              }
+            }));
+
+    // A sketch of precision 12 has a standard error of about 1.6%.
+    DataflowAssert.thatSingleton(estimate).satisfies(new VerifyEstimateFn(9000, 1024));
+
+    p.run();
+  }
+
   @Test
   @Category(RunnableOnService.class)
   public void testApproximateUniqueWithSmallInput() {
@@ -26,8 +26,10 @@ import com.google.cloud.dataflow.sdk.transforms.DoFnWithContext.ExtraContextFact
 import com.google.cloud.dataflow.sdk.transforms.DoFnWithContext.ProcessContext;
 import com.google.cloud.dataflow.sdk.transforms.DoFnWithContext.ProcessElement;
 import com.google.cloud.dataflow.sdk.transforms.windowing.BoundedWindow;
+import com.google.cloud.dataflow.sdk.util.UserCodeException;
 import com.google.cloud.dataflow.sdk.util.WindowingInternals;
 
+import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -37,6 +39,7 @@ import org.junit.runners.JUnit4;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
 
 /**
@@ -269,6 +272,23 @@ public class DoFnReflectorTest {
     checkInvokeFinishBundleWorks(reflector);
   }
 
+  @Test
+  public void testDoFnWithExceptionInProcessElement() throws Exception {
+    DoFnReflector reflector = underTest(new DoFnWithContext<String, String>() {
+      private static final long serialVersionUID = 0;
+
+      @ProcessElement
+      public void processElement(@SuppressWarnings("unused") ProcessContext c)
+          throws Exception {
+        throw new IOException("user failure");
+      }
+    });
+
+    thrown.expect(UserCodeException.class);
+    thrown.expectCause(Matchers.isA(IOException.class));
+    reflector.invokeProcessElement(fn, mockContext, extraContextFactory);
+  }
+
   @Test
   public void testNoProcessElement() throws Exception {
     thrown.expect(IllegalStateException.class);
@@ -26,6 +26,8 @@ import com.google.cloud.dataflow.sdk.coders.BigEndianIntegerCoder;
 import com.google.cloud.dataflow.sdk.coders.KvCoder;
 import com.google.cloud.dataflow.sdk.coders.MapCoder;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.options.DirectPipelineOptions;
+import com.google.cloud.dataflow.sdk.runners.DirectPipeline;
 import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.testing.RunnableOnService;
 import com.google.cloud.dataflow.sdk.testing.TestPipeline;
@@ -45,9 +47,13 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Tests for GroupByKey.
@@ -86,6 +92,80 @@ public class GroupByKeyTest {
     p.run();
   }
 
+  @Test
+  public void testGroupByKeySpillingToDisk() {
+    List<KV<String, Integer>> ungroupedPairs = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      ungroupedPairs.add(KV.of("k" + (i % 7), i));
+    }
+
+    DirectPipeline p = DirectPipeline.createForTest();
+    p.getOptions().as(DirectPipelineOptions.class).setGroupByKeyMemoryLimitBytes(1000);
+
+    PCollection<KV<String, Integer>> input =
+        p.apply(Create.of(ungroupedPairs))
+        .setCoder(KvCoder.of(StringUtf8Coder.of(), BigEndianIntegerCoder.of()));
+
+    PCollection<KV<String, Iterable<Integer>>> output =
+        input.apply(GroupByKey.<String, Integer>create());
+
+    List<KV<String, Iterable<Integer>>> groups = p.run().getPCollection(output);
+    Assert.assertEquals(7, groups.size());
+    for (KV<String, Iterable<Integer>> group : groups) {
+      int key = Integer.parseInt(group.getKey().substring(1));
+      int count = 0;
+      for (int value : group.getValue()) {
+        Assert.assertEquals(key, value % 7);
+        count++;
+      }
+      Assert.assertEquals(key < 1000 % 7 ? 143 : 142, count);
+    }
+  }
+
+  @Test
+  public void testGroupByKeySpillingToDiskDeletesRunsIfConsumerFails() {
+    Set<String> runsBefore = listSortRuns();
+    List<KV<String, Integer>> ungroupedPairs = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      ungroupedPairs.add(KV.of("k" + (i % 7), i));
+    }
+
+    DirectPipeline p = DirectPipeline.createForTest();
+    p.getOptions().as(DirectPipelineOptions.class).setGroupByKeyMemoryLimitBytes(1000);
+    p.getOptions().as(DirectPipelineOptions.class).setFusedEvaluation(true);
+
+    p.apply(Create.of(ungroupedPairs))
+        .setCoder(KvCoder.of(StringUtf8Coder.of(), BigEndianIntegerCoder.of()))
+        .apply(GroupByKey.<String, Integer>create())
+        .apply(ParDo.of(new FailingDoFn()));
+
+    try {
+      p.run();
+      Assert.fail("Expected the consumer of the groups to fail");
+    } catch (RuntimeException exn) {
+      // expected
+    }
+    // The groups were only partly read, but the spilled input is deleted.
+    Assert.assertEquals(runsBefore, listSortRuns());
+  }
+
+  private static class FailingDoFn extends DoFn<KV<String, Iterable<Integer>>, Void> {
+    @Override
+    public void processElement(ProcessContext c) {
+      throw new IllegalStateException("consumer failed");
+    }
+  }
+
+  private static Set<String> listSortRuns() {
+    Set<String> runs = new HashSet<>();
+    for (String name : new File(System.getProperty("java.io.tmpdir")).list()) {
+      if (name.startsWith("dataflow-sort-run-")) {
+        runs.add(name);
+      }
+    }
+    return runs;
+  }
+
   static class AssertThatHasExpectedContentsForTestGroupByKey
       implements SerializableFunction<Iterable<KV<String, Iterable<Integer>>>,
                                       Void> {
@@ -35,6 +35,9 @@ import com.google.cloud.dataflow.sdk.TestUtils;
 import com.google.cloud.dataflow.sdk.coders.AtomicCoder;
 import com.google.cloud.dataflow.sdk.coders.BigEndianLongCoder;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
+import com.google.cloud.dataflow.sdk.options.DirectPipelineOptions;
+import com.google.cloud.dataflow.sdk.runners.DirectPipeline;
+import com.google.cloud.dataflow.sdk.runners.DirectPipelineRunner.EvaluationResults;
 import com.google.cloud.dataflow.sdk.testing.DataflowAssert;
 import com.google.cloud.dataflow.sdk.testing.RunnableOnService;
 import com.google.cloud.dataflow.sdk.testing.TestPipeline;
@@ -458,6 +461,64 @@ public class ParDoTest implements Serializable {
     p.run();
   }
 
+  @Test
+  public void testParDoWithParallelBundlesPreservesOrder() {
+    DirectPipeline p = DirectPipeline.createForTest();
+    p.getOptions().as(DirectPipelineOptions.class).setNumParallelThreads(4);
+    p.getRunner().withUnorderednessTesting(false);
+
+    List<Integer> inputs = new ArrayList<>();
+    List<String> expectedMain = new ArrayList<>();
+    List<String> expectedSide = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      inputs.add(i);
+      expectedMain.add("main: " + i);
+      expectedSide.add("side: " + i);
+    }
+
+    final TupleTag<String> mainTag = new TupleTag<String>("main"){};
+    final TupleTag<String> sideTag = new TupleTag<String>("side"){};
+    PCollectionTuple outputs = createInts(p, inputs)
+        .apply(ParDo.withOutputTags(mainTag, TupleTagList.of(sideTag))
+            .of(new DoFn<Integer, String>() {
+              @Override
+              public void processElement(ProcessContext c) {
+                c.output("main: " + c.element());
+                c.sideOutput(sideTag, "side: " + c.element());
+              }
+            }));
+
+    EvaluationResults results = p.run();
+    assertEquals(expectedMain, results.getPCollection(outputs.get(mainTag)));
+    assertEquals(expectedSide, results.getPCollection(outputs.get(sideTag)));
+  }
+
+  @Test
+  public void testFusedParDoChain() {
+    DirectPipeline p = DirectPipeline.createForTest();
+    p.getOptions().as(DirectPipelineOptions.class).setFusedEvaluation(true);
+
+    List<Integer> inputs = Arrays.asList(3, -42, 666);
+
+    PCollection<String> intermediate = createInts(p, inputs)
+        .apply(ParDo.of(new TestDoFn()));
+    PCollection<String> output = intermediate
+        .apply(ParDo.of(new DoFn<String, String>() {
+          @Override
+          public void processElement(ProcessContext c) {
+            c.output(c.element());
+          }
+        }));
+
+    EvaluationResults results = p.run();
+    assertThat(results.getPCollection(output), containsInAnyOrder(
+        "started", "processing: 3", "processing: -42", "processing: 666", "finished"));
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("was fused into its consumer");
+    results.getPCollection(intermediate);
+  }
+
   @Test
   @Category(RunnableOnService.class)
   public void testParDoWithOnlySideOutputs() {
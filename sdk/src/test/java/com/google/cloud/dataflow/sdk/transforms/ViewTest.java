@@ -228,6 +228,37 @@ public class ViewTest implements Serializable {
     pipeline.run();
   }
 
+  @Test
+  @Category(RunnableOnService.class)
+  public void testIndexedMapSideInput() {
+    Pipeline pipeline = TestPipeline.create();
+
+    final PCollectionView<Map<String, Iterable<Integer>>> view = pipeline
+        .apply(Create.of(KV.of("a", 1), KV.of("a", 2), KV.of("b", 3)))
+        .apply(View.<String, Integer>asMap().withIndexedLookups());
+
+    PCollection<KV<String, Integer>> output = pipeline
+        .apply(Create.of("apple", "banana", "blackberry", "cherry"))
+        .apply(ParDo.withSideInputs(view).of(
+            new DoFn<String, KV<String, Integer>>() {
+              @Override
+              public void processElement(ProcessContext c) {
+                Iterable<Integer> values = c.sideInput(view).get(c.element().substring(0, 1));
+                if (values != null) {
+                  for (Integer v : values) {
+                    c.output(KV.of(c.element(), v));
+                  }
+                }
+              }
+            }));
+
+    DataflowAssert.that(output)
+        .containsInAnyOrder(KV.of("apple", 1), KV.of("apple", 2),
+                            KV.of("banana", 3), KV.of("blackberry", 3));
+
+    pipeline.run();
+  }
+
   @Test
   @Category(RunnableOnService.class)
   public void testSingletonMapSideInput() {
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.dataflow.sdk.coders.KvCoder;
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.coders.VarIntCoder;
+import com.google.cloud.dataflow.sdk.testing.TestPipeline;
+import com.google.cloud.dataflow.sdk.transforms.Create;
+import com.google.cloud.dataflow.sdk.transforms.View;
+import com.google.cloud.dataflow.sdk.transforms.windowing.FixedWindows;
+import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Window;
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.cloud.dataflow.sdk.values.PCollectionView;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Unit tests for {@link BatchModeExecutionContext}. */
+@RunWith(JUnit4.class)
+public class BatchModeExecutionContextTest {
+  private PCollectionView<String> view;
+  private PTuple sideInputs;
+  private CounterSet counters;
+
+  @Before public void setUp() {
+    view = TestPipeline.create()
+        .apply(Create.<String>of()).setCoder(StringUtf8Coder.of())
+        .apply(Window.<String>into(FixedWindows.of(Duration.millis(10))))
+        .apply(View.<String>asSingleton());
+    sideInputs = PTuple.empty().and(view.getTagInternal(), Arrays.<WindowedValue<?>>asList(
+        WindowedValue.of("a", new Instant(0), Arrays.asList(window(0))),
+        WindowedValue.of("b", new Instant(10), Arrays.asList(window(10))),
+        WindowedValue.of("c", new Instant(20), Arrays.asList(window(20)))));
+    counters = new CounterSet();
+  }
+
+  @Test public void testSideInputsAreCached() {
+    BatchModeExecutionContext context = new BatchModeExecutionContext();
+    context.addSideInputCacheCounters("s-", counters.getAddCounterMutator());
+
+    assertEquals("a", context.getSideInput(view, window(0), sideInputs));
+    assertEquals("b", context.getSideInput(view, window(10), sideInputs));
+    assertEquals("a", context.getSideInput(view, window(0), sideInputs));
+    assertEquals("b", context.getSideInput(view, window(10), sideInputs));
+
+    assertEquals(2L, counters.getExistingCounter("s-SideInputCacheHits").getAggregate());
+    assertEquals(2L, counters.getExistingCounter("s-SideInputCacheMisses").getAggregate());
+  }
+
+  @Test public void testLeastRecentlyUsedSideInputsAreEvicted() {
+    BatchModeExecutionContext unbounded = new BatchModeExecutionContext();
+    unbounded.addSideInputCacheCounters("u-", counters.getAddCounterMutator());
+    unbounded.getSideInput(view, window(0), sideInputs);
+    long weight = (Long) counters.getExistingCounter("u-SideInputCacheMaxByteCount")
+        .getAggregate();
+
+    // Only room for two side inputs.
+    BatchModeExecutionContext context = new BatchModeExecutionContext(2 * weight);
+    context.addSideInputCacheCounters("s-", counters.getAddCounterMutator());
+
+    assertEquals("a", context.getSideInput(view, window(0), sideInputs));
+    assertEquals("b", context.getSideInput(view, window(10), sideInputs));
+    assertEquals("a", context.getSideInput(view, window(0), sideInputs));
+    // Evicts "b", which was used less recently than "a".
+    assertEquals("c", context.getSideInput(view, window(20), sideInputs));
+    assertEquals("a", context.getSideInput(view, window(0), sideInputs));
+    assertEquals("b", context.getSideInput(view, window(10), sideInputs));
+
+    assertEquals(2L, counters.getExistingCounter("s-SideInputCacheHits").getAggregate());
+    assertEquals(4L, counters.getExistingCounter("s-SideInputCacheMisses").getAggregate());
+    assertEquals(2 * weight,
+        counters.getExistingCounter("s-SideInputCacheMaxByteCount").getAggregate());
+  }
+
+  @Test public void testMostRecentSideInputIsKept() {
+    BatchModeExecutionContext context = new BatchModeExecutionContext(0);
+    context.addSideInputCacheCounters("s-", counters.getAddCounterMutator());
+
+    assertEquals("a", context.getSideInput(view, window(0), sideInputs));
+    assertEquals("a", context.getSideInput(view, window(0), sideInputs));
+    assertEquals("b", context.getSideInput(view, window(10), sideInputs));
+    assertEquals("a", context.getSideInput(view, window(0), sideInputs));
+
+    assertEquals(1L, counters.getExistingCounter("s-SideInputCacheHits").getAggregate());
+    assertEquals(3L, counters.getExistingCounter("s-SideInputCacheMisses").getAggregate());
+  }
+
+  @Test public void testSideInputContentsAreReadOnce() {
+    final AtomicInteger numReads = new AtomicInteger();
+    final Iterable<WindowedValue<?>> contents = sideInputs.get(view.getTagInternal());
+    PTuple countedSideInputs = PTuple.empty().and(view.getTagInternal(),
+        new Iterable<WindowedValue<?>>() {
+          @Override
+          public Iterator<WindowedValue<?>> iterator() {
+            numReads.incrementAndGet();
+            return contents.iterator();
+          }
+        });
+    BatchModeExecutionContext context = new BatchModeExecutionContext();
+    context.addSideInputCacheCounters("s-", counters.getAddCounterMutator());
+
+    assertEquals("b", context.getSideInput(view, window(10), countedSideInputs));
+    assertEquals(1, numReads.get());
+    assertThat((Long) counters.getExistingCounter("s-SideInputCacheMaxByteCount").getAggregate(),
+        greaterThan(64L));
+  }
+
+  @Test public void testLazySideInputsOnlyCountTheirOverhead() {
+    PCollectionView<Iterable<String>> iterableView = TestPipeline.create()
+        .apply(Create.<String>of()).setCoder(StringUtf8Coder.of())
+        .apply(View.<String>asIterable());
+    PTuple iterableSideInputs = PTuple.empty().and(iterableView.getTagInternal(),
+        Arrays.<WindowedValue<?>>asList(
+            WindowedValue.valueInGlobalWindow("a"), WindowedValue.valueInGlobalWindow("b")));
+    BatchModeExecutionContext context = new BatchModeExecutionContext();
+    context.addSideInputCacheCounters("s-", counters.getAddCounterMutator());
+
+    assertThat(context.getSideInput(iterableView, GlobalWindow.INSTANCE, iterableSideInputs),
+        contains("a", "b"));
+    assertEquals(64L,
+        counters.getExistingCounter("s-SideInputCacheMaxByteCount").getAggregate());
+  }
+
+  @Test public void testEvictedIndexedSideInputsAreNotRebuilt() throws Exception {
+    PCollectionView<Map<String, Integer>> mapView = TestPipeline.create()
+        .apply(Create.<KV<String, Integer>>of())
+        .setCoder(KvCoder.of(StringUtf8Coder.of(), VarIntCoder.of()))
+        .apply(View.<String, Integer>asMap().withSingletonValues().withIndexedLookups());
+    final AtomicInteger numReads = new AtomicInteger();
+    PTuple mapSideInputs = sideInputs.and(mapView.getTagInternal(),
+        new Iterable<WindowedValue<?>>() {
+          @Override
+          public Iterator<WindowedValue<?>> iterator() {
+            numReads.incrementAndGet();
+            return Arrays.<WindowedValue<?>>asList(
+                WindowedValue.valueInGlobalWindow(KV.of("a", 1))).iterator();
+          }
+        });
+    // Only room for the most recent side input.
+    BatchModeExecutionContext context = new BatchModeExecutionContext(0);
+
+    Map<String, Integer> map =
+        context.getSideInput(mapView, GlobalWindow.INSTANCE, mapSideInputs);
+    assertEquals(Integer.valueOf(1), map.get("a"));
+    // Evicts the map, which is still readable.
+    context.getSideInput(view, window(0), mapSideInputs);
+    assertEquals(Integer.valueOf(1), map.get("a"));
+    assertSame(map, context.getSideInput(mapView, GlobalWindow.INSTANCE, mapSideInputs));
+    assertEquals(1, numReads.get());
+
+    context.close();
+  }
+
+  @Test public void testIndexedSideInputsAreSharedAcrossContexts() throws Exception {
+    PCollectionView<Map<String, Integer>> mapView = TestPipeline.create()
+        .apply(Create.<KV<String, Integer>>of())
+        .setCoder(KvCoder.of(StringUtf8Coder.of(), VarIntCoder.of()))
+        .apply(View.<String, Integer>asMap().withSingletonValues().withIndexedLookups());
+    final AtomicInteger numReads = new AtomicInteger();
+    PTuple mapSideInputs = sideInputs.and(mapView.getTagInternal(),
+        new Iterable<WindowedValue<?>>() {
+          @Override
+          public Iterator<WindowedValue<?>> iterator() {
+            numReads.incrementAndGet();
+            return Arrays.<WindowedValue<?>>asList(
+                WindowedValue.valueInGlobalWindow(KV.of("a", 1))).iterator();
+          }
+        });
+    // No room for side inputs that are not in use.
+    IndexedSideInputCache cache = new IndexedSideInputCache(0);
+
+    BatchModeExecutionContext first = new BatchModeExecutionContext(Long.MAX_VALUE, cache);
+    Map<String, Integer> map = first.getSideInput(mapView, GlobalWindow.INSTANCE, mapSideInputs);
+    BatchModeExecutionContext second = new BatchModeExecutionContext(Long.MAX_VALUE, cache);
+    assertSame(map, second.getSideInput(mapView, GlobalWindow.INSTANCE, mapSideInputs));
+    assertEquals(1, numReads.get());
+
+    // The map is kept while a context still uses it.
+    first.close();
+    assertEquals(Integer.valueOf(1), map.get("a"));
+    second.close();
+    try {
+      map.get("a");
+      fail("Expected the unused map to be deleted");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    // It is indexed again when it is next read.
+    BatchModeExecutionContext third =
+        new BatchModeExecutionContext(Long.MAX_VALUE, new IndexedSideInputCache(Long.MAX_VALUE));
+    assertEquals(Integer.valueOf(1),
+        third.getSideInput(mapView, GlobalWindow.INSTANCE, mapSideInputs).get("a"));
+    assertEquals(2, numReads.get());
+    third.close();
+  }
+
+  private static IntervalWindow window(long start) {
+    return new IntervalWindow(new Instant(start), new Instant(start + 10));
+  }
+}
@@ -33,8 +33,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Tests for CoderUtils.
@@ -64,6 +66,32 @@ public class CoderUtilsTest {
     }
   }
 
+  /** Encodes a String by encoding it to a byte array with StringUtf8Coder, after a marker. */
+  static class NestingCoder extends AtomicCoder<String> {
+    @Override
+    public void encode(String value, OutputStream outStream, Context context)
+        throws IOException {
+      outStream.write('<');
+      outStream.write(CoderUtils.encodeToByteArray(StringUtf8Coder.of(), value));
+    }
+
+    @Override
+    public String decode(InputStream inStream, Context context) {
+      throw new RuntimeException("not expecting to be called");
+    }
+  }
+
+  @Test
+  public void testEncodeToByteArrayIsReentrant() throws Exception {
+    Assert.assertArrayEquals(
+        "<hello".getBytes(StandardCharsets.UTF_8),
+        CoderUtils.encodeToByteArray(new NestingCoder(), "hello"));
+    // The reused buffer is left in a usable state.
+    Assert.assertArrayEquals(
+        "<bye".getBytes(StandardCharsets.UTF_8),
+        CoderUtils.encodeToByteArray(new NestingCoder(), "bye"));
+  }
+
   @Test
   public void testCreateAtomicCoders() throws Exception {
     Assert.assertEquals(
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.values.KV;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/** Unit tests for {@link ExternalSorter}. */
+@RunWith(JUnit4.class)
+public class ExternalSorterTest {
+  @Rule public final ExpectedException thrown = ExpectedException.none();
+
+  private static byte[] bytes(int... values) {
+    byte[] result = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = (byte) values[i];
+    }
+    return result;
+  }
+
+  private static List<String> sortAll(ExternalSorter sorter) throws Exception {
+    List<String> result = new ArrayList<>();
+    Iterator<KV<byte[], byte[]>> it = sorter.sortedIterator();
+    while (it.hasNext()) {
+      KV<byte[], byte[]> pair = it.next();
+      result.add(new String(pair.getKey(), "UTF-8") + "=" + new String(pair.getValue(), "UTF-8"));
+    }
+    return result;
+  }
+
+  private static int countRunFiles() {
+    File[] runFiles = new File(System.getProperty("java.io.tmpdir")).listFiles(
+        new FilenameFilter() {
+          @Override
+          public boolean accept(File dir, String name) {
+            return name.startsWith("dataflow-sort-run-");
+          }
+        });
+    return runFiles.length;
+  }
+
+  @Test
+  public void testSortInMemory() throws Exception {
+    try (ExternalSorter sorter = new ExternalSorter(1 << 20)) {
+      sorter.add("b".getBytes("UTF-8"), "1".getBytes("UTF-8"));
+      sorter.add("a".getBytes("UTF-8"), "2".getBytes("UTF-8"));
+      sorter.add("b".getBytes("UTF-8"), "3".getBytes("UTF-8"));
+      sorter.add("ab".getBytes("UTF-8"), "4".getBytes("UTF-8"));
+
+      assertEquals(0, sorter.getNumSpilledRuns());
+      assertEquals(9 + 4 * 36, sorter.getBufferedBytes());
+      List<String> expected = new ArrayList<>();
+      expected.add("a=2");
+      expected.add("ab=4");
+      expected.add("b=1");
+      expected.add("b=3");
+      assertEquals(expected, sortAll(sorter));
+    }
+  }
+
+  @Test
+  public void testKeysCompareUnsigned() throws Exception {
+    try (ExternalSorter sorter = new ExternalSorter(1 << 20)) {
+      sorter.add(bytes(0xff), bytes(1));
+      sorter.add(bytes(0x01), bytes(2));
+      Iterator<KV<byte[], byte[]>> it = sorter.sortedIterator();
+      assertEquals(2, it.next().getValue()[0]);
+      assertEquals(1, it.next().getValue()[0]);
+      assertFalse(it.hasNext());
+    }
+  }
+
+  @Test
+  public void testSpillAndMergePreservesInsertionOrderOfEqualKeys() throws Exception {
+    Random random = new Random(0);
+    List<String> expected = new ArrayList<>();
+    List<List<String>> valuesByKey = new ArrayList<>();
+    for (int key = 0; key < 10; key++) {
+      valuesByKey.add(new ArrayList<String>());
+    }
+
+    try (ExternalSorter sorter = new ExternalSorter(100)) {
+      for (int i = 0; i < 1000; i++) {
+        int key = random.nextInt(10);
+        String value = Integer.toString(i);
+        sorter.add(Integer.toString(key).getBytes("UTF-8"), value.getBytes("UTF-8"));
+        valuesByKey.get(key).add(key + "=" + value);
+      }
+      for (List<String> values : valuesByKey) {
+        expected.addAll(values);
+      }
+
+      assertTrue(sorter.getNumSpilledRuns() > 1);
+      assertTrue(sorter.getBufferedBytes() <= 100);
+      assertEquals(expected, sortAll(sorter));
+    }
+  }
+
+  @Test
+  public void testCloseDeletesRunsOfPartiallyReadIterator() throws Exception {
+    int runFilesBefore = countRunFiles();
+    try (ExternalSorter sorter = new ExternalSorter(100)) {
+      for (int i = 0; i < 100; i++) {
+        sorter.add(bytes(i), bytes(i));
+      }
+      assertTrue(sorter.getNumSpilledRuns() > 1);
+      assertEquals(runFilesBefore + sorter.getNumSpilledRuns(), countRunFiles());
+
+      Iterator<KV<byte[], byte[]>> it = sorter.sortedIterator();
+      assertEquals(0, it.next().getKey()[0]);
+    }
+    assertEquals(runFilesBefore, countRunFiles());
+  }
+
+  @Test
+  public void testRunsAreDeletedOnceRead() throws Exception {
+    int runFilesBefore = countRunFiles();
+    try (ExternalSorter sorter = new ExternalSorter(100)) {
+      for (int i = 0; i < 100; i++) {
+        sorter.add(bytes(i), bytes(i));
+      }
+      assertTrue(sorter.getNumSpilledRuns() > 1);
+
+      Iterator<KV<byte[], byte[]>> it = sorter.sortedIterator();
+      while (it.hasNext()) {
+        it.next();
+      }
+      assertEquals(runFilesBefore, countRunFiles());
+    }
+  }
+
+  @Test
+  public void testSortOnlyOnce() throws Exception {
+    try (ExternalSorter sorter = new ExternalSorter(1 << 20)) {
+      sorter.sortedIterator();
+      thrown.expect(IllegalStateException.class);
+      sorter.add(bytes(1), bytes(2));
+    }
+  }
+}
@@ -21,6 +21,7 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
 import com.google.common.io.LineReader;
 
@@ -40,6 +41,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 
 /** Tests for {@link FileIOChannelFactory}. */
 @RunWith(JUnit4.class)
@@ -129,6 +131,19 @@ public class FileIOChannelFactoryTest {
         Matchers.hasItems(expected.toArray(new String[expected.size()])));
   }
 
+  @Test
+  public void testMatchWithSizes() throws Exception {
+    File a = temporaryFolder.newFile("a");
+    Files.write("a", a, StandardCharsets.UTF_8);
+    File ab = temporaryFolder.newFile("ab");
+    Files.write("abc", ab, StandardCharsets.UTF_8);
+    temporaryFolder.newFile("ba");
+
+    Map<String, Long> matched =
+        factory.matchWithSizes(factory.resolve(temporaryFolder.getRoot().getPath(), "a") + "*");
+    assertEquals(ImmutableMap.of(a.toString(), 1L, ab.toString(), 3L), matched);
+  }
+
   @Test
   public void testResolve() throws Exception {
     String expected = temporaryFolder.getRoot().toPath().resolve("aa").toString();
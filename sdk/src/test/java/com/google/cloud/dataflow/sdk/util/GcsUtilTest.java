@@ -36,6 +36,7 @@ import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
 import com.google.cloud.dataflow.sdk.util.gcsfs.GcsPath;
 import com.google.cloud.dataflow.sdk.util.gcsio.GoogleCloudStorageReadChannel;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -205,6 +206,45 @@ public class GcsUtilTest {
     }
   }
 
+  @Test
+  public void testGlobExpansionWithSizes() throws IOException {
+    GcsOptions pipelineOptions = PipelineOptionsFactory.as(GcsOptions.class);
+    pipelineOptions.setGcpCredential(new TestCredential());
+    GcsUtil gcsUtil = pipelineOptions.getGcsUtil();
+
+    Storage mockStorage = Mockito.mock(Storage.class);
+    gcsUtil.setStorageClient(mockStorage);
+
+    Storage.Objects mockStorageObjects = Mockito.mock(Storage.Objects.class);
+    Storage.Objects.List mockStorageList = Mockito.mock(Storage.Objects.List.class);
+
+    Objects modelObjects = new Objects();
+    List<StorageObject> items = new ArrayList<>();
+    items.add(new StorageObject().setBucket("testbucket").setName("testdirectory/")
+        .setSize(BigInteger.valueOf(0)));
+    items.add(new StorageObject().setBucket("testbucket").setName("testdirectory/file1name")
+        .setSize(BigInteger.valueOf(100)));
+    items.add(new StorageObject().setBucket("testbucket").setName("testdirectory/file2name")
+        .setSize(BigInteger.valueOf(200)));
+    items.add(new StorageObject().setBucket("testbucket").setName("testdirectory/otherfile")
+        .setSize(BigInteger.valueOf(300)));
+    modelObjects.setItems(items);
+
+    when(mockStorage.objects()).thenReturn(mockStorageObjects);
+    when(mockStorageObjects.list("testbucket")).thenReturn(mockStorageList);
+    when(mockStorageList.execute()).thenReturn(modelObjects);
+
+    GcsPath pattern = GcsPath.fromUri("gs://testbucket/testdirectory/file*");
+    assertEquals(
+        ImmutableMap.of(
+            GcsPath.fromUri("gs://testbucket/testdirectory/file1name"), 100L,
+            GcsPath.fromUri("gs://testbucket/testdirectory/file2name"), 200L),
+        gcsUtil.expandWithSizes(pattern));
+    // The sizes come from the listing, without fetching each object.
+    Mockito.verify(mockStorageObjects, Mockito.never())
+        .get(Mockito.anyString(), Mockito.anyString());
+  }
+
   // Patterns that contain recursive wildcards ('**') are not supported.
   @Test
   public void testRecursiveGlobExpansionFails() throws IOException {
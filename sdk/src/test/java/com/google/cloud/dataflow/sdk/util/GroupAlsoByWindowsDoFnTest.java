@@ -33,6 +33,7 @@ import com.google.cloud.dataflow.sdk.transforms.windowing.SlidingWindows;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
 import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.TupleTag;
+import com.google.common.collect.Iterables;
 
 import org.hamcrest.Matchers;
 import org.joda.time.Duration;
@@ -44,6 +45,8 @@ import org.junit.runners.JUnit4;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /** Unit tests for {@link GroupAlsoByWindowsDoFn}. */
@@ -250,6 +253,90 @@ public class GroupAlsoByWindowsDoFnTest {
         Matchers.contains(window(15, 25)));
   }
 
+  @Test public void testSortedSessions() throws Exception {
+    WindowingStrategy<Object, IntervalWindow> windowingStrategy =
+        WindowingStrategy.of(Sessions.withGapDuration(Duration.millis(10)));
+    assertThat(GroupAlsoByWindowsDoFn.createForIterable(windowingStrategy, StringUtf8Coder.of()),
+        Matchers.instanceOf(GroupAlsoByWindowsViaSortedSessionsDoFn.class));
+    DoFnRunner<KV<String, Iterable<WindowedValue<String>>>,
+        KV<String, Iterable<String>>, List> runner = makeRunner(windowingStrategy);
+
+    runner.startBundle();
+
+    runner.processElement(WindowedValue.valueInEmptyWindows(
+        KV.of("k", (Iterable<WindowedValue<String>>) Arrays.asList(
+            WindowedValue.of("v1", new Instant(0), Arrays.asList(window(0, 10))),
+            WindowedValue.of("v2", new Instant(5), Arrays.asList(window(5, 15))),
+            WindowedValue.of("v3", new Instant(5), Arrays.asList(window(5, 15))),
+            WindowedValue.of("v4", new Instant(14), Arrays.asList(window(14, 24))),
+            WindowedValue.of("v5", new Instant(24), Arrays.asList(window(24, 34))),
+            WindowedValue.of("v6", new Instant(50), Arrays.asList(window(50, 60)))))));
+
+    runner.finishBundle();
+
+    List<WindowedValue<KV<String, Iterable<String>>>> result = runner.getReceiver(outputTag);
+
+    assertEquals(3, result.size());
+
+    WindowedValue<KV<String, Iterable<String>>> item0 = result.get(0);
+    assertEquals("k", item0.getValue().getKey());
+    assertThat(item0.getValue().getValue(), Matchers.contains("v1", "v2", "v3", "v4"));
+    // Sessions can be iterated more than once.
+    assertThat(item0.getValue().getValue(), Matchers.contains("v1", "v2", "v3", "v4"));
+    assertEquals(new Instant(0), item0.getTimestamp());
+    assertThat(item0.getWindows(), Matchers.contains(window(0, 24)));
+
+    WindowedValue<KV<String, Iterable<String>>> item1 = result.get(1);
+    assertThat(item1.getValue().getValue(), Matchers.contains("v5"));
+    assertEquals(new Instant(24), item1.getTimestamp());
+    assertThat(item1.getWindows(), Matchers.contains(window(24, 34)));
+
+    WindowedValue<KV<String, Iterable<String>>> item2 = result.get(2);
+    assertThat(item2.getValue().getValue(), Matchers.contains("v6"));
+    assertEquals(new Instant(50), item2.getTimestamp());
+    assertThat(item2.getWindows(), Matchers.contains(window(50, 60)));
+  }
+
+  @Test public void testSortedSessionsWithOutOfOrderStarts() throws Exception {
+    DoFnRunner<KV<String, Iterable<WindowedValue<String>>>,
+        KV<String, Iterable<String>>, List> runner =
+        makeRunner(WindowingStrategy.of(Sessions.withGapDuration(Duration.millis(10))));
+
+    runner.startBundle();
+
+    // The timestamp of v3 was moved later after it was assigned to its session,
+    // so it arrives after the session of v1 has been closed by the watermark.
+    runner.processElement(WindowedValue.valueInEmptyWindows(
+        KV.of("k", (Iterable<WindowedValue<String>>) Arrays.asList(
+            WindowedValue.of("v1", new Instant(0), Arrays.asList(window(0, 10))),
+            WindowedValue.of("v2", new Instant(20), Arrays.asList(window(20, 30))),
+            WindowedValue.of("v3", new Instant(25), Arrays.asList(window(8, 22))),
+            WindowedValue.of("v4", new Instant(40), Arrays.asList(window(40, 50)))))));
+
+    runner.finishBundle();
+
+    List<WindowedValue<KV<String, Iterable<String>>>> result =
+        sortedByWindow(runner.getReceiver(outputTag));
+
+    assertEquals(3, result.size());
+
+    WindowedValue<KV<String, Iterable<String>>> item0 = result.get(0);
+    assertEquals("k", item0.getValue().getKey());
+    assertThat(item0.getValue().getValue(), Matchers.contains("v1"));
+    assertEquals(new Instant(0), item0.getTimestamp());
+    assertThat(item0.getWindows(), Matchers.contains(window(0, 10)));
+
+    WindowedValue<KV<String, Iterable<String>>> item1 = result.get(1);
+    assertThat(item1.getValue().getValue(), Matchers.containsInAnyOrder("v2", "v3"));
+    assertEquals(new Instant(20), item1.getTimestamp());
+    assertThat(item1.getWindows(), Matchers.contains(window(8, 30)));
+
+    WindowedValue<KV<String, Iterable<String>>> item2 = result.get(2);
+    assertThat(item2.getValue().getValue(), Matchers.contains("v4"));
+    assertEquals(new Instant(40), item2.getTimestamp());
+    assertThat(item2.getWindows(), Matchers.contains(window(40, 50)));
+  }
+
   @Test public void testSessionsCombine() throws Exception {
     CombineFn<Long, ?, Long> combineFn = new Sum.SumLongFn();
     DoFnRunner<KV<String, Iterable<WindowedValue<Long>>>,
@@ -292,6 +379,107 @@ public class GroupAlsoByWindowsDoFnTest {
     assertThat(item1.getWindows(), Matchers.contains(window(15, 25)));
   }
 
+  @Test public void testSortedSessionsCombine() throws Exception {
+    WindowingStrategy<Object, IntervalWindow> windowingStrategy =
+        WindowingStrategy.of(Sessions.withGapDuration(Duration.millis(10)));
+    CombineFn<Long, ?, Long> combineFn = new Sum.SumLongFn();
+    assertThat(
+        GroupAlsoByWindowsDoFn.create(windowingStrategy, combineFn.<String>asKeyedFn(),
+            StringUtf8Coder.of(), BigEndianLongCoder.of()),
+        Matchers.instanceOf(GroupAlsoByWindowsAndCombineViaSortedSessionsDoFn.class));
+    DoFnRunner<KV<String, Iterable<WindowedValue<Long>>>,
+        KV<String, Long>, List> runner =
+        makeRunner(windowingStrategy, combineFn.<String>asKeyedFn());
+
+    runner.startBundle();
+
+    runner.processElement(WindowedValue.valueInEmptyWindows(
+        KV.of("k", (Iterable<WindowedValue<Long>>) Arrays.asList(
+            WindowedValue.of(1L, new Instant(0), Arrays.asList(window(0, 10))),
+            WindowedValue.of(2L, new Instant(5), Arrays.asList(window(5, 15))),
+            WindowedValue.of(4L, new Instant(14), Arrays.asList(window(14, 24))),
+            WindowedValue.of(8L, new Instant(24), Arrays.asList(window(24, 34))),
+            WindowedValue.of(16L, new Instant(50), Arrays.asList(window(50, 60))),
+            WindowedValue.of(32L, new Instant(55), Arrays.asList(window(55, 65)))))));
+
+    runner.finishBundle();
+
+    List<WindowedValue<KV<String, Long>>> result = runner.getReceiver(outputTag);
+
+    assertEquals(3, result.size());
+
+    WindowedValue<KV<String, Long>> item0 = result.get(0);
+    assertEquals("k", item0.getValue().getKey());
+    assertEquals(7L, item0.getValue().getValue().longValue());
+    assertEquals(new Instant(0), item0.getTimestamp());
+    assertThat(item0.getWindows(), Matchers.contains(window(0, 24)));
+
+    WindowedValue<KV<String, Long>> item1 = result.get(1);
+    assertEquals(8L, item1.getValue().getValue().longValue());
+    assertEquals(new Instant(24), item1.getTimestamp());
+    assertThat(item1.getWindows(), Matchers.contains(window(24, 34)));
+
+    WindowedValue<KV<String, Long>> item2 = result.get(2);
+    assertEquals(48L, item2.getValue().getValue().longValue());
+    assertEquals(new Instant(50), item2.getTimestamp());
+    assertThat(item2.getWindows(), Matchers.contains(window(50, 65)));
+  }
+
+  @Test public void testSortedSessionsCombineWithOutOfOrderStarts() throws Exception {
+    CombineFn<Long, ?, Long> combineFn = new Sum.SumLongFn();
+    DoFnRunner<KV<String, Iterable<WindowedValue<Long>>>,
+        KV<String, Long>, List> runner =
+        makeRunner(WindowingStrategy.of(Sessions.withGapDuration(Duration.millis(10))),
+                   combineFn.<String>asKeyedFn());
+
+    runner.startBundle();
+
+    // The timestamp of 4 was moved later after it was assigned to its session,
+    // so it arrives after the session of 1 has been closed by the watermark.
+    runner.processElement(WindowedValue.valueInEmptyWindows(
+        KV.of("k", (Iterable<WindowedValue<Long>>) Arrays.asList(
+            WindowedValue.of(1L, new Instant(0), Arrays.asList(window(0, 10))),
+            WindowedValue.of(2L, new Instant(20), Arrays.asList(window(20, 30))),
+            WindowedValue.of(4L, new Instant(25), Arrays.asList(window(8, 22))),
+            WindowedValue.of(8L, new Instant(40), Arrays.asList(window(40, 50)))))));
+
+    runner.finishBundle();
+
+    List<WindowedValue<KV<String, Long>>> result =
+        sortedByWindow(runner.getReceiver(outputTag));
+
+    assertEquals(3, result.size());
+
+    WindowedValue<KV<String, Long>> item0 = result.get(0);
+    assertEquals("k", item0.getValue().getKey());
+    assertEquals(1L, item0.getValue().getValue().longValue());
+    assertEquals(new Instant(0), item0.getTimestamp());
+    assertThat(item0.getWindows(), Matchers.contains(window(0, 10)));
+
+    WindowedValue<KV<String, Long>> item1 = result.get(1);
+    assertEquals(6L, item1.getValue().getValue().longValue());
+    assertEquals(new Instant(20), item1.getTimestamp());
+    assertThat(item1.getWindows(), Matchers.contains(window(8, 30)));
+
+    WindowedValue<KV<String, Long>> item2 = result.get(2);
+    assertEquals(8L, item2.getValue().getValue().longValue());
+    assertEquals(new Instant(40), item2.getTimestamp());
+    assertThat(item2.getWindows(), Matchers.contains(window(40, 50)));
+  }
+
+  /** Returns the given results of a single key, ordered by their only window. */
+  private static <T> List<WindowedValue<T>> sortedByWindow(List<WindowedValue<T>> results) {
+    List<WindowedValue<T>> sorted = new ArrayList<>(results);
+    Collections.sort(sorted, new Comparator<WindowedValue<T>>() {
+      @Override
+      public int compare(WindowedValue<T> a, WindowedValue<T> b) {
+        return ((IntervalWindow) Iterables.getOnlyElement(a.getWindows()))
+            .compareTo((IntervalWindow) Iterables.getOnlyElement(b.getWindows()));
+      }
+    });
+    return sorted;
+  }
+
   private DoFnRunner<KV<String, Iterable<WindowedValue<String>>>,
       KV<String, Iterable<String>>, List> makeRunner(
           WindowingStrategy<? super String, IntervalWindow> windowingStrategy) {
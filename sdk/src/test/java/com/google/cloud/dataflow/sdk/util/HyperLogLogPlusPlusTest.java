@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.common.hash.Hashing;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link HyperLogLogPlusPlus}. */
+@RunWith(JUnit4.class)
+public class HyperLogLogPlusPlusTest {
+  private static long hash(long i) {
+    return Hashing.murmur3_128().hashLong(i).asLong();
+  }
+
+  private static HyperLogLogPlusPlus sketchOf(int precision, long start, long end) {
+    HyperLogLogPlusPlus sketch = new HyperLogLogPlusPlus(precision);
+    for (long i = start; i < end; i++) {
+      sketch.add(hash(i));
+    }
+    return sketch;
+  }
+
+  @Test
+  public void testSmallSetsAreCountedExactly() {
+    HyperLogLogPlusPlus sketch = sketchOf(14, 0, 1000);
+    for (long i = 0; i < 1000; i++) {
+      sketch.add(hash(i));
+    }
+    assertTrue(sketch.isSparse());
+    assertEquals(1000, sketch.estimate());
+    assertEquals(0, new HyperLogLogPlusPlus(14).estimate());
+  }
+
+  @Test
+  public void testEstimationError() {
+    for (int precision : new int[] {10, 12, 14}) {
+      double standardError = 1.04 / Math.sqrt(1 << precision);
+      for (long count : new long[] {100, 3000, 20000, 200000}) {
+        long estimate = sketchOf(precision, 0, count).estimate();
+        double error = Math.abs(estimate - count) / (double) count;
+        assertThat("precision " + precision + ", count " + count,
+            error, lessThan(4 * standardError));
+      }
+    }
+  }
+
+  @Test
+  public void testMergeIsUnion() {
+    for (long end : new long[] {300, 60000}) {
+      HyperLogLogPlusPlus union = sketchOf(12, 0, 2 * end);
+      HyperLogLogPlusPlus merged = sketchOf(12, 0, end);
+      merged.merge(sketchOf(12, end / 2, 2 * end));
+      assertEquals(union.isSparse(), merged.isSparse());
+      assertArrayEquals(union.toByteArray(), merged.toByteArray());
+    }
+
+    // A sparse sketch merged into a dense one, and vice versa.
+    HyperLogLogPlusPlus union = sketchOf(12, 0, 60100);
+    HyperLogLogPlusPlus dense = sketchOf(12, 0, 60000);
+    HyperLogLogPlusPlus sparse = sketchOf(12, 60000, 60100);
+    assertFalse(dense.isSparse());
+    assertTrue(sparse.isSparse());
+    dense.merge(sketchOf(12, 60000, 60100));
+    sparse.merge(sketchOf(12, 0, 60000));
+    assertArrayEquals(union.toByteArray(), dense.toByteArray());
+    assertArrayEquals(union.toByteArray(), sparse.toByteArray());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeDifferentPrecisions() {
+    sketchOf(12, 0, 10).merge(sketchOf(14, 0, 10));
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    Coder<HyperLogLogPlusPlus> coder = HyperLogLogPlusPlus.SketchCoder.of();
+    for (long count : new long[] {0, 10, 500, 100000}) {
+      HyperLogLogPlusPlus sketch = sketchOf(12, 0, count);
+      byte[] bytes = sketch.toByteArray();
+      HyperLogLogPlusPlus copy = HyperLogLogPlusPlus.fromByteArray(bytes);
+      assertEquals(sketch.estimate(), copy.estimate());
+      assertArrayEquals(bytes, copy.toByteArray());
+
+      copy = CoderUtils.decodeFromByteArray(coder, CoderUtils.encodeToByteArray(coder, sketch));
+      assertArrayEquals(bytes, copy.toByteArray());
+    }
+    // Sparse sketches are much smaller than their registers.
+    assertThat(sketchOf(12, 0, 100).toByteArray().length, lessThan(400));
+  }
+}
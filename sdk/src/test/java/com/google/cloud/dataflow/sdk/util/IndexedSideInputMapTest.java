@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.coders.BigEndianIntegerCoder;
+import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
+import com.google.cloud.dataflow.sdk.values.KV;
+import com.google.common.collect.Iterables;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Unit tests for {@link IndexedSideInputMap}. */
+@RunWith(JUnit4.class)
+public class IndexedSideInputMapTest {
+  // Enough entries to fill many blocks.
+  private static final int NUM_KEYS = 20000;
+
+  private static String value(int key) {
+    return "value-" + key + "-padded-to-span-more-blocks";
+  }
+
+  @Test
+  public void testSingletonMapLookups() throws Exception {
+    List<KV<Integer, String>> contents = new ArrayList<>();
+    // Keys are added out of order, and only even keys are present.
+    for (int i = NUM_KEYS - 1; i >= 0; i--) {
+      contents.add(KV.of(2 * i, value(i)));
+    }
+    try (IndexedSideInputMap<Integer, String> indexed = IndexedSideInputMap.create(
+        contents, BigEndianIntegerCoder.of(), StringUtf8Coder.of(), true)) {
+      Map<Integer, String> map = indexed.asSingletonMap();
+      assertEquals(NUM_KEYS, map.size());
+      for (int i = 0; i < NUM_KEYS; i += 97) {
+        assertEquals(value(i), map.get(2 * i));
+        assertTrue(map.containsKey(2 * i));
+        assertNull(map.get(2 * i + 1));
+        assertFalse(map.containsKey(2 * i + 1));
+      }
+      assertNull(map.get(-1));
+      assertNull(map.get(2 * NUM_KEYS));
+
+      Map<Integer, String> copy = new HashMap<>(map);
+      assertEquals(NUM_KEYS, copy.size());
+      assertEquals(value(NUM_KEYS - 1), copy.get(2 * (NUM_KEYS - 1)));
+    }
+  }
+
+  @Test
+  public void testMultimapLookups() throws Exception {
+    List<KV<String, Integer>> contents = new ArrayList<>();
+    for (int i = 0; i < NUM_KEYS; i++) {
+      contents.add(KV.of("key-" + (i % 100), i));
+    }
+    // A key whose values span several blocks.
+    for (int i = 0; i < 3 * IndexedSideInputMap.BLOCK_BYTES; i++) {
+      contents.add(KV.of("key-50", -i));
+    }
+    contents.add(KV.of("single", 7));
+
+    try (IndexedSideInputMap<String, Integer> indexed = IndexedSideInputMap.create(
+        contents, StringUtf8Coder.of(), BigEndianIntegerCoder.of(), false)) {
+      Map<String, Iterable<Integer>> map = indexed.asMultimap();
+      assertEquals(101, map.size());
+      assertThat(map.get("single"), contains(7));
+      assertNull(map.get("missing"));
+
+      List<Integer> expected = new ArrayList<>();
+      for (int i = 17; i < NUM_KEYS; i += 100) {
+        expected.add(i);
+      }
+      assertEquals(expected, map.get("key-17"));
+
+      assertEquals(NUM_KEYS / 100 + 3 * IndexedSideInputMap.BLOCK_BYTES,
+          Iterables.size(map.get("key-50")));
+
+      int numValues = 0;
+      for (Map.Entry<String, Iterable<Integer>> entry : map.entrySet()) {
+        numValues += Iterables.size(entry.getValue());
+      }
+      assertEquals(contents.size(), numValues);
+    }
+  }
+
+  @Test
+  public void testMultimapWithDuplicatePairs() throws Exception {
+    try (IndexedSideInputMap<String, Integer> indexed = IndexedSideInputMap.create(
+        Arrays.asList(KV.of("a", 1), KV.of("b", 2), KV.of("a", 3), KV.of("a", 1), KV.of("b", 2)),
+        StringUtf8Coder.of(), BigEndianIntegerCoder.of(), false)) {
+      // Like the multimap of a non-indexed side input, each pair is kept once.
+      Map<String, Iterable<Integer>> map = indexed.asMultimap();
+      assertEquals(2, map.size());
+      assertThat(map.get("a"), containsInAnyOrder(1, 3));
+      assertThat(map.get("b"), contains(2));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSingletonMapWithDuplicateKeys() throws Exception {
+    IndexedSideInputMap.create(Arrays.asList(KV.of("a", 1), KV.of("b", 2), KV.of("a", 3)),
+        StringUtf8Coder.of(), BigEndianIntegerCoder.of(), true);
+  }
+
+  @Test
+  public void testReleasedMapIsReopened() throws Exception {
+    try (IndexedSideInputMap<String, Integer> indexed = IndexedSideInputMap.create(
+        Arrays.asList(KV.of("a", 1), KV.of("b", 2)),
+        StringUtf8Coder.of(), BigEndianIntegerCoder.of(), true)) {
+      Map<String, Integer> map = indexed.asSingletonMap();
+      assertEquals(Integer.valueOf(1), map.get("a"));
+      indexed.release();
+      assertEquals(Integer.valueOf(2), map.get("b"));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testClosedMap() throws Exception {
+    IndexedSideInputMap<String, Integer> indexed = IndexedSideInputMap.create(
+        Arrays.asList(KV.of("a", 1)), StringUtf8Coder.of(), BigEndianIntegerCoder.of(), true);
+    Map<String, Integer> map = indexed.asSingletonMap();
+    assertEquals(Integer.valueOf(1), map.get("a"));
+    indexed.close();
+    map.get("a");
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.cloud.dataflow.sdk.util.common.worker.Reader;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/** Tests for {@link ReaderUtils}. */
+@RunWith(JUnit4.class)
+public class ReaderUtilsTest {
+  /** A reader of fixed elements, which counts its open iterators. */
+  private static class CountingReader extends Reader<String> {
+    private final List<String> elems;
+    private int openIterators;
+
+    CountingReader(String... elems) {
+      this.elems = Arrays.asList(elems);
+    }
+
+    @Override
+    public ReaderIterator<String> iterator() {
+      openIterators++;
+      final Iterator<String> iter = elems.iterator();
+      return new AbstractReaderIterator<String>() {
+        @Override
+        public boolean hasNext() {
+          return iter.hasNext();
+        }
+
+        @Override
+        public String next() {
+          return iter.next();
+        }
+
+        @Override
+        public void close() {
+          openIterators--;
+        }
+      };
+    }
+  }
+
+  @Test
+  public void testReadElemsLazilyClosesExhaustedIterators() throws Exception {
+    CountingReader reader = new CountingReader("a", "b", "c");
+    Iterable<String> elems = ReaderUtils.readElemsLazilyFromReader(reader);
+    assertEquals(0, reader.openIterators);
+
+    Iterator<String> iter = elems.iterator();
+    assertEquals("a", iter.next());
+    assertEquals(1, reader.openIterators);
+
+    assertEquals(Arrays.asList("a", "b", "c"), Lists.newArrayList(elems));
+    assertEquals(1, reader.openIterators);
+  }
+
+  @Test
+  public void testReadElemsLazilyClosesAbandonedIterators() throws IOException {
+    CountingReader reader = new CountingReader("a", "b", "c");
+    try (ReaderUtils.LazyReaderIterable<String> elems =
+        ReaderUtils.readElemsLazilyFromReader(reader)) {
+      assertEquals("a", elems.iterator().next());
+      assertEquals("a", elems.iterator().next());
+      assertEquals(2, reader.openIterators);
+    }
+    assertEquals(0, reader.openIterators);
+  }
+}
@@ -174,6 +174,47 @@ public class StateFetcherTest {
     assertThat(data, contains("data1", "data2"));
   }
 
+  @Test
+  public void testFetchWithStateCache() throws Exception {
+    StateFetcher fetcher = new StateFetcher(server);
+    WindmillStateCache cache = new WindmillStateCache(1 << 20);
+    CodedTupleTag<String> tag = CodedTupleTag.of("tag1", StringUtf8Coder.of());
+
+    when(server.getData(any(Windmill.GetDataRequest.class))).thenReturn(
+        Windmill.GetDataResponse.newBuilder()
+        .addData(Windmill.ComputationGetDataResponse.newBuilder()
+            .setComputationId("computation")
+            .addData(Windmill.KeyedGetDataResponse.newBuilder()
+                .setKey(ByteString.copyFromUtf8("key"))
+                .addValues(Windmill.TagValue.newBuilder()
+                    .setTag(ByteString.copyFromUtf8("p:tag1"))
+                    .setValue(Windmill.Value.newBuilder()
+                        .setTimestamp(0)
+                        .setData(ByteString.copyFromUtf8("data1"))
+                        .build())
+                    .build())
+                .build())
+            .build())
+        .build());
+
+    WindmillStateCache.ForKey forKey =
+        cache.forKey("computation", ByteString.copyFromUtf8("key"), 17L);
+    assertEquals("data1", fetcher.fetch("computation", ByteString.copyFromUtf8("key"), 17L, "p:",
+        Arrays.asList(tag), forKey).get(tag).get());
+    forKey.stage(Windmill.WorkItemCommitRequest.newBuilder()
+        .setKey(ByteString.copyFromUtf8("key"))
+        .setWorkToken(17L)
+        .build());
+    cache.commitSucceeded("computation", ByteString.copyFromUtf8("key"), 17L);
+
+    // The next work item for the key reads the tag from the cache.
+    forKey = cache.forKey("computation", ByteString.copyFromUtf8("key"), 18L);
+    assertEquals("data1", fetcher.fetch("computation", ByteString.copyFromUtf8("key"), 18L, "p:",
+        Arrays.asList(tag), forKey).get(tag).get());
+
+    verify(server, times(1)).getData(any(Windmill.GetDataRequest.class));
+  }
+
   @Test
   public void testFetchGlobalDataBasic() throws Exception {
     StateFetcher fetcher = new StateFetcher(server);
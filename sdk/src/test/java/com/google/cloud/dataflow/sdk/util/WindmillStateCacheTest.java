@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.cloud.dataflow.sdk.runners.worker.windmill.Windmill;
+import com.google.protobuf.ByteString;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+/** Unit tests for {@link WindmillStateCache}. */
+@RunWith(JUnit4.class)
+public class WindmillStateCacheTest {
+  private static final ByteString KEY = ByteString.copyFromUtf8("key");
+  private static final ByteString TAG = ByteString.copyFromUtf8("p:tag");
+  private static final ByteString LIST_TAG = ByteString.copyFromUtf8("p:list");
+
+  private WindmillStateCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new WindmillStateCache(1 << 20);
+  }
+
+  private static Windmill.Value value(String data) {
+    return Windmill.Value.newBuilder()
+        .setTimestamp(0)
+        .setData(ByteString.copyFromUtf8(data))
+        .build();
+  }
+
+  private static Windmill.WorkItemCommitRequest commit(long workToken) {
+    return Windmill.WorkItemCommitRequest.newBuilder()
+        .setKey(KEY)
+        .setWorkToken(workToken)
+        .addValueUpdates(Windmill.TagValue.newBuilder()
+            .setTag(TAG)
+            .setValue(value("written" + workToken)))
+        .addListUpdates(Windmill.TagList.newBuilder()
+            .setTag(LIST_TAG)
+            .addValues(value("\000appended" + workToken)))
+        .build();
+  }
+
+  @Test
+  public void testStateVisibleOnlyAfterCommitSucceeds() throws Exception {
+    WindmillStateCache.ForKey forKey = cache.forKey("computation", KEY, 1L);
+    assertNull(forKey.getValue(TAG));
+    assertNull(forKey.getList(LIST_TAG));
+    forKey.putList(LIST_TAG, Arrays.asList(value("\000fetched")));
+    forKey.stage(commit(1L));
+
+    assertNull(cache.forKey("computation", KEY, 2L).getValue(TAG));
+
+    cache.commitSucceeded("computation", KEY, 1L);
+    forKey = cache.forKey("computation", KEY, 2L);
+    assertEquals(value("written1"), forKey.getValue(TAG));
+    assertEquals(
+        Arrays.asList(value("\000fetched"), value("\000appended1")),
+        forKey.getList(LIST_TAG));
+    assertNull(cache.forKey("other computation", KEY, 2L).getValue(TAG));
+
+    assertEquals(2, cache.getHits());
+    assertEquals(4, cache.getMisses());
+  }
+
+  @Test
+  public void testAppendToUnknownListIsNotCached() throws Exception {
+    WindmillStateCache.ForKey forKey = cache.forKey("computation", KEY, 1L);
+    forKey.stage(commit(1L));
+    cache.commitSucceeded("computation", KEY, 1L);
+
+    assertNull(cache.forKey("computation", KEY, 2L).getList(LIST_TAG));
+  }
+
+  @Test
+  public void testOverlappingWorkItems() throws Exception {
+    WindmillStateCache.ForKey forKey = cache.forKey("computation", KEY, 1L);
+    forKey.stage(commit(1L));
+    cache.commitSucceeded("computation", KEY, 1L);
+
+    // Windmill hands out work item 3 once it has applied the commit of work
+    // item 2, which has not completed on the worker yet.
+    cache.forKey("computation", KEY, 2L).stage(commit(2L));
+    forKey = cache.forKey("computation", KEY, 3L);
+    assertNull(forKey.getValue(TAG));
+    forKey.putValue(TAG, value("written2"));
+    forKey.stage(commit(3L));
+
+    // The commits complete out of order; the older one must not be cached.
+    cache.commitSucceeded("computation", KEY, 3L);
+    assertNull(cache.forKey("computation", KEY, 4L).getValue(TAG));
+    cache.commitSucceeded("computation", KEY, 2L);
+    assertEquals(value("written3"), cache.forKey("computation", KEY, 4L).getValue(TAG));
+  }
+
+  @Test
+  public void testStateNotServedToOlderWorkItems() throws Exception {
+    cache.forKey("computation", KEY, 5L).stage(commit(5L));
+    cache.commitSucceeded("computation", KEY, 5L);
+
+    assertNull(cache.forKey("computation", KEY, 5L).getValue(TAG));
+    assertEquals(0, cache.getNumKeys());
+  }
+
+  @Test
+  public void testInvalidateComputation() throws Exception {
+    cache.forKey("computation", KEY, 1L).stage(commit(1L));
+    cache.commitSucceeded("computation", KEY, 1L);
+    cache.forKey("other computation", KEY, 1L).stage(commit(1L));
+    cache.commitSucceeded("other computation", KEY, 1L);
+
+    cache.invalidateComputation("computation");
+    assertNull(cache.forKey("computation", KEY, 2L).getValue(TAG));
+    assertEquals(value("written1"), cache.forKey("other computation", KEY, 2L).getValue(TAG));
+
+    // A commit in flight when the keys may have moved is cached once it succeeds.
+    cache.forKey("computation", KEY, 2L).stage(commit(2L));
+    cache.invalidateComputation("computation");
+    cache.commitSucceeded("computation", KEY, 2L);
+    assertEquals(value("written2"), cache.forKey("computation", KEY, 3L).getValue(TAG));
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    WindmillStateCache.ForKey forKey = cache.forKey("computation", KEY, 1L);
+    forKey.stage(commit(1L));
+    cache.commitSucceeded("computation", KEY, 1L);
+
+    forKey = cache.forKey("computation", KEY, 2L);
+    forKey.stage(commit(2L));
+    // A failed commit drops both the staged and the committed state.
+    cache.invalidate("computation", KEY, 2L);
+    cache.commitSucceeded("computation", KEY, 2L);
+
+    assertNull(cache.forKey("computation", KEY, 3L).getValue(TAG));
+    assertEquals(0, cache.getNumKeys());
+  }
+}
@@ -18,15 +18,21 @@ package com.google.cloud.dataflow.sdk.util;
 
 import com.google.cloud.dataflow.sdk.coders.Coder;
 import com.google.cloud.dataflow.sdk.coders.CoderException;
+import com.google.cloud.dataflow.sdk.coders.InstantCoder;
 import com.google.cloud.dataflow.sdk.coders.StringUtf8Coder;
 import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+import com.google.cloud.dataflow.sdk.util.WindowedValue.FullWindowedValueCoder;
 
+import org.hamcrest.Matchers;
 import org.joda.time.Instant;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 
 /** Test case for {@link WindowedValue}. */
@@ -52,4 +58,147 @@ public class WindowedValueTest {
     Assert.assertEquals(value.getTimestamp(), decodedValue.getTimestamp());
     Assert.assertArrayEquals(value.getWindows().toArray(), decodedValue.getWindows().toArray());
   }
+
+  @Test
+  public void testUntouchedDecodedValueIsEncodedAsIs() throws CoderException {
+    Instant timestamp = new Instant(1234);
+    WindowedValue<String> value = WindowedValue.of(
+        "abc", timestamp, new IntervalWindow(timestamp, timestamp.plus(1000)));
+
+    Coder<WindowedValue<String>> windowedValueCoder =
+        WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder())
+        .withLazyDecoding();
+
+    byte[] encodedValue = CoderUtils.encodeToByteArray(windowedValueCoder, value);
+    WindowedValue<String> decodedValue =
+        CoderUtils.decodeFromByteArray(windowedValueCoder, encodedValue);
+
+    // The decoded value has not been accessed, so its bytes are reused.
+    Assert.assertSame(
+        encodedValue, CoderUtils.encodeToByteArray(windowedValueCoder, decodedValue));
+
+    Assert.assertEquals(value, decodedValue);
+    Assert.assertEquals(decodedValue, value);
+    Assert.assertEquals(value.hashCode(), decodedValue.hashCode());
+
+    // Once accessed, the value is encoded from its components.
+    Assert.assertEquals("abc", decodedValue.getValue());
+    byte[] reencodedValue = CoderUtils.encodeToByteArray(windowedValueCoder, decodedValue);
+    Assert.assertNotSame(encodedValue, reencodedValue);
+    Assert.assertArrayEquals(encodedValue, reencodedValue);
+  }
+
+  @Test
+  public void testIntervalWindowsAreEncodedCompactly() throws Exception {
+    Instant timestamp = new Instant(1234567);
+    WindowedValue<String> value = WindowedValue.of("abc", timestamp, Arrays.asList(
+        new IntervalWindow(new Instant(1200000), new Instant(1260000)),
+        new IntervalWindow(new Instant(1230000), new Instant(1290000)),
+        new IntervalWindow(new Instant(1210000), new Instant(1240000))));
+
+    FullWindowedValueCoder<String> windowedValueCoder =
+        WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder())
+        .withCompactIntervalWindows();
+
+    byte[] encodedValue = CoderUtils.encodeToByteArray(windowedValueCoder, value);
+    byte[] encodedWindows = CoderUtils.encodeToByteArray(
+        windowedValueCoder.getWindowsCoder(), value.getWindows());
+    // The value and timestamp take 3 and 8 bytes.
+    Assert.assertThat(encodedValue.length - 11, Matchers.lessThan(encodedWindows.length / 2));
+
+    WindowedValue<String> decodedValue =
+        CoderUtils.decodeFromByteArray(windowedValueCoder, encodedValue);
+    Assert.assertEquals(value, decodedValue);
+    Assert.assertArrayEquals(value.getWindows().toArray(), decodedValue.getWindows().toArray());
+
+    // Decoded windows are interned.
+    WindowedValue<String> decodedAgain =
+        CoderUtils.decodeFromByteArray(windowedValueCoder, encodedValue);
+    Assert.assertSame(decodedValue.getWindows().iterator().next(),
+        decodedAgain.getWindows().iterator().next());
+  }
+
+  @Test
+  public void testIntervalWindowsAreEncodedWithWindowsCoderByDefault() throws Exception {
+    Instant timestamp = new Instant(1234);
+    WindowedValue<String> value = WindowedValue.of("abc", timestamp, Arrays.asList(
+        new IntervalWindow(timestamp, timestamp.plus(1000)),
+        new IntervalWindow(timestamp.plus(1000), timestamp.plus(2000))));
+
+    FullWindowedValueCoder<String> windowedValueCoder =
+        WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+
+    // The service and other workers decode this encoding, so it must not change.
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StringUtf8Coder.of().encode("abc", out, Coder.Context.NESTED);
+    InstantCoder.of().encode(timestamp, out, Coder.Context.NESTED);
+    windowedValueCoder.getWindowsCoder().encode(value.getWindows(), out, Coder.Context.NESTED);
+
+    Assert.assertArrayEquals(
+        out.toByteArray(), CoderUtils.encodeToByteArray(windowedValueCoder, value));
+    Assert.assertEquals(
+        value, CoderUtils.decodeFromByteArray(windowedValueCoder, out.toByteArray()));
+    Assert.assertNotEquals(windowedValueCoder, windowedValueCoder.withCompactIntervalWindows());
+  }
+
+  @Test
+  public void testCompactCoderCloudObjectRoundTrip() throws Exception {
+    FullWindowedValueCoder<String> windowedValueCoder =
+        WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+    FullWindowedValueCoder<String> compactCoder = windowedValueCoder.withCompactIntervalWindows();
+
+    // Only the default encoding is a windowed value wrapper understood by the service.
+    Assert.assertTrue(windowedValueCoder.asCloudObject().containsKey(PropertyNames.IS_WRAPPER));
+    Assert.assertFalse(compactCoder.asCloudObject().containsKey(PropertyNames.IS_WRAPPER));
+
+    Assert.assertEquals(windowedValueCoder,
+        Serializer.deserialize(windowedValueCoder.asCloudObject(), Coder.class));
+    Assert.assertEquals(compactCoder,
+        Serializer.deserialize(compactCoder.asCloudObject(), Coder.class));
+  }
+
+  @Test
+  public void testDecodingIsEagerByDefault() throws Exception {
+    Instant timestamp = new Instant(1234);
+    FullWindowedValueCoder<String> windowedValueCoder =
+        WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+    byte[] encodedValue = CoderUtils.encodeToByteArray(windowedValueCoder,
+        WindowedValue.of("abc", timestamp, new IntervalWindow(timestamp, timestamp.plus(1000))));
+    byte[] truncatedValue = Arrays.copyOf(encodedValue, encodedValue.length - 1);
+
+    try {
+      windowedValueCoder.decode(
+          new ByteArrayInputStream(truncatedValue), Coder.Context.OUTER);
+      Assert.fail("Expected the truncated value to fail to decode");
+    } catch (IOException e) {
+      // expected
+    }
+    Assert.assertEquals(windowedValueCoder, windowedValueCoder.withLazyDecoding());
+  }
+
+  @Test
+  public void testLazyDecodingFailureIsCoderException() throws Exception {
+    Instant timestamp = new Instant(1234);
+    FullWindowedValueCoder<String> windowedValueCoder =
+        WindowedValue.getFullCoder(StringUtf8Coder.of(), IntervalWindow.getCoder());
+    byte[] encodedValue = CoderUtils.encodeToByteArray(windowedValueCoder,
+        WindowedValue.of("abc", timestamp, new IntervalWindow(timestamp, timestamp.plus(1000))));
+    byte[] truncatedValue = Arrays.copyOf(encodedValue, encodedValue.length - 1);
+
+    WindowedValue<String> decodedValue = windowedValueCoder.withLazyDecoding().decode(
+        new ByteArrayInputStream(truncatedValue), Coder.Context.OUTER);
+    try {
+      windowedValueCoder.withCompactIntervalWindows().encode(
+          decodedValue, new ByteArrayOutputStream(), Coder.Context.OUTER);
+      Assert.fail("Expected the truncated value to fail to decode");
+    } catch (CoderException e) {
+      // expected
+    }
+    try {
+      decodedValue.getValue();
+      Assert.fail("Expected the truncated value to fail to decode");
+    } catch (RuntimeException e) {
+      Assert.assertThat(e.getCause(), Matchers.instanceOf(CoderException.class));
+    }
+  }
 }
@@ -37,9 +37,14 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Unit tests for the {@link Counter} API.
@@ -213,6 +218,36 @@ public class CounterTest {
     assertOK(expectedTotal, expectedDelta, c);
   }
 
+  @Test
+  public void testSumLongFromManyThreads() throws Exception {
+    final Counter<Long> c = Counter.longs("sum-long", SUM);
+    final int numThreads = 8;
+    final int numValues = 100000;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < numThreads; i++) {
+      futures.add(executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < numValues; j++) {
+            c.addValue(1L);
+          }
+        }
+      }));
+    }
+    // Deltas extracted while values are being added must add up to the total.
+    long deltas = 0;
+    for (Future<?> future : futures) {
+      deltas += c.getAndResetDelta();
+      future.get();
+    }
+    executor.shutdown();
+    deltas += c.getAndResetDelta();
+
+    assertEquals(numThreads * numValues, deltas);
+    assertEquals(numThreads * numValues, (long) c.getAggregate());
+  }
+
   @Test
   public void testSumDouble() {
     Counter<Double> c = Counter.doubles("sum-double", SUM);
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util.common.worker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Tests for {@link ByteArenaTable}.
+ */
+@RunWith(JUnit4.class)
+public class ByteArenaTableTest {
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String string(byte[] value) {
+    return new String(value, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testInsertFindAndAppend() throws Exception {
+    // Small slabs, so that records are spread over several slabs.
+    ByteArenaTable table = new ByteArenaTable(64);
+    for (int i = 0; i < 1000; i++) {
+      String key = "key" + (i % 300);
+      int entry = table.find(bytes(key));
+      if (entry == -1) {
+        entry = table.insert(bytes(key), bytes(key + "-full"));
+      }
+      table.appendValue(entry, bytes("v" + i));
+    }
+
+    assertEquals(300, table.size());
+    int entry = table.find(bytes("key7"));
+    assertEquals("key7-full", string(table.getKey(entry)));
+    List<byte[]> values = table.getValues(entry);
+    assertEquals(4, values.size());
+    assertEquals("v7", string(values.get(0)));
+    assertEquals("v307", string(values.get(1)));
+    assertEquals("v907", string(values.get(3)));
+    assertEquals(-1, table.find(bytes("key300")));
+  }
+
+  @Test
+  public void testBytesCountAllocatedSlabs() throws Exception {
+    ByteArenaTable table = new ByteArenaTable(1024);
+    long emptyBytes = table.getBytes();
+
+    // The first record allocates a whole slab.
+    int entry = table.insert(bytes("k"), bytes("k"));
+    assertEquals(emptyBytes + 1024, table.getBytes());
+    table.appendValue(entry, bytes("v"));
+    assertEquals(emptyBytes + 1024, table.getBytes());
+
+    // A record larger than a slab gets a slab of its own size.
+    table.appendValue(entry, new byte[2048]);
+    assertEquals(emptyBytes + 1024 + 2048 + 12, table.getBytes());
+  }
+
+  @Test
+  public void testClear() throws Exception {
+    ByteArenaTable table = new ByteArenaTable(64);
+    long emptyBytes = table.getBytes();
+    for (int i = 0; i < 1000; i++) {
+      table.appendValue(table.insert(bytes("k" + i), bytes("k" + i)), bytes("a long value " + i));
+    }
+
+    // The slabs are no longer in use and the index shrinks back.
+    table.clear();
+    assertEquals(0, table.size());
+    assertEquals(emptyBytes, table.getBytes());
+    assertEquals(-1, table.find(bytes("k3")));
+
+    int entry = table.insert(bytes("k3"), bytes("k3"));
+    table.appendValue(entry, bytes("v"));
+    assertEquals(entry, table.find(bytes("k3")));
+    assertArrayEquals(bytes("v"), table.getValues(entry).get(0));
+  }
+
+  @Test
+  public void testClearReusesSlabs() throws Exception {
+    ByteArenaTable table = new ByteArenaTable(1024, 3 * 1024);
+    long emptyBytes = table.getBytes();
+    for (int i = 0; i < 4; i++) {
+      table.appendValue(table.insert(bytes("k" + i), bytes("k" + i)), new byte[1000]);
+    }
+    table.appendValue(0, new byte[2048]);
+
+    // At most three of the four slabs of the slab size are kept, and the
+    // larger slab is released.
+    table.clear();
+    assertEquals(emptyBytes, table.getBytes());
+    assertEquals(3 * 1024, table.getRetainedBytes());
+
+    // Kept slabs are used before allocating new ones, and their old records
+    // are overwritten.
+    int entry = table.insert(bytes("k"), bytes("k"));
+    table.appendValue(entry, bytes("v"));
+    assertEquals(emptyBytes + 1024, table.getBytes());
+    assertEquals(2 * 1024, table.getRetainedBytes());
+    assertEquals(-1, table.find(bytes("k0")));
+    assertArrayEquals(bytes("k"), table.getKey(entry));
+    assertArrayEquals(bytes("v"), table.getValues(entry).get(0));
+
+    // Only the slab used since the last clear is kept.
+    table.clear();
+    assertEquals(1024, table.getRetainedBytes());
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.cloud.dataflow.sdk.util.common.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.dataflow.sdk.util.common.CounterSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+/**
+ * Tests for FusedParDoOperation.
+ */
+@RunWith(JUnit4.class)
+public class FusedParDoOperationTest {
+  /** Outputs each element with a suffix, as well as one element per bundle boundary. */
+  static class SuffixParDoFn extends ParDoFn {
+    private final String suffix;
+    private Receiver receiver;
+
+    SuffixParDoFn(String suffix) {
+      this.suffix = suffix;
+    }
+
+    @Override
+    public void startBundle(Receiver... receivers) throws Exception {
+      receiver = receivers[0];
+      receiver.process("start" + suffix);
+    }
+
+    @Override
+    public void processElement(Object elem) throws Exception {
+      receiver.process(elem + suffix);
+    }
+
+    @Override
+    public void finishBundle() throws Exception {
+      receiver.process("finish" + suffix);
+    }
+  }
+
+  @Test
+  public void testRunFusedParDoOperation() throws Exception {
+    CounterSet counterSet = new CounterSet();
+    String counterPrefix = "test-";
+    StateSampler stateSampler = new StateSampler(
+        counterPrefix, counterSet.getAddCounterMutator());
+    ExecutorTestUtils.TestReceiver receiver =
+        new ExecutorTestUtils.TestReceiver(counterSet);
+    OutputReceiver middle = new OutputReceiver(
+        "middle_out", counterPrefix, counterSet.getAddCounterMutator());
+
+    ParDoOperation first = new ParDoOperation("First", new SuffixParDoFn("-a"),
+        new OutputReceiver[]{ middle }, counterPrefix, counterSet.getAddCounterMutator(),
+        stateSampler);
+    ParDoOperation second = new ParDoOperation("Second", new SuffixParDoFn("-b"),
+        new OutputReceiver[]{ receiver }, counterPrefix, counterSet.getAddCounterMutator(),
+        stateSampler);
+    second.attachInput(first, 0);
+
+    assertTrue(FusedParDoOperation.isFusible(first, second));
+    FusedParDoOperation fused = new FusedParDoOperation("First", Arrays.asList(first, second),
+        counterPrefix, counterSet.getAddCounterMutator(), stateSampler);
+    assertSame(receiver, fused.receivers[0]);
+
+    fused.start();
+    fused.process("hi");
+    fused.process("there");
+    fused.finish();
+
+    assertEquals(
+        Arrays.<Object>asList(
+            "start-b", "start-a-b", "hi-a-b", "there-a-b", "finish-a-b", "finish-b"),
+        receiver.outputElems);
+    assertEquals(4L, (long) middle.getElementCount().getAggregate());
+    assertEquals(6L, (long) receiver.getElementCount().getAggregate());
+  }
+}
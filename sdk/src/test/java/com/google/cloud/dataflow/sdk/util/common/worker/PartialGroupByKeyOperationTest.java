@@ -35,6 +35,7 @@ import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.Coder
 import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.ElementByteSizeObservableCoder;
 import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.PairInfo;
 import com.google.cloud.dataflow.sdk.runners.worker.MapTaskExecutorFactory.WindowingCoderGroupingKeyCreator;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
 import com.google.cloud.dataflow.sdk.util.WindowedValue;
 import com.google.cloud.dataflow.sdk.util.common.Counter;
 import com.google.cloud.dataflow.sdk.util.common.CounterSet;
@@ -42,6 +43,7 @@ import com.google.cloud.dataflow.sdk.util.common.worker.ExecutorTestUtils.TestRe
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.BufferingGroupingTable;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.Combiner;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.CombiningGroupingTable;
+import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.EntryCoder;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.GroupingKeyCreator;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.SamplingSizeEstimator;
 import com.google.cloud.dataflow.sdk.util.common.worker.PartialGroupByKeyOperation.SizeEstimator;
@@ -54,6 +56,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
@@ -295,6 +298,66 @@ public class PartialGroupByKeyOperationTest {
                    KV.of("DDDD", Arrays.asList("d"))));
   }
 
+  /**
+   * Sums Integer values into Long accumulators.
+   */
+  private static class SummingCombiner implements Combiner<Object, Integer, Long, Long> {
+    @Override
+    public Long createAccumulator(Object key) {
+      return 0L;
+    }
+    @Override
+    public Long add(Object key, Long accumulator, Integer value) {
+      return accumulator + value;
+    }
+    @Override
+    public Long merge(Object key, Iterable<Long> accumulators) {
+      long sum = 0;
+      for (Long part : accumulators) {
+        sum += part;
+      }
+      return sum;
+    }
+    @Override
+    public Long extract(Object key, Long accumulator) {
+      return accumulator;
+    }
+  }
+
+  /**
+   * Encodes entries with the given key and value coders, grouping by the
+   * whole key.
+   */
+  private static class CoderEntryCoder implements EntryCoder {
+    private final Coder keyCoder;
+    private final Coder valueCoder;
+
+    CoderEntryCoder(Coder keyCoder, Coder valueCoder) {
+      this.keyCoder = keyCoder;
+      this.valueCoder = valueCoder;
+    }
+    @Override
+    public void encodeGroupingKey(Object key, OutputStream out) throws Exception {
+      keyCoder.encode(key, out, Coder.Context.OUTER);
+    }
+    @Override
+    public byte[] encodeKey(Object key) throws Exception {
+      return CoderUtils.encodeToByteArray(keyCoder, key);
+    }
+    @Override
+    public Object decodeKey(byte[] encodedKey) throws Exception {
+      return CoderUtils.decodeFromByteArray(keyCoder, encodedKey);
+    }
+    @Override
+    public byte[] encodeValue(Object value) throws Exception {
+      return CoderUtils.encodeToByteArray(valueCoder, value);
+    }
+    @Override
+    public Object decodeValue(byte[] encodedValue) throws Exception {
+      return CoderUtils.decodeFromByteArray(valueCoder, encodedValue);
+    }
+  }
+
   @Test
   public void testCombiningGroupingTable() throws Exception {
     Combiner<Object, Integer, Long, Long> summingCombineFn =
@@ -347,6 +410,93 @@ public class PartialGroupByKeyOperationTest {
                    KV.of("DDDD", 6L)));
   }
 
+  @Test
+  public void testBufferingGroupingTableOffHeap() throws Exception {
+    BufferingGroupingTable<String, String> table =
+        new BufferingGroupingTable<>(
+            1000000, new IdentityGroupingKeyCreator(), new KvPairInfo(),
+            new StringPowerSizeEstimator(), new StringPowerSizeEstimator());
+    table.enableOffHeapStorage(new CoderEntryCoder(StringUtf8Coder.of(), StringUtf8Coder.of()));
+    TestReceiver receiver = new TestReceiver(
+        KvCoder.of(StringUtf8Coder.of(), IterableCoder.of(StringUtf8Coder.of())));
+
+    table.put("A", "a", receiver);
+    table.put("B", "b1", receiver);
+    table.put("B", "b2", receiver);
+    assertThat(receiver.outputElems, empty());
+
+    table.flush(receiver);
+    assertEquals(
+        Arrays.<Object>asList(
+            KV.of("A", Arrays.asList("a")),
+            KV.of("B", Arrays.asList("b1", "b2"))),
+        receiver.outputElems);
+  }
+
+  @Test
+  public void testCombiningGroupingTableOffHeap() throws Exception {
+    CombiningGroupingTable<String, Integer, Long> table =
+        new CombiningGroupingTable<String, Integer, Long>(
+            1000000, new IdentityGroupingKeyCreator(), new KvPairInfo(),
+            new SummingCombiner(),
+            new StringPowerSizeEstimator(), new IdentitySizeEstimator());
+    // Accumulators are kept decoded, so they are never encoded while combining.
+    table.enableOffHeapStorage(new CoderEntryCoder(StringUtf8Coder.of(), BigEndianLongCoder.of()) {
+      @Override
+      public byte[] encodeValue(Object value) {
+        throw new AssertionError("Unexpected encoding of " + value);
+      }
+      @Override
+      public Object decodeValue(byte[] encodedValue) {
+        throw new AssertionError("Unexpected decoding of an accumulator");
+      }
+    });
+    TestReceiver receiver = new TestReceiver(
+        KvCoder.of(StringUtf8Coder.of(), BigEndianLongCoder.of()));
+
+    for (int i = 0; i < 100; i++) {
+      table.put("A", i, receiver);
+      table.put("B", 1, receiver);
+    }
+    assertThat(receiver.outputElems, empty());
+
+    table.flush(receiver);
+    assertEquals(
+        Arrays.<Object>asList(KV.of("A", 4950L), KV.of("B", 100L)),
+        receiver.outputElems);
+  }
+
+  @Test
+  public void testCombiningGroupingTableWithSorting() throws Exception {
+    CombiningGroupingTable<String, Integer, Long> table =
+        new CombiningGroupingTable<String, Integer, Long>(
+            1000, new IdentityGroupingKeyCreator(), new KvPairInfo(),
+            new SummingCombiner(),
+            new StringPowerSizeEstimator(), new IdentitySizeEstimator());
+    // A tiny sort buffer, so that every evicted entry is spilled to disk.
+    table.enableSorting(new CoderEntryCoder(StringUtf8Coder.of(), BigEndianLongCoder.of()), 1);
+
+    TestReceiver receiver = new TestReceiver(
+        KvCoder.of(StringUtf8Coder.of(), BigEndianLongCoder.of()));
+
+    table.put("A", 1, receiver);
+    table.put("C", 4, receiver);
+    table.put("C", 5000, receiver);
+    table.put("C", 6, receiver);
+    table.put("C", 7000, receiver);
+    table.put("B", 2, receiver);
+    // Evicted entries are sorted rather than output.
+    assertThat(receiver.outputElems, empty());
+
+    table.flush(receiver);
+    assertEquals(
+        Arrays.<Object>asList(
+            KV.of("A", 1L),
+            KV.of("B", 2L),
+            KV.of("C", 4L + 5000 + 6 + 7000)),
+        receiver.outputElems);
+  }
+
 
   ////////////////////////////////////////////////////////////////////////////
   // Tests for the sampling size estimator.
@@ -40,6 +40,9 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.Exchanger;
 
@@ -167,6 +170,52 @@ public class ReadOperationTest {
     Assert.assertNull(readOperation.requestDynamicSplit(splitRequestAtIndex(5L)));
   }
 
+  @Test
+  public void testRunReadOperationWithReadAhead() throws Exception {
+    TestReader reader = new TestReader();
+    reader.addInput("hi", "there", "", "bob");
+
+    CounterSet counterSet = new CounterSet();
+    String counterPrefix = "test-";
+    StateSampler stateSampler = new StateSampler(counterPrefix, counterSet.getAddCounterMutator());
+    TestReceiver receiver = new TestReceiver(counterSet, counterPrefix);
+
+    ReadOperation readOperation = new ReadOperation(
+        reader, receiver, counterPrefix, counterSet.getAddCounterMutator(), stateSampler);
+    readOperation.setReadAheadElements(2);
+
+    readOperation.start();
+    readOperation.finish();
+
+    Assert.assertEquals(Arrays.<Object>asList("hi", "there", "", "bob"), receiver.outputElems);
+    Assert.assertEquals(4L, (long) receiver.getElementCount().getAggregate());
+    Assert.assertEquals(2L + 5 + 0 + 3, (long) readOperation.byteCount.getAggregate());
+  }
+
+  @Test
+  public void testGetProgressWithReadAhead() throws Exception {
+    MockReaderIterator iterator = new MockReaderIterator(0, 5);
+    CounterSet counterSet = new CounterSet();
+    ProgressRecordingOutputReceiver receiver =
+        new ProgressRecordingOutputReceiver(counterSet.getAddCounterMutator());
+    ReadOperation readOperation = new ReadOperation(new MockReader(iterator), receiver, "test-",
+        counterSet.getAddCounterMutator(),
+        new StateSampler("test-", counterSet.getAddCounterMutator()));
+    receiver.readOperation = readOperation;
+    readOperation.setProgressUpdatePeriodMs(0);
+    readOperation.setReadAheadElements(5);
+
+    Thread thread = runReadLoopInThread(readOperation);
+    for (int i = 0; i < 5; ++i) {
+      iterator.offerNext(i);
+    }
+    thread.join();
+
+    // The progress seen while processing each element is the progress just after
+    // reading it, however far ahead the reading thread is.
+    Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), receiver.observedIndices);
+  }
+
   private Thread runReadLoopInThread(final ReadOperation readOperation) {
     Thread thread = new Thread() {
       @Override
@@ -250,6 +299,21 @@ public class ReadOperationTest {
     }
   }
 
+  private static class ProgressRecordingOutputReceiver extends OutputReceiver {
+    private ReadOperation readOperation;
+    private final List<Long> observedIndices = new ArrayList<>();
+
+    ProgressRecordingOutputReceiver(CounterSet.AddCounterMutator mutator) {
+      super("out", "test-", mutator);
+    }
+
+    @Override
+    public void process(Object elem) throws Exception {
+      ApproximateProgress progress = readerProgressToCloudProgress(readOperation.getProgress());
+      observedIndices.add(progress.getPosition().getRecordIndex());
+    }
+  }
+
   private static class MockOutputReceiver extends OutputReceiver {
     private Exchanger<Object> exchanger = new Exchanger<>();
 